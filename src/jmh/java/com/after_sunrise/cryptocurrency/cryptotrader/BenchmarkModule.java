@@ -0,0 +1,197 @@
+package com.after_sunrise.cryptocurrency.cryptotrader;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.core.Composite;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.Key;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Request;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Trade;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Arrays.asList;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Market data fixture for the benchmarks, generated from a fixed seed so that runs are comparable.
+ *
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+public class BenchmarkModule {
+
+    public static final String SITE = "bitflyer";
+
+    public static final String INSTRUMENT = "BTC_JPY";
+
+    public static final int TRADES = 100_000;
+
+    public static final Duration WINDOW = Duration.ofHours(16);
+
+    public static final Duration INTERVAL = Duration.ofMinutes(1);
+
+    private static class TradeImpl implements Trade {
+
+        private final Instant timestamp;
+
+        private final BigDecimal price;
+
+        private final BigDecimal size;
+
+        private TradeImpl(Instant timestamp, BigDecimal price, BigDecimal size) {
+            this.timestamp = timestamp;
+            this.price = price;
+            this.size = size;
+        }
+
+        @Override
+        public Instant getTimestamp() {
+            return timestamp;
+        }
+
+        @Override
+        public BigDecimal getPrice() {
+            return price;
+        }
+
+        @Override
+        public BigDecimal getSize() {
+            return size;
+        }
+
+    }
+
+    private final Instant now;
+
+    private final List<Trade> trades;
+
+    private final Context context;
+
+    public BenchmarkModule() {
+
+        Random random = new Random(1234567890L);
+
+        now = Instant.parse("2018-04-01T00:00:00Z");
+
+        long step = WINDOW.toMillis() / TRADES;
+
+        List<Trade> values = new ArrayList<>(TRADES);
+
+        double price = 1_000_000;
+
+        for (int i = 0; i < TRADES; i++) {
+
+            price = price * Math.exp(random.nextGaussian() * 0.0002);
+
+            Instant timestamp = now.minus(WINDOW).plusMillis(step * i + random.nextInt((int) step));
+
+            BigDecimal p = BigDecimal.valueOf(Math.round(price));
+
+            BigDecimal s = BigDecimal.valueOf(1 + random.nextInt(1000), 3);
+
+            values.add(new TradeImpl(timestamp, p, s));
+
+        }
+
+        trades = Collections.unmodifiableList(values);
+
+        context = mock(Context.class, withSettings().stubOnly());
+
+        when(context.listTrades(any(), any())).thenAnswer(i -> listTrades(i.getArgumentAt(1, Instant.class)));
+
+        when(context.roundLotSize(any(), any(), any())).thenAnswer(i -> round(i.getArguments(), 3));
+
+        when(context.roundTickSize(any(), any(), any())).thenAnswer(i -> round(i.getArguments(), 0));
+
+        when(context.getMidPrice(any())).thenAnswer(i -> trades.get(trades.size() - 1).getPrice());
+
+    }
+
+    private static BigDecimal round(Object[] arguments, int scale) {
+
+        BigDecimal value = (BigDecimal) arguments[1];
+
+        return value == null ? null : value.setScale(scale, (RoundingMode) arguments[2]);
+
+    }
+
+    public Instant getNow() {
+        return now;
+    }
+
+    public Context getContext() {
+        return context;
+    }
+
+    public List<Trade> getTrades() {
+        return trades;
+    }
+
+    /**
+     * Trades at or after the given time, mimicking what the exchange contexts return from their trade caches.
+     */
+    public List<Trade> listTrades(Instant from) {
+
+        if (from == null) {
+            return trades;
+        }
+
+        int lo = 0;
+
+        int hi = trades.size();
+
+        while (lo < hi) {
+
+            int mid = (lo + hi) >>> 1;
+
+            if (trades.get(mid).getTimestamp().isBefore(from)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+
+        }
+
+        return trades.subList(lo, trades.size());
+
+    }
+
+    public Key createKey() {
+        return Key.builder().site(SITE).instrument(INSTRUMENT).timestamp(now).build();
+    }
+
+    public Request.RequestBuilder createRequestBuilder() {
+
+        return Request.builder()
+                .site(SITE)
+                .instrument(INSTRUMENT)
+                .currentTime(now)
+                .targetTime(now.plus(INTERVAL))
+                .tradingSpread(new BigDecimal("0.0010"))
+                .tradingSpreadAsk(BigDecimal.ZERO)
+                .tradingSpreadBid(BigDecimal.ZERO)
+                .tradingSigma(new BigDecimal("1.96"))
+                .tradingSamples(60)
+                .tradingExposure(new BigDecimal("0.10"))
+                .tradingThreshold(BigDecimal.ZERO)
+                .tradingMaximum(new BigDecimal("1.000"))
+                .tradingMinimum(new BigDecimal("0.010"))
+                .tradingResistance(BigDecimal.ONE)
+                .tradingAversion(BigDecimal.ONE)
+                .tradingInstruction("GTC")
+                .tradingSplit(5)
+                .tradingDuration(Duration.ZERO)
+                .deviationProducts(asList(new Composite(SITE, INSTRUMENT), new Composite(SITE, "FX_BTC_JPY")));
+
+    }
+
+}
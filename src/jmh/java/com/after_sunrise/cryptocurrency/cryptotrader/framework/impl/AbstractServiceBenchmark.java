@@ -0,0 +1,80 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.framework.impl;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.BenchmarkModule;
+import com.after_sunrise.cryptocurrency.cryptotrader.core.Composite;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.List;
+import java.util.NavigableMap;
+
+import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Measures the price series helpers shared by the estimators and advisers, over 16 hours of trades.
+ *
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class AbstractServiceBenchmark {
+
+    private AbstractService target;
+
+    private BenchmarkModule module;
+
+    private Instant from;
+
+    private NavigableMap<Instant, BigDecimal> prices;
+
+    private List<Composite> products;
+
+    @Setup
+    public void setUp() {
+
+        target = new AbstractService() {
+            @Override
+            public String get() {
+                return "benchmark";
+            }
+        };
+
+        module = new BenchmarkModule();
+
+        from = module.getNow().minus(BenchmarkModule.WINDOW);
+
+        prices = collapsePrices();
+
+        products = asList(
+                new Composite("+bitflyer", "BTC_JPY"),
+                new Composite("-bitflyer", "FX_BTC_JPY"),
+                new Composite("*coincheck", "btc_jpy"),
+                new Composite("/oanda", "USD_JPY"),
+                new Composite("@bitmex", "XBTUSD")
+        );
+
+    }
+
+    @Benchmark
+    public NavigableMap<Instant, BigDecimal> collapsePrices() {
+        return target.collapsePrices(module.getTrades(), BenchmarkModule.INTERVAL, from, module.getNow(), false);
+    }
+
+    @Benchmark
+    public NavigableMap<Instant, BigDecimal> calculateReturns() {
+        return target.calculateReturns(prices);
+    }
+
+    @Benchmark
+    public BigDecimal calculateComposite() {
+        return target.calculateComposite(products, (site, instrument) -> prices.lastEntry().getValue());
+    }
+
+}
@@ -0,0 +1,74 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.framework.impl;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.core.*;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.*;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.mockito.MockSettings;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.Instant;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Compares the per-cycle cost of the cached request template against compiling the request from properties.
+ *
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PipelineImplBenchmark {
+
+    private static final String SITE = "example";
+
+    private static final String INSTRUMENT = "BTC_JPY";
+
+    private static final MockSettings STUB = withSettings().stubOnly();
+
+    private PipelineImpl target;
+
+    private Instant now;
+
+    @Setup
+    public void setUp() {
+
+        ConfigurationProvider provider = new ConfigurationProviderImpl();
+
+        PropertyController controller = new PropertyManagerImpl(provider.get());
+
+        Injector injector = Guice.createInjector(binder -> {
+            binder.bind(ConfigurationProvider.class).toInstance(provider);
+            binder.bind(PropertyManager.class).toInstance(controller);
+            binder.bind(ExecutorFactory.class).toInstance(mock(ExecutorFactory.class, STUB));
+            binder.bind(Context.class).toInstance(mock(Context.class, STUB));
+            binder.bind(Estimator.class).toInstance(mock(Estimator.class, STUB));
+            binder.bind(Adviser.class).toInstance(mock(Adviser.class, STUB));
+            binder.bind(Instructor.class).toInstance(mock(Instructor.class, STUB));
+            binder.bind(Agent.class).toInstance(mock(Agent.class, STUB));
+        });
+
+        target = new PipelineImpl(injector);
+
+        now = Instant.now();
+
+    }
+
+    @Benchmark
+    public Request createRequest() {
+        return target.createRequest(now, now.plusSeconds(60), SITE, INSTRUMENT);
+    }
+
+    @Benchmark
+    public Request compileRequest() {
+        return target.compileRequest(SITE, INSTRUMENT);
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.service.estimator;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.BenchmarkModule;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Estimator.Estimation;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Request;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Measures the trade-driven estimators against 16 hours of trades served from the context.
+ *
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class EstimatorBenchmark {
+
+    private VwapEstimator vwap;
+
+    private DepthEstimator depth;
+
+    private Context context;
+
+    private Request request;
+
+    @Setup
+    public void setUp() {
+
+        vwap = new VwapEstimator();
+
+        depth = new DepthEstimator();
+
+        BenchmarkModule module = new BenchmarkModule();
+
+        context = module.getContext();
+
+        request = module.createRequestBuilder().build();
+
+    }
+
+    @Benchmark
+    public Estimation vwapEstimate() {
+        return vwap.estimate(context, request);
+    }
+
+    @Benchmark
+    public BigDecimal depthDeviation() {
+        return depth.calculateDeviation(context, request);
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.service.template;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.service.template.Signer.Encoding;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Measures the request signing of the private endpoints, against the baseline which instantiates and initializes
+ * the {@link Mac} on every request and hex-encodes per byte with {@link String#format(String, Object...)}.
+ *
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(NANOSECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SignerBenchmark {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private final byte[] key = "chNOOS4KvNXR_Xq4k4c9qsfoKWvnDecLATCRlcBwyKDYnWgO".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] data = ("POST/api/v1/order1429631577995{\"symbol\":\"XBTM15\",\"price\":219.0,"
+            + "\"clOrdID\":\"mm_bitmex_1a/oemUeQ4CAJZgP3fjHsA\",\"orderQty\":98}").getBytes(StandardCharsets.UTF_8);
+
+    private Signer signer;
+
+    @Setup
+    public void setUp() {
+        signer = new Signer();
+    }
+
+    @Benchmark
+    public String baseline() throws Exception {
+
+        Mac mac = Mac.getInstance(ALGORITHM);
+
+        mac.init(new SecretKeySpec(key, ALGORITHM));
+
+        byte[] hash = mac.doFinal(data);
+
+        StringBuilder sb = new StringBuilder(hash.length);
+
+        for (byte b : hash) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+
+        return sb.toString();
+
+    }
+
+    @Benchmark
+    public String signHex() throws Exception {
+        return signer.sign(ALGORITHM, key, data, Encoding.HEX);
+    }
+
+    @Benchmark
+    public String signBase64() throws Exception {
+        return signer.sign(ALGORITHM, key, data, Encoding.BASE64_URL);
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.service.template;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.BenchmarkModule;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Request;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+/**
+ * Measures the adviser deviation and the instructor order splitting, which run on every cycle.
+ *
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class TemplateBenchmark {
+
+    private static final BigDecimal SIZE = new BigDecimal("0.987");
+
+    private static final BigDecimal BASIS = new BigDecimal("0.0025");
+
+    private TemplateAdviser adviser;
+
+    private TemplateInstructor instructor;
+
+    private Context context;
+
+    private Request request;
+
+    private BigDecimal price;
+
+    @Setup
+    public void setUp() {
+
+        adviser = new TemplateAdviser("benchmark");
+
+        instructor = new TemplateInstructor("benchmark");
+
+        BenchmarkModule module = new BenchmarkModule();
+
+        context = module.getContext();
+
+        request = module.createRequestBuilder().build();
+
+        price = context.getMidPrice(module.createKey());
+
+    }
+
+    @Benchmark
+    public BigDecimal adviserDeviation() {
+        return adviser.calculateDeviation(context, request);
+    }
+
+    @Benchmark
+    public List<BigDecimal> instructorSplitSize() {
+        return instructor.splitSize(context, request, SIZE);
+    }
+
+    @Benchmark
+    public List<BigDecimal> instructorSplitPrice() {
+        return instructor.splitPrice(context, request, price, request.getTradingSplit(), BASIS);
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.service.template;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.Key;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Measures the cache loads of the same data type under contention, with each thread loading its own instrument
+ * and each load taking a millisecond as if fetched remotely. Loads of the different keys should not serialize.
+ *
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(SECONDS)
+@Fork(1)
+@Threads(8)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TemplateContextBenchmark {
+
+    private static class BenchmarkContext extends TemplateContext {
+        private BenchmarkContext() {
+            super("benchmark");
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Instrument {
+
+        private static final AtomicInteger COUNTER = new AtomicInteger();
+
+        private final String id = "I" + COUNTER.incrementAndGet();
+
+    }
+
+    private final AtomicLong timestamp = new AtomicLong();
+
+    private TemplateContext context;
+
+    @Setup
+    public void setUp() {
+        context = new BenchmarkContext();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        context.close();
+    }
+
+    private static BigDecimal load() throws InterruptedException {
+
+        TimeUnit.MILLISECONDS.sleep(1);
+
+        return BigDecimal.ONE;
+
+    }
+
+    @Benchmark
+    public BigDecimal findCachedMiss(Instrument instrument) {
+
+        Instant time = Instant.ofEpochMilli(timestamp.incrementAndGet());
+
+        Key key = Key.builder().site("benchmark").instrument(instrument.id).timestamp(time).build();
+
+        return context.findCached(BigDecimal.class, key, TemplateContextBenchmark::load);
+
+    }
+
+    @Benchmark
+    public BigDecimal findCachedHit(Instrument instrument) {
+
+        Key key = Key.builder().site("benchmark").instrument(instrument.id).build();
+
+        return context.findCached(BigDecimal.class, key, TemplateContextBenchmark::load);
+
+    }
+
+}
@@ -11,4 +11,6 @@ public interface ConfigurationProvider extends Provider<Configuration> {
 
     void clear();
 
+    long getRevision();
+
 }
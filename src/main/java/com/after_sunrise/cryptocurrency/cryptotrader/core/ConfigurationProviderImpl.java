@@ -17,6 +17,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import static java.lang.System.getProperty;
@@ -36,6 +37,8 @@ public class ConfigurationProviderImpl implements ConfigurationProvider, Invocat
 
     private final AtomicReference<Configuration> reference = new AtomicReference<>();
 
+    private final AtomicLong revision = new AtomicLong();
+
     private final Configuration proxy;
 
     public ConfigurationProviderImpl() {
@@ -60,6 +63,13 @@ public class ConfigurationProviderImpl implements ConfigurationProvider, Invocat
 
         reference.set(null);
 
+        revision.incrementAndGet();
+
+    }
+
+    @Override
+    public long getRevision() {
+        return revision.get();
     }
 
     @Override
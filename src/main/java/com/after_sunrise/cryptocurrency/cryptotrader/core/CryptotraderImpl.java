@@ -25,12 +25,24 @@ public class CryptotraderImpl implements Cryptotrader {
 
         private final Class<? extends Trader> traderClass;
 
+        private final Class<? extends Context> contextClass;
+
+        private final Class<? extends Agent> agentClass;
+
         public Module() {
             this(TraderImpl.class);
         }
 
         public Module(Class<? extends Trader> traderClass) {
+            this(traderClass, ContextImpl.class, AgentImpl.class);
+        }
+
+        public Module(Class<? extends Trader> traderClass,
+                      Class<? extends Context> contextClass,
+                      Class<? extends Agent> agentClass) {
             this.traderClass = traderClass;
+            this.contextClass = contextClass;
+            this.agentClass = agentClass;
         }
 
         @Override
@@ -45,12 +57,12 @@ public class CryptotraderImpl implements Cryptotrader {
             bind(ExecutorFactory.class).to(ExecutorFactoryImpl.class).asEagerSingleton();
             bind(CollectorRegistry.class).toInstance(CollectorRegistry.defaultRegistry);
 
-            bind(Context.class).to(ContextImpl.class).asEagerSingleton();
+            bind(Context.class).to(contextClass).asEagerSingleton();
             bind(Estimator.class).to(EstimatorImpl.class).asEagerSingleton();
             bind(Adviser.class).to(AdviserImpl.class).asEagerSingleton();
             bind(Instructor.class).to(InstructorImpl.class).asEagerSingleton();
 
-            bind(Agent.class).to(AgentImpl.class).asEagerSingleton();
+            bind(Agent.class).to(agentClass).asEagerSingleton();
             bind(Pipeline.class).to(PipelineImpl.class).asEagerSingleton();
             bind(Trader.class).to(traderClass).asEagerSingleton();
 
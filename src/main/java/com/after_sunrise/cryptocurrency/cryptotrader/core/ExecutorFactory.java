@@ -1,6 +1,7 @@
 package com.after_sunrise.cryptocurrency.cryptotrader.core;
 
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * @author takanori.takase
@@ -10,4 +11,6 @@ public interface ExecutorFactory extends AutoCloseable {
 
     ExecutorService get(Class<?> clazz, int size);
 
+    ScheduledExecutorService getScheduled(Class<?> clazz, int size);
+
 }
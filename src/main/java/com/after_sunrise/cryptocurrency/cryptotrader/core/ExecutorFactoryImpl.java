@@ -3,6 +3,7 @@ package com.after_sunrise.cryptocurrency.cryptotrader.core;
 import lombok.extern.slf4j.Slf4j;
 
 import java.lang.Thread.UncaughtExceptionHandler;
+import java.util.Arrays;
 import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
@@ -34,8 +35,8 @@ public class ExecutorFactoryImpl implements UncaughtExceptionHandler, ExecutorFa
 
         private final UncaughtExceptionHandler handler;
 
-        private ThreadFactoryImpl(Class<?> cls, UncaughtExceptionHandler handler) {
-            this.name = cls.getSimpleName() + NAME_SUFFIX;
+        private ThreadFactoryImpl(String prefix, UncaughtExceptionHandler handler) {
+            this.name = prefix + NAME_SUFFIX;
             this.handler = handler;
         }
 
@@ -56,8 +57,12 @@ public class ExecutorFactoryImpl implements UncaughtExceptionHandler, ExecutorFa
 
     }
 
+    private static final String SCHEDULER_SUFFIX = "Scheduler";
+
     private final Map<Class<?>, ScheduledExecutorService> services = new IdentityHashMap<>();
 
+    private final Map<Class<?>, ScheduledExecutorService> schedulers = new IdentityHashMap<>();
+
     private final Lock lock = new ReentrantLock();
 
     @Override
@@ -71,6 +76,20 @@ public class ExecutorFactoryImpl implements UncaughtExceptionHandler, ExecutorFa
 
     @Override
     public ExecutorService get(Class<?> clazz, int size) {
+        return create(services, clazz, size, "");
+    }
+
+    /**
+     * Scheduled executors are pooled separately from the ones returned by {@link #get(Class, int)}, so that
+     * the timers are not starved by the tasks they schedule.
+     */
+    @Override
+    public ScheduledExecutorService getScheduled(Class<?> clazz, int size) {
+        return create(schedulers, clazz, size, SCHEDULER_SUFFIX);
+    }
+
+    private ScheduledExecutorService create(Map<Class<?>, ScheduledExecutorService> pool,
+                                            Class<?> clazz, int size, String suffix) {
 
         Class<?> cls = clazz == null ? getClass() : clazz;
 
@@ -80,11 +99,11 @@ public class ExecutorFactoryImpl implements UncaughtExceptionHandler, ExecutorFa
 
             lock.lock();
 
-            return services.computeIfAbsent(cls, c -> {
+            return pool.computeIfAbsent(cls, c -> {
 
-                log.debug("Creating executor : {} (size = {})", c.getSimpleName(), adjustedSize);
+                log.debug("Creating executor : {}{} (size = {})", c.getSimpleName(), suffix, adjustedSize);
 
-                ThreadFactory factory = new ThreadFactoryImpl(c, this);
+                ThreadFactory factory = new ThreadFactoryImpl(c.getSimpleName() + suffix, this);
 
                 return Executors.newScheduledThreadPool(adjustedSize, factory);
 
@@ -105,15 +124,19 @@ public class ExecutorFactoryImpl implements UncaughtExceptionHandler, ExecutorFa
 
             int count = 0;
 
-            for (Class<?> clz : services.keySet().toArray(new Class[0])) {
+            for (Map<Class<?>, ScheduledExecutorService> pool : Arrays.asList(services, schedulers)) {
+
+                for (Class<?> clz : pool.keySet().toArray(new Class[0])) {
+
+                    ExecutorService service = pool.remove(clz);
 
-                ExecutorService service = services.remove(clz);
+                    log.debug("Terminating executor : {}", clz.getSimpleName());
 
-                log.debug("Terminating executor : {}", clz.getSimpleName());
+                    service.shutdown();
 
-                service.shutdown();
+                    count++;
 
-                count++;
+                }
 
             }
 
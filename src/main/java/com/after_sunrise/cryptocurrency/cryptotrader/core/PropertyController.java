@@ -17,6 +17,8 @@ public interface PropertyController extends PropertyManager {
 
     void setTradingThreads(Integer value);
 
+    void setTradingIsolated(Boolean value);
+
     void setTradingTargets(List<Composite> values);
 
     void setTradingActive(String site, String instrument, Boolean value);
@@ -25,6 +27,8 @@ public interface PropertyController extends PropertyManager {
 
     void setTradingSeed(String site, String instrument, Integer value);
 
+    void setTradingBackoff(String site, String instrument, Integer value);
+
     void setTradingSpread(String site, String instrument, BigDecimal value);
 
     void setTradingSpreadAsk(String site, String instrument, BigDecimal value);
@@ -53,6 +57,10 @@ public interface PropertyController extends PropertyManager {
 
     void setTradingDuration(String site, String instrument, Duration value);
 
+    void setTradingSpacing(String site, String instrument, Duration value);
+
+    void setTradingDeferred(String site, String instrument, Boolean value);
+
     void setFundingOffset(String site, String instrument, BigDecimal value);
 
     void setFundingMultiplierProducts(String site, String instrument, List<Composite> values);
@@ -79,4 +87,6 @@ public interface PropertyController extends PropertyManager {
 
     void setEstimationAversion(String site, String instrument, BigDecimal value);
 
+    void setRecorderActive(String site, String instrument, Boolean value);
+
 }
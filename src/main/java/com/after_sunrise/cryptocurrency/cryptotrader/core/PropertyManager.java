@@ -14,6 +14,8 @@ public interface PropertyManager {
 
     Instant getNow();
 
+    long getRevision();
+
     String getVersion();
 
     Duration getTradingInterval();
@@ -22,6 +24,8 @@ public interface PropertyManager {
 
     Integer getTradingThreads();
 
+    Boolean getTradingIsolated();
+
     List<Composite> getTradingTargets();
 
     Boolean getTradingActive(String site, String instrument);
@@ -30,6 +34,8 @@ public interface PropertyManager {
 
     Integer getTradingSeed(String site, String instrument);
 
+    Integer getTradingBackoff(String site, String instrument);
+
     BigDecimal getTradingSpread(String site, String instrument);
 
     BigDecimal getTradingSpreadAsk(String site, String instrument);
@@ -58,6 +64,10 @@ public interface PropertyManager {
 
     Duration getTradingDuration(String site, String instrument);
 
+    Duration getTradingSpacing(String site, String instrument);
+
+    Boolean getTradingDeferred(String site, String instrument);
+
     BigDecimal getFundingOffset(String site, String instrument);
 
     List<Composite> getFundingMultiplierProducts(String site, String instrument);
@@ -84,4 +94,6 @@ public interface PropertyManager {
 
     BigDecimal getEstimationAversion(String site, String instrument);
 
+    Boolean getRecorderActive(String site, String instrument);
+
 }
@@ -11,6 +11,7 @@ import java.math.BigDecimal;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -49,6 +50,8 @@ public class PropertyManagerImpl implements PropertyController {
 
     private final Configuration override;
 
+    private final AtomicLong revision;
+
     @Inject
     public PropertyManagerImpl(Configuration configuration) {
 
@@ -56,6 +59,8 @@ public class PropertyManagerImpl implements PropertyController {
 
         this.override = new BaseConfiguration();
 
+        this.revision = new AtomicLong();
+
     }
 
     @VisibleForTesting
@@ -110,6 +115,8 @@ public class PropertyManagerImpl implements PropertyController {
 
         }
 
+        revision.incrementAndGet();
+
     }
 
     @VisibleForTesting
@@ -219,6 +226,11 @@ public class PropertyManagerImpl implements PropertyController {
         return Instant.now();
     }
 
+    @Override
+    public long getRevision() {
+        return revision.get();
+    }
+
     @Override
     public String getVersion() {
 
@@ -272,6 +284,32 @@ public class PropertyManagerImpl implements PropertyController {
         set(TRADING_THREADS, null, null, value, Integer::valueOf);
     }
 
+    @Override
+    public Boolean getTradingIsolated() {
+
+        try {
+
+            boolean value = get(TRADING_ISOLATED, null, null, Configuration::getBoolean);
+
+            log.trace("Fetched {} : {}", TRADING_ISOLATED, value);
+
+            return value;
+
+        } catch (RuntimeException e) {
+
+            log.warn("Invalid : " + TRADING_ISOLATED, e);
+
+            return false;
+
+        }
+
+    }
+
+    @Override
+    public void setTradingIsolated(Boolean value) {
+        set(TRADING_ISOLATED, null, null, value, input -> input);
+    }
+
     @Override
     public List<Composite> getTradingTargets() {
         return getProducts(null, null, TRADING_TARGETS);
@@ -328,6 +366,16 @@ public class PropertyManagerImpl implements PropertyController {
         set(TRADING_SEED, site, instrument, value, input -> input);
     }
 
+    @Override
+    public Integer getTradingBackoff(String site, String instrument) {
+        return getDecimal(site, instrument, TRADING_BACKOFF, ZERO, valueOf(Integer.MAX_VALUE), ZERO).intValue();
+    }
+
+    @Override
+    public void setTradingBackoff(String site, String instrument, Integer value) {
+        set(TRADING_BACKOFF, site, instrument, value, input -> input);
+    }
+
     @Override
     public BigDecimal getTradingSpread(String site, String instrument) {
         return getDecimal(site, instrument, TRADING_SPREAD, ZERO, ONE, ZERO);
@@ -472,6 +520,46 @@ public class PropertyManagerImpl implements PropertyController {
         set(TRADING_DURATION, site, instrument, value, Duration::toMillis);
     }
 
+    @Override
+    public Duration getTradingSpacing(String site, String instrument) {
+
+        BigDecimal value = getDecimal(site, instrument, TRADING_SPACING, ZERO, INTERVAL_MAX, ZERO);
+
+        return Duration.ofMillis(value.longValue());
+
+    }
+
+    @Override
+    public void setTradingSpacing(String site, String instrument, Duration value) {
+        set(TRADING_SPACING, site, instrument, value, Duration::toMillis);
+    }
+
+    @Override
+    public Boolean getTradingDeferred(String site, String instrument) {
+
+        try {
+
+            boolean value = get(TRADING_DEFERRED, site, instrument, Configuration::getBoolean);
+
+            log.trace("Fetched {} ({}.{}) : {}", TRADING_DEFERRED, site, instrument, value);
+
+            return value;
+
+        } catch (RuntimeException e) {
+
+            log.warn(format("Invalid %s (%s.%s)", TRADING_DEFERRED, site, instrument), e);
+
+            return false;
+
+        }
+
+    }
+
+    @Override
+    public void setTradingDeferred(String site, String instrument, Boolean value) {
+        set(TRADING_DEFERRED, site, instrument, value, input -> input);
+    }
+
     @Override
     public BigDecimal getFundingOffset(String site, String instrument) {
         return getDecimal(site, instrument, FUNDING_OFFSET, null, null, ZERO);
@@ -624,4 +712,30 @@ public class PropertyManagerImpl implements PropertyController {
         set(ESTIMATION_AVERSION, site, instrument, value, BigDecimal::toPlainString);
     }
 
+    @Override
+    public Boolean getRecorderActive(String site, String instrument) {
+
+        try {
+
+            boolean value = get(RECORDER_ACTIVE, site, instrument, Configuration::getBoolean);
+
+            log.trace("Fetched {} ({}.{}) : {}", RECORDER_ACTIVE, site, instrument, value);
+
+            return value;
+
+        } catch (RuntimeException e) {
+
+            log.warn(format("Invalid %s (%s.%s)", RECORDER_ACTIVE, site, instrument), e);
+
+            return false;
+
+        }
+
+    }
+
+    @Override
+    public void setRecorderActive(String site, String instrument, Boolean value) {
+        set(RECORDER_ACTIVE, site, instrument, value, input -> input);
+    }
+
 }
@@ -16,12 +16,16 @@ public enum PropertyType {
 
     TRADING_SEED,
 
+    TRADING_BACKOFF,
+
     TRADING_INTERVAL,
 
     TRADING_EXTENSION,
 
     TRADING_THREADS,
 
+    TRADING_ISOLATED,
+
     TRADING_SPREAD,
 
     TRADING_SPREAD_ASK,
@@ -52,6 +56,10 @@ public enum PropertyType {
 
     TRADING_DURATION,
 
+    TRADING_SPACING,
+
+    TRADING_DEFERRED,
+
     FUNDING_OFFSET,
 
     FUNDING_MULTIPLIER_PRODUCTS,
@@ -76,7 +84,9 @@ public enum PropertyType {
 
     ESTIMATION_THRESHOLD,
 
-    ESTIMATION_AVERSION;
+    ESTIMATION_AVERSION,
+
+    RECORDER_ACTIVE;
 
     private static final String PREFIX = "cryptotrader.";
 
@@ -4,6 +4,7 @@ import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
+import io.prometheus.client.CollectorRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.ImmutableConfiguration;
@@ -31,6 +32,12 @@ public class ServiceFactoryImpl implements ServiceFactory {
 
                 bind(ImmutableConfiguration.class).toInstance(c);
 
+                bind(ExecutorFactory.class).toInstance(injector.getInstance(ExecutorFactory.class));
+
+                bind(PropertyManager.class).toInstance(injector.getInstance(PropertyManager.class));
+
+                bind(CollectorRegistry.class).toInstance(injector.getInstance(CollectorRegistry.class));
+
             }
         });
 
@@ -1,5 +1,6 @@
 package com.after_sunrise.cryptocurrency.cryptotrader.framework;
 
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.AmendInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
 import lombok.*;
@@ -11,7 +12,9 @@ import java.time.ZonedDateTime;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static lombok.AccessLevel.PRIVATE;
 
 /**
@@ -71,6 +74,23 @@ public interface Context extends Service, AutoCloseable {
 
     }
 
+    interface Listener {
+
+        /**
+         * Invoked when the market data of the site/instrument in the key has been updated.
+         * Implementations are expected to return immediately, without blocking the caller.
+         */
+        void onMarketChange(Key key);
+
+        /**
+         * Invoked when the state of an order has been pushed by the site, such as the acknowledgements of the
+         * order instructions. Implementations are expected to return immediately, without blocking the caller.
+         */
+        default void onOrderChange(Key key, Order order) {
+        }
+
+    }
+
     enum StateType {
 
         /**
@@ -95,6 +115,10 @@ public interface Context extends Service, AutoCloseable {
 
     }
 
+    void addListener(Listener listener);
+
+    void removeListener(Listener listener);
+
     StateType getState(Key key);
 
     BigDecimal getBestAskPrice(Key key);
@@ -147,4 +171,75 @@ public interface Context extends Service, AutoCloseable {
 
     Map<CancelInstruction, String> cancelOrders(Key key, Set<CancelInstruction> instructions);
 
+    /**
+     * @return Order id per instruction, null id if failed. Null if amend is not supported by the context.
+     */
+    Map<AmendInstruction, String> amendOrders(Key key, Set<AmendInstruction> instructions);
+
+    /*
+     * Non-blocking variants of the lookups, for the callers to fan out the lookups at once and compose the results.
+     * Default implementations invoke the synchronous counterparts in the caller thread,
+     * to be overridden by the implementations which can perform the lookups asynchronously.
+     */
+
+    default CompletableFuture<BigDecimal> getBestAskPriceAsync(Key key) {
+        return completedFuture(getBestAskPrice(key));
+    }
+
+    default CompletableFuture<BigDecimal> getBestBidPriceAsync(Key key) {
+        return completedFuture(getBestBidPrice(key));
+    }
+
+    default CompletableFuture<BigDecimal> getBestAskSizeAsync(Key key) {
+        return completedFuture(getBestAskSize(key));
+    }
+
+    default CompletableFuture<BigDecimal> getBestBidSizeAsync(Key key) {
+        return completedFuture(getBestBidSize(key));
+    }
+
+    default CompletableFuture<BigDecimal> getMidPriceAsync(Key key) {
+        return completedFuture(getMidPrice(key));
+    }
+
+    default CompletableFuture<BigDecimal> getLastPriceAsync(Key key) {
+        return completedFuture(getLastPrice(key));
+    }
+
+    default CompletableFuture<Map<BigDecimal, BigDecimal>> getAskPricesAsync(Key key) {
+        return completedFuture(getAskPrices(key));
+    }
+
+    default CompletableFuture<Map<BigDecimal, BigDecimal>> getBidPricesAsync(Key key) {
+        return completedFuture(getBidPrices(key));
+    }
+
+    default CompletableFuture<List<Trade>> listTradesAsync(Key key, Instant fromTime) {
+        return completedFuture(listTrades(key, fromTime));
+    }
+
+    default CompletableFuture<BigDecimal> getConversionPriceAsync(Key key, CurrencyType currency) {
+        return completedFuture(getConversionPrice(key, currency));
+    }
+
+    default CompletableFuture<BigDecimal> getInstrumentPositionAsync(Key key) {
+        return completedFuture(getInstrumentPosition(key));
+    }
+
+    default CompletableFuture<BigDecimal> getFundingPositionAsync(Key key) {
+        return completedFuture(getFundingPosition(key));
+    }
+
+    default CompletableFuture<Order> findOrderAsync(Key key, String id) {
+        return completedFuture(findOrder(key, id));
+    }
+
+    default CompletableFuture<List<Order>> listActiveOrdersAsync(Key key) {
+        return completedFuture(listActiveOrders(key));
+    }
+
+    default CompletableFuture<List<Order.Execution>> listExecutionsAsync(Key key) {
+        return completedFuture(listExecutions(key));
+    }
+
 }
@@ -23,6 +23,8 @@ public interface Instruction {
 
         T visit(CancelInstruction instruction);
 
+        T visit(AmendInstruction instruction);
+
     }
 
     abstract class BaseInstruction implements Instruction {
@@ -77,6 +79,41 @@ public interface Instruction {
 
     }
 
+    /**
+     * Moves the price and/or the size of the active order in place. Contexts without the native amend support
+     * fall back to the pair of cancel and create instructions.
+     */
+    @Getter
+    @Builder
+    @ToString
+    @AllArgsConstructor(access = PRIVATE)
+    class AmendInstruction extends BaseInstruction {
+
+        private final String uid = generateUid();
+
+        private final String id;
+
+        private final BigDecimal price;
+
+        private final BigDecimal size;
+
+        private final String strategy;
+
+        @Override
+        public <T> T accept(Visitor<T> visitor) {
+            return visitor.visit(this);
+        }
+
+        public CancelInstruction toCancel() {
+            return CancelInstruction.builder().id(id).build();
+        }
+
+        public CreateInstruction toCreate() {
+            return CreateInstruction.builder().price(price).size(size).strategy(strategy).build();
+        }
+
+    }
+
     <T> T accept(Visitor<T> visitor);
 
 }
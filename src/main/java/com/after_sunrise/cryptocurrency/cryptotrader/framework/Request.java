@@ -10,6 +10,7 @@ import java.math.BigDecimal;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 
 import static lombok.AccessLevel.PRIVATE;
 
@@ -81,6 +82,8 @@ public class Request {
 
     private BigDecimal estimationAversion;
 
+    private Map<Instruction, Boolean> reconciled;
+
     public static Request.RequestBuilder build(Request request) {
 
         Request.RequestBuilder b = builder();
@@ -115,6 +118,7 @@ public class Request {
             b.hedgeProducts(request.getHedgeProducts());
             b.estimatorComposites(request.getEstimatorComposites());
             b.estimationAversion(request.getEstimationAversion());
+            b.reconciled(request.getReconciled());
         }
 
         return b;
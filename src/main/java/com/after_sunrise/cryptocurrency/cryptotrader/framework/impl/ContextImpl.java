@@ -1,7 +1,9 @@
 package com.after_sunrise.cryptocurrency.cryptotrader.framework.impl;
 
+import com.after_sunrise.cryptocurrency.cryptotrader.core.PropertyManager;
 import com.after_sunrise.cryptocurrency.cryptotrader.core.ServiceFactory;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.AmendInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Order;
@@ -12,14 +14,19 @@ import com.google.inject.Injector;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZonedDateTime;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 
 /**
+ * Routes the calls to the context of the key's site. When the snapshot interval is configured, our own orders
+ * and executions are served from the in-memory {@link OrderCache}, which is refreshed from the site once the
+ * snapshot is older than the interval. Orders pending the confirmation of our own instructions are looked up from
+ * the site, so that the instructions are reconciled against the site.
+ *
  * @author takanori.takase
  * @version 0.0.1
  */
@@ -27,10 +34,36 @@ public class ContextImpl extends AbstractService implements Context {
 
     private final Map<String, Context> contexts;
 
+    private final MarketJournal journal;
+
+    private final OrderCache orders = new OrderCache();
+
     @Inject
     public ContextImpl(Injector injector) {
 
-        contexts = injector.getInstance(ServiceFactory.class).loadMap(Context.class);
+        PropertyManager propertyManager = injector.getInstance(PropertyManager.class);
+
+        journal = new MarketJournal(injector);
+
+        Map<String, Context> values = new LinkedHashMap<>();
+
+        injector.getInstance(ServiceFactory.class).loadMap(Context.class).forEach((site, context) ->
+                values.put(site, new RecordingContext(context, propertyManager, journal))
+        );
+
+        contexts = Collections.unmodifiableMap(values);
+
+        contexts.forEach((site, context) -> context.addListener(new Listener() {
+            @Override
+            public void onMarketChange(Key key) {
+                // Market data is not cached.
+            }
+
+            @Override
+            public void onOrderChange(Key key, Order order) {
+                orders.push(site, order);
+            }
+        }));
 
     }
 
@@ -57,6 +90,8 @@ public class ContextImpl extends AbstractService implements Context {
 
         }
 
+        journal.close();
+
         if (exception != null) {
             throw exception;
         }
@@ -85,6 +120,54 @@ public class ContextImpl extends AbstractService implements Context {
 
     }
 
+    @VisibleForTesting
+    <R> CompletableFuture<R> forContextAsync(Key key, Function<Context, CompletableFuture<R>> function) {
+
+        CompletableFuture<R> future = forContext(key, function);
+
+        return future != null ? future : CompletableFuture.completedFuture(null);
+
+    }
+
+    /**
+     * @return Interval of the order snapshots, or null if the orders are not cached.
+     */
+    @VisibleForTesting
+    Duration getSnapshotInterval() {
+
+        long millis = getLongProperty("order.snapshot", 0L);
+
+        return millis > 0 ? Duration.ofMillis(millis) : null;
+
+    }
+
+    @VisibleForTesting
+    void refreshOrders(Key key, Duration interval) {
+
+        if (orders.isFresh(key, interval)) {
+            return;
+        }
+
+        long sequence = orders.sequence();
+
+        List<Order> values = forContext(key, c -> c.listActiveOrders(key));
+
+        if (values != null) {
+            orders.snapshot(key, values, sequence);
+        }
+
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        contexts.values().forEach(c -> c.addListener(listener));
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        contexts.values().forEach(c -> c.removeListener(listener));
+    }
+
     @Override
     public StateType getState(Key key) {
         return forContext(key, c -> c.getState(key));
@@ -192,27 +275,239 @@ public class ContextImpl extends AbstractService implements Context {
 
     @Override
     public Order findOrder(Key key, String id) {
-        return forContext(key, c -> c.findOrder(key, id));
+
+        Duration interval = getSnapshotInterval();
+
+        if (interval == null || key == null || !contexts.containsKey(key.getSite())) {
+            return forContext(key, c -> c.findOrder(key, id));
+        }
+
+        refreshOrders(key, interval);
+
+        Order order = orders.findOrder(key, id);
+
+        if (order == null) {
+
+            order = forContext(key, c -> c.findOrder(key, id));
+
+            orders.put(key, order);
+
+        }
+
+        return order;
+
     }
 
     @Override
     public List<Order> listActiveOrders(Key key) {
-        return forContext(key, c -> c.listActiveOrders(key));
+
+        Duration interval = getSnapshotInterval();
+
+        if (interval == null || key == null || !contexts.containsKey(key.getSite())) {
+            return forContext(key, c -> c.listActiveOrders(key));
+        }
+
+        refreshOrders(key, interval);
+
+        return orders.listActiveOrders(key);
+
     }
 
     @Override
     public List<Order.Execution> listExecutions(Key key) {
-        return forContext(key, c -> c.listExecutions(key));
+
+        Duration interval = getSnapshotInterval();
+
+        if (interval == null || key == null || !contexts.containsKey(key.getSite())) {
+            return forContext(key, c -> c.listExecutions(key));
+        }
+
+        List<Order.Execution> values = orders.listExecutions(key, interval);
+
+        if (values == null) {
+
+            values = forContext(key, c -> c.listExecutions(key));
+
+            if (values != null) {
+                orders.setExecutions(key, values);
+            }
+
+        }
+
+        return values;
+
     }
 
     @Override
     public Map<CreateInstruction, String> createOrders(Key key, Set<CreateInstruction> instructions) {
-        return forContext(key, c -> c.createOrders(key, instructions));
+
+        Map<CreateInstruction, String> results = forContext(key, c -> c.createOrders(key, instructions));
+
+        if (results != null && getSnapshotInterval() != null) {
+            orders.create(key, results);
+        }
+
+        return results;
+
     }
 
     @Override
     public Map<CancelInstruction, String> cancelOrders(Key key, Set<CancelInstruction> instructions) {
-        return forContext(key, c -> c.cancelOrders(key, instructions));
+
+        Map<CancelInstruction, String> results = forContext(key, c -> c.cancelOrders(key, instructions));
+
+        if (results != null && getSnapshotInterval() != null) {
+            orders.cancel(key, results);
+        }
+
+        return results;
+
+    }
+
+    @Override
+    public Map<AmendInstruction, String> amendOrders(Key key, Set<AmendInstruction> instructions) {
+
+        Map<AmendInstruction, String> results = forContext(key, c -> c.amendOrders(key, instructions));
+
+        if (results != null && getSnapshotInterval() != null) {
+            orders.amend(key, results);
+        }
+
+        return results;
+
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestAskPriceAsync(Key key) {
+        return forContextAsync(key, c -> c.getBestAskPriceAsync(key));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestBidPriceAsync(Key key) {
+        return forContextAsync(key, c -> c.getBestBidPriceAsync(key));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestAskSizeAsync(Key key) {
+        return forContextAsync(key, c -> c.getBestAskSizeAsync(key));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestBidSizeAsync(Key key) {
+        return forContextAsync(key, c -> c.getBestBidSizeAsync(key));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getMidPriceAsync(Key key) {
+        return forContextAsync(key, c -> c.getMidPriceAsync(key));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getLastPriceAsync(Key key) {
+        return forContextAsync(key, c -> c.getLastPriceAsync(key));
+    }
+
+    @Override
+    public CompletableFuture<Map<BigDecimal, BigDecimal>> getAskPricesAsync(Key key) {
+        return forContextAsync(key, c -> c.getAskPricesAsync(key));
+    }
+
+    @Override
+    public CompletableFuture<Map<BigDecimal, BigDecimal>> getBidPricesAsync(Key key) {
+        return forContextAsync(key, c -> c.getBidPricesAsync(key));
+    }
+
+    @Override
+    public CompletableFuture<List<Trade>> listTradesAsync(Key key, Instant fromTime) {
+        return forContextAsync(key, c -> c.listTradesAsync(key, fromTime));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getConversionPriceAsync(Key key, CurrencyType currency) {
+        return forContextAsync(key, c -> c.getConversionPriceAsync(key, currency));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getInstrumentPositionAsync(Key key) {
+        return forContextAsync(key, c -> c.getInstrumentPositionAsync(key));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getFundingPositionAsync(Key key) {
+        return forContextAsync(key, c -> c.getFundingPositionAsync(key));
+    }
+
+    @Override
+    public CompletableFuture<Order> findOrderAsync(Key key, String id) {
+
+        Duration interval = getSnapshotInterval();
+
+        if (interval != null && key != null && orders.isFresh(key, interval)) {
+
+            Order order = orders.findOrder(key, id);
+
+            if (order != null) {
+                return CompletableFuture.completedFuture(order);
+            }
+
+        }
+
+        return forContextAsync(key, c -> c.findOrderAsync(key, id));
+
+    }
+
+    @Override
+    public CompletableFuture<List<Order>> listActiveOrdersAsync(Key key) {
+
+        Duration interval = getSnapshotInterval();
+
+        if (interval == null || key == null || !contexts.containsKey(key.getSite())) {
+            return forContextAsync(key, c -> c.listActiveOrdersAsync(key));
+        }
+
+        if (orders.isFresh(key, interval)) {
+            return CompletableFuture.completedFuture(orders.listActiveOrders(key));
+        }
+
+        long sequence = orders.sequence();
+
+        return forContextAsync(key, c -> c.listActiveOrdersAsync(key)).thenApply(values -> {
+
+            if (values != null) {
+                orders.snapshot(key, values, sequence);
+            }
+
+            return orders.listActiveOrders(key);
+
+        });
+
+    }
+
+    @Override
+    public CompletableFuture<List<Order.Execution>> listExecutionsAsync(Key key) {
+
+        Duration interval = getSnapshotInterval();
+
+        if (interval == null || key == null || !contexts.containsKey(key.getSite())) {
+            return forContextAsync(key, c -> c.listExecutionsAsync(key));
+        }
+
+        List<Order.Execution> cached = orders.listExecutions(key, interval);
+
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        return forContextAsync(key, c -> c.listExecutionsAsync(key)).thenApply(values -> {
+
+            if (values != null) {
+                orders.setExecutions(key, values);
+            }
+
+            return values;
+
+        });
+
     }
 
 }
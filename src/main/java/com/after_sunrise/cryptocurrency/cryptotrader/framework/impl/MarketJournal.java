@@ -0,0 +1,512 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.framework.impl;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.core.ExecutorFactory;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.inject.Injector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.configuration2.ImmutableConfiguration;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Append-only binary journal of the market data and order events, written through memory-mapped segment files.
+ * The callers only enqueue the records, which are encoded and written by a background writer.
+ * Records are dropped instead of blocking the callers when the queue is full.
+ *
+ * <p>Each segment starts with the magic and version, followed by length-prefixed records.
+ * A zero length marks the end of the written records in the segment.</p>
+ *
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+@Slf4j
+public class MarketJournal implements AutoCloseable {
+
+    public static final String EXTENSION = ".journal";
+
+    static final int MAGIC = 0x434A524E; // "CJRN"
+
+    static final int VERSION = 1;
+
+    private static final String PREFIX = MarketJournal.class.getName() + ".";
+
+    private static final int HEADER = Integer.BYTES * 2;
+
+    private static final long INTERVAL = 10;
+
+    public enum Type {
+
+        ASK_PRICE,
+
+        BID_PRICE,
+
+        ASK_SIZE,
+
+        BID_SIZE,
+
+        LAST_PRICE,
+
+        ASK_BOOK,
+
+        BID_BOOK,
+
+        TRADE,
+
+        ORDER_CREATE,
+
+        ORDER_CANCEL,
+
+        ORDER_AMEND
+
+    }
+
+    /**
+     * Flattened record. Books are listed as price/size pairs, trades and creates as price and size.
+     */
+    @Getter
+    @Builder
+    @ToString
+    public static class Record {
+
+        private final Type type;
+
+        private final Instant time;
+
+        private final String site;
+
+        private final String instrument;
+
+        private final String id;
+
+        private final List<BigDecimal> values;
+
+    }
+
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final BlockingQueue<Record> queue;
+
+    private final ScheduledExecutorService executor;
+
+    private final Path directory;
+
+    private final int segmentSize;
+
+    private final Counter records;
+
+    private ByteBuffer scratch = ByteBuffer.allocate(1024);
+
+    private boolean released;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer segment;
+
+    public MarketJournal(Injector injector) {
+
+        ImmutableConfiguration configuration = injector.getInstance(ImmutableConfiguration.class);
+
+        this.directory = Paths.get(configuration.getString(PREFIX + "path", "journal"));
+
+        this.segmentSize = Math.max(configuration.getInt(PREFIX + "segment", 64 * 1024 * 1024), 1024);
+
+        this.queue = new ArrayBlockingQueue<>(Math.max(configuration.getInt(PREFIX + "capacity", 65536), 1));
+
+        this.executor = injector.getInstance(ExecutorFactory.class).getScheduled(getClass(), 1);
+
+        this.records = Counter.build()
+                .name("cryptotrader_journal_records_total")
+                .help("Number of market data and order event records journaled or dropped.")
+                .labelNames("result")
+                .create();
+
+        try {
+
+            injector.getInstance(CollectorRegistry.class).register(records);
+
+        } catch (IllegalArgumentException e) {
+
+            log.warn("Skipped metrics registration : {}", e.getMessage());
+
+        }
+
+    }
+
+    /**
+     * Enqueues the record without blocking. The writer is started on the first record.
+     */
+    public boolean append(Record record) {
+
+        if (record == null || closed.get()) {
+            return false;
+        }
+
+        if (!queue.offer(record)) {
+
+            records.labels("dropped").inc();
+
+            return false;
+
+        }
+
+        if (started.compareAndSet(false, true)) {
+
+            log.info("Starting journal : {}", directory.toAbsolutePath());
+
+            executor.scheduleWithFixedDelay(this::drain, 0, INTERVAL, MILLISECONDS);
+
+        }
+
+        return true;
+
+    }
+
+    @Override
+    public synchronized void close() {
+
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+
+        drain();
+
+        release();
+
+        released = true;
+
+        log.info("Closed journal.");
+
+    }
+
+    @VisibleForTesting
+    synchronized void drain() {
+
+        if (released) {
+
+            queue.clear();
+
+            return;
+
+        }
+
+        Record record;
+
+        while ((record = queue.poll()) != null) {
+
+            try {
+
+                write(record);
+
+                records.labels("written").inc();
+
+            } catch (IOException | RuntimeException e) {
+
+                records.labels("dropped").inc();
+
+                log.warn("Failed to journal : " + record, e);
+
+            }
+
+        }
+
+    }
+
+    private void write(Record record) throws IOException {
+
+        ByteBuffer buffer = encode(record);
+
+        int length = buffer.remaining();
+
+        if (segment == null || segment.remaining() < Integer.BYTES * 2 + length) {
+            roll(length);
+        }
+
+        segment.putInt(length);
+
+        segment.put(buffer);
+
+    }
+
+    private void roll(int length) throws IOException {
+
+        release();
+
+        Files.createDirectories(directory);
+
+        Path path = directory.resolve(String.format("market-%013d-%06d%s",
+                System.currentTimeMillis(), sequence.incrementAndGet(), EXTENSION));
+
+        int size = Math.max(segmentSize, HEADER + Integer.BYTES * 2 + length);
+
+        channel = FileChannel.open(path, CREATE_NEW, READ, WRITE);
+
+        segment = channel.map(READ_WRITE, 0, size);
+
+        segment.putInt(MAGIC);
+
+        segment.putInt(VERSION);
+
+        log.debug("Rolled journal : {} ({} bytes)", path, size);
+
+    }
+
+    private void release() {
+
+        if (segment != null) {
+
+            segment.force();
+
+            segment = null;
+
+        }
+
+        if (channel != null) {
+
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close journal segment.", e);
+            }
+
+            channel = null;
+
+        }
+
+    }
+
+    @VisibleForTesting
+    ByteBuffer encode(Record record) {
+
+        while (true) {
+
+            scratch.clear();
+
+            try {
+
+                scratch.put((byte) record.getType().ordinal());
+
+                scratch.putLong(record.getTime() == null ? Long.MIN_VALUE : record.getTime().toEpochMilli());
+
+                putString(scratch, record.getSite());
+
+                putString(scratch, record.getInstrument());
+
+                putString(scratch, record.getId());
+
+                List<BigDecimal> values = record.getValues() == null ? Collections.emptyList() : record.getValues();
+
+                scratch.putInt(values.size());
+
+                for (BigDecimal value : values) {
+                    putDecimal(scratch, value);
+                }
+
+                scratch.flip();
+
+                return scratch;
+
+            } catch (BufferOverflowException e) {
+
+                scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+
+            }
+
+        }
+
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+
+        if (value == null) {
+
+            buffer.putShort((short) -1);
+
+            return;
+
+        }
+
+        byte[] bytes = value.getBytes(UTF_8);
+
+        buffer.putShort((short) bytes.length);
+
+        buffer.put(bytes);
+
+    }
+
+    private static String getString(ByteBuffer buffer) {
+
+        short length = buffer.getShort();
+
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+
+        buffer.get(bytes);
+
+        return new String(bytes, UTF_8);
+
+    }
+
+    private static void putDecimal(ByteBuffer buffer, BigDecimal value) {
+
+        if (value == null) {
+
+            buffer.put((byte) -1);
+
+            return;
+
+        }
+
+        byte[] bytes = value.unscaledValue().toByteArray();
+
+        buffer.put((byte) bytes.length);
+
+        buffer.put(bytes);
+
+        buffer.putShort((short) value.scale());
+
+    }
+
+    private static BigDecimal getDecimal(ByteBuffer buffer) {
+
+        byte length = buffer.get();
+
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+
+        buffer.get(bytes);
+
+        return new BigDecimal(new BigInteger(bytes), buffer.getShort());
+
+    }
+
+    @VisibleForTesting
+    static Record decode(ByteBuffer buffer) {
+
+        Type type = Type.values()[buffer.get()];
+
+        long millis = buffer.getLong();
+
+        String site = getString(buffer);
+
+        String instrument = getString(buffer);
+
+        String id = getString(buffer);
+
+        int count = buffer.getInt();
+
+        List<BigDecimal> values = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            values.add(getDecimal(buffer));
+        }
+
+        return Record.builder()
+                .type(type)
+                .time(millis == Long.MIN_VALUE ? null : Instant.ofEpochMilli(millis))
+                .site(site)
+                .instrument(instrument)
+                .id(id)
+                .values(values)
+                .build();
+
+    }
+
+    /**
+     * Reads the records of a segment file, in the written order.
+     *
+     * @return Number of records read.
+     */
+    public static long read(Path path, Consumer<Record> consumer) throws IOException {
+
+        long count = 0;
+
+        try (FileChannel channel = FileChannel.open(path, READ)) {
+
+            ByteBuffer buffer = channel.map(READ_ONLY, 0, channel.size());
+
+            if (buffer.remaining() < HEADER || buffer.getInt() != MAGIC) {
+                throw new IOException("Invalid journal : " + path);
+            }
+
+            int version = buffer.getInt();
+
+            if (version != VERSION) {
+                throw new IOException("Unsupported journal version : " + version + " - " + path);
+            }
+
+            while (buffer.remaining() >= Integer.BYTES) {
+
+                int length = buffer.getInt();
+
+                if (length <= 0 || length > buffer.remaining()) {
+                    break;
+                }
+
+                ByteBuffer slice = buffer.slice();
+
+                slice.limit(length);
+
+                buffer.position(buffer.position() + length);
+
+                try {
+
+                    consumer.accept(decode(slice));
+
+                    count++;
+
+                } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+
+                    log.warn("Skipped corrupt journal record : {}", path);
+
+                }
+
+            }
+
+        }
+
+        return count;
+
+    }
+
+}
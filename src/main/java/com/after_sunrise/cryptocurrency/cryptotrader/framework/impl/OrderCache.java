@@ -0,0 +1,355 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.framework.impl;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.Key;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.AmendInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Order;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.math.BigDecimal.ZERO;
+import static java.util.stream.Collectors.toList;
+import static lombok.AccessLevel.PRIVATE;
+
+/**
+ * In-memory book of our own orders, per site and instrument. The book is updated from the results of the order
+ * instructions and the order states pushed by the sites, and is corrected with the periodic snapshots of the
+ * active orders. Executions are kept per snapshot, and are invalidated once any of the known orders gets filled.
+ *
+ * <p>Orders updated from the results of the instructions are pending until confirmed by a push, a lookup or a
+ * snapshot. Pending orders are not returned by the lookups, so that they are reconciled against the site. Orders
+ * pending cancel are listed as active until confirmed.</p>
+ *
+ * <p>Active orders missing from a snapshot are marked inactive, unless updated after the snapshot was requested.
+ * Inactive orders are evicted after the retention period.</p>
+ *
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+class OrderCache {
+
+    static final Duration RETENTION = Duration.ofHours(1);
+
+    @Getter
+    @Builder(toBuilder = true)
+    @ToString
+    @AllArgsConstructor(access = PRIVATE)
+    static class CachedOrder implements Order {
+
+        private final String id;
+
+        private final String product;
+
+        private final Boolean active;
+
+        private final BigDecimal orderPrice;
+
+        private final BigDecimal orderQuantity;
+
+        private final BigDecimal filledQuantity;
+
+        private final BigDecimal remainingQuantity;
+
+    }
+
+    @AllArgsConstructor
+    private static class Entry {
+
+        private final Order order;
+
+        private final long sequence;
+
+        private final Instant time;
+
+        private final boolean confirmed;
+
+    }
+
+    private static class Book {
+
+        private final Map<String, Entry> orders = new ConcurrentHashMap<>();
+
+        private volatile Instant ordersTime;
+
+        private volatile List<Order.Execution> executions;
+
+        private volatile Instant executionsTime;
+
+    }
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final Map<String, Map<String, Book>> books = new ConcurrentHashMap<>();
+
+    private Book getBook(Key key) {
+
+        Map<String, Book> instruments = books.computeIfAbsent(key.getSite(), s -> new ConcurrentHashMap<>());
+
+        return instruments.computeIfAbsent(Objects.toString(key.getInstrument(), ""), i -> new Book());
+
+    }
+
+    private Instant getTime(Key key) {
+        return key.getTimestamp() != null ? key.getTimestamp() : Instant.now();
+    }
+
+    private boolean isFresh(Instant time, Key key, Duration interval) {
+
+        if (time == null) {
+            return false;
+        }
+
+        Instant now = getTime(key);
+
+        return !now.isBefore(time) && now.isBefore(time.plus(interval));
+
+    }
+
+    /**
+     * @return Sequence to be passed to the snapshot, captured before the active orders are requested.
+     */
+    long sequence() {
+        return sequence.get();
+    }
+
+    boolean isFresh(Key key, Duration interval) {
+        return isFresh(getBook(key).ordersTime, key, interval);
+    }
+
+    Order findOrder(Key key, String id) {
+
+        Entry entry = id == null ? null : getBook(key).orders.get(id);
+
+        return entry == null || !entry.confirmed ? null : entry.order;
+
+    }
+
+    List<Order> listActiveOrders(Key key) {
+        return getBook(key).orders.values().stream()
+                .map(e -> e.order)
+                .filter(o -> Boolean.TRUE.equals(o.getActive()))
+                .collect(toList());
+    }
+
+    List<Order.Execution> listExecutions(Key key, Duration interval) {
+
+        Book book = getBook(key);
+
+        List<Order.Execution> values = book.executions;
+
+        return values != null && isFresh(book.executionsTime, key, interval) ? values : null;
+
+    }
+
+    void setExecutions(Key key, List<Order.Execution> values) {
+
+        Book book = getBook(key);
+
+        book.executions = values;
+
+        book.executionsTime = getTime(key);
+
+    }
+
+    private void update(Book book, Key key, Order order, boolean confirmed) {
+
+        if (order == null || order.getId() == null) {
+            return;
+        }
+
+        Entry entry = new Entry(order, sequence.incrementAndGet(), getTime(key), confirmed);
+
+        Entry previous = book.orders.put(order.getId(), entry);
+
+        BigDecimal before = previous == null ? null : previous.order.getFilledQuantity();
+
+        BigDecimal after = order.getFilledQuantity();
+
+        if (after != null && after.signum() != 0 && (before == null || before.compareTo(after) != 0)) {
+            book.executions = null;
+        }
+
+    }
+
+    void put(Key key, Order order) {
+        update(getBook(key), key, order, true);
+    }
+
+    /**
+     * @param sequence Sequence captured before the active orders were requested.
+     */
+    void snapshot(Key key, List<Order> orders, long sequence) {
+
+        Book book = getBook(key);
+
+        Set<String> ids = new HashSet<>();
+
+        orders.stream().filter(Objects::nonNull).filter(o -> o.getId() != null).forEach(o -> {
+
+            ids.add(o.getId());
+
+            update(book, key, o, true);
+
+        });
+
+        Instant cutoff = getTime(key).minus(RETENTION);
+
+        book.orders.forEach((id, entry) -> {
+
+            if (ids.contains(id) || entry.sequence > sequence) {
+                return; // Listed, or updated after the snapshot was requested.
+            }
+
+            if (Boolean.TRUE.equals(entry.order.getActive())) {
+
+                update(book, key, toBuilder(entry.order).active(false).build(), true);
+
+                return;
+
+            }
+
+            if (entry.time.isBefore(cutoff)) {
+                book.orders.remove(id, entry);
+            }
+
+        });
+
+        book.ordersTime = getTime(key);
+
+    }
+
+    /**
+     * Replaces the order state pushed by the site. Pushed orders are keyed by the site product, instead of the
+     * instrument, so only the orders already known to the book are replaced.
+     */
+    void push(String site, Order order) {
+
+        if (order == null || order.getId() == null) {
+            return;
+        }
+
+        books.getOrDefault(site, Collections.emptyMap()).forEach((instrument, book) -> {
+
+            if (book.orders.containsKey(order.getId())) {
+                update(book, Key.builder().site(site).instrument(instrument).build(), order, true);
+            }
+
+        });
+
+    }
+
+    void create(Key key, Map<CreateInstruction, String> results) {
+
+        Book book = getBook(key);
+
+        results.forEach((i, id) -> {
+
+            if (i == null || id == null || book.orders.containsKey(id)) {
+                return; // Failed, or already pushed.
+            }
+
+            update(book, key, CachedOrder.builder()
+                    .id(id)
+                    .active(true)
+                    .orderPrice(i.getPrice())
+                    .orderQuantity(i.getSize())
+                    .filledQuantity(ZERO)
+                    .remainingQuantity(i.getSize())
+                    .build(), false);
+
+        });
+
+    }
+
+    void cancel(Key key, Map<CancelInstruction, String> results) {
+
+        Book book = getBook(key);
+
+        results.forEach((i, id) -> {
+
+            if (i == null || id == null) {
+                return;
+            }
+
+            Entry entry = book.orders.get(id);
+
+            if (entry == null) {
+                return; // Unknown order, left to the next snapshot.
+            }
+
+            update(book, key, entry.order, false); // Listed as active until confirmed.
+
+        });
+
+    }
+
+    void amend(Key key, Map<AmendInstruction, String> results) {
+
+        Book book = getBook(key);
+
+        results.forEach((i, id) -> {
+
+            if (i == null || id == null) {
+                return;
+            }
+
+            Entry entry = book.orders.get(i.getId());
+
+            if (entry == null) {
+                return; // Unknown order, left to the next snapshot.
+            }
+
+            CachedOrder.CachedOrderBuilder builder = toBuilder(entry.order).id(id);
+
+            if (i.getPrice() != null) {
+                builder.orderPrice(i.getPrice());
+            }
+
+            if (i.getSize() != null) {
+
+                BigDecimal filled = entry.order.getFilledQuantity();
+
+                builder.remainingQuantity(i.getSize());
+
+                builder.orderQuantity(filled == null ? null : filled.add(i.getSize()));
+
+            }
+
+            if (!Objects.equals(i.getId(), id)) {
+                book.orders.remove(i.getId());
+            }
+
+            update(book, key, builder.build(), false);
+
+        });
+
+    }
+
+    private CachedOrder.CachedOrderBuilder toBuilder(Order order) {
+
+        if (order instanceof CachedOrder) {
+            return ((CachedOrder) order).toBuilder();
+        }
+
+        return CachedOrder.builder()
+                .id(order.getId())
+                .product(order.getProduct())
+                .active(order.getActive())
+                .orderPrice(order.getOrderPrice())
+                .orderQuantity(order.getOrderQuantity())
+                .filledQuantity(order.getFilledQuantity())
+                .remainingQuantity(order.getRemainingQuantity());
+
+    }
+
+}
@@ -1,5 +1,8 @@
 package com.after_sunrise.cryptocurrency.cryptotrader.framework.impl;
 
+import com.after_sunrise.cryptocurrency.cryptotrader.core.Composite;
+import com.after_sunrise.cryptocurrency.cryptotrader.core.ConfigurationProvider;
+import com.after_sunrise.cryptocurrency.cryptotrader.core.ExecutorFactory;
 import com.after_sunrise.cryptocurrency.cryptotrader.core.PropertyManager;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.*;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Adviser.Advice;
@@ -7,7 +10,12 @@ import com.after_sunrise.cryptocurrency.cryptotrader.framework.Estimator.Estimat
 import com.google.common.annotations.VisibleForTesting;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.collections4.MapUtils;
 import org.apache.commons.lang3.StringUtils;
 
 import java.lang.reflect.Method;
@@ -17,6 +25,15 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeoutException;
+
+import static java.lang.Boolean.TRUE;
+import static java.util.Collections.emptyMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 /**
  * @author takanori.takase
@@ -25,8 +42,26 @@ import java.util.Optional;
 @Slf4j
 public class PipelineImpl implements Pipeline {
 
+    /**
+     * Validated request without the cycle timestamps, tied to the configuration revisions it was built from.
+     */
+    @AllArgsConstructor
+    private static class Template {
+
+        private final long reload;
+
+        private final long override;
+
+        private final Request request;
+
+    }
+
+    private static final double[] BUCKETS = {1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+
     private final PropertyManager propertyManager;
 
+    private final ConfigurationProvider configurationProvider;
+
     private final Context context;
 
     private final Estimator estimator;
@@ -37,11 +72,23 @@ public class PipelineImpl implements Pipeline {
 
     private final Agent manager;
 
+    private final ExecutorService executor;
+
+    private final Map<Composite, CompletableFuture<Map<Instruction, Boolean>>> reconciles;
+
+    private final Map<Composite, Template> templates;
+
+    private final Histogram histogram;
+
+    private final Counter aborts;
+
     @Inject
     public PipelineImpl(Injector injector) {
 
         this.propertyManager = injector.getInstance(PropertyManager.class);
 
+        this.configurationProvider = injector.getInstance(ConfigurationProvider.class);
+
         this.context = injector.getInstance(Context.class);
 
         this.estimator = injector.getInstance(Estimator.class);
@@ -52,6 +99,41 @@ public class PipelineImpl implements Pipeline {
 
         this.manager = injector.getInstance(Agent.class);
 
+        int threads = propertyManager.getTradingThreads();
+
+        this.executor = injector.getInstance(ExecutorFactory.class).get(getClass(), threads);
+
+        this.reconciles = new ConcurrentHashMap<>();
+
+        this.templates = new ConcurrentHashMap<>();
+
+        this.histogram = Histogram.build()
+                .name("cryptotrader_pipeline_elapsed_milliseconds")
+                .help("Elapsed milliseconds of each pipeline stage.")
+                .labelNames("site", "instrument", "stage")
+                .buckets(BUCKETS)
+                .create();
+
+        this.aborts = Counter.build()
+                .name("cryptotrader_pipeline_abort_total")
+                .help("Number of pipeline cycles aborted after the stage, having exceeded the latency budget.")
+                .labelNames("site", "instrument", "stage")
+                .create();
+
+        try {
+
+            CollectorRegistry registry = injector.getInstance(CollectorRegistry.class);
+
+            registry.register(histogram);
+
+            registry.register(aborts);
+
+        } catch (IllegalArgumentException e) {
+
+            log.warn("Skipped metrics registration : {}", e.getMessage());
+
+        }
+
     }
 
     @Override
@@ -68,17 +150,53 @@ public class PipelineImpl implements Pipeline {
             Estimation estimation = estimator.estimate(context, request);
             i = logElapsed(i, request, "Estimate");
 
+            if (isExpired(s, i, request, "Estimate")) {
+                return;
+            }
+
             Advice advice = adviser.advise(context, request, estimation);
             i = logElapsed(i, request, "Advise");
 
-            List<Instruction> instructions = instructor.instruct(context, request, advice);
+            if (isExpired(s, i, request, "Advise")) {
+                return;
+            }
+
+            Map<Instruction, Boolean> reconciled = awaitReconcile(request, s);
+            i = logElapsed(i, request, "Await");
+
+            if (reconciled == null) {
+                return;
+            }
+
+            Request adjusted = reconciled.isEmpty() ? request : Request.build(request).reconciled(reconciled).build();
+
+            List<Instruction> instructions = instructor.instruct(context, adjusted, advice);
             i = logElapsed(i, request, "Instruct");
 
-            Map<Instruction, String> futures = manager.manage(context, request, instructions);
+            if (isExpired(s, i, request, "Instruct")) {
+
+                if (!reconciled.isEmpty()) {
+                    reconciles.putIfAbsent(new Composite(request.getSite(), request.getInstrument()),
+                            CompletableFuture.completedFuture(reconciled)); // Retain for the next cycle.
+                }
+
+                return;
+
+            }
+
+            Map<Instruction, String> futures = manager.manage(context, adjusted, instructions);
             i = logElapsed(i, request, "Manage");
 
-            Map<Instruction, Boolean> results = manager.reconcile(context, request, futures);
-            i = logElapsed(i, request, "Reconcile");
+            if (TRUE.equals(propertyManager.getTradingDeferred(request.getSite(), request.getInstrument()))) {
+
+                deferReconcile(adjusted, futures);
+
+            } else {
+
+                manager.reconcile(context, adjusted, futures);
+                logElapsed(i, request, "Reconcile");
+
+            }
 
             logElapsed(s, request, "Total");
 
@@ -86,17 +204,122 @@ public class PipelineImpl implements Pipeline {
 
     }
 
+    /**
+     * Checks the latency budget of the cycle, which is the duration between the current and the target time of the
+     * request. Stages exceeding the budget are skipped, since the orders would be based on outdated data. The elapsed
+     * time is measured from the start of the processing, so that virtual times such as those of the replay are
+     * budgeted the same as the wall-clock. Cycles queued past their target time are skipped by the trader instead.
+     */
+    @VisibleForTesting
+    boolean isExpired(Instant start, Instant now, Request request, String stage) {
+
+        Duration budget = Duration.between(request.getCurrentTime(), request.getTargetTime());
+
+        Duration elapsed = Duration.between(start, now);
+
+        if (elapsed.compareTo(budget) <= 0) {
+            return false;
+        }
+
+        log.warn("Aborting cycle after {} : {} ms elapsed, {} ms budget - {}",
+                stage, elapsed.toMillis(), budget.toMillis(), request);
+
+        aborts.labels(request.getSite(), request.getInstrument(), stage).inc();
+
+        return true;
+
+    }
+
+    /**
+     * Awaits the deferred reconcile of the previous cycle, for up to the remaining latency budget of the cycle.
+     * Pending reconciles are retained for the next cycle, when interrupted or timed out.
+     *
+     * @param start Time when the processing of the cycle has started.
+     * @return Reconciled instructions, or null if the cycle should be skipped.
+     */
+    @VisibleForTesting
+    Map<Instruction, Boolean> awaitReconcile(Request request, Instant start) {
+
+        Composite composite = new Composite(request.getSite(), request.getInstrument());
+
+        CompletableFuture<Map<Instruction, Boolean>> future = reconciles.remove(composite);
+
+        if (future == null) {
+            return emptyMap();
+        }
+
+        Duration budget = Duration.between(request.getCurrentTime(), request.getTargetTime());
+
+        Duration timeout = budget.minus(Duration.between(start, propertyManager.getNow()));
+
+        try {
+
+            return MapUtils.emptyIfNull(future.get(Math.max(timeout.toMillis(), 0L), MILLISECONDS));
+
+        } catch (InterruptedException e) {
+
+            log.warn("Interrupted awaiting reconcile : {}", composite);
+
+            reconciles.putIfAbsent(composite, future);
+
+            Thread.currentThread().interrupt();
+
+            return null;
+
+        } catch (TimeoutException e) {
+
+            log.warn("Timed out awaiting reconcile : {}", composite);
+
+            reconciles.putIfAbsent(composite, future);
+
+            return null;
+
+        } catch (ExecutionException e) {
+
+            log.warn("Failed deferred reconcile : " + composite, e.getCause());
+
+            return emptyMap();
+
+        }
+
+    }
+
+    @VisibleForTesting
+    void deferReconcile(Request request, Map<Instruction, String> futures) {
+
+        if (MapUtils.isEmpty(futures)) {
+            return;
+        }
+
+        Composite composite = new Composite(request.getSite(), request.getInstrument());
+
+        reconciles.put(composite, CompletableFuture.supplyAsync(() -> {
+
+            Instant start = propertyManager.getNow();
+
+            Map<Instruction, Boolean> results = manager.reconcile(context, request, futures);
+
+            logElapsed(start, request, "Reconcile");
+
+            return results;
+
+        }, executor));
+
+    }
+
     @VisibleForTesting
     Instant logElapsed(Instant start, Request request, String label) {
 
         Instant now = propertyManager.getNow();
 
-        String elapsed = String.valueOf(Duration.between(start, now).getSeconds());
+        long elapsed = Duration.between(start, now).toMillis();
+
+        histogram.labels(request.getSite(), request.getInstrument(), label).observe(elapsed);
 
-        log.debug("[{}.{}] {} seconds : {}",
+        log.debug("[{}.{}] {} ms : {}",
                 request.getSite(),
                 request.getInstrument(),
-                StringUtils.leftPad(elapsed, 3, ' '),
+                StringUtils.leftPad(String.valueOf(elapsed), 6, ' '),
                 label
         );
 
@@ -107,11 +330,44 @@ public class PipelineImpl implements Pipeline {
     @VisibleForTesting
     Request createRequest(Instant current, Instant target, String site, String instrument) {
 
+        if (current == null || target == null) {
+            return null;
+        }
+
+        Composite composite = new Composite(site, instrument);
+
+        long reload = configurationProvider.getRevision();
+
+        long override = propertyManager.getRevision();
+
+        Template template = templates.get(composite);
+
+        if (template == null || template.reload != reload || template.override != override) {
+
+            log.debug("Compiling request : {} (reload={}, override={})", composite, reload, override);
+
+            template = new Template(reload, override, compileRequest(site, instrument));
+
+            templates.put(composite, template);
+
+        }
+
+        if (template.request == null) {
+            return null;
+        }
+
+        return Request.build(template.request).currentTime(current).targetTime(target).build();
+
+    }
+
+    @VisibleForTesting
+    Request compileRequest(String site, String instrument) {
+
         Request request = Request.builder()
                 .site(site)
                 .instrument(instrument)
-                .currentTime(current)
-                .targetTime(target)
+                .currentTime(Instant.EPOCH) // Replaced for each cycle.
+                .targetTime(Instant.EPOCH) // Replaced for each cycle.
                 .tradingSpread(propertyManager.getTradingSpread(site, instrument))
                 .tradingSpreadAsk(propertyManager.getTradingSpreadAsk(site, instrument))
                 .tradingSpreadBid(propertyManager.getTradingSpreadBid(site, instrument))
@@ -137,6 +393,7 @@ public class PipelineImpl implements Pipeline {
                 .hedgeProducts(propertyManager.getHedgeProducts(site, instrument))
                 .estimatorComposites(propertyManager.getEstimatorComposites(site, instrument))
                 .estimationAversion(propertyManager.getEstimationAversion(site, instrument))
+                .reconciled(emptyMap())
                 .build();
 
         return validateRequest(request);
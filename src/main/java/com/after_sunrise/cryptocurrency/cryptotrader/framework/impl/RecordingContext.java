@@ -0,0 +1,532 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.framework.impl;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.core.Composite;
+import com.after_sunrise.cryptocurrency.cryptotrader.core.PropertyManager;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.AmendInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Order;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Trade;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.MarketJournal.Record;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.MarketJournal.Type;
+import com.google.common.annotations.VisibleForTesting;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.tuple.Pair;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+import static com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.MarketJournal.Type.*;
+import static java.lang.Boolean.TRUE;
+import static java.math.BigDecimal.ONE;
+import static java.math.BigDecimal.ZERO;
+import static java.util.Collections.singletonList;
+
+/**
+ * Decorates a site context, recording what the site context returned into the {@link MarketJournal}
+ * while the recording is active for the site/instrument. Unchanged values are not recorded again,
+ * and the trades are recorded only when not older than the last recorded trade, and not yet recorded.
+ * The recording flag is looked up once per key timestamp, which is shared by the lookups of a cycle.
+ *
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+@Slf4j
+public class RecordingContext implements Context {
+
+    private final Context delegate;
+
+    private final PropertyManager propertyManager;
+
+    private final MarketJournal journal;
+
+    private static class TradeMark {
+
+        private final Instant time;
+
+        private final Map<List<BigDecimal>, Integer> counts;
+
+        private TradeMark(Instant time, Map<List<BigDecimal>, Integer> counts) {
+            this.time = time;
+            this.counts = counts;
+        }
+
+    }
+
+    private final Map<Composite, Map<Type, Object>> recorded;
+
+    private final Map<Composite, Pair<Instant, Boolean>> actives;
+
+    public RecordingContext(Context delegate, PropertyManager propertyManager, MarketJournal journal) {
+
+        this.delegate = delegate;
+
+        this.propertyManager = propertyManager;
+
+        this.journal = journal;
+
+        this.recorded = new ConcurrentHashMap<>();
+
+        this.actives = new ConcurrentHashMap<>();
+
+    }
+
+    @VisibleForTesting
+    Context getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public String get() {
+        return delegate.get();
+    }
+
+    @Override
+    public void close() throws Exception {
+        delegate.close();
+    }
+
+    @VisibleForTesting
+    boolean isActive(Key key) {
+
+        if (key == null || key.getSite() == null || key.getInstrument() == null) {
+            return false;
+        }
+
+        Composite composite = new Composite(key.getSite(), key.getInstrument());
+
+        Instant time = key.getTimestamp();
+
+        Pair<Instant, Boolean> active = actives.get(composite);
+
+        if (active == null || time == null || !time.equals(active.getLeft())) {
+
+            Boolean value = propertyManager.getRecorderActive(key.getSite(), key.getInstrument());
+
+            active = Pair.of(time, TRUE.equals(value));
+
+            actives.put(composite, active);
+
+        }
+
+        return active.getRight();
+
+    }
+
+    private Map<Type, Object> getRecorded(Key key) {
+
+        Composite composite = new Composite(key.getSite(), key.getInstrument());
+
+        return recorded.computeIfAbsent(composite, k -> new ConcurrentHashMap<>());
+
+    }
+
+    private void append(Key key, Type type, Instant time, String id, List<BigDecimal> values) {
+
+        Record record = Record.builder()
+                .type(type)
+                .time(time != null ? time : key.getTimestamp() != null ? key.getTimestamp() : Instant.now())
+                .site(key.getSite())
+                .instrument(key.getInstrument())
+                .id(id)
+                .values(values)
+                .build();
+
+        if (!journal.append(record)) {
+            log.trace("Journal rejected : {}", record);
+        }
+
+    }
+
+    private BigDecimal recordDecimal(Key key, Type type, BigDecimal value) {
+
+        if (value == null || !isActive(key)) {
+            return value;
+        }
+
+        Map<Type, Object> values = getRecorded(key);
+
+        if (!value.equals(values.put(type, value))) {
+            append(key, type, null, null, singletonList(value));
+        }
+
+        return value;
+
+    }
+
+    private Map<BigDecimal, BigDecimal> recordBook(Key key, Type type, Map<BigDecimal, BigDecimal> value) {
+
+        if (value == null || !isActive(key)) {
+            return value;
+        }
+
+        Map<Type, Object> values = getRecorded(key);
+
+        List<?> last = (List<?>) values.get(type);
+
+        if (last != null && isSame(value, last)) {
+            return value;
+        }
+
+        List<BigDecimal> flattened = new ArrayList<>(value.size() * 2);
+
+        value.forEach((price, size) -> {
+            flattened.add(price);
+            flattened.add(size);
+        });
+
+        values.put(type, flattened);
+
+        append(key, type, null, null, flattened);
+
+        return value;
+
+    }
+
+    /**
+     * Compares the book with the last recorded price/size pairs in order, without copying nor hashing the book.
+     */
+    private boolean isSame(Map<BigDecimal, BigDecimal> book, List<?> flattened) {
+
+        if (book.size() * 2 != flattened.size()) {
+            return false;
+        }
+
+        int i = 0;
+
+        for (Entry<BigDecimal, BigDecimal> entry : book.entrySet()) {
+
+            if (!Objects.equals(entry.getKey(), flattened.get(i++))) {
+                return false;
+            }
+
+            if (!Objects.equals(entry.getValue(), flattened.get(i++))) {
+                return false;
+            }
+
+        }
+
+        return true;
+
+    }
+
+    private List<Trade> recordTrades(Key key, List<Trade> value) {
+
+        if (value == null || value.isEmpty() || !isActive(key)) {
+            return value;
+        }
+
+        Map<Type, Object> values = getRecorded(key);
+
+        synchronized (values) {
+
+            TradeMark last = (TradeMark) values.get(TRADE);
+
+            Instant lastTime = last == null ? null : last.time;
+
+            Instant latest = lastTime;
+
+            Map<List<BigDecimal>, Integer> latestCounts = new HashMap<>();
+
+            Map<List<BigDecimal>, Integer> lastCounts = new HashMap<>();
+
+            for (Trade trade : value) {
+
+                Instant time = trade == null ? null : trade.getTimestamp();
+
+                if (time == null || (lastTime != null && time.isBefore(lastTime))) {
+                    continue;
+                }
+
+                List<BigDecimal> pair = Arrays.asList(trade.getPrice(), trade.getSize());
+
+                if (latest == null || time.isAfter(latest)) {
+                    latest = time;
+                    latestCounts.clear();
+                }
+
+                if (time.equals(latest)) {
+                    latestCounts.merge(pair, 1, Integer::sum);
+                }
+
+                // Trades without ids are identified by the time, price and size, counted within the same time.
+                if (time.equals(lastTime) && lastCounts.merge(pair, 1, Integer::sum)
+                        <= last.counts.getOrDefault(pair, 0)) {
+                    continue;
+                }
+
+                append(key, TRADE, time, null, pair);
+
+            }
+
+            if (latest != null && !latest.equals(lastTime)) {
+                values.put(TRADE, new TradeMark(latest, latestCounts));
+            } else if (last != null) {
+                lastCounts.forEach((k, v) -> last.counts.merge(k, v, Math::max));
+            }
+
+        }
+
+        return value;
+
+    }
+
+    private <V> CompletableFuture<V> record(CompletableFuture<V> future, UnaryOperator<V> recorder) {
+        return future == null ? null : future.thenApply(recorder);
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        delegate.addListener(listener);
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        delegate.removeListener(listener);
+    }
+
+    @Override
+    public StateType getState(Key key) {
+        return delegate.getState(key);
+    }
+
+    @Override
+    public BigDecimal getBestAskPrice(Key key) {
+        return recordDecimal(key, ASK_PRICE, delegate.getBestAskPrice(key));
+    }
+
+    @Override
+    public BigDecimal getBestBidPrice(Key key) {
+        return recordDecimal(key, BID_PRICE, delegate.getBestBidPrice(key));
+    }
+
+    @Override
+    public BigDecimal getBestAskSize(Key key) {
+        return recordDecimal(key, ASK_SIZE, delegate.getBestAskSize(key));
+    }
+
+    @Override
+    public BigDecimal getBestBidSize(Key key) {
+        return recordDecimal(key, BID_SIZE, delegate.getBestBidSize(key));
+    }
+
+    @Override
+    public BigDecimal getMidPrice(Key key) {
+        return delegate.getMidPrice(key);
+    }
+
+    @Override
+    public BigDecimal getLastPrice(Key key) {
+        return recordDecimal(key, LAST_PRICE, delegate.getLastPrice(key));
+    }
+
+    @Override
+    public Map<BigDecimal, BigDecimal> getAskPrices(Key key) {
+        return recordBook(key, ASK_BOOK, delegate.getAskPrices(key));
+    }
+
+    @Override
+    public Map<BigDecimal, BigDecimal> getBidPrices(Key key) {
+        return recordBook(key, BID_BOOK, delegate.getBidPrices(key));
+    }
+
+    @Override
+    public List<Trade> listTrades(Key key, Instant fromTime) {
+        return recordTrades(key, delegate.listTrades(key, fromTime));
+    }
+
+    @Override
+    public CurrencyType getInstrumentCurrency(Key key) {
+        return delegate.getInstrumentCurrency(key);
+    }
+
+    @Override
+    public CurrencyType getFundingCurrency(Key key) {
+        return delegate.getFundingCurrency(key);
+    }
+
+    @Override
+    public String findProduct(Key key, CurrencyType instrument, CurrencyType funding) {
+        return delegate.findProduct(key, instrument, funding);
+    }
+
+    @Override
+    public BigDecimal getConversionPrice(Key key, CurrencyType currency) {
+        return delegate.getConversionPrice(key, currency);
+    }
+
+    @Override
+    public BigDecimal getInstrumentPosition(Key key) {
+        return delegate.getInstrumentPosition(key);
+    }
+
+    @Override
+    public BigDecimal getFundingPosition(Key key) {
+        return delegate.getFundingPosition(key);
+    }
+
+    @Override
+    public BigDecimal roundLotSize(Key key, BigDecimal value, RoundingMode mode) {
+        return delegate.roundLotSize(key, value, mode);
+    }
+
+    @Override
+    public BigDecimal roundTickSize(Key key, BigDecimal value, RoundingMode mode) {
+        return delegate.roundTickSize(key, value, mode);
+    }
+
+    @Override
+    public BigDecimal getCommissionRate(Key key) {
+        return delegate.getCommissionRate(key);
+    }
+
+    @Override
+    public Boolean isMarginable(Key key) {
+        return delegate.isMarginable(key);
+    }
+
+    @Override
+    public ZonedDateTime getExpiry(Key key) {
+        return delegate.getExpiry(key);
+    }
+
+    @Override
+    public Order findOrder(Key key, String id) {
+        return delegate.findOrder(key, id);
+    }
+
+    @Override
+    public List<Order> listActiveOrders(Key key) {
+        return delegate.listActiveOrders(key);
+    }
+
+    @Override
+    public List<Order.Execution> listExecutions(Key key) {
+        return delegate.listExecutions(key);
+    }
+
+    @Override
+    public Map<CreateInstruction, String> createOrders(Key key, Set<CreateInstruction> instructions) {
+
+        Map<CreateInstruction, String> results = delegate.createOrders(key, instructions);
+
+        if (results != null && isActive(key)) {
+            results.forEach((i, id) -> append(key, ORDER_CREATE, null, id, Arrays.asList(i.getPrice(), i.getSize())));
+        }
+
+        return results;
+
+    }
+
+    @Override
+    public Map<CancelInstruction, String> cancelOrders(Key key, Set<CancelInstruction> instructions) {
+
+        Map<CancelInstruction, String> results = delegate.cancelOrders(key, instructions);
+
+        if (results != null && isActive(key)) {
+            results.forEach((i, id) -> append(key, ORDER_CANCEL, null, i.getId(), singletonList(id != null ? ONE : ZERO)));
+        }
+
+        return results;
+
+    }
+
+    @Override
+    public Map<AmendInstruction, String> amendOrders(Key key, Set<AmendInstruction> instructions) {
+
+        Map<AmendInstruction, String> results = delegate.amendOrders(key, instructions);
+
+        if (results != null && isActive(key)) {
+            results.keySet().stream().filter(i -> i.getId() != null).forEach(
+                    i -> append(key, ORDER_AMEND, null, i.getId(), Arrays.asList(i.getPrice(), i.getSize()))
+            );
+        }
+
+        return results;
+
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestAskPriceAsync(Key key) {
+        return record(delegate.getBestAskPriceAsync(key), v -> recordDecimal(key, ASK_PRICE, v));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestBidPriceAsync(Key key) {
+        return record(delegate.getBestBidPriceAsync(key), v -> recordDecimal(key, BID_PRICE, v));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestAskSizeAsync(Key key) {
+        return record(delegate.getBestAskSizeAsync(key), v -> recordDecimal(key, ASK_SIZE, v));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestBidSizeAsync(Key key) {
+        return record(delegate.getBestBidSizeAsync(key), v -> recordDecimal(key, BID_SIZE, v));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getMidPriceAsync(Key key) {
+        return delegate.getMidPriceAsync(key);
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getLastPriceAsync(Key key) {
+        return record(delegate.getLastPriceAsync(key), v -> recordDecimal(key, LAST_PRICE, v));
+    }
+
+    @Override
+    public CompletableFuture<Map<BigDecimal, BigDecimal>> getAskPricesAsync(Key key) {
+        return record(delegate.getAskPricesAsync(key), v -> recordBook(key, ASK_BOOK, v));
+    }
+
+    @Override
+    public CompletableFuture<Map<BigDecimal, BigDecimal>> getBidPricesAsync(Key key) {
+        return record(delegate.getBidPricesAsync(key), v -> recordBook(key, BID_BOOK, v));
+    }
+
+    @Override
+    public CompletableFuture<List<Trade>> listTradesAsync(Key key, Instant fromTime) {
+        return record(delegate.listTradesAsync(key, fromTime), v -> recordTrades(key, v));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getConversionPriceAsync(Key key, CurrencyType currency) {
+        return delegate.getConversionPriceAsync(key, currency);
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getInstrumentPositionAsync(Key key) {
+        return delegate.getInstrumentPositionAsync(key);
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getFundingPositionAsync(Key key) {
+        return delegate.getFundingPositionAsync(key);
+    }
+
+    @Override
+    public CompletableFuture<Order> findOrderAsync(Key key, String id) {
+        return delegate.findOrderAsync(key, id);
+    }
+
+    @Override
+    public CompletableFuture<List<Order>> listActiveOrdersAsync(Key key) {
+        return delegate.listActiveOrdersAsync(key);
+    }
+
+    @Override
+    public CompletableFuture<List<Order.Execution>> listExecutionsAsync(Key key) {
+        return delegate.listExecutionsAsync(key);
+    }
+
+}
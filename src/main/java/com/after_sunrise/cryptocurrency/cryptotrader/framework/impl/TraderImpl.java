@@ -3,11 +3,16 @@ package com.after_sunrise.cryptocurrency.cryptotrader.framework.impl;
 import com.after_sunrise.cryptocurrency.cryptotrader.core.Composite;
 import com.after_sunrise.cryptocurrency.cryptotrader.core.ExecutorFactory;
 import com.after_sunrise.cryptocurrency.cryptotrader.core.PropertyManager;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.Key;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Pipeline;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Trader;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
 import lombok.extern.slf4j.Slf4j;
 
 import java.time.Duration;
@@ -15,12 +20,16 @@ import java.time.Instant;
 import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.OptionalDouble;
 import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
+import static java.lang.Boolean.TRUE;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.apache.commons.lang3.StringUtils.trimToEmpty;
 
@@ -29,19 +38,58 @@ import static org.apache.commons.lang3.StringUtils.trimToEmpty;
  * @version 0.0.1
  */
 @Slf4j
-public class TraderImpl implements Trader {
+public class TraderImpl implements Trader, Context.Listener {
+
+    @VisibleForTesting
+    static class Cycle {
+
+        final AtomicBoolean running = new AtomicBoolean();
+
+        final AtomicBoolean pending = new AtomicBoolean();
+
+        final AtomicBoolean looping = new AtomicBoolean();
+
+        final AtomicBoolean target = new AtomicBoolean();
+
+        final AtomicReference<Duration> spacing = new AtomicReference<>();
+
+        final AtomicReference<Instant> started = new AtomicReference<>(Instant.EPOCH);
+
+        final AtomicReference<Instant> loopDue = new AtomicReference<>();
+
+        final AtomicReference<Instant> signalDue = new AtomicReference<>();
+
+        final Queue<Duration> durations = new ConcurrentLinkedQueue<>();
+
+        final AtomicInteger overruns = new AtomicInteger();
+
+        final AtomicLong backoff = new AtomicLong();
+
+    }
+
+    private static final int BACKOFF_LIMIT = 6;
 
     private final AtomicReference<CountDownLatch> tradeLatch;
 
     private final PropertyManager propertyManager;
 
+    private final Context context;
+
     private final Pipeline pipeline;
 
     private final ExecutorService executor;
 
+    private final ScheduledExecutorService scheduler;
+
     private final Map<String, Map<String, AtomicLong>> frequencies;
 
-    private final Queue<Duration> durations;
+    private final Map<Composite, Cycle> cycles;
+
+    private final Counter overruns;
+
+    private final Gauge intervals;
+
+    private final Counter sheds;
 
     @Inject
     public TraderImpl(Injector injector) {
@@ -50,16 +98,56 @@ public class TraderImpl implements Trader {
 
         this.propertyManager = injector.getInstance(PropertyManager.class);
 
+        this.context = injector.getInstance(Context.class);
+
         this.pipeline = injector.getInstance(Pipeline.class);
 
         this.frequencies = new ConcurrentHashMap<>();
 
-        this.durations = new ConcurrentLinkedQueue<>();
+        this.cycles = new ConcurrentHashMap<>();
 
         int threads = propertyManager.getTradingThreads();
 
         this.executor = injector.getInstance(ExecutorFactory.class).get(getClass(), threads);
 
+        this.scheduler = injector.getInstance(ExecutorFactory.class).getScheduled(getClass(), threads);
+
+        this.overruns = Counter.build()
+                .name("cryptotrader_trader_overrun_total")
+                .help("Number of trading cycles completed after their target time.")
+                .labelNames("site", "instrument")
+                .create();
+
+        this.intervals = Gauge.build()
+                .name("cryptotrader_trader_interval_milliseconds")
+                .help("Adaptive interval between the current and target time of the latest trading cycle.")
+                .labelNames("site", "instrument")
+                .create();
+
+        this.sheds = Counter.build()
+                .name("cryptotrader_trader_shed_total")
+                .help("Number of trading cycles not admitted, by reason.")
+                .labelNames("site", "instrument", "reason")
+                .create();
+
+        try {
+
+            CollectorRegistry registry = injector.getInstance(CollectorRegistry.class);
+
+            registry.register(overruns);
+
+            registry.register(intervals);
+
+            registry.register(sheds);
+
+        } catch (IllegalArgumentException e) {
+
+            log.warn("Skipped metrics registration : {}", e.getMessage());
+
+        }
+
+        this.context.addListener(this);
+
     }
 
     @Override
@@ -98,6 +186,8 @@ public class TraderImpl implements Trader {
 
         log.info("Aborted.");
 
+        context.removeListener(this);
+
         latch.countDown();
 
     }
@@ -122,7 +212,11 @@ public class TraderImpl implements Trader {
 
                 log.debug("Trade attempt : {}", now);
 
-                processPipeline(now);
+                if (TRUE.equals(propertyManager.getTradingIsolated())) {
+                    processLoops();
+                } else {
+                    processPipeline(now);
+                }
 
                 Instant finish = propertyManager.getNow();
 
@@ -135,8 +229,6 @@ public class TraderImpl implements Trader {
                 log.debug("Sleeping : {} sec (Elapsed {} sec)",
                         remaining.getSeconds(), String.format("%03d", elapsed.getSeconds()));
 
-                processDuration(durations, elapsed);
-
                 latch.await(Math.max(remaining.toMillis(), 0), MILLISECONDS);
 
             }
@@ -171,11 +263,15 @@ public class TraderImpl implements Trader {
 
             if (count.getAndIncrement() % frequency == 0) {
 
-                Duration interval = calculateInterval(durations);
+                Composite composite = new Composite(site, instrument);
+
+                Cycle cycle = cycles.computeIfAbsent(composite, k -> new Cycle());
+
+                Duration interval = calculateInterval(cycle.durations);
 
                 Instant target = now.plusMillis(Math.abs(interval.toMillis() * frequency));
 
-                futures.put(c, executor.submit(() -> pipeline.process(now, target, site, instrument)));
+                futures.put(c, executor.submit(() -> !isStale(composite, target) && processCycle(composite, now, target)));
 
             }
 
@@ -197,6 +293,376 @@ public class TraderImpl implements Trader {
 
     }
 
+    @VisibleForTesting
+    void processLoops() {
+
+        for (Composite c : propertyManager.getTradingTargets()) {
+
+            String site = trimToEmpty(c.getSite());
+
+            String instrument = trimToEmpty(c.getInstrument());
+
+            Composite composite = new Composite(site, instrument);
+
+            Cycle cycle = cycles.computeIfAbsent(composite, k -> new Cycle());
+
+            if (!cycle.looping.compareAndSet(false, true)) {
+                continue;
+            }
+
+            Integer seed = propertyManager.getTradingSeed(site, instrument);
+
+            Integer frequency = propertyManager.getTradingFrequency(site, instrument);
+
+            long offset = (frequency - seed % frequency) % frequency;
+
+            log.debug("Starting loop : {} (offset {})", composite, offset);
+
+            cycle.loopDue.set(null); // Due on the first run.
+
+            scheduleLoop(composite, cycle, propertyManager.getTradingInterval().toMillis() * offset);
+
+        }
+
+    }
+
+    @VisibleForTesting
+    void scheduleLoop(Composite composite, Cycle cycle, long delay) {
+
+        log.trace("Scheduling loop : {} ({} ms)", composite, delay);
+
+        schedule(() -> processLoop(composite), delay, () -> {
+
+            log.debug("Rejected loop : {}", composite);
+
+            cycle.looping.set(false);
+
+        });
+
+    }
+
+    /**
+     * Schedules the task to be handed over to the executor, so that the scheduler thread only keeps the time,
+     * and a slow cycle of one target does not delay the loops and signals of the others.
+     */
+    private void schedule(Runnable task, long delay, Runnable rejected) {
+
+        try {
+
+            scheduler.schedule(() -> {
+
+                try {
+                    executor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    rejected.run();
+                }
+
+            }, delay, MILLISECONDS);
+
+        } catch (RejectedExecutionException e) {
+
+            rejected.run();
+
+        }
+
+    }
+
+    @VisibleForTesting
+    void processLoop(Composite composite) {
+
+        Cycle cycle = cycles.get(composite);
+
+        if (cycle == null) {
+            return;
+        }
+
+        if (isClosed() || !TRUE.equals(propertyManager.getTradingIsolated())
+                || !isTarget(composite.getSite(), composite.getInstrument())) {
+
+            log.debug("Stopping loop : {}", composite);
+
+            cycle.looping.set(false);
+
+            return;
+
+        }
+
+        Instant now = propertyManager.getNow();
+
+        Integer frequency = propertyManager.getTradingFrequency(composite.getSite(), composite.getInstrument());
+
+        Duration period = propertyManager.getTradingInterval().multipliedBy(frequency);
+
+        try {
+
+            log.debug("Loop attempt : {} - {}", now, composite);
+
+            Duration interval = calculateInterval(cycle.durations);
+
+            Instant due = Optional.ofNullable(cycle.loopDue.get()).filter(now::isAfter).orElse(now);
+
+            Instant target = due.plusMillis(Math.abs(interval.toMillis() * frequency));
+
+            if (!isStale(composite, now, target)) {
+                processCycle(composite, now, target);
+            }
+
+        } catch (RuntimeException e) {
+
+            log.error("Trading failure : " + composite, e);
+
+        }
+
+        Instant finish = propertyManager.getNow();
+
+        long delay = Math.max(period.minus(Duration.between(now, finish)).toMillis(), 0);
+
+        cycle.loopDue.set(finish.plusMillis(delay));
+
+        scheduleLoop(composite, cycle, delay);
+
+    }
+
+    @VisibleForTesting
+    boolean processCycle(Composite composite, Instant now, Instant target) {
+
+        Cycle cycle = cycles.computeIfAbsent(composite, k -> new Cycle());
+
+        if (cycle.backoff.getAndUpdate(v -> v > 0 ? v - 1 : 0) > 0) {
+
+            log.debug("Skipping backed-off cycle : {} ({} remaining)", composite, cycle.backoff.get());
+
+            sheds.labels(composite.getSite(), composite.getInstrument(), "backoff").inc();
+
+            return false;
+
+        }
+
+        if (!cycle.running.compareAndSet(false, true)) {
+
+            log.debug("Skipping overlapping cycle : {}", composite);
+
+            sheds.labels(composite.getSite(), composite.getInstrument(), "overlap").inc();
+
+            return false;
+
+        }
+
+        try {
+
+            resolve(composite, cycle);
+
+            cycle.started.set(now);
+
+            intervals.labels(composite.getSite(), composite.getInstrument()).set(Duration.between(now, target).toMillis());
+
+            pipeline.process(now, target, composite.getSite(), composite.getInstrument());
+
+        } finally {
+
+            Instant finish = propertyManager.getNow();
+
+            processDuration(cycle.durations, Duration.between(now, finish));
+
+            if (finish.isAfter(target)) {
+
+                log.warn("Cycle overrun : {} (Elapsed {} ms, Target {})",
+                        composite, Duration.between(now, finish).toMillis(), target);
+
+                overruns.labels(composite.getSite(), composite.getInstrument()).inc();
+
+                processBackoff(composite, cycle);
+
+            } else {
+
+                cycle.overruns.set(0);
+
+            }
+
+            cycle.running.set(false);
+
+            if (cycle.pending.get()) {
+                scheduleSignal(composite, cycle);
+            }
+
+        }
+
+        return true;
+
+    }
+
+    /**
+     * Cycles queued beyond their target time are not admitted, since the market data would be outdated already.
+     * Applies to the pooled cycles, the isolated loops and the signalled cycles, of which the targets are
+     * calculated from the time the cycle was due.
+     */
+    @VisibleForTesting
+    boolean isStale(Composite composite, Instant target) {
+        return isStale(composite, propertyManager.getNow(), target);
+    }
+
+    @VisibleForTesting
+    boolean isStale(Composite composite, Instant now, Instant target) {
+
+        if (!now.isAfter(target)) {
+            return false;
+        }
+
+        log.warn("Skipping stale cycle : {} (Target {}, Now {})", composite, target, now);
+
+        sheds.labels(composite.getSite(), composite.getInstrument(), "stale").inc();
+
+        return true;
+
+    }
+
+    /**
+     * Skips the subsequent cycles after the consecutive overruns, doubling the skips for each further overrun.
+     */
+    @VisibleForTesting
+    void processBackoff(Composite composite, Cycle cycle) {
+
+        int count = cycle.overruns.incrementAndGet();
+
+        Integer threshold = propertyManager.getTradingBackoff(composite.getSite(), composite.getInstrument());
+
+        if (threshold == null || threshold <= 0 || count < threshold) {
+            return;
+        }
+
+        long skips = 1L << Math.min(count - threshold, BACKOFF_LIMIT);
+
+        log.warn("Backing off : {} ({} consecutive overruns, skipping {} cycles)", composite, count, skips);
+
+        cycle.backoff.set(skips);
+
+    }
+
+    /**
+     * Resolves the target and the spacing of the cycle, so that the market changes arriving at every tick
+     * are filtered without looking up the configurations.
+     */
+    @VisibleForTesting
+    void resolve(Composite composite, Cycle cycle) {
+
+        Duration spacing = propertyManager.getTradingSpacing(composite.getSite(), composite.getInstrument());
+
+        cycle.target.set(isTarget(composite.getSite(), composite.getInstrument()));
+
+        cycle.spacing.set(spacing == null ? Duration.ZERO : spacing);
+
+    }
+
+    /**
+     * Signals the cycle as resolved by the last cycle, or by the first change if the cycle has not run yet.
+     */
+    @Override
+    public void onMarketChange(Key key) {
+
+        if (key == null || isClosed()) {
+            return;
+        }
+
+        Composite composite = new Composite(trimToEmpty(key.getSite()), trimToEmpty(key.getInstrument()));
+
+        Cycle cycle = cycles.computeIfAbsent(composite, k -> new Cycle());
+
+        if (cycle.spacing.get() == null) {
+            resolve(composite, cycle);
+        }
+
+        if (!cycle.target.get() || cycle.spacing.get().isZero()) {
+            return;
+        }
+
+        if (cycle.pending.compareAndSet(false, true)) {
+            scheduleSignal(composite, cycle);
+        }
+
+    }
+
+    @VisibleForTesting
+    void scheduleSignal(Composite composite, Cycle cycle) {
+
+        Duration spacing = Optional.ofNullable(cycle.spacing.get()).orElse(Duration.ZERO);
+
+        Instant next = cycle.started.get().plus(spacing);
+
+        Instant now = propertyManager.getNow();
+
+        long delay = Math.max(Duration.between(now, next).toMillis(), 0);
+
+        cycle.signalDue.set(now.plusMillis(delay));
+
+        log.trace("Scheduling signal : {} ({} ms)", composite, delay);
+
+        schedule(() -> processSignal(composite), delay, () -> {
+
+            log.debug("Rejected signal : {}", composite);
+
+            cycle.pending.set(false);
+
+        });
+
+    }
+
+    @VisibleForTesting
+    void processSignal(Composite composite) {
+
+        Cycle cycle = cycles.get(composite);
+
+        if (cycle == null || isClosed()) {
+            return;
+        }
+
+        if (cycle.running.get()) {
+            return; // Rescheduled when the running cycle completes.
+        }
+
+        if (!cycle.pending.compareAndSet(true, false)) {
+            return; // Already processed.
+        }
+
+        if (!isTarget(composite.getSite(), composite.getInstrument())) {
+
+            cycle.target.set(false);
+
+            return;
+
+        }
+
+        try {
+
+            Instant now = propertyManager.getNow();
+
+            log.debug("Signal attempt : {} - {}", now, composite);
+
+            Integer frequency = propertyManager.getTradingFrequency(composite.getSite(), composite.getInstrument());
+
+            Duration interval = calculateInterval(cycle.durations);
+
+            Instant due = Optional.ofNullable(cycle.signalDue.get()).filter(now::isAfter).orElse(now);
+
+            Instant target = due.plusMillis(Math.abs(interval.toMillis() * frequency));
+
+            if (!isStale(composite, now, target)) {
+                processCycle(composite, now, target);
+            }
+
+        } catch (RuntimeException e) {
+
+            log.error("Trading failure : " + composite, e);
+
+        }
+
+    }
+
+    @VisibleForTesting
+    boolean isTarget(String site, String instrument) {
+        return propertyManager.getTradingTargets().stream().anyMatch(c ->
+                site.equals(trimToEmpty(c.getSite())) && instrument.equals(trimToEmpty(c.getInstrument())));
+    }
+
     @VisibleForTesting
     Duration calculateInterval(Queue<Duration> durations) {
 
@@ -14,6 +14,7 @@ import java.math.BigDecimal;
 import java.net.URLEncoder;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.unmodifiableList;
@@ -75,6 +76,27 @@ public class BitfinexContext extends TemplateContext implements BitfinexService
 
     }
 
+    @VisibleForTesting
+    CompletableFuture<Optional<BitfinexTick>> queryTickAsync(Key key) {
+
+        return findCachedAsync(BitfinexTick.class, key, () -> {
+
+            String product = URLEncoder.encode(key.getInstrument(), UTF_8.name());
+
+            return requestAsync(URL_TICKER + product).thenApply(data -> {
+
+                if (StringUtils.isEmpty(data)) {
+                    return null;
+                }
+
+                return gson.fromJson(data, BitfinexTick.class);
+
+            });
+
+        }).thenApply(Optional::ofNullable);
+
+    }
+
     @Override
     public BigDecimal getBestAskPrice(Key key) {
         return queryTick(key).map(BitfinexTick::getAsk).orElse(null);
@@ -90,6 +112,21 @@ public class BitfinexContext extends TemplateContext implements BitfinexService
         return queryTick(key).map(BitfinexTick::getLast).orElse(null);
     }
 
+    @Override
+    public CompletableFuture<BigDecimal> getBestAskPriceAsync(Key key) {
+        return queryTickAsync(key).thenApply(t -> t.map(BitfinexTick::getAsk).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestBidPriceAsync(Key key) {
+        return queryTickAsync(key).thenApply(t -> t.map(BitfinexTick::getBid).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getLastPriceAsync(Key key) {
+        return queryTickAsync(key).thenApply(t -> t.map(BitfinexTick::getLast).orElse(null));
+    }
+
     @Override
     public List<Trade> listTrades(Key key, Instant fromTime) {
 
@@ -97,17 +134,40 @@ public class BitfinexContext extends TemplateContext implements BitfinexService
 
             String product = URLEncoder.encode(key.getInstrument(), UTF_8.name());
 
-            String data = request(URL_TRADE + product);
+            return parseTrades(request(URL_TRADE + product));
 
-            if (StringUtils.isEmpty(data)) {
-                return null;
-            }
+        });
 
-            List<BitfinexTrade> trades = gson.fromJson(data, TYPE_TRADE);
+        return filterTrades(values, fromTime);
 
-            return Collections.unmodifiableList(trades);
+    }
 
-        });
+    @Override
+    public CompletableFuture<List<Trade>> listTradesAsync(Key key, Instant fromTime) {
+
+        return listCachedAsync(BitfinexTrade.class, key, () -> {
+
+            String product = URLEncoder.encode(key.getInstrument(), UTF_8.name());
+
+            return requestAsync(URL_TRADE + product).thenApply(this::parseTrades);
+
+        }).thenApply(values -> filterTrades(values, fromTime));
+
+    }
+
+    private List<BitfinexTrade> parseTrades(String data) {
+
+        if (StringUtils.isEmpty(data)) {
+            return null;
+        }
+
+        List<BitfinexTrade> trades = gson.fromJson(data, TYPE_TRADE);
+
+        return Collections.unmodifiableList(trades);
+
+    }
+
+    private List<Trade> filterTrades(List<BitfinexTrade> values, Instant fromTime) {
 
         if (values == null) {
             return null;
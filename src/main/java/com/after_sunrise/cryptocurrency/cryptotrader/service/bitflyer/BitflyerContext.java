@@ -106,6 +106,8 @@ public class BitflyerContext extends TemplateContext implements BitflyerService,
 
     private final Map<String, NavigableMap<Instant, BitflyerTrade>> realtimeTrades;
 
+    private final Map<String, Set<String>> realtimeInstruments;
+
     public BitflyerContext() {
 
         this(new Bitflyer4jFactory().createInstance());
@@ -117,6 +119,22 @@ public class BitflyerContext extends TemplateContext implements BitflyerService,
 
         super(ID);
 
+        setFreshness(Product.class, Duration.ofHours(1));
+
+        setFreshness(TradeCommission.class, Duration.ofHours(1));
+
+        setFreshness(Balance.class, Duration.ofSeconds(5));
+
+        setFreshness(Collateral.class, Duration.ofSeconds(5));
+
+        setFreshness(Margin.class, Duration.ofSeconds(5));
+
+        setFreshness(TradePosition.class, Duration.ofSeconds(5));
+
+        setFreshness(BitflyerBoard.class, Duration.ofMillis(200));
+
+        setFreshness(Tick.class, Duration.ofMillis(200));
+
         realtimeLocks = synchronizedMap(new HashMap<>());
 
         realtimeBoards = new ConcurrentHashMap<>();
@@ -125,6 +143,8 @@ public class BitflyerContext extends TemplateContext implements BitflyerService,
 
         realtimeTrades = new ConcurrentHashMap<>();
 
+        realtimeInstruments = new ConcurrentHashMap<>();
+
         bitflyer4j = api;
 
         accountService = bitflyer4j.getAccountService();
@@ -166,6 +186,8 @@ public class BitflyerContext extends TemplateContext implements BitflyerService,
 
         realtimeBoards.put(key, Optional.of(new BitflyerBoard(timestamp, value)));
 
+        notifyRealtime(key);
+
     }
 
     @Override
@@ -183,6 +205,8 @@ public class BitflyerContext extends TemplateContext implements BitflyerService,
 
         });
 
+        notifyRealtime(product);
+
     }
 
     @Override
@@ -196,11 +220,37 @@ public class BitflyerContext extends TemplateContext implements BitflyerService,
 
         NavigableMap<Instant, BitflyerTrade> trades = realtimeTrades.get(id);
 
-        if (trades == null) {
+        if (trades != null) {
+            updateExecutions(trades, values);
+        }
+
+        notifyRealtime(id);
+
+    }
+
+    @VisibleForTesting
+    void registerRealtime(String product, Key key) {
+
+        if (StringUtils.isEmpty(product) || key == null || StringUtils.isEmpty(key.getInstrument())) {
+            return;
+        }
+
+        realtimeInstruments.computeIfAbsent(product, k -> ConcurrentHashMap.newKeySet()).add(key.getInstrument());
+
+    }
+
+    @VisibleForTesting
+    void notifyRealtime(String product) {
+
+        Set<String> instruments = realtimeInstruments.get(StringUtils.trimToEmpty(product));
+
+        if (CollectionUtils.isEmpty(instruments)) {
             return;
         }
 
-        updateExecutions(trades, values);
+        Instant now = getNow();
+
+        instruments.forEach(i -> notifyMarketChange(Key.builder().site(ID).instrument(i).timestamp(now).build()));
 
     }
 
@@ -287,6 +337,8 @@ public class BitflyerContext extends TemplateContext implements BitflyerService,
 
             String instrument = StringUtils.trimToEmpty(convertProductAlias(key));
 
+            registerRealtime(instrument, key);
+
             Optional<BitflyerBoard> realtime = realtimeBoards.get(instrument);
 
             if (realtime == null) {
@@ -332,6 +384,8 @@ public class BitflyerContext extends TemplateContext implements BitflyerService,
 
             String instrument = StringUtils.trimToEmpty(convertProductAlias(key));
 
+            registerRealtime(instrument, key);
+
             Optional<Tick> realtime = realtimeTicks.get(instrument);
 
             if (realtime == null) {
@@ -501,6 +555,8 @@ public class BitflyerContext extends TemplateContext implements BitflyerService,
 
         String id = StringUtils.trimToEmpty(convertProductAlias(key));
 
+        registerRealtime(id, key);
+
         Lock lock = realtimeLocks.computeIfAbsent(id, k -> new ReentrantLock());
 
         NavigableMap<Instant, BitflyerTrade> trades;
@@ -1,32 +1,44 @@
 package com.after_sunrise.cryptocurrency.cryptotrader.service.bitmex;
 
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.AmendInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Order;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Trade;
 import com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateContext;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Sets;
 import com.google.common.reflect.TypeToken;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.configuration2.ex.ConfigurationException;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
+import javax.websocket.*;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.Reader;
 import java.lang.reflect.Type;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.security.GeneralSecurityException;
+import java.net.URI;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
 
 import static com.after_sunrise.cryptocurrency.cryptotrader.service.bitmex.BitmexService.SideType.BUY;
@@ -37,6 +49,8 @@ import static java.math.BigDecimal.*;
 import static java.math.RoundingMode.HALF_UP;
 import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonMap;
+import static java.util.Collections.unmodifiableSet;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.stream.Collectors.toList;
 import static org.apache.commons.lang3.math.NumberUtils.INTEGER_ZERO;
 
@@ -71,15 +85,6 @@ public class BitmexContext extends TemplateContext implements BitmexService {
     private static final Type TYPE_TICKER = new TypeToken<List<BitmexTick>>() {
     }.getType();
 
-    private static final Type TYPE_BOOK = new TypeToken<List<BitmexBook>>() {
-    }.getType();
-
-    private static final Type TYPE_TRADE = new TypeToken<List<BitmexTrade>>() {
-    }.getType();
-
-    private static final Type TYPE_BUCKETED = new TypeToken<List<BitmexTrade.Bucketed>>() {
-    }.getType();
-
     private static final Type TYPE_POSITION = new TypeToken<List<BitmexPosition>>() {
     }.getType();
 
@@ -92,16 +97,48 @@ public class BitmexContext extends TemplateContext implements BitmexService {
     private static final Type TYPE_EXECUTION = new TypeToken<List<BitmexExecution>>() {
     }.getType();
 
+    private static final String WS_ENDPOINT = "wss://www.bitmex.com/realtime";
+
+    private static final Duration WS_INTERVAL = Duration.ofSeconds(5);
+
+    private static final Duration WS_EXPIRY = Duration.ofMinutes(1);
+
+    private static final Set<String> WS_TABLES = unmodifiableSet(Sets.newHashSet("order", "execution"));
+
+    private static final Set<String> STATUS_DONE = unmodifiableSet(Sets.newHashSet("Filled", "Canceled", "Rejected"));
+
+    private static final String NULL_ORDER = "00000000-0000-0000-0000-000000000000";
+
     private static final Duration BUCKETED = Duration.ofHours(1);
 
-    private final AtomicLong lastNonce = new AtomicLong();
+    private static final int TRADE_COUNT = 500;
+
+    private final Object nonceLock = new Object();
 
     private final Gson gson;
 
+    private final Map<String, JsonObject> streamed = new ConcurrentHashMap<>();
+
+    private final Map<String, Set<String>> instruments = new ConcurrentHashMap<>();
+
+    private final AtomicBoolean streaming = new AtomicBoolean();
+
+    private final ExecutorService executor;
+
     public BitmexContext() throws ConfigurationException {
 
         super(ID);
 
+        setFreshness(BitmexAlias.class, Duration.ofHours(1));
+
+        setFreshness(BitmexPosition.class, Duration.ofSeconds(5));
+
+        setFreshness(BitmexMargin.class, Duration.ofSeconds(5));
+
+        setFreshness(BitmexBook.class, Duration.ofMillis(200));
+
+        setFreshness(BitmexTick.class, Duration.ofMillis(200));
+
         GsonBuilder builder = new GsonBuilder();
 
         builder.registerTypeAdapter(Instant.class,
@@ -110,11 +147,56 @@ public class BitmexContext extends TemplateContext implements BitmexService {
 
         gson = builder.create();
 
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            t.setName(getClass().getSimpleName());
+            return t;
+        });
+
+    }
+
+    @Override
+    public void close() throws Exception {
+
+        executor.shutdown();
+
+        super.close();
+
     }
 
     @VisibleForTesting
     String convertAlias(Key key) {
 
+        String symbol = findAlias(key);
+
+        ProductType product = symbol == null ? null : ProductType.findByName(key.getInstrument());
+
+        if (product != null && product.getMultiplier() != null) { // Tradable
+            instruments.computeIfAbsent(symbol, s -> ConcurrentHashMap.newKeySet()).add(key.getInstrument());
+        }
+
+        return symbol;
+
+    }
+
+    /**
+     * Converts the symbol back to the tradable instrument, among those converted by {@link #convertAlias(Key)}.
+     *
+     * @return Instrument, or {@code null} if the symbol has not been converted to, or has been converted to
+     * from multiple instruments.
+     */
+    @VisibleForTesting
+    String convertSymbol(String symbol) {
+
+        Set<String> values = symbol == null ? null : instruments.get(symbol);
+
+        return values == null || values.size() != 1 ? null : values.iterator().next();
+
+    }
+
+    private String findAlias(Key key) {
+
         if (key == null) {
             return null;
         }
@@ -173,31 +255,24 @@ public class BitmexContext extends TemplateContext implements BitmexService {
 
         }
 
-        Key newKey = Key.build(key).instrument(WILDCARD).build();
-
-        List<BitmexTick> ticks = listCached(BitmexTick.class, newKey, () -> {
-
-            String data = request(GET, URL + URL_TICKER, null, null);
+        String instrument = convertAlias(key);
 
-            if (StringUtils.isEmpty(data)) {
-                return null;
-            }
+        if (StringUtils.isBlank(instrument)) {
+            return Optional.empty();
+        }
 
-            return gson.fromJson(data, TYPE_TICKER);
+        Optional<BitmexTick> result = Optional.ofNullable(findSnapshot(
+                BitmexTick.class, key, instrument, BitmexTick::getSymbol, () -> {
 
-        });
+                    String data = request(GET, URL + URL_TICKER, null, null);
 
-        if (ticks == null) {
-            return Optional.empty();
-        }
+                    if (StringUtils.isEmpty(data)) {
+                        return null;
+                    }
 
-        String instrument = convertAlias(key);
+                    return gson.fromJson(data, TYPE_TICKER);
 
-        Optional<BitmexTick> result = ticks.stream()
-                .filter(Objects::nonNull)
-                .filter(t -> StringUtils.isNotBlank(t.getSymbol()))
-                .filter(t -> StringUtils.equals(t.getSymbol(), instrument))
-                .findAny();
+                }));
 
         if (ProductType.XBT_FR == ProductType.findByName(key.getInstrument())) {
 
@@ -216,6 +291,40 @@ public class BitmexContext extends TemplateContext implements BitmexService {
 
     }
 
+    /**
+     * Decodes the elements of the JSON array one by one, stopping at the limit without reading the rest.
+     *
+     * @return Decoded elements, or null if the response is empty.
+     */
+    @VisibleForTesting
+    <T> List<T> readList(Reader reader, Class<T> type, int limit) throws IOException {
+
+        JsonReader json = gson.newJsonReader(reader);
+
+        json.setLenient(true);
+
+        try {
+
+            if (json.peek() == JsonToken.NULL) {
+                return null;
+            }
+
+        } catch (EOFException e) {
+            return null;
+        }
+
+        List<T> values = new ArrayList<>();
+
+        json.beginArray();
+
+        while (values.size() < limit && json.hasNext()) {
+            values.add(gson.fromJson(json, type));
+        }
+
+        return values;
+
+    }
+
     @VisibleForTesting
     List<BitmexBook> queryBooks(Key key) {
 
@@ -230,13 +339,12 @@ public class BitmexContext extends TemplateContext implements BitmexService {
             parameters.put("depth", TEN.toPlainString());
             String path = URL + URL_BOOK + buildQueryParameter(parameters);
 
-            String data = request(GET, path, null, null);
+            // Levels of both sides.
+            int limit = TEN.intValue() * 2;
 
-            if (StringUtils.isEmpty(data)) {
-                return null;
-            }
+            List<BitmexBook> values = request(GET, path, null, null, r -> readList(r, BitmexBook.class, limit));
 
-            return Collections.unmodifiableList(gson.fromJson(data, TYPE_BOOK));
+            return values == null ? null : Collections.unmodifiableList(values);
 
         });
 
@@ -297,6 +405,11 @@ public class BitmexContext extends TemplateContext implements BitmexService {
         return queryTick(key).map(t -> UNLISTED.equals(t.getState()) ? t.getLast() : t.getMid()).orElse(null);
     }
 
+    @Override
+    public CompletableFuture<BigDecimal> getMidPriceAsync(Key key) {
+        return CompletableFuture.completedFuture(getMidPrice(key));
+    }
+
     @Override
     public BigDecimal getLastPrice(Key key) {
         return queryTick(key).map(BitmexTick::getLast).orElse(null);
@@ -372,19 +485,15 @@ public class BitmexContext extends TemplateContext implements BitmexService {
         List<? extends Trade> trades = listCached(BitmexTrade.class, key, () -> {
 
             Map<String, String> parameters = new LinkedHashMap<>();
-            parameters.put("count", "500");
+            parameters.put("count", String.valueOf(TRADE_COUNT));
             parameters.put("reverse", "true");
             parameters.put("symbol", convertAlias(key));
 
             String path = URL + URL_TRADE + buildQueryParameter(parameters);
 
-            String data = request(path);
+            List<BitmexTrade> values = request(GET, path, null, null, r -> readList(r, BitmexTrade.class, TRADE_COUNT));
 
-            if (StringUtils.isEmpty(data)) {
-                return null;
-            }
-
-            return Collections.unmodifiableList(gson.fromJson(data, TYPE_TRADE));
+            return values == null ? null : Collections.unmodifiableList(values);
 
         });
 
@@ -400,19 +509,16 @@ public class BitmexContext extends TemplateContext implements BitmexService {
                 Map<String, String> parameters = new LinkedHashMap<>();
                 parameters.put("binSize", "1m");
                 parameters.put("partial", "true");
-                parameters.put("count", "500");
+                parameters.put("count", String.valueOf(TRADE_COUNT));
                 parameters.put("reverse", "true");
                 parameters.put("symbol", convertAlias(key));
 
                 String path = URL + URL_BUCKETED + buildQueryParameter(parameters);
 
-                String data = request(path);
-
-                if (StringUtils.isEmpty(data)) {
-                    return null;
-                }
+                List<BitmexTrade.Bucketed> values = request(GET, path, null, null,
+                        r -> readList(r, BitmexTrade.Bucketed.class, TRADE_COUNT));
 
-                return Collections.unmodifiableList(gson.fromJson(data, TYPE_BUCKETED));
+                return values == null ? null : Collections.unmodifiableList(values);
 
             });
 
@@ -529,29 +635,9 @@ public class BitmexContext extends TemplateContext implements BitmexService {
     @VisibleForTesting
     String computeHash(String secret, String method, String path, String nonce, String data) throws IOException {
 
-        try {
-
-            Mac mac = Mac.getInstance("HmacSHA256");
-
-            mac.init(new SecretKeySpec(secret.getBytes(), "HmacSHA256"));
+        String raw = method + path + nonce + StringUtils.trimToEmpty(data);
 
-            String raw = method + path + nonce + StringUtils.trimToEmpty(data);
-
-            byte[] hash = mac.doFinal(raw.getBytes());
-
-            StringBuilder sb = new StringBuilder(hash.length);
-
-            for (byte b : hash) {
-                sb.append(String.format("%02x", b & 0xff));
-            }
-
-            return sb.toString();
-
-        } catch (GeneralSecurityException e) {
-
-            throw new IOException("Failed to compute hash.", e);
-
-        }
+        return computeHash("HmacSHA256", secret.getBytes(), raw.getBytes());
 
     }
 
@@ -569,27 +655,9 @@ public class BitmexContext extends TemplateContext implements BitmexService {
 
         String result;
 
-        synchronized (lastNonce) {
-
-            long millis = 0;
-
-            for (int i = 0; i < Short.MAX_VALUE; i++) {
-
-                millis = getNow().toEpochMilli();
-
-                if (lastNonce.get() < millis) {
-
-                    lastNonce.set(millis);
-
-                    break;
+        synchronized (nonceLock) { // Nonces must arrive in order.
 
-                }
-
-                Thread.yield();
-
-            }
-
-            String nonce = String.valueOf(millis);
+            String nonce = String.valueOf(getNonce(apiKey));
             String hash = computeHash(secret, type.name(), url + suffix, nonce, data);
 
             Map<String, String> headers = new HashMap<>();
@@ -834,7 +902,7 @@ public class BitmexContext extends TemplateContext implements BitmexService {
 
             Map<String, String> parameters = new LinkedHashMap<>();
             parameters.put("reverse", "true");
-            parameters.put("count", "500");
+            parameters.put("count", String.valueOf(TRADE_COUNT));
             parameters.put("symbol", convertAlias(key));
 
             String data = executePrivate(GET, URL_ORDER, parameters, null);
@@ -876,7 +944,7 @@ public class BitmexContext extends TemplateContext implements BitmexService {
         List<BitmexExecution> values = listCached(BitmexExecution.class, key, () -> {
 
             Map<String, String> parameters = new LinkedHashMap<>();
-            parameters.put("count", "500");
+            parameters.put("count", String.valueOf(TRADE_COUNT));
             parameters.put("reverse", "true");
             parameters.put("symbol", convertAlias(key));
 
@@ -894,6 +962,186 @@ public class BitmexContext extends TemplateContext implements BitmexService {
 
     }
 
+    /**
+     * Starts streaming the private "order" and "execution" topics, which are pushed to the listeners as the order
+     * acknowledgements. Orders are also reconciled by polling, so the stream is only for the early notifications.
+     */
+    @VisibleForTesting
+    void startStream() {
+
+        String apiKey = getStringProperty("api.id", null);
+        String secret = getStringProperty("api.secret", null);
+
+        if (StringUtils.isEmpty(apiKey) || StringUtils.isEmpty(secret)) {
+            return;
+        }
+
+        if (streaming.compareAndSet(false, true)) {
+
+            URI uri = URI.create(getStringProperty("socket", WS_ENDPOINT));
+
+            executor.submit(() -> scheduleSocket(uri, WS_INTERVAL));
+
+        }
+
+    }
+
+    @VisibleForTesting
+    void scheduleSocket(URI uri, Duration interval) {
+
+        Session session = null;
+
+        while (!executor.isShutdown()) {
+
+            try {
+
+                if (session == null || !session.isOpen()) {
+
+                    WebSocketContainer c = ContainerProvider.getWebSocketContainer();
+
+                    session = c.connectToServer(new Endpoint() {
+                        @Override
+                        public void onOpen(Session s, EndpointConfig config) {
+                            onSocketOpen(s);
+                        }
+
+                        @Override
+                        public void onError(Session s, Throwable t) {
+
+                            log.debug("Socket error : " + s.getId(), t);
+
+                            IOUtils.closeQuietly(s);
+
+                        }
+                    }, ClientEndpointConfig.Builder.create().build(), uri);
+
+                    log.debug("Initialized socket : {}", session.getId());
+
+                }
+
+            } catch (Exception e) {
+                log.debug("Scheduling failure.", e);
+            }
+
+            try {
+
+                MILLISECONDS.sleep(interval.toMillis());
+
+            } catch (InterruptedException e) {
+
+                log.debug("Scheduling interrupted.");
+
+                Thread.currentThread().interrupt(); // Propagate interruption.
+
+                break;
+
+            }
+
+        }
+
+        IOUtils.closeQuietly(session);
+
+    }
+
+    @VisibleForTesting
+    void onSocketOpen(Session session) {
+
+        log.debug("Socket opened : {}", session.getId());
+
+        streamed.clear(); // Snapshots are sent again on subscription.
+
+        session.addMessageHandler(String.class, this::onSocketMessage);
+
+        try {
+
+            String apiKey = getStringProperty("api.id", null);
+            String secret = getStringProperty("api.secret", null);
+            String expires = String.valueOf(getNow().plus(WS_EXPIRY).getEpochSecond());
+            String hash = computeHash(secret, GET.name(), "/realtime", expires, null);
+
+            Map<String, Object> auth = new LinkedHashMap<>();
+            auth.put("op", "authKeyExpires");
+            auth.put("args", Arrays.asList(apiKey, Long.valueOf(expires), hash));
+            session.getBasicRemote().sendText(gson.toJson(auth));
+
+            Map<String, Object> subscribe = new LinkedHashMap<>();
+            subscribe.put("op", "subscribe");
+            subscribe.put("args", new ArrayList<>(new TreeSet<>(WS_TABLES)));
+            session.getBasicRemote().sendText(gson.toJson(subscribe));
+
+        } catch (Exception e) {
+
+            log.debug("Socket subscription failure : " + session.getId(), e);
+
+            IOUtils.closeQuietly(session);
+
+        }
+
+    }
+
+    /**
+     * Merges the rows of the order and execution tables per order, since the updates only contain the changed fields,
+     * and notifies the merged orders to the listeners. Orders are discarded from the merge once filled or cancelled.
+     * The instrument of the notified key is the one converted to the order's symbol, or {@code null} if unknown.
+     */
+    @VisibleForTesting
+    void onSocketMessage(String message) {
+
+        JsonObject root = gson.fromJson(message, JsonObject.class);
+
+        JsonElement table = root == null ? null : root.get("table");
+
+        if (table == null || !table.isJsonPrimitive() || !WS_TABLES.contains(table.getAsString())) {
+
+            log.trace("Socket message : {}", message);
+
+            return;
+
+        }
+
+        JsonElement data = root.get("data");
+
+        if (data == null || !data.isJsonArray()) {
+            return;
+        }
+
+        for (JsonElement element : data.getAsJsonArray()) {
+
+            if (!element.isJsonObject()) {
+                continue;
+            }
+
+            JsonObject row = element.getAsJsonObject();
+
+            JsonElement id = row.get("orderID");
+
+            if (id == null || !id.isJsonPrimitive() || NULL_ORDER.equals(id.getAsString())) {
+                continue; // Funding and settlements
+            }
+
+            JsonObject merged = streamed.merge(id.getAsString(), row, (previous, update) -> {
+                update.entrySet().forEach(e -> previous.add(e.getKey(), e.getValue()));
+                return previous;
+            });
+
+            JsonElement status = merged.get("ordStatus");
+
+            if (status != null && status.isJsonPrimitive() && STATUS_DONE.contains(status.getAsString())) {
+                streamed.remove(id.getAsString());
+            }
+
+            BitmexOrder order = gson.fromJson(merged, BitmexOrder.class);
+
+            String instrument = convertSymbol(order.getProduct());
+
+            Key key = Key.builder().site(ID).instrument(instrument).timestamp(getNow()).build();
+
+            notifyOrderChange(key, order);
+
+        }
+
+    }
+
     @Override
     public Map<CreateInstruction, String> createOrders(Key key, Set<CreateInstruction> instructions) {
 
@@ -901,6 +1149,8 @@ public class BitmexContext extends TemplateContext implements BitmexService {
             return Collections.emptyMap();
         }
 
+        startStream();
+
         List<CreateInstruction> inputs = instructions.stream().filter(Objects::nonNull).collect(toList());
 
         Map<CreateInstruction, String> map = new IdentityHashMap<>();
@@ -959,6 +1209,8 @@ public class BitmexContext extends TemplateContext implements BitmexService {
             return Collections.emptyMap();
         }
 
+        startStream();
+
         Map<CancelInstruction, String> map = new IdentityHashMap<>();
 
         try {
@@ -998,4 +1250,64 @@ public class BitmexContext extends TemplateContext implements BitmexService {
 
     }
 
+    /**
+     * Amends the price and the remaining quantity of the orders in a single bulk request, keeping the client order ids.
+     */
+    @Override
+    public Map<AmendInstruction, String> amendOrders(Key key, Set<AmendInstruction> instructions) {
+
+        if (CollectionUtils.isEmpty(instructions)) {
+            return Collections.emptyMap();
+        }
+
+        startStream();
+
+        List<AmendInstruction> inputs = instructions.stream()
+                .filter(Objects::nonNull)
+                .filter(i -> StringUtils.isNotEmpty(i.getId()))
+                .filter(i -> i.getPrice() == null || i.getPrice().signum() != 0)
+                .filter(i -> i.getSize() == null || i.getSize().signum() != 0)
+                .filter(i -> i.getPrice() != null || i.getSize() != null)
+                .collect(toList());
+
+        Map<AmendInstruction, String> map = new IdentityHashMap<>();
+
+        instructions.stream().filter(Objects::nonNull).forEach(i -> map.put(i, null));
+
+        if (inputs.isEmpty()) {
+            return map;
+        }
+
+        try {
+
+            String data = gson.toJson(singletonMap("orders", inputs.stream().map(i -> {
+                Map<String, Object> params = new TreeMap<>();
+                params.put("origClOrdID", i.getId());
+                params.put("price", i.getPrice());
+                params.put("leavesQty", i.getSize() == null ? null : i.getSize().abs());
+                return params;
+            }).collect(toList())));
+
+            String result = executePrivate(RequestType.PUT, URL_ORDER_BULK, emptyMap(), data);
+
+            List<BitmexOrder> results = gson.fromJson(result, TYPE_ORDER);
+
+            inputs.forEach(i -> map.put(i, results.stream()
+                    .filter(Objects::nonNull)
+                    .filter(o -> StringUtils.isNotEmpty(o.getClientId()))
+                    .filter(o -> StringUtils.equals(o.getClientId(), i.getId()))
+                    .map(BitmexOrder::getClientId)
+                    .findAny().orElse(null))
+            );
+
+        } catch (Exception e) {
+
+            log.warn("Order amend failure : " + instructions, e);
+
+        }
+
+        return map;
+
+    }
+
 }
@@ -105,6 +105,26 @@ public class BitpointContext extends TemplateContext implements BitpointService
 
     }
 
+    @VisibleForTesting
+    CompletableFuture<Optional<BitpointDepth>> queryDepthAsync(Key key) {
+
+        ProductType product = ProductType.find(key.getInstrument());
+
+        if (product == null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        return findCachedAsync(BitpointDepth.class, key, () -> {
+
+            Map<String, String> parameters = singletonMap("symbol", product.getId());
+
+            return requestAsync(URL_SMART + "/api/depth" + buildQueryParameter(parameters))
+                    .thenApply(data -> gson.fromJson(data, BitpointDepth.class));
+
+        }).thenApply(Optional::ofNullable);
+
+    }
+
     @Override
     public BigDecimal getBestAskPrice(Key key) {
         return queryDepth(key).map(BitpointDepth::getAskPrices)
@@ -139,11 +159,51 @@ public class BitpointContext extends TemplateContext implements BitpointService
         return queryDepth(key).map(BitpointDepth::getBidPrices).orElse(null);
     }
 
+    @Override
+    public CompletableFuture<BigDecimal> getBestAskPriceAsync(Key key) {
+        return queryDepthAsync(key).thenApply(d -> d.map(BitpointDepth::getAskPrices)
+                .map(NavigableMap::firstEntry).map(Entry::getKey).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestBidPriceAsync(Key key) {
+        return queryDepthAsync(key).thenApply(d -> d.map(BitpointDepth::getBidPrices)
+                .map(NavigableMap::firstEntry).map(Entry::getKey).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestAskSizeAsync(Key key) {
+        return queryDepthAsync(key).thenApply(d -> d.map(BitpointDepth::getAskPrices)
+                .map(NavigableMap::firstEntry).map(Entry::getValue).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestBidSizeAsync(Key key) {
+        return queryDepthAsync(key).thenApply(d -> d.map(BitpointDepth::getBidPrices)
+                .map(NavigableMap::firstEntry).map(Entry::getValue).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<Map<BigDecimal, BigDecimal>> getAskPricesAsync(Key key) {
+        return queryDepthAsync(key).thenApply(d -> d.map(BitpointDepth::getAskPrices).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<Map<BigDecimal, BigDecimal>> getBidPricesAsync(Key key) {
+        return queryDepthAsync(key).thenApply(d -> d.map(BitpointDepth::getBidPrices).orElse(null));
+    }
+
     @Override
     public BigDecimal getLastPrice(Key key) {
+        return findLastPrice(listTrades(key, null));
+    }
 
-        List<Trade> trades = listTrades(key, null);
+    @Override
+    public CompletableFuture<BigDecimal> getLastPriceAsync(Key key) {
+        return listTradesAsync(key, null).thenApply(this::findLastPrice);
+    }
 
+    private BigDecimal findLastPrice(List<Trade> trades) {
         return trimToEmpty(trades).stream()
                 .filter(Objects::nonNull)
                 .filter(t -> t.getTimestamp() != null)
@@ -168,12 +228,44 @@ public class BitpointContext extends TemplateContext implements BitpointService
 
             String data = request(URL_SMART + "/api/trades" + buildQueryParameter(parameters));
 
-            List<BitpointTrade> trades = gson.fromJson(data, TYPE_TRADE);
-
-            return Collections.unmodifiableList(trades);
+            return parseTrades(data);
 
         });
 
+        return filterTrades(values, fromTime);
+
+    }
+
+    @Override
+    public CompletableFuture<List<Trade>> listTradesAsync(Key key, Instant fromTime) {
+
+        ProductType product = ProductType.find(key.getInstrument());
+
+        if (product == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return listCachedAsync(BitpointTrade.class, key, () -> {
+
+            Map<String, String> parameters = singletonMap("symbol", product.getId());
+
+            return requestAsync(URL_SMART + "/api/trades" + buildQueryParameter(parameters))
+                    .thenApply(this::parseTrades);
+
+        }).thenApply(values -> filterTrades(values, fromTime));
+
+    }
+
+    private List<BitpointTrade> parseTrades(String data) {
+
+        List<BitpointTrade> trades = gson.fromJson(data, TYPE_TRADE);
+
+        return Collections.unmodifiableList(trades);
+
+    }
+
+    private List<Trade> filterTrades(List<BitpointTrade> values, Instant fromTime) {
+
         if (values == null) {
             return null;
         }
@@ -21,7 +21,7 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 
 import static com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateContext.RequestType.POST;
@@ -76,11 +76,7 @@ public class BtcboxContext extends TemplateContext implements BtcboxService {
 
             String data = request(ENDPOINT + "/api/v1/ticker");
 
-            if (StringUtils.isEmpty(data)) {
-                return null;
-            }
-
-            return gson.fromJson(data, BtcboxTick.class);
+            return parse(data, BtcboxTick.class);
 
         });
 
@@ -88,6 +84,29 @@ public class BtcboxContext extends TemplateContext implements BtcboxService {
 
     }
 
+    @VisibleForTesting
+    CompletableFuture<Optional<BtcboxTick>> fetchTickAsync(Key key) {
+
+        if (ProductType.BTC_JPY != ProductType.find(key.getInstrument())) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        return findCachedAsync(BtcboxTick.class, key,
+                () -> requestAsync(ENDPOINT + "/api/v1/ticker").thenApply(data -> parse(data, BtcboxTick.class))
+        ).thenApply(Optional::ofNullable);
+
+    }
+
+    private <T> T parse(String data, Class<T> type) {
+
+        if (StringUtils.isEmpty(data)) {
+            return null;
+        }
+
+        return gson.fromJson(data, type);
+
+    }
+
     @Override
     public BigDecimal getBestAskPrice(Key key) {
         return fetchTick(key).map(BtcboxTick::getSell).orElse(null);
@@ -103,6 +122,21 @@ public class BtcboxContext extends TemplateContext implements BtcboxService {
         return fetchTick(key).map(BtcboxTick::getLast).orElse(null);
     }
 
+    @Override
+    public CompletableFuture<BigDecimal> getBestAskPriceAsync(Key key) {
+        return fetchTickAsync(key).thenApply(t -> t.map(BtcboxTick::getSell).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestBidPriceAsync(Key key) {
+        return fetchTickAsync(key).thenApply(t -> t.map(BtcboxTick::getBuy).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getLastPriceAsync(Key key) {
+        return fetchTickAsync(key).thenApply(t -> t.map(BtcboxTick::getLast).orElse(null));
+    }
+
     @VisibleForTesting
     Optional<BtcboxDepth> fetchDepth(Key key) {
 
@@ -114,11 +148,7 @@ public class BtcboxContext extends TemplateContext implements BtcboxService {
 
             String data = request(ENDPOINT + "/api/v1/depth");
 
-            if (StringUtils.isEmpty(data)) {
-                return null;
-            }
-
-            return gson.fromJson(data, BtcboxDepth.class);
+            return parse(data, BtcboxDepth.class);
 
         });
 
@@ -126,6 +156,19 @@ public class BtcboxContext extends TemplateContext implements BtcboxService {
 
     }
 
+    @VisibleForTesting
+    CompletableFuture<Optional<BtcboxDepth>> fetchDepthAsync(Key key) {
+
+        if (ProductType.BTC_JPY != ProductType.find(key.getInstrument())) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        return findCachedAsync(BtcboxDepth.class, key,
+                () -> requestAsync(ENDPOINT + "/api/v1/depth").thenApply(data -> parse(data, BtcboxDepth.class))
+        ).thenApply(Optional::ofNullable);
+
+    }
+
     @Override
     public BigDecimal getBestAskSize(Key key) {
         return fetchDepth(key).map(BtcboxDepth::getAskPrices)
@@ -148,6 +191,28 @@ public class BtcboxContext extends TemplateContext implements BtcboxService {
         return fetchDepth(key).map(BtcboxDepth::getBidPrices).orElse(null);
     }
 
+    @Override
+    public CompletableFuture<BigDecimal> getBestAskSizeAsync(Key key) {
+        return fetchDepthAsync(key).thenApply(d -> d.map(BtcboxDepth::getAskPrices)
+                .map(NavigableMap::firstEntry).map(Map.Entry::getValue).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestBidSizeAsync(Key key) {
+        return fetchDepthAsync(key).thenApply(d -> d.map(BtcboxDepth::getBidPrices)
+                .map(NavigableMap::firstEntry).map(Map.Entry::getValue).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<Map<BigDecimal, BigDecimal>> getAskPricesAsync(Key key) {
+        return fetchDepthAsync(key).thenApply(d -> d.map(BtcboxDepth::getAskPrices).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<Map<BigDecimal, BigDecimal>> getBidPricesAsync(Key key) {
+        return fetchDepthAsync(key).thenApply(d -> d.map(BtcboxDepth::getBidPrices).orElse(null));
+    }
+
     @Override
     public List<Trade> listTrades(Key key, Instant fromTime) {
 
@@ -159,26 +224,49 @@ public class BtcboxContext extends TemplateContext implements BtcboxService {
 
             String data = request(ENDPOINT + "/api/v1/orders");
 
-            if (StringUtils.isEmpty(data)) {
-                return null;
-            }
-
-            return unmodifiableList(trimToEmpty(gson.<List<BtcboxTrade>>fromJson(data, TYPE_TRADE))
-                    .stream()
-                    .filter(Objects::nonNull)
-                    .filter(t -> t.getId() != null)
-                    .filter(t -> t.getTimestamp() != null)
-                    .collect(Collectors.toList())
-            );
+            return parseTrades(data);
 
         });
 
+        return filterTrades(values, fromTime);
+
+    }
+
+    @Override
+    public CompletableFuture<List<Trade>> listTradesAsync(Key key, Instant fromTime) {
+
+        if (ProductType.BTC_JPY != ProductType.find(key.getInstrument())) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return listCachedAsync(BtcboxTrade.class, key,
+                () -> requestAsync(ENDPOINT + "/api/v1/orders").thenApply(this::parseTrades)
+        ).thenApply(values -> filterTrades(values, fromTime));
+
+    }
+
+    private List<BtcboxTrade> parseTrades(String data) {
+
+        if (StringUtils.isEmpty(data)) {
+            return null;
+        }
+
+        return unmodifiableList(trimToEmpty(gson.<List<BtcboxTrade>>fromJson(data, TYPE_TRADE))
+                .stream()
+                .filter(Objects::nonNull)
+                .filter(t -> t.getId() != null)
+                .filter(t -> t.getTimestamp() != null)
+                .collect(Collectors.toList())
+        );
+
+    }
+
+    private List<Trade> filterTrades(List<BtcboxTrade> values, Instant fromTime) {
         return trimToEmpty(values).stream()
                 .filter(Objects::nonNull)
                 .filter(v -> v.getTimestamp() != null)
                 .filter(v -> fromTime == null || !v.getTimestamp().isBefore(fromTime))
                 .collect(Collectors.toList());
-
     }
 
     @Override
@@ -290,14 +378,11 @@ public class BtcboxContext extends TemplateContext implements BtcboxService {
 
         String result;
 
-        synchronized (ENDPOINT) {
-
-            // Avoid duplicate nonce
-            TimeUnit.MILLISECONDS.sleep(1);
+        synchronized (ENDPOINT) { // Nonces must arrive in order.
 
             Map<String, String> map = new LinkedHashMap<>(trimToEmpty(parameters));
             map.put("key", apiKey);
-            map.put("nonce", String.valueOf(getNow().toEpochMilli()));
+            map.put("nonce", String.valueOf(getNonce(apiKey)));
 
             String body = StringUtils.join(
                     map.entrySet().stream().map(e -> e.getKey() + "=" + e.getValue()).toArray(String[]::new),
@@ -25,11 +25,10 @@ import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicLong;
 
 import static com.after_sunrise.cryptocurrency.cryptotrader.service.coincheck.CoincheckService.SideType.*;
 import static com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateContext.RequestType.*;
@@ -39,6 +38,7 @@ import static java.math.BigDecimal.ZERO;
 import static java.math.RoundingMode.HALF_UP;
 import static java.util.Collections.emptyList;
 import static java.util.Collections.synchronizedMap;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.stream.Collectors.toList;
 
@@ -77,7 +77,7 @@ public class CoincheckContext extends TemplateContext implements CoincheckServic
 
     private final Map<String, NavigableMap<Instant, CoincheckTrade>> trades;
 
-    private final AtomicLong lastNonce;
+    private final Object nonceLock;
 
     private final ExecutorService executor;
 
@@ -108,7 +108,7 @@ public class CoincheckContext extends TemplateContext implements CoincheckServic
 
         trades = synchronizedMap(new HashMap<>());
 
-        lastNonce = new AtomicLong();
+        nonceLock = new Object();
 
         executor = Executors.newCachedThreadPool(r -> {
             Thread t = new Thread(r);
@@ -182,6 +182,52 @@ public class CoincheckContext extends TemplateContext implements CoincheckServic
 
     }
 
+    @VisibleForTesting
+    CompletableFuture<Optional<CoincheckTick>> queryTickAsync(Key key) {
+
+        ProductType product = ProductType.find(key.getInstrument());
+
+        if (product == null) {
+            return completedFuture(Optional.empty());
+        }
+
+        Key newKey = Key.build(key).instrument(WILDCARD).build();
+
+        return findCachedAsync(CoincheckTick.class, newKey, () -> requestAsync(URL_TICK).thenApply(data -> {
+
+            if (StringUtils.isEmpty(data)) {
+                return null;
+            }
+
+            return gson.fromJson(data, CoincheckTick.class);
+
+        })).thenApply(Optional::ofNullable);
+
+    }
+
+    @VisibleForTesting
+    CompletableFuture<Optional<CoincheckBook>> queryBookAsync(Key key) {
+
+        ProductType product = ProductType.find(key.getInstrument());
+
+        if (product == null) {
+            return completedFuture(Optional.empty());
+        }
+
+        Key newKey = Key.build(key).instrument(WILDCARD).build();
+
+        return findCachedAsync(CoincheckBook.class, newKey, () -> requestAsync(URL_BOOK).thenApply(data -> {
+
+            if (StringUtils.isEmpty(data)) {
+                return null;
+            }
+
+            return gson.fromJson(data, CoincheckBook.class);
+
+        })).thenApply(Optional::ofNullable);
+
+    }
+
     @Override
     public BigDecimal getBestAskPrice(Key key) {
         return queryBook(key).map(CoincheckBook::getBestAskPrice).orElse(null);
@@ -217,6 +263,45 @@ public class CoincheckContext extends TemplateContext implements CoincheckServic
         return queryBook(key).map(CoincheckBook::getBids).orElseGet(() -> super.getBidPrices(key));
     }
 
+    @Override
+    public CompletableFuture<BigDecimal> getBestAskPriceAsync(Key key) {
+        return queryBookAsync(key).thenApply(b -> b.map(CoincheckBook::getBestAskPrice).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestBidPriceAsync(Key key) {
+        return queryBookAsync(key).thenApply(b -> b.map(CoincheckBook::getBestBidPrice).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestAskSizeAsync(Key key) {
+        return queryBookAsync(key).thenApply(b -> b.map(CoincheckBook::getBestAskSize).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestBidSizeAsync(Key key) {
+        return queryBookAsync(key).thenApply(b -> b.map(CoincheckBook::getBestBidSize).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getLastPriceAsync(Key key) {
+        return queryTickAsync(key).thenApply(t -> t.map(CoincheckTick::getLast).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<Map<BigDecimal, BigDecimal>> getAskPricesAsync(Key key) {
+        return queryBookAsync(key).thenApply(
+                b -> b.map(CoincheckBook::getAsks).orElseGet(() -> super.getAskPrices(key))
+        );
+    }
+
+    @Override
+    public CompletableFuture<Map<BigDecimal, BigDecimal>> getBidPricesAsync(Key key) {
+        return queryBookAsync(key).thenApply(
+                b -> b.map(CoincheckBook::getBids).orElseGet(() -> super.getBidPrices(key))
+        );
+    }
+
     @Override
     public List<Trade> listTrades(Key key, Instant fromTime) {
 
@@ -471,22 +556,10 @@ public class CoincheckContext extends TemplateContext implements CoincheckServic
 
         String result;
 
-        synchronized (lastNonce) {
-
-            long currNonce = 0;
-
-            while (currNonce <= lastNonce.get()) {
-
-                TimeUnit.MILLISECONDS.sleep(1);
-
-                currNonce = getNow().toEpochMilli();
-
-            }
-
-            lastNonce.set(currNonce);
+        synchronized (nonceLock) { // Nonces must arrive in order.
 
             String path = url + buildQueryParameter(parameters);
-            String nonce = String.valueOf(currNonce);
+            String nonce = String.valueOf(getNonce(apiKey));
             String message = nonce + path + StringUtils.trimToEmpty(data);
             String hash = computeHash("HmacSHA256", secret.getBytes(), message.getBytes());
 
@@ -498,7 +571,6 @@ public class CoincheckContext extends TemplateContext implements CoincheckServic
 
             result = request(type, path, headers, data);
 
-
         }
 
         return result;
@@ -8,10 +8,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 /**
  * @author takanori.takase
@@ -53,23 +55,23 @@ public class KeyPreloader extends AbstractEstimator {
 
         schedule(cutoff, executor, () -> context.getState(key));
 
-        schedule(cutoff, executor, () -> context.getBestAskPrice(key));
+        preload(cutoff, () -> context.getBestAskPriceAsync(key));
 
-        schedule(cutoff, executor, () -> context.getBestBidPrice(key));
+        preload(cutoff, () -> context.getBestBidPriceAsync(key));
 
-        schedule(cutoff, executor, () -> context.getBestAskSize(key));
+        preload(cutoff, () -> context.getBestAskSizeAsync(key));
 
-        schedule(cutoff, executor, () -> context.getBestBidSize(key));
+        preload(cutoff, () -> context.getBestBidSizeAsync(key));
 
-        schedule(cutoff, executor, () -> context.getMidPrice(key));
+        preload(cutoff, () -> context.getMidPriceAsync(key));
 
-        schedule(cutoff, executor, () -> context.getLastPrice(key));
+        preload(cutoff, () -> context.getLastPriceAsync(key));
 
-        schedule(cutoff, executor, () -> context.getAskPrices(key));
+        preload(cutoff, () -> context.getAskPricesAsync(key));
 
-        schedule(cutoff, executor, () -> context.getBidPrices(key));
+        preload(cutoff, () -> context.getBidPricesAsync(key));
 
-        schedule(cutoff, executor, () -> context.listTrades(key, null));
+        preload(cutoff, () -> context.listTradesAsync(key, null));
 
         schedule(cutoff, executor, () -> context.getInstrumentCurrency(key));
 
@@ -77,11 +79,11 @@ public class KeyPreloader extends AbstractEstimator {
 
         schedule(cutoff, executor, () -> context.findProduct(key, null, null));
 
-        schedule(cutoff, executor, () -> context.getConversionPrice(key, null));
+        preload(cutoff, () -> context.getConversionPriceAsync(key, null));
 
-        schedule(cutoff, executor, () -> context.getInstrumentPosition(key));
+        preload(cutoff, () -> context.getInstrumentPositionAsync(key));
 
-        schedule(cutoff, executor, () -> context.getFundingPosition(key));
+        preload(cutoff, () -> context.getFundingPositionAsync(key));
 
         schedule(cutoff, executor, () -> context.roundLotSize(key, null, null));
 
@@ -93,16 +95,25 @@ public class KeyPreloader extends AbstractEstimator {
 
         schedule(cutoff, executor, () -> context.getExpiry(key));
 
-        schedule(cutoff, executor, () -> context.findOrder(key, null));
+        preload(cutoff, () -> context.findOrderAsync(key, null));
 
-        schedule(cutoff, executor, () -> context.listActiveOrders(key));
+        preload(cutoff, () -> context.listActiveOrdersAsync(key));
 
-        schedule(cutoff, executor, () -> context.listExecutions(key));
+        preload(cutoff, () -> context.listExecutionsAsync(key));
 
         return BAIL;
 
     }
 
+    /**
+     * Triggers the lookup on the preloader thread, which is released as soon as a non-blocking lookup is issued.
+     * Lookups without the non-blocking implementation still complete in the preloader thread, and not in the caller.
+     */
+    @VisibleForTesting
+    void preload(Instant cutoff, Supplier<CompletableFuture<?>> supplier) {
+        schedule(cutoff, executor, supplier::get);
+    }
+
     @VisibleForTesting
     void schedule(Instant cutoff, ExecutorService executor, Runnable runnable) {
 
@@ -15,6 +15,7 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.emptyList;
@@ -83,22 +84,50 @@ public class OandaContext extends TemplateContext implements OandaService {
 
             String data = request(RequestType.GET, URL_TICKER + product, parameters, null);
 
-            if (StringUtils.isEmpty(data)) {
-                return null;
+            return parseTick(key, data);
+
+        });
+
+        return Optional.ofNullable(tick);
+
+    }
+
+    @VisibleForTesting
+    CompletableFuture<Optional<OandaTick>> queryTickAsync(Key key) {
+
+        return findCachedAsync(OandaTick.class, key, () -> {
+
+            String token = getStringProperty("api.secret", null);
+
+            if (StringUtils.isEmpty(token)) {
+                return CompletableFuture.completedFuture(null);
             }
 
-            Map<String, List<OandaTick>> ticks = gson.fromJson(data, TYPE_TICKER);
+            String product = URLEncoder.encode(key.getInstrument(), UTF_8.name());
 
-            return ticks.getOrDefault(KEY_TICKER, emptyList()).stream()
-                    .filter(Objects::nonNull)
-                    .filter(t -> t.getInstrument() != null)
-                    .filter(t -> t.getInstrument().equals(key.getInstrument()))
-                    .filter(t -> !HALTED.equals(t.getStatus()))
-                    .findFirst().orElse(null);
+            Map<String, String> parameters = singletonMap(AUTH_KEY, AUTH_VAL + token);
 
-        });
+            return requestAsync(RequestType.GET, URL_TICKER + product, parameters, null)
+                    .thenApply(data -> parseTick(key, data));
 
-        return Optional.ofNullable(tick);
+        }).thenApply(Optional::ofNullable);
+
+    }
+
+    private OandaTick parseTick(Key key, String data) {
+
+        if (StringUtils.isEmpty(data)) {
+            return null;
+        }
+
+        Map<String, List<OandaTick>> ticks = gson.fromJson(data, TYPE_TICKER);
+
+        return ticks.getOrDefault(KEY_TICKER, emptyList()).stream()
+                .filter(Objects::nonNull)
+                .filter(t -> t.getInstrument() != null)
+                .filter(t -> t.getInstrument().equals(key.getInstrument()))
+                .filter(t -> !HALTED.equals(t.getStatus()))
+                .findFirst().orElse(null);
 
     }
 
@@ -112,14 +141,38 @@ public class OandaContext extends TemplateContext implements OandaService {
         return queryTick(key).map(OandaTick::getBid).orElse(null);
     }
 
+    @Override
+    public CompletableFuture<BigDecimal> getBestAskPriceAsync(Key key) {
+        return queryTickAsync(key).thenApply(t -> t.map(OandaTick::getAsk).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestBidPriceAsync(Key key) {
+        return queryTickAsync(key).thenApply(t -> t.map(OandaTick::getBid).orElse(null));
+    }
+
     @Override
     public BigDecimal getLastPrice(Key key) {
         return getMidPrice(key);
     }
 
+    @Override
+    public CompletableFuture<BigDecimal> getLastPriceAsync(Key key) {
+        return getMidPriceAsync(key);
+    }
+
     @Override
     public List<Trade> listTrades(Key key, Instant fromTime) {
-        return queryTick(key)
+        return toTrades(queryTick(key), fromTime);
+    }
+
+    @Override
+    public CompletableFuture<List<Trade>> listTradesAsync(Key key, Instant fromTime) {
+        return queryTickAsync(key).thenApply(t -> toTrades(t, fromTime));
+    }
+
+    private List<Trade> toTrades(Optional<OandaTick> tick, Instant fromTime) {
+        return tick
                 .filter(t -> t.getTimestamp() != null)
                 .filter(t -> fromTime == null || !fromTime.isAfter(t.getTimestamp()))
                 .map(t -> OandaTick.OandaTrade.builder().delegate(t).build())
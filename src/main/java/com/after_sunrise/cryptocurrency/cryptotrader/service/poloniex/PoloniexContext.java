@@ -11,11 +11,13 @@ import java.lang.reflect.Type;
 import java.math.BigDecimal;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static java.time.format.DateTimeFormatter.ofPattern;
 import static java.util.Collections.unmodifiableList;
@@ -43,6 +45,8 @@ public class PoloniexContext extends TemplateContext implements PoloniexService
 
         super(ID);
 
+        setFreshness(PoloniexTick.class, Duration.ofMillis(200));
+
         GsonBuilder builder = new GsonBuilder();
 
         builder.registerTypeAdapter(Instant.class, new JsonDeserializer<Instant>() {
@@ -67,17 +71,11 @@ public class PoloniexContext extends TemplateContext implements PoloniexService
     @VisibleForTesting
     Optional<PoloniexTick> queryTick(Key key) {
 
-        PoloniexTick tick = findCached(PoloniexTick.class, key, () -> {
+        PoloniexTick tick = findSnapshot(PoloniexTick.class, key, key.getInstrument(), PoloniexTick::getPair, () -> {
 
             String data = request(URL_TICKER);
 
-            if (StringUtils.isEmpty(data)) {
-                return null;
-            }
-
-            Map<String, PoloniexTick> ticks = gson.fromJson(data, TYPE_TICKER);
-
-            return ticks.get(key.getInstrument());
+            return parseTicks(data);
 
         });
 
@@ -85,6 +83,33 @@ public class PoloniexContext extends TemplateContext implements PoloniexService
 
     }
 
+    @VisibleForTesting
+    CompletableFuture<Optional<PoloniexTick>> queryTickAsync(Key key) {
+
+        return findSnapshotAsync(PoloniexTick.class, key, key.getInstrument(), PoloniexTick::getPair,
+                () -> requestAsync(URL_TICKER).thenApply(this::parseTicks)
+        ).thenApply(Optional::ofNullable);
+
+    }
+
+    private List<PoloniexTick> parseTicks(String data) {
+
+        if (StringUtils.isEmpty(data)) {
+            return null;
+        }
+
+        Map<String, PoloniexTick> ticks = gson.fromJson(data, TYPE_TICKER);
+
+        return ticks.entrySet().stream().filter(e -> e.getValue() != null).map(e -> PoloniexTick.builder()
+                .pair(e.getKey())
+                .last(e.getValue().getLast())
+                .ask(e.getValue().getAsk())
+                .bid(e.getValue().getBid())
+                .build()
+        ).collect(toList());
+
+    }
+
     @Override
     public BigDecimal getBestAskPrice(Key key) {
         return queryTick(key).map(PoloniexTick::getAsk).orElse(null);
@@ -100,6 +125,21 @@ public class PoloniexContext extends TemplateContext implements PoloniexService
         return queryTick(key).map(PoloniexTick::getLast).orElse(null);
     }
 
+    @Override
+    public CompletableFuture<BigDecimal> getBestAskPriceAsync(Key key) {
+        return queryTickAsync(key).thenApply(t -> t.map(PoloniexTick::getAsk).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestBidPriceAsync(Key key) {
+        return queryTickAsync(key).thenApply(t -> t.map(PoloniexTick::getBid).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getLastPriceAsync(Key key) {
+        return queryTickAsync(key).thenApply(t -> t.map(PoloniexTick::getLast).orElse(null));
+    }
+
     @Override
     public List<Trade> listTrades(Key key, Instant fromTime) {
 
@@ -109,15 +149,40 @@ public class PoloniexContext extends TemplateContext implements PoloniexService
 
             String data = request(URL_TRADE + product);
 
-            if (StringUtils.isEmpty(data)) {
-                return null;
-            }
+            return parseTrades(data);
 
-            List<PoloniexTrade> trades = gson.fromJson(data, TYPE_TRADE);
+        });
 
-            return Collections.unmodifiableList(trades);
+        return filterTrades(values, fromTime);
 
-        });
+    }
+
+    @Override
+    public CompletableFuture<List<Trade>> listTradesAsync(Key key, Instant fromTime) {
+
+        return listCachedAsync(PoloniexTrade.class, key, () -> {
+
+            String product = URLEncoder.encode(key.getInstrument(), StandardCharsets.UTF_8.name());
+
+            return requestAsync(URL_TRADE + product).thenApply(this::parseTrades);
+
+        }).thenApply(values -> filterTrades(values, fromTime));
+
+    }
+
+    private List<PoloniexTrade> parseTrades(String data) {
+
+        if (StringUtils.isEmpty(data)) {
+            return null;
+        }
+
+        List<PoloniexTrade> trades = gson.fromJson(data, TYPE_TRADE);
+
+        return Collections.unmodifiableList(trades);
+
+    }
+
+    private List<Trade> filterTrades(List<PoloniexTrade> values, Instant fromTime) {
 
         if (values == null) {
             return null;
@@ -15,6 +15,11 @@ import java.math.BigDecimal;
 @AllArgsConstructor(access = AccessLevel.PRIVATE)
 public class PoloniexTick {
 
+    /**
+     * Currency pair, which is the key of the ticker map and not included in the value itself.
+     */
+    private String pair;
+
     @SerializedName("last")
     private BigDecimal last;
 
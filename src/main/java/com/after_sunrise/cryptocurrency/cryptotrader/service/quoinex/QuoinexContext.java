@@ -12,8 +12,6 @@ import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializer;
 import org.apache.commons.lang3.StringUtils;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 import java.lang.reflect.Type;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
@@ -21,11 +19,12 @@ import java.time.Instant;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import static com.after_sunrise.cryptocurrency.cryptotrader.service.template.Signer.Encoding.BASE64_URL;
 import static com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateContext.RequestType.*;
 import static java.lang.Boolean.FALSE;
 import static java.math.BigDecimal.ONE;
@@ -65,7 +64,7 @@ public class QuoinexContext extends TemplateContext implements QuoinexService {
                 )
                 .create();
 
-        jwtHead = Base64.getUrlEncoder().encodeToString(gson.toJson(Stream.of(
+        jwtHead = BASE64_URL.encode(gson.toJson(Stream.of(
                 new SimpleEntry<>("typ", "JWT"),
                 new SimpleEntry<>("alg", "HS256")
         ).collect(Collectors.toMap(Entry::getKey, Entry::getValue))).getBytes());
@@ -87,21 +86,48 @@ public class QuoinexContext extends TemplateContext implements QuoinexService {
 
             String data = request(ENDPOINT + "/products");
 
-            if (StringUtils.isEmpty(data)) {
-                return null;
-            }
-
-            return gson.fromJson(data, TYPE_PRODUCT);
+            return parseProducts(data);
 
         });
 
-        return trimToEmpty(value).stream()
+        return findProduct(value, product);
+
+    }
+
+    @VisibleForTesting
+    protected CompletableFuture<Optional<QuoinexProduct>> fetchProductAsync(Key key) {
+
+        ProductType product = ProductType.find(key.getInstrument());
+
+        if (product == null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        Key newKey = Key.build(key).instrument(WILDCARD).build();
+
+        return listCachedAsync(QuoinexProduct.class, newKey,
+                () -> requestAsync(ENDPOINT + "/products").thenApply(this::parseProducts)
+        ).thenApply(value -> findProduct(value, product));
+
+    }
+
+    private List<QuoinexProduct> parseProducts(String data) {
+
+        if (StringUtils.isEmpty(data)) {
+            return null;
+        }
+
+        return gson.fromJson(data, TYPE_PRODUCT);
+
+    }
+
+    private Optional<QuoinexProduct> findProduct(List<QuoinexProduct> values, ProductType product) {
+        return trimToEmpty(values).stream()
                 .filter(Objects::nonNull)
                 .filter(p -> StringUtils.isNotEmpty(p.getId()))
                 .filter(p -> StringUtils.isNotEmpty(p.getCode()))
                 .filter(p -> StringUtils.equals(p.getCode(), product.getCode()))
                 .findFirst();
-
     }
 
     protected Optional<QuoinexBook> fetchBook(Key key) {
@@ -110,16 +136,31 @@ public class QuoinexContext extends TemplateContext implements QuoinexService {
 
             String data = request(ENDPOINT + "/products/" + product.getId() + "/price_levels");
 
-            if (StringUtils.isEmpty(data)) {
-                return null;
-            }
-
-            return gson.fromJson(data, QuoinexBook.class);
+            return parseBook(data);
 
         }));
 
     }
 
+    protected CompletableFuture<Optional<QuoinexBook>> fetchBookAsync(Key key) {
+
+        return fetchProductAsync(key).thenCompose(p -> p.map(product -> findCachedAsync(QuoinexBook.class, key,
+                () -> requestAsync(ENDPOINT + "/products/" + product.getId() + "/price_levels")
+                        .thenApply(this::parseBook)
+        ).thenApply(Optional::ofNullable)).orElseGet(() -> CompletableFuture.completedFuture(Optional.empty())));
+
+    }
+
+    private QuoinexBook parseBook(String data) {
+
+        if (StringUtils.isEmpty(data)) {
+            return null;
+        }
+
+        return gson.fromJson(data, QuoinexBook.class);
+
+    }
+
     @Override
     public BigDecimal getBestAskPrice(Key key) {
         return fetchBook(key).map(QuoinexBook::getAskPrices)
@@ -154,11 +195,50 @@ public class QuoinexContext extends TemplateContext implements QuoinexService {
         return fetchBook(key).map(QuoinexBook::getBidPrices).orElse(null);
     }
 
+    @Override
+    public CompletableFuture<BigDecimal> getBestAskPriceAsync(Key key) {
+        return fetchBookAsync(key).thenApply(b -> b.map(QuoinexBook::getAskPrices)
+                .map(NavigableMap::firstEntry).map(Entry::getKey).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestBidPriceAsync(Key key) {
+        return fetchBookAsync(key).thenApply(b -> b.map(QuoinexBook::getBidPrices)
+                .map(NavigableMap::firstEntry).map(Entry::getKey).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestAskSizeAsync(Key key) {
+        return fetchBookAsync(key).thenApply(b -> b.map(QuoinexBook::getAskPrices)
+                .map(NavigableMap::firstEntry).map(Entry::getValue).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestBidSizeAsync(Key key) {
+        return fetchBookAsync(key).thenApply(b -> b.map(QuoinexBook::getBidPrices)
+                .map(NavigableMap::firstEntry).map(Entry::getValue).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<Map<BigDecimal, BigDecimal>> getAskPricesAsync(Key key) {
+        return fetchBookAsync(key).thenApply(b -> b.map(QuoinexBook::getAskPrices).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<Map<BigDecimal, BigDecimal>> getBidPricesAsync(Key key) {
+        return fetchBookAsync(key).thenApply(b -> b.map(QuoinexBook::getBidPrices).orElse(null));
+    }
+
     @Override
     public BigDecimal getLastPrice(Key key) {
         return fetchProduct(key).map(QuoinexProduct::getLastPrice).orElse(null);
     }
 
+    @Override
+    public CompletableFuture<BigDecimal> getLastPriceAsync(Key key) {
+        return fetchProductAsync(key).thenApply(p -> p.map(QuoinexProduct::getLastPrice).orElse(null));
+    }
+
     @Override
     public List<Trade> listTrades(Key key, Instant fromTime) {
 
@@ -173,11 +253,7 @@ public class QuoinexContext extends TemplateContext implements QuoinexService {
 
                 String data = request(ENDPOINT + "/executions" + queryParameter);
 
-                if (StringUtils.isEmpty(data)) {
-                    return null;
-                }
-
-                return gson.fromJson(data, QuoinexTrade.Container.class);
+                return parseTrades(data);
 
             });
 
@@ -185,12 +261,44 @@ public class QuoinexContext extends TemplateContext implements QuoinexService {
 
         }).orElseGet(Collections::emptyList);
 
+        return filterTrades(trades, fromTime);
+
+    }
+
+    @Override
+    public CompletableFuture<List<Trade>> listTradesAsync(Key key, Instant fromTime) {
+
+        return fetchProductAsync(key).thenCompose(p -> p.map(product -> findCachedAsync(
+                QuoinexTrade.Container.class, key, () -> {
+
+                    Map<String, String> parameters = new LinkedHashMap<>();
+                    parameters.put("product_id", product.getId());
+                    parameters.put("limit", PAGE_LIMIT);
+                    String queryParameter = buildQueryParameter(parameters);
+
+                    return requestAsync(ENDPOINT + "/executions" + queryParameter).thenApply(this::parseTrades);
+
+                }
+        ).thenApply(c -> c == null ? null : c.getTrades())).orElseGet(() -> CompletableFuture.completedFuture(null))).thenApply(t -> filterTrades(t, fromTime));
+
+    }
+
+    private QuoinexTrade.Container parseTrades(String data) {
+
+        if (StringUtils.isEmpty(data)) {
+            return null;
+        }
+
+        return gson.fromJson(data, QuoinexTrade.Container.class);
+
+    }
+
+    private List<Trade> filterTrades(List<QuoinexTrade> trades, Instant fromTime) {
         return trimToEmpty(trades).stream()
                 .filter(Objects::nonNull)
                 .filter(t -> t.getTimestamp() != null)
                 .filter(t -> fromTime == null || !t.getTimestamp().isBefore(fromTime))
                 .collect(toList());
-
     }
 
     @Override
@@ -270,37 +378,23 @@ public class QuoinexContext extends TemplateContext implements QuoinexService {
             return null;
         }
 
-        String result;
-
-        synchronized (ENDPOINT) {
-
-            String parameter = buildQueryParameter(parameters);
+        String parameter = buildQueryParameter(parameters);
 
-            Map<String, String> jwt = new TreeMap<>();
-            jwt.put("nonce", String.valueOf(getNow().toEpochMilli()));
-            jwt.put("path", path + parameter);
-            jwt.put("token_id", key);
-            String jwtLoad = Base64.getUrlEncoder().encodeToString(gson.toJson(jwt).getBytes());
+        Map<String, String> jwt = new TreeMap<>();
+        jwt.put("nonce", String.valueOf(getNonce(key))); // Only required to be unique.
+        jwt.put("path", path + parameter);
+        jwt.put("token_id", key);
+        String jwtLoad = BASE64_URL.encode(gson.toJson(jwt).getBytes());
+        String jwtSign = computeHash("HmacSHA256", secret.getBytes(), (jwtHead + "." + jwtLoad).getBytes(), BASE64_URL);
 
-            Mac mac = Mac.getInstance("HmacSHA256");
-            mac.init(new SecretKeySpec(secret.getBytes(), "HmacSHA256"));
-            byte[] hash = mac.doFinal((jwtHead + "." + jwtLoad).getBytes());
-            String jwtSign = Base64.getUrlEncoder().encodeToString(hash);
+        Map<String, String> headers = new TreeMap<>();
+        headers.put("Content-Type", "application/json");
+        headers.put("X-Quoine-API-Version", "2");
+        headers.put("X-Quoine-Auth", jwtHead + "." + jwtLoad + "." + jwtSign);
 
-            Map<String, String> headers = new TreeMap<>();
-            headers.put("Content-Type", "application/json");
-            headers.put("X-Quoine-API-Version", "2");
-            headers.put("X-Quoine-Auth", jwtHead + "." + jwtLoad + "." + jwtSign);
-
-            String json = data != null ? gson.toJson(data) : null;
-
-            result = request(type, ENDPOINT + path + parameter, headers, json);
-
-            TimeUnit.MILLISECONDS.sleep(1L); // Avoid duplicate nonce
-
-        }
+        String json = data != null ? gson.toJson(data) : null;
 
-        return result;
+        return request(type, ENDPOINT + path + parameter, headers, json);
 
     }
 
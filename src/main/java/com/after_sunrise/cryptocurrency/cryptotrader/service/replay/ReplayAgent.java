@@ -0,0 +1,145 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.service.replay;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.core.PropertyManager;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Agent;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.Key;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.AmendInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.Visitor;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Order;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Request;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.AbstractService;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+
+import java.util.*;
+
+import static java.lang.Boolean.TRUE;
+import static java.util.Collections.emptyMap;
+
+/**
+ * Manages the orders directly against the context, and reconciles them without polling,
+ * since the simulated orders are acknowledged synchronously in the virtual time.
+ *
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+public class ReplayAgent extends AbstractService implements Agent {
+
+    private final PropertyManager propertyManager;
+
+    @Inject
+    public ReplayAgent(Injector injector) {
+
+        this.propertyManager = injector.getInstance(PropertyManager.class);
+
+    }
+
+    @Override
+    public String get() {
+        return WILDCARD;
+    }
+
+    @Override
+    public Map<Instruction, String> manage(Context context, Request request, List<Instruction> values) {
+
+        List<Instruction> instructions = trimToEmpty(values);
+
+        if (instructions.isEmpty()) {
+
+            log.trace("Nothing to manage.");
+
+            return emptyMap();
+
+        }
+
+        if (!propertyManager.getTradingActive(request.getSite(), request.getInstrument())) {
+
+            log.debug("Skipping manage : {}", instructions.size());
+
+            return emptyMap();
+
+        }
+
+        Set<CreateInstruction> creates = new HashSet<>();
+        Set<CancelInstruction> cancels = new HashSet<>();
+
+        instructions.stream().filter(Objects::nonNull).forEach(i -> i.accept(new Visitor<Boolean>() {
+            @Override
+            public Boolean visit(CreateInstruction instruction) {
+                return creates.add(instruction);
+            }
+
+            @Override
+            public Boolean visit(CancelInstruction instruction) {
+                return cancels.add(instruction);
+            }
+
+            @Override
+            public Boolean visit(AmendInstruction instruction) {
+                return cancels.add(instruction.toCancel()) && creates.add(instruction.toCreate());
+            }
+        }));
+
+        Key key = Key.from(request);
+
+        Map<Instruction, String> results = new IdentityHashMap<>();
+
+        trimToEmpty(context.cancelOrders(key, cancels)).entrySet().stream()
+                .filter(e -> Objects.nonNull(e.getValue()))
+                .forEach(e -> results.put(e.getKey(), e.getValue()));
+
+        trimToEmpty(context.createOrders(key, creates)).entrySet().stream()
+                .filter(e -> Objects.nonNull(e.getValue()))
+                .forEach(e -> results.put(e.getKey(), e.getValue()));
+
+        log.info("Manage : [{}.{}] {}", request.getSite(), request.getInstrument(), results.size());
+
+        return results;
+
+    }
+
+    @Override
+    public Map<Instruction, Boolean> reconcile(Context context, Request request, Map<Instruction, String> instructions) {
+
+        Key key = Key.from(request);
+
+        Map<Instruction, Boolean> results = new IdentityHashMap<>();
+
+        trimToEmpty(instructions).forEach((instruction, id) -> {
+
+            if (instruction == null || id == null) {
+                return;
+            }
+
+            Order order = context.findOrder(key, id);
+
+            results.put(instruction, instruction.accept(new Visitor<Boolean>() {
+                @Override
+                public Boolean visit(CreateInstruction instruction) {
+                    return order != null;
+                }
+
+                @Override
+                public Boolean visit(CancelInstruction instruction) {
+                    return order == null || !TRUE.equals(order.getActive());
+                }
+
+                @Override
+                public Boolean visit(AmendInstruction instruction) {
+                    return order != null && TRUE.equals(order.getActive());
+                }
+            }));
+
+        });
+
+        log.info("Reconcile : [{}.{}] {}", request.getSite(), request.getInstrument(), results.size());
+
+        return results;
+
+    }
+
+}
@@ -0,0 +1,1063 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.service.replay;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.core.Composite;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.AmendInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Order;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Trade;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.AbstractService;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.MarketJournal;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.MarketJournal.Record;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.inject.Singleton;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.ToString;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.*;
+import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static java.lang.Boolean.FALSE;
+import static java.lang.Boolean.TRUE;
+import static java.math.BigDecimal.ONE;
+import static java.math.BigDecimal.ZERO;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.*;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Serves market data recorded in local files, as of the virtual time advanced by the {@link ReplayTrader}.
+ * Orders are simulated against the recorded books and trades, without any connectivity to the exchanges.
+ *
+ * <p>Each line of the {@code *.csv} (or {@code *.csv.gz}) files under the configured path is one of :</p>
+ * <ul>
+ * <li>{@code TICK,time,site,instrument,askPrice,askSize,bidPrice,bidSize}</li>
+ * <li>{@code BOOK,time,site,instrument,ASK|BID,price:size,price:size,...}</li>
+ * <li>{@code TRADE,time,site,instrument,price,size}</li>
+ * </ul>
+ * <p>The time is either an ISO-8601 instant or epoch milliseconds.
+ * The {@code *.journal} files written by the {@link MarketJournal} are loaded as well.</p>
+ *
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+@Singleton
+public class ReplayContext extends AbstractService implements Context {
+
+    public static final String ID = "replay";
+
+    private static final String SEPARATOR = ",";
+
+    private static final String LEVEL = ":";
+
+    private static final String COMMENT = "#";
+
+    @Getter
+    @ToString
+    @AllArgsConstructor
+    static class ReplayTrade implements Trade {
+
+        private final Instant timestamp;
+
+        private final BigDecimal price;
+
+        private final BigDecimal size;
+
+    }
+
+    @Getter
+    @Builder
+    @ToString
+    static class ReplayExecution implements Order.Execution {
+
+        private final String id;
+
+        private final String orderId;
+
+        private final Instant time;
+
+        private final BigDecimal price;
+
+        private final BigDecimal size;
+
+    }
+
+    @Getter
+    @ToString
+    static class ReplayOrder implements Order {
+
+        private final String id;
+
+        private final String product;
+
+        private final BigDecimal orderPrice;
+
+        private final BigDecimal orderQuantity;
+
+        private final Instant expiry;
+
+        private volatile Boolean active = TRUE;
+
+        private volatile BigDecimal filledQuantity = ZERO;
+
+        ReplayOrder(String id, String product, BigDecimal price, BigDecimal quantity, Instant expiry) {
+            this.id = id;
+            this.product = product;
+            this.orderPrice = price;
+            this.orderQuantity = quantity;
+            this.expiry = expiry;
+        }
+
+        @Override
+        public BigDecimal getRemainingQuantity() {
+            return orderQuantity.subtract(filledQuantity);
+        }
+
+    }
+
+    @VisibleForTesting
+    static class Market {
+
+        final NavigableMap<Instant, NavigableMap<BigDecimal, BigDecimal>> asks = new TreeMap<>();
+
+        final NavigableMap<Instant, NavigableMap<BigDecimal, BigDecimal>> bids = new TreeMap<>();
+
+        final List<Trade> trades = new ArrayList<>();
+
+        final Map<String, ReplayOrder> orders = new LinkedHashMap<>();
+
+        final List<Order.Execution> executions = new ArrayList<>();
+
+        BigDecimal instrumentPosition = ZERO;
+
+        BigDecimal fundingPosition = ZERO;
+
+        int cursor;
+
+    }
+
+    private final Set<Listener> listeners = new CopyOnWriteArraySet<>();
+
+    private final AtomicReference<Instant> clock = new AtomicReference<>(Instant.EPOCH);
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private volatile Map<Composite, Market> markets;
+
+    @Override
+    public String get() {
+        return ID;
+    }
+
+    @Override
+    public void close() throws Exception {
+
+        listeners.clear();
+
+        log.debug("Closed.");
+
+    }
+
+    @VisibleForTesting
+    Map<Composite, Market> getMarkets() {
+
+        Map<Composite, Market> values = markets;
+
+        if (values == null) {
+
+            synchronized (this) {
+
+                if (markets == null) {
+                    markets = load(Paths.get(getStringProperty("path", ID)));
+                }
+
+                values = markets;
+
+            }
+
+        }
+
+        return values;
+
+    }
+
+    @VisibleForTesting
+    Map<Composite, Market> load(Path path) {
+
+        Map<Composite, Market> values = new HashMap<>();
+
+        if (!Files.isDirectory(path)) {
+
+            log.warn("Replay data not found : {}", path.toAbsolutePath());
+
+            return values;
+
+        }
+
+        try (Stream<Path> stream = Files.list(path)) {
+
+            List<Path> files = stream.filter(Files::isRegularFile)
+                    .filter(p -> p.toString().endsWith(".csv")
+                            || p.toString().endsWith(".csv.gz")
+                            || p.toString().endsWith(MarketJournal.EXTENSION))
+                    .sorted().collect(toList());
+
+            for (Path file : files) {
+                read(file, values);
+            }
+
+        } catch (IOException e) {
+
+            log.warn("Failed to load replay data : " + path, e);
+
+        }
+
+        BigDecimal instrument = getDecimalProperty("instrument", ZERO);
+
+        BigDecimal funding = getDecimalProperty("funding", ZERO);
+
+        values.values().forEach(m -> {
+
+            m.trades.sort(Comparator.comparing(Trade::getTimestamp));
+
+            m.instrumentPosition = instrument;
+
+            m.fundingPosition = funding;
+
+        });
+
+        log.info("Loaded replay data : {} ({} products)", path.toAbsolutePath(), values.size());
+
+        return values;
+
+    }
+
+    private void read(Path file, Map<Composite, Market> values) throws IOException {
+
+        if (file.toString().endsWith(MarketJournal.EXTENSION)) {
+
+            long count = MarketJournal.read(file, record -> {
+
+                try {
+
+                    apply(record, values);
+
+                } catch (RuntimeException e) {
+
+                    log.warn("Skipped replay record : {} - {} ({})", file, record, e.toString());
+
+                }
+
+            });
+
+            log.debug("Loaded replay journal : {} ({} records)", file, count);
+
+            return;
+
+        }
+
+        InputStream in = Files.newInputStream(file);
+
+        if (file.toString().endsWith(".gz")) {
+            in = new GZIPInputStream(in);
+        }
+
+        long count = 0;
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8))) {
+
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+
+                try {
+
+                    count += parse(line, values) ? 1 : 0;
+
+                } catch (RuntimeException e) {
+
+                    log.warn("Skipped replay record : {} - {} ({})", file, line, e.toString());
+
+                }
+
+            }
+
+        }
+
+        log.debug("Loaded replay file : {} ({} records)", file, count);
+
+    }
+
+    @VisibleForTesting
+    boolean parse(String line, Map<Composite, Market> values) {
+
+        String value = StringUtils.trimToEmpty(line);
+
+        if (value.isEmpty() || value.startsWith(COMMENT)) {
+            return false;
+        }
+
+        String[] tokens = StringUtils.stripAll(StringUtils.splitPreserveAllTokens(value, SEPARATOR));
+
+        Instant time = StringUtils.isNumeric(tokens[1])
+                ? Instant.ofEpochMilli(Long.parseLong(tokens[1])) : Instant.parse(tokens[1]);
+
+        Market market = values.computeIfAbsent(new Composite(tokens[2], tokens[3]), k -> new Market());
+
+        switch (tokens[0].toUpperCase()) {
+
+            case "TRADE":
+
+                market.trades.add(new ReplayTrade(time, new BigDecimal(tokens[4]), new BigDecimal(tokens[5])));
+
+                return true;
+
+            case "TICK":
+
+                market.asks.put(time, createLevels(false, tokens[4] + LEVEL + tokens[5]));
+
+                market.bids.put(time, createLevels(true, tokens[6] + LEVEL + tokens[7]));
+
+                return true;
+
+            case "BOOK":
+
+                boolean bid = "BID".equalsIgnoreCase(tokens[4]);
+
+                String[] levels = Arrays.copyOfRange(tokens, 5, tokens.length);
+
+                (bid ? market.bids : market.asks).put(time, createLevels(bid, levels));
+
+                return true;
+
+            default:
+
+                throw new IllegalArgumentException("Unknown record type : " + tokens[0]);
+
+        }
+
+    }
+
+    @VisibleForTesting
+    boolean apply(Record record, Map<Composite, Market> values) {
+
+        Market market = values.computeIfAbsent(new Composite(record.getSite(), record.getInstrument()), k -> new Market());
+
+        List<BigDecimal> v = record.getValues();
+
+        switch (record.getType()) {
+
+            case TRADE:
+
+                market.trades.add(new ReplayTrade(record.getTime(), v.get(0), v.get(1)));
+
+                return true;
+
+            case ASK_BOOK:
+            case BID_BOOK:
+
+                boolean bid = record.getType() == MarketJournal.Type.BID_BOOK;
+
+                String[] levels = new String[v.size() / 2];
+
+                for (int i = 0; i < levels.length; i++) {
+                    levels[i] = v.get(i * 2).toPlainString() + LEVEL + v.get(i * 2 + 1).toPlainString();
+                }
+
+                (bid ? market.bids : market.asks).put(record.getTime(), createLevels(bid, levels));
+
+                return true;
+
+            case ASK_PRICE:
+            case ASK_SIZE:
+            case BID_PRICE:
+            case BID_SIZE:
+
+                // Best price and size are recorded separately. Merge with the latest known level.
+                boolean ask = record.getType() == MarketJournal.Type.ASK_PRICE
+                        || record.getType() == MarketJournal.Type.ASK_SIZE;
+
+                boolean price = record.getType() == MarketJournal.Type.ASK_PRICE
+                        || record.getType() == MarketJournal.Type.BID_PRICE;
+
+                NavigableMap<Instant, NavigableMap<BigDecimal, BigDecimal>> book = ask ? market.asks : market.bids;
+
+                Entry<Instant, NavigableMap<BigDecimal, BigDecimal>> latest = book.lastEntry();
+
+                Entry<BigDecimal, BigDecimal> level = latest == null ? null : latest.getValue().firstEntry();
+
+                BigDecimal p = price ? v.get(0) : level == null ? null : level.getKey();
+
+                BigDecimal s = price ? level == null ? ZERO : level.getValue() : v.get(0);
+
+                if (p == null) {
+                    return false;
+                }
+
+                book.put(record.getTime(), createLevels(!ask, p.toPlainString() + LEVEL + s.toPlainString()));
+
+                return true;
+
+            default:
+
+                return false;
+
+        }
+
+    }
+
+    private NavigableMap<BigDecimal, BigDecimal> createLevels(boolean descending, String... levels) {
+
+        Comparator<BigDecimal> comparator = descending ? Comparator.reverseOrder() : Comparator.naturalOrder();
+
+        NavigableMap<BigDecimal, BigDecimal> values = new TreeMap<>(comparator);
+
+        for (String level : levels) {
+
+            String[] tokens = StringUtils.split(level, LEVEL);
+
+            values.merge(new BigDecimal(tokens[0].trim()), new BigDecimal(tokens[1].trim()), BigDecimal::add);
+
+        }
+
+        return unmodifiableNavigableMap(values);
+
+    }
+
+    @VisibleForTesting
+    static int search(List<Trade> trades, Instant time, boolean inclusive) {
+
+        int lo = 0;
+
+        int hi = trades.size();
+
+        while (lo < hi) {
+
+            int mid = (lo + hi) >>> 1;
+
+            int comparison = trades.get(mid).getTimestamp().compareTo(time);
+
+            if (comparison < 0 || (comparison == 0 && !inclusive)) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+
+        }
+
+        return lo;
+
+    }
+
+    /**
+     * Current virtual time. Lookups with a later (or without) timestamp are capped, to avoid looking ahead.
+     */
+    public Instant getTime() {
+        return clock.get();
+    }
+
+    public Instant getStartTime() {
+        return findTime(true);
+    }
+
+    public Instant getEndTime() {
+        return findTime(false);
+    }
+
+    private Instant findTime(boolean first) {
+
+        Instant result = null;
+
+        for (Market m : getMarkets().values()) {
+
+            List<Instant> times = new ArrayList<>();
+
+            if (!m.asks.isEmpty()) {
+                times.add(first ? m.asks.firstKey() : m.asks.lastKey());
+            }
+
+            if (!m.bids.isEmpty()) {
+                times.add(first ? m.bids.firstKey() : m.bids.lastKey());
+            }
+
+            if (!m.trades.isEmpty()) {
+                times.add(m.trades.get(first ? 0 : m.trades.size() - 1).getTimestamp());
+            }
+
+            for (Instant time : times) {
+                result = result == null ? time : first ? min(result, time) : max(result, time);
+            }
+
+        }
+
+        return result;
+
+    }
+
+    private static Instant min(Instant i1, Instant i2) {
+        return i1.isBefore(i2) ? i1 : i2;
+    }
+
+    private static Instant max(Instant i1, Instant i2) {
+        return i1.isAfter(i2) ? i1 : i2;
+    }
+
+    /**
+     * Moves the virtual time forward, matching the resting orders against the trades recorded in between.
+     */
+    public void advance(Instant time) {
+
+        Instant now = clock.updateAndGet(t -> max(t, time));
+
+        getMarkets().forEach((composite, market) -> {
+
+            synchronized (market) {
+
+                int end = search(market.trades, now, false);
+
+                for (; market.cursor < end; market.cursor++) {
+                    matchTrade(market, market.trades.get(market.cursor));
+                }
+
+                market.orders.values().stream()
+                        .filter(o -> TRUE.equals(o.getActive()))
+                        .filter(o -> o.getExpiry() != null && !o.getExpiry().isAfter(now))
+                        .forEach(o -> o.active = FALSE);
+
+            }
+
+            Key key = Key.builder().site(composite.getSite()).instrument(composite.getInstrument()).timestamp(now).build();
+
+            listeners.forEach(l -> l.onMarketChange(key));
+
+        });
+
+    }
+
+    private void matchTrade(Market market, Trade trade) {
+
+        BigDecimal remaining = trade.getSize().abs();
+
+        for (ReplayOrder order : market.orders.values()) {
+
+            if (remaining.signum() <= 0) {
+                break;
+            }
+
+            if (!TRUE.equals(order.getActive())) {
+                continue;
+            }
+
+            int side = order.getOrderQuantity().signum();
+
+            // Conservative queue model : filled only when traded through the limit price.
+            if (trade.getPrice().compareTo(order.getOrderPrice()) * side >= 0) {
+                continue;
+            }
+
+            BigDecimal quantity = order.getRemainingQuantity().abs().min(remaining);
+
+            fill(market, order, order.getOrderPrice(), quantity.multiply(BigDecimal.valueOf(side)), trade.getTimestamp());
+
+            remaining = remaining.subtract(quantity);
+
+        }
+
+    }
+
+    private void matchBook(Market market, ReplayOrder order, Instant time) {
+
+        int side = order.getOrderQuantity().signum();
+
+        NavigableMap<BigDecimal, BigDecimal> book = findLevels(side > 0 ? market.asks : market.bids, time);
+
+        for (Entry<BigDecimal, BigDecimal> level : book.entrySet()) {
+
+            BigDecimal remaining = order.getRemainingQuantity().abs();
+
+            if (remaining.signum() <= 0 || level.getKey().compareTo(order.getOrderPrice()) * side > 0) {
+                break;
+            }
+
+            BigDecimal quantity = remaining.min(level.getValue());
+
+            fill(market, order, level.getKey(), quantity.multiply(BigDecimal.valueOf(side)), time);
+
+        }
+
+    }
+
+    private void fill(Market market, ReplayOrder order, BigDecimal price, BigDecimal quantity, Instant time) {
+
+        order.filledQuantity = order.filledQuantity.add(quantity);
+
+        if (order.getRemainingQuantity().signum() == 0) {
+            order.active = FALSE;
+        }
+
+        BigDecimal notional = price.multiply(quantity);
+
+        BigDecimal commission = notional.abs().multiply(trimToZero(getDecimalProperty("commission", ZERO)));
+
+        market.instrumentPosition = market.instrumentPosition.add(quantity);
+
+        market.fundingPosition = market.fundingPosition.subtract(notional).subtract(commission);
+
+        ReplayExecution execution = ReplayExecution.builder()
+                .id(ID + "-" + sequence.incrementAndGet())
+                .orderId(order.getId())
+                .time(time)
+                .price(price)
+                .size(quantity)
+                .build();
+
+        market.executions.add(execution);
+
+        log.debug("Filled : {}", execution);
+
+    }
+
+    private Instant resolve(Key key) {
+
+        Instant now = clock.get();
+
+        Instant time = key == null ? null : key.getTimestamp();
+
+        return time == null || time.isAfter(now) ? now : time;
+
+    }
+
+    private Market find(Key key) {
+
+        if (key == null || key.getSite() == null || key.getInstrument() == null) {
+            return null;
+        }
+
+        return getMarkets().get(new Composite(key.getSite(), key.getInstrument()));
+
+    }
+
+    private NavigableMap<BigDecimal, BigDecimal> findLevels(
+            NavigableMap<Instant, NavigableMap<BigDecimal, BigDecimal>> books, Instant time) {
+
+        Entry<Instant, NavigableMap<BigDecimal, BigDecimal>> entry = books.floorEntry(time);
+
+        return entry == null ? emptyNavigableMap() : entry.getValue();
+
+    }
+
+    private NavigableMap<BigDecimal, BigDecimal> findBook(Key key, boolean ask) {
+
+        Market market = find(key);
+
+        if (market == null) {
+            return emptyNavigableMap();
+        }
+
+        return findLevels(ask ? market.asks : market.bids, resolve(key));
+
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+
+        if (listener == null) {
+            return;
+        }
+
+        listeners.add(listener);
+
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+
+        if (listener == null) {
+            return;
+        }
+
+        listeners.remove(listener);
+
+    }
+
+    @Override
+    public StateType getState(Key key) {
+        return StateType.ACTIVE;
+    }
+
+    @Override
+    public BigDecimal getBestAskPrice(Key key) {
+
+        NavigableMap<BigDecimal, BigDecimal> book = findBook(key, true);
+
+        return book.isEmpty() ? null : book.firstKey();
+
+    }
+
+    @Override
+    public BigDecimal getBestBidPrice(Key key) {
+
+        NavigableMap<BigDecimal, BigDecimal> book = findBook(key, false);
+
+        return book.isEmpty() ? null : book.firstKey();
+
+    }
+
+    @Override
+    public BigDecimal getBestAskSize(Key key) {
+
+        NavigableMap<BigDecimal, BigDecimal> book = findBook(key, true);
+
+        return book.isEmpty() ? null : book.firstEntry().getValue();
+
+    }
+
+    @Override
+    public BigDecimal getBestBidSize(Key key) {
+
+        NavigableMap<BigDecimal, BigDecimal> book = findBook(key, false);
+
+        return book.isEmpty() ? null : book.firstEntry().getValue();
+
+    }
+
+    @Override
+    public BigDecimal getMidPrice(Key key) {
+
+        BigDecimal ask = getBestAskPrice(key);
+
+        BigDecimal bid = getBestBidPrice(key);
+
+        return ask == null || bid == null ? null : ask.add(bid).multiply(HALF);
+
+    }
+
+    @Override
+    public BigDecimal getLastPrice(Key key) {
+
+        Market market = find(key);
+
+        if (market == null) {
+            return null;
+        }
+
+        int index = search(market.trades, resolve(key), false) - 1;
+
+        return index < 0 ? null : market.trades.get(index).getPrice();
+
+    }
+
+    @Override
+    public Map<BigDecimal, BigDecimal> getAskPrices(Key key) {
+        return findBook(key, true);
+    }
+
+    @Override
+    public Map<BigDecimal, BigDecimal> getBidPrices(Key key) {
+        return findBook(key, false);
+    }
+
+    @Override
+    public List<Trade> listTrades(Key key, Instant fromTime) {
+
+        Market market = find(key);
+
+        if (market == null) {
+            return emptyList();
+        }
+
+        int lo = fromTime == null ? 0 : search(market.trades, fromTime, true);
+
+        int hi = search(market.trades, resolve(key), false);
+
+        return lo >= hi ? emptyList() : unmodifiableList(market.trades.subList(lo, hi));
+
+    }
+
+    @VisibleForTesting
+    CurrencyType findCurrency(String instrument, boolean funding) {
+
+        String[] tokens = StringUtils.split(StringUtils.trimToEmpty(instrument).toUpperCase(), "_-/:");
+
+        if (tokens.length < 2) {
+            return null;
+        }
+
+        try {
+            return CurrencyType.valueOf(tokens[tokens.length - (funding ? 1 : 2)]);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+    }
+
+    @Override
+    public CurrencyType getInstrumentCurrency(Key key) {
+        return key == null ? null : findCurrency(key.getInstrument(), false);
+    }
+
+    @Override
+    public CurrencyType getFundingCurrency(Key key) {
+        return key == null ? null : findCurrency(key.getInstrument(), true);
+    }
+
+    @Override
+    public String findProduct(Key key, CurrencyType instrument, CurrencyType funding) {
+
+        if (key == null || instrument == null || funding == null) {
+            return null;
+        }
+
+        return getMarkets().keySet().stream()
+                .filter(c -> Objects.equals(c.getSite(), key.getSite()))
+                .map(Composite::getInstrument)
+                .filter(i -> findCurrency(i, false) == instrument)
+                .filter(i -> findCurrency(i, true) == funding)
+                .sorted().findFirst().orElse(null);
+
+    }
+
+    @Override
+    public BigDecimal getConversionPrice(Key key, CurrencyType currency) {
+
+        if (currency == null) {
+            return null;
+        }
+
+        if (currency == getInstrumentCurrency(key)) {
+            return ONE;
+        }
+
+        if (currency == getFundingCurrency(key)) {
+
+            BigDecimal price = getMidPrice(key);
+
+            return price == null || price.signum() == 0 ? null : price.negate();
+
+        }
+
+        return null;
+
+    }
+
+    @Override
+    public BigDecimal getInstrumentPosition(Key key) {
+
+        Market market = find(key);
+
+        if (market == null) {
+            return null;
+        }
+
+        synchronized (market) {
+            return market.instrumentPosition;
+        }
+
+    }
+
+    @Override
+    public BigDecimal getFundingPosition(Key key) {
+
+        Market market = find(key);
+
+        if (market == null) {
+            return null;
+        }
+
+        synchronized (market) {
+            return market.fundingPosition;
+        }
+
+    }
+
+    private BigDecimal round(BigDecimal value, RoundingMode mode, BigDecimal unit) {
+
+        if (value == null || mode == null || unit == null || unit.signum() == 0) {
+            return null;
+        }
+
+        return value.divide(unit, 0, mode).multiply(unit);
+
+    }
+
+    @Override
+    public BigDecimal roundLotSize(Key key, BigDecimal value, RoundingMode mode) {
+        return round(value, mode, getDecimalProperty("lot_size", SATOSHI));
+    }
+
+    @Override
+    public BigDecimal roundTickSize(Key key, BigDecimal value, RoundingMode mode) {
+        return round(value, mode, getDecimalProperty("tick_size", SATOSHI));
+    }
+
+    @Override
+    public BigDecimal getCommissionRate(Key key) {
+        return getDecimalProperty("commission", ZERO);
+    }
+
+    @Override
+    public Boolean isMarginable(Key key) {
+        return Boolean.valueOf(getStringProperty("marginable", FALSE.toString()));
+    }
+
+    @Override
+    public ZonedDateTime getExpiry(Key key) {
+        return null;
+    }
+
+    @Override
+    public Order findOrder(Key key, String id) {
+
+        Market market = find(key);
+
+        if (market == null || id == null) {
+            return null;
+        }
+
+        synchronized (market) {
+            return market.orders.get(id);
+        }
+
+    }
+
+    @Override
+    public List<Order> listActiveOrders(Key key) {
+
+        Market market = find(key);
+
+        if (market == null) {
+            return emptyList();
+        }
+
+        synchronized (market) {
+            return market.orders.values().stream().filter(o -> TRUE.equals(o.getActive())).collect(toList());
+        }
+
+    }
+
+    @Override
+    public List<Order.Execution> listExecutions(Key key) {
+
+        Market market = find(key);
+
+        if (market == null) {
+            return emptyList();
+        }
+
+        synchronized (market) {
+            return new ArrayList<>(market.executions);
+        }
+
+    }
+
+    @Override
+    public Map<CreateInstruction, String> createOrders(Key key, Set<CreateInstruction> instructions) {
+
+        Market market = find(key);
+
+        if (market == null || instructions == null) {
+            return emptyMap();
+        }
+
+        Instant now = resolve(key);
+
+        Map<CreateInstruction, String> results = new IdentityHashMap<>();
+
+        synchronized (market) {
+
+            for (CreateInstruction i : instructions) {
+
+                if (i == null || i.getPrice() == null || i.getSize() == null || i.getSize().signum() == 0) {
+
+                    results.put(i, null);
+
+                    continue;
+
+                }
+
+                Duration ttl = i.getTimeToLive();
+
+                Instant expiry = ttl == null || ttl.isZero() || ttl.isNegative() ? null : now.plus(ttl);
+
+                String id = ID + "-" + sequence.incrementAndGet();
+
+                ReplayOrder order = new ReplayOrder(id, key.getInstrument(), i.getPrice(), i.getSize(), expiry);
+
+                market.orders.put(id, order);
+
+                matchBook(market, order, now);
+
+                results.put(i, id);
+
+            }
+
+        }
+
+        return results;
+
+    }
+
+    @Override
+    public Map<CancelInstruction, String> cancelOrders(Key key, Set<CancelInstruction> instructions) {
+
+        Market market = find(key);
+
+        if (market == null || instructions == null) {
+            return emptyMap();
+        }
+
+        Map<CancelInstruction, String> results = new IdentityHashMap<>();
+
+        synchronized (market) {
+
+            for (CancelInstruction i : instructions) {
+
+                ReplayOrder order = i == null ? null : market.orders.get(i.getId());
+
+                if (order == null || !TRUE.equals(order.getActive())) {
+
+                    results.put(i, null);
+
+                    continue;
+
+                }
+
+                order.active = FALSE;
+
+                results.put(i, order.getId());
+
+            }
+
+        }
+
+        return results;
+
+    }
+
+    @Override
+    public Map<AmendInstruction, String> amendOrders(Key key, Set<AmendInstruction> instructions) {
+        return null; // Replayed as cancel and create.
+    }
+
+}
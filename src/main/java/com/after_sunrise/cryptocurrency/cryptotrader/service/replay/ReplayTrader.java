@@ -0,0 +1,182 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.service.replay;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.core.Composite;
+import com.after_sunrise.cryptocurrency.cryptotrader.core.CryptotraderImpl;
+import com.after_sunrise.cryptocurrency.cryptotrader.core.PropertyManager;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.Key;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Pipeline;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Trader;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.inject.Inject;
+import com.google.inject.Injector;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.apache.commons.lang3.StringUtils.trimToEmpty;
+
+/**
+ * Drives the pipeline through the recorded market data of the {@link ReplayContext} in virtual time,
+ * stepping by the trading interval as fast as the pipeline allows.
+ *
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+@Slf4j
+public class ReplayTrader implements Trader {
+
+    public static class Module extends CryptotraderImpl.Module {
+
+        public Module() {
+            super(ReplayTrader.class, ReplayContext.class, ReplayAgent.class);
+        }
+
+    }
+
+    private final AtomicBoolean closed;
+
+    private final PropertyManager propertyManager;
+
+    private final ReplayContext context;
+
+    private final Pipeline pipeline;
+
+    @Inject
+    public ReplayTrader(Injector injector) {
+
+        this.closed = new AtomicBoolean();
+
+        this.propertyManager = injector.getInstance(PropertyManager.class);
+
+        this.context = injector.getInstance(ReplayContext.class);
+
+        this.pipeline = injector.getInstance(Pipeline.class);
+
+    }
+
+    @Override
+    public void trigger() {
+        log.trace("Skipping trigger.");
+    }
+
+    @Override
+    public void close() {
+
+        if (closed.compareAndSet(false, true)) {
+            log.info("Aborted.");
+        }
+
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public void trade() {
+
+        Instant start = context.getStartTime();
+
+        Instant end = context.getEndTime();
+
+        if (start == null || end == null) {
+
+            log.warn("Replay data not available.");
+
+            return;
+
+        }
+
+        log.info("Replay started : {} - {}", start, end);
+
+        Map<Composite, AtomicLong> frequencies = new HashMap<>();
+
+        Instant launch = propertyManager.getNow();
+
+        long cycles = 0;
+
+        Instant time = start;
+
+        while (!isClosed() && !time.isAfter(end)) {
+
+            Duration interval = propertyManager.getTradingInterval();
+
+            if (interval == null || interval.isZero() || interval.isNegative()) {
+
+                log.warn("Aborting replay with invalid interval : {}", interval);
+
+                break;
+
+            }
+
+            context.advance(time);
+
+            cycles += processTargets(time, interval, frequencies);
+
+            time = time.plus(interval);
+
+        }
+
+        Duration elapsed = Duration.between(launch, propertyManager.getNow());
+
+        log.info("Replay finished : {} cycles in {} ms ({} cycles/sec, virtual {})", cycles, elapsed.toMillis(),
+                cycles * 1000 / Math.max(elapsed.toMillis(), 1), Duration.between(start, context.getTime()));
+
+        frequencies.keySet().forEach(c -> {
+
+            Key key = Key.builder().site(c.getSite()).instrument(c.getInstrument()).timestamp(context.getTime()).build();
+
+            log.info("Replay position : [{}.{}] instrument={} funding={} mid={}", c.getSite(), c.getInstrument(),
+                    context.getInstrumentPosition(key), context.getFundingPosition(key), context.getMidPrice(key));
+
+        });
+
+    }
+
+    @VisibleForTesting
+    long processTargets(Instant now, Duration interval, Map<Composite, AtomicLong> frequencies) {
+
+        long cycles = 0;
+
+        for (Composite c : propertyManager.getTradingTargets()) {
+
+            String site = trimToEmpty(c.getSite());
+
+            String instrument = trimToEmpty(c.getInstrument());
+
+            AtomicLong count = frequencies.computeIfAbsent(new Composite(site, instrument),
+                    k -> new AtomicLong(propertyManager.getTradingSeed(site, instrument)));
+
+            Integer frequency = propertyManager.getTradingFrequency(site, instrument);
+
+            if (count.getAndIncrement() % frequency != 0) {
+                continue;
+            }
+
+            Instant target = now.plusMillis(Math.abs(interval.toMillis() * frequency));
+
+            try {
+
+                pipeline.process(now, target, site, instrument);
+
+                cycles++;
+
+            } catch (RuntimeException e) {
+
+                log.error("Trading failure : " + c, e);
+
+            }
+
+        }
+
+        return cycles;
+
+    }
+
+}
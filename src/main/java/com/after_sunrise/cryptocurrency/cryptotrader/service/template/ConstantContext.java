@@ -6,6 +6,7 @@ import com.google.common.cache.CacheBuilder;
 
 import java.math.BigDecimal;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author takanori.takase
@@ -88,6 +89,11 @@ public class ConstantContext extends TemplateContext {
         return convertDecimal(key);
     }
 
+    @Override
+    public CompletableFuture<BigDecimal> getMidPriceAsync(Key key) {
+        return CompletableFuture.completedFuture(getMidPrice(key));
+    }
+
     @Override
     public BigDecimal getLastPrice(Key key) {
         return convertDecimal(key);
@@ -0,0 +1,134 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.service.template;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Generates strictly increasing nonces per key, without locking nor sleeping between the calls. Nonces follow
+ * the clock, and run ahead of it by one per call when called faster than the clock resolution.
+ *
+ * When the file is configured, a high-water mark is reserved ahead of the issued nonces and persisted, so that
+ * the nonces are not reused after restarts. The file is only written once the reserved range is exhausted.
+ *
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+class NonceGenerator {
+
+    private final Map<String, AtomicLong> lasts = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> marks = new ConcurrentHashMap<>();
+
+    private final Path path;
+
+    private final long reserve;
+
+    /**
+     * @param path    File to persist the high-water marks. Not persisted if null.
+     * @param reserve Range of the nonces reserved ahead, per persistence.
+     */
+    NonceGenerator(Path path, long reserve) {
+        this.path = path;
+        this.reserve = Math.max(reserve, 1L);
+    }
+
+    /**
+     * @param key Key of the nonce sequence, such as the site and the API key.
+     * @param now Current time, such as the epoch millis.
+     * @return Nonce larger than any of the previous nonces of the key.
+     */
+    long next(String key, long now) throws IOException {
+
+        AtomicLong last = lasts.get(key);
+
+        if (last == null) {
+            last = initialize(key);
+        }
+
+        long value = last.updateAndGet(v -> Math.max(v + 1, now));
+
+        if (path != null && value > marks.get(key)) {
+            persist(key, value);
+        }
+
+        return value;
+
+    }
+
+    private synchronized AtomicLong initialize(String key) throws IOException {
+
+        AtomicLong last = lasts.get(key);
+
+        if (last == null) {
+
+            long mark = path == null ? 0L : Long.parseLong(read().getProperty(key, "0"));
+
+            marks.put(key, mark);
+
+            last = new AtomicLong(mark);
+
+            lasts.put(key, last);
+
+        }
+
+        return last;
+
+    }
+
+    private synchronized void persist(String key, long value) throws IOException {
+
+        if (value <= marks.get(key)) {
+            return; // Reserved by the other thread.
+        }
+
+        long mark = value + reserve;
+
+        synchronized (NonceGenerator.class) {
+
+            Properties properties = read();
+
+            properties.setProperty(key, String.valueOf(mark));
+
+            Path parent = path.toAbsolutePath().getParent();
+
+            Files.createDirectories(parent);
+
+            Path temp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, "Nonce high-water marks.");
+            }
+
+            Files.move(temp, path, REPLACE_EXISTING, ATOMIC_MOVE);
+
+        }
+
+        marks.put(key, mark);
+
+    }
+
+    private Properties read() throws IOException {
+
+        Properties properties = new Properties();
+
+        if (Files.exists(path)) {
+            try (InputStream in = Files.newInputStream(path)) {
+                properties.load(in);
+            }
+        }
+
+        return properties;
+
+    }
+
+}
@@ -0,0 +1,104 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.service.template;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Computes the request signatures of the private endpoints. The initialized {@link Mac} instances are pooled
+ * per thread, algorithm and key, since the instances are not thread-safe but are reusable after each digest.
+ *
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+public class Signer {
+
+    private static final int POOL_SIZE = 16;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    public enum Encoding {
+
+        HEX {
+            @Override
+            public String encode(byte[] bytes) {
+
+                char[] chars = new char[bytes.length * 2];
+
+                for (int i = 0; i < bytes.length; i++) {
+                    chars[i * 2] = Signer.HEX[(bytes[i] >> 4) & 0x0f];
+                    chars[i * 2 + 1] = Signer.HEX[bytes[i] & 0x0f];
+                }
+
+                return new String(chars);
+
+            }
+        },
+
+        BASE64 {
+            @Override
+            public String encode(byte[] bytes) {
+                return Base64.getEncoder().encodeToString(bytes);
+            }
+        },
+
+        BASE64_URL {
+            @Override
+            public String encode(byte[] bytes) {
+                return Base64.getUrlEncoder().encodeToString(bytes);
+            }
+        };
+
+        public abstract String encode(byte[] bytes);
+
+    }
+
+    private final ThreadLocal<Map<Entry<String, ByteBuffer>, Mac>> pool = ThreadLocal.withInitial(() ->
+            new LinkedHashMap<Entry<String, ByteBuffer>, Mac>(POOL_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Entry<Entry<String, ByteBuffer>, Mac> eldest) {
+                    return size() > POOL_SIZE;
+                }
+            }
+    );
+
+    public byte[] sign(String algorithm, byte[] key, byte[] data) throws IOException {
+
+        Map<Entry<String, ByteBuffer>, Mac> macs = pool.get();
+
+        Mac mac = macs.get(new SimpleImmutableEntry<>(algorithm, ByteBuffer.wrap(key)));
+
+        try {
+
+            if (mac == null) {
+
+                mac = Mac.getInstance(algorithm);
+
+                mac.init(new SecretKeySpec(key, algorithm));
+
+                macs.put(new SimpleImmutableEntry<>(algorithm, ByteBuffer.wrap(key.clone())), mac);
+
+            }
+
+            return mac.doFinal(data);
+
+        } catch (GeneralSecurityException e) {
+
+            throw new IOException("Failed to compute hash.", e);
+
+        }
+
+    }
+
+    public String sign(String algorithm, byte[] key, byte[] data, Encoding encoding) throws IOException {
+        return encoding.encode(sign(algorithm, key, data));
+    }
+
+}
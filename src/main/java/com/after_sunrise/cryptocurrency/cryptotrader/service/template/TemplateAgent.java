@@ -1,25 +1,42 @@
 package com.after_sunrise.cryptocurrency.cryptotrader.service.template;
 
+import com.after_sunrise.cryptocurrency.cryptotrader.core.ExecutorFactory;
+import com.after_sunrise.cryptocurrency.cryptotrader.core.PropertyManager;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.*;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.Key;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.StateType;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.AmendInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.Visitor;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.AbstractService;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.MapUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.tuple.Pair;
 
+import javax.inject.Inject;
+import java.math.BigDecimal;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 
 import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
+import static java.math.BigDecimal.ZERO;
+import static java.math.RoundingMode.HALF_UP;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.stream.Collectors.toSet;
 
 /**
  * @author takanori.takase
@@ -29,12 +46,32 @@ public class TemplateAgent extends AbstractService implements Agent {
 
     static final Duration INTERVAL = Duration.ofSeconds(5);
 
+    private static final Duration PUSH_RETENTION = Duration.ofMinutes(1);
+
+    private static final long PUSH_SIZE = Short.MAX_VALUE;
+
+    private final AtomicReference<ExecutorService> executor = new AtomicReference<>();
+
+    private final Set<Context> subscribed = Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private final Cache<Pair<String, String>, Order> pushes = CacheBuilder.newBuilder()
+            .expireAfterWrite(PUSH_RETENTION.toMillis(), MILLISECONDS).maximumSize(PUSH_SIZE).build();
+
     private final String id;
 
     public TemplateAgent(String id) {
         this.id = id;
     }
 
+    /**
+     * Configures the executor of the pipelined order creations, sized by the number of the trading threads.
+     * The creations are sent in the calling thread if not configured.
+     */
+    @Inject
+    public void initialize(ExecutorFactory factory, PropertyManager manager) {
+        executor.set(factory.get(getClass(), manager.getTradingThreads()));
+    }
+
     @Override
     public String get() {
         return id;
@@ -45,6 +82,50 @@ public class TemplateAgent extends AbstractService implements Agent {
         return Instant.now();
     }
 
+    private CompletableFuture<Map<CreateInstruction, String>> createAsync(
+            Context context, Key key, Set<CreateInstruction> instructions) {
+
+        ExecutorService service = executor.get();
+
+        if (service == null) {
+            return completedFuture(context.createOrders(key, instructions));
+        }
+
+        return supplyAsync(() -> context.createOrders(key, instructions), service);
+
+    }
+
+    /**
+     * Retains the order states pushed by the context, so that the pushes arriving before the reconcile has started,
+     * such as the acknowledgements of the instructions just sent, are not missed.
+     */
+    @VisibleForTesting
+    void subscribe(Context context) {
+
+        synchronized (subscribed) {
+
+            if (!subscribed.add(context)) {
+                return;
+            }
+
+        }
+
+        context.addListener(new Context.Listener() {
+            @Override
+            public void onMarketChange(Key k) {
+                // Ignore
+            }
+
+            @Override
+            public void onOrderChange(Key k, Order order) {
+                if (k != null && order != null && order.getId() != null) {
+                    pushes.put(Pair.of(k.getSite(), order.getId()), order);
+                }
+            }
+        });
+
+    }
+
     @Override
     public Map<Instruction, String> manage(Context context, Request request, List<Instruction> instructions) {
 
@@ -56,8 +137,11 @@ public class TemplateAgent extends AbstractService implements Agent {
 
         }
 
+        subscribe(context);
+
         Set<CreateInstruction> creates = new HashSet<>();
         Set<CancelInstruction> cancels = new HashSet<>();
+        Set<AmendInstruction> amends = new HashSet<>();
 
         Instruction.Visitor<Boolean> visitor = new Visitor<Boolean>() {
             @Override
@@ -69,6 +153,11 @@ public class TemplateAgent extends AbstractService implements Agent {
             public Boolean visit(CancelInstruction instruction) {
                 return cancels.add(instruction);
             }
+
+            @Override
+            public Boolean visit(AmendInstruction instruction) {
+                return amends.add(instruction);
+            }
         };
 
         instructions.stream().filter(Objects::nonNull).forEach(i -> i.accept(visitor));
@@ -77,14 +166,69 @@ public class TemplateAgent extends AbstractService implements Agent {
 
         Map<Instruction, String> results = new IdentityHashMap<>();
 
-        results.putAll(context.cancelOrders(key, cancels));
+        boolean unconfirmed = trimToEmpty(request.getReconciled()).containsValue(FALSE);
+
+        Set<CreateInstruction> pipelined = unconfirmed || cancels.isEmpty()
+                || !Boolean.valueOf(getStringProperty("pipeline", "false"))
+                ? Collections.emptySet() : pipeline(context, key, creates);
+
+        CompletableFuture<Map<CreateInstruction, String>> created = pipelined.isEmpty()
+                ? completedFuture(Collections.emptyMap())
+                : createAsync(context, key, pipelined);
 
-        if (results.values().stream().anyMatch(StringUtils::isEmpty)) {
+        creates.removeAll(pipelined);
+
+        Map<CancelInstruction, String> cancelled = trimToEmpty(context.cancelOrders(key, cancels));
+
+        results.putAll(cancelled);
+
+        results.putAll(trimToEmpty(created.join()));
+
+        if (cancelled.values().stream().anyMatch(StringUtils::isEmpty)) {
 
             log.trace("Skipping create instructions : {}", creates.size());
 
+        } else if (unconfirmed) {
+
+            log.trace("Skipping create instructions (unconfirmed) : {}", creates.size());
+
         } else {
 
+            Map<AmendInstruction, String> amended = amends.isEmpty() ? null : context.amendOrders(key, amends);
+
+            Set<AmendInstruction> unsupported = amends;
+
+            if (amended != null) {
+
+                results.putAll(amended);
+
+                unsupported = amends.stream().filter(a -> !amended.containsKey(a)).collect(toSet());
+
+            }
+
+            if (!unsupported.isEmpty()) {
+
+                log.trace("Falling back amend instructions : {}", unsupported.size());
+
+                Set<CancelInstruction> fallbacks = unsupported.stream()
+                        .map(AmendInstruction::toCancel).collect(toSet());
+
+                Map<CancelInstruction, String> fallbackIds = trimToEmpty(context.cancelOrders(key, fallbacks));
+
+                results.putAll(fallbackIds);
+
+                if (fallbacks.stream().map(fallbackIds::get).anyMatch(StringUtils::isEmpty)) {
+
+                    log.trace("Skipping create instructions (amend) : {}", creates.size());
+
+                    return results;
+
+                }
+
+                unsupported.stream().map(AmendInstruction::toCreate).forEach(creates::add);
+
+            }
+
             results.putAll(context.createOrders(key, creates));
 
         }
@@ -93,6 +237,131 @@ public class TemplateAgent extends AbstractService implements Agent {
 
     }
 
+    /**
+     * Selects the create instructions which can be submitted concurrently with the pending cancels, assuming that
+     * none of the cancels have taken effect yet. A create is excluded if it would cross any of the active orders
+     * on the opposite side (self-trade), or if the active orders and the selected creates on the same side would
+     * exceed the funding position, or the instrument position for selling on the non-marginable products.
+     * Order sizes are converted to the funding currency with the conversion price, as the adviser sizes them.
+     */
+    @VisibleForTesting
+    Set<CreateInstruction> pipeline(Context context, Key key, Set<CreateInstruction> creates) {
+
+        List<Order> orders = context.listActiveOrders(key);
+
+        BigDecimal fund = context.getFundingPosition(key);
+
+        BigDecimal position = context.getInstrumentPosition(key);
+
+        boolean marginable = TRUE.equals(context.isMarginable(key));
+
+        BigDecimal conversion = context.getConversionPrice(key, context.getFundingCurrency(key));
+
+        if (orders == null || fund == null || (position == null && !marginable)
+                || conversion == null || conversion.signum() <= 0) {
+
+            log.trace("Skipping pipeline. Orders=[{}] Fund=[{}] Position=[{}] Conversion=[{}]",
+                    orders, fund, position, conversion);
+
+            return Collections.emptySet();
+
+        }
+
+        BigDecimal buyNotional = ZERO;
+        BigDecimal sellNotional = ZERO;
+        BigDecimal sellSize = ZERO;
+        BigDecimal highestBuy = null;
+        BigDecimal lowestSell = null;
+
+        for (Order order : orders) {
+
+            BigDecimal price = order == null ? null : order.getOrderPrice();
+
+            BigDecimal size = order == null ? null : order.getRemainingQuantity();
+
+            if (price == null || size == null) {
+
+                log.trace("Skipping pipeline. Unknown exposure : {}", order);
+
+                return Collections.emptySet();
+
+            }
+
+            if (size.signum() > 0) {
+                buyNotional = buyNotional.add(size.divide(conversion, SCALE, HALF_UP));
+                highestBuy = highestBuy == null ? price : highestBuy.max(price);
+            }
+
+            if (size.signum() < 0) {
+                sellNotional = sellNotional.add(size.abs().divide(conversion, SCALE, HALF_UP));
+                sellSize = sellSize.add(size.abs());
+                lowestSell = lowestSell == null ? price : lowestSell.min(price);
+            }
+
+        }
+
+        Set<CreateInstruction> pipelined = new HashSet<>();
+
+        for (CreateInstruction create : creates) {
+
+            BigDecimal price = create.getPrice();
+
+            BigDecimal size = create.getSize();
+
+            if (price == null || price.signum() == 0 || size == null || size.signum() == 0) {
+                continue; // Skip invalid and market.
+            }
+
+            if (size.signum() > 0) {
+
+                BigDecimal notional = buyNotional.add(size.divide(conversion, SCALE, HALF_UP));
+
+                if ((lowestSell != null && price.compareTo(lowestSell) >= 0) || notional.compareTo(fund) > 0) {
+
+                    log.trace("Deferring create : {} (fund=[{}] notional=[{}])", create, fund, notional);
+
+                    continue;
+
+                }
+
+                buyNotional = notional;
+
+            } else {
+
+                BigDecimal notional = sellNotional.add(size.abs().divide(conversion, SCALE, HALF_UP));
+
+                BigDecimal total = sellSize.add(size.abs());
+
+                if ((highestBuy != null && price.compareTo(highestBuy) <= 0)
+                        || (marginable ? notional.compareTo(fund) > 0 : total.compareTo(position) > 0)) {
+
+                    log.trace("Deferring create : {} (fund=[{}] position=[{}])", create, fund, position);
+
+                    continue;
+
+                }
+
+                sellNotional = notional;
+
+                sellSize = total;
+
+            }
+
+            pipelined.add(create);
+
+        }
+
+        log.trace("Pipelining create instructions : {} / {}", pipelined.size(), creates.size());
+
+        return pipelined;
+
+    }
+
+    /**
+     * Reconciles the instructions against the order states pushed by the context as soon as they arrive,
+     * including those retained since the instructions were managed, and falls back to polling each of the
+     * remaining orders at every interval until the target time.
+     */
     @Override
     public Map<Instruction, Boolean> reconcile(Context context, Request request, Map<Instruction, String> instructions) {
 
@@ -112,79 +381,93 @@ public class TemplateAgent extends AbstractService implements Agent {
 
         }
 
-        Map<String, CreateInstruction> creates = new HashMap<>();
-        Map<String, CancelInstruction> cancels = new HashMap<>();
+        Map<String, Instruction> remaining = new ConcurrentHashMap<>();
 
         trimToEmpty(instructions).entrySet().stream()
                 .filter(entry -> Objects.nonNull(entry.getKey()))
                 .filter(entry -> Objects.nonNull(entry.getValue()))
-                .forEach(entry -> entry.getKey().accept(new Visitor<Instruction>() {
-                            @Override
-                            public Instruction visit(CreateInstruction instruction) {
-                                return creates.put(entry.getValue(), instruction);
-                            }
-
-                            @Override
-                            public Instruction visit(CancelInstruction instruction) {
-                                return cancels.put(entry.getValue(), instruction);
-                            }
-                        })
-                );
-
-        Map<String, Instruction> remaining = new HashMap<>();
-        remaining.putAll(creates);
-        remaining.putAll(cancels);
+                .forEach(entry -> remaining.put(entry.getValue(), entry.getKey()));
 
         Map<Instruction, Boolean> results = new IdentityHashMap<>();
 
         Key key = Key.from(request);
 
-        while (!remaining.isEmpty()) {
+        BlockingQueue<Order> pushed = new LinkedBlockingQueue<>();
 
-            key = nextKey(key, Duration.ofMillis(getLongProperty("interval", INTERVAL.toMillis())));
+        Context.Listener listener = new Context.Listener() {
+            @Override
+            public void onMarketChange(Key k) {
+                // Ignore
+            }
+
+            @Override
+            public void onOrderChange(Key k, Order order) {
+                if (order != null && order.getId() != null && remaining.containsKey(order.getId())) {
+                    pushed.add(order);
+                }
+            }
+        };
 
-            for (Entry<String, Instruction> entry : new HashMap<>(remaining).entrySet()) {
+        context.addListener(listener);
 
-                if (key != null && key.getTimestamp().isBefore(request.getTargetTime()) && context.getState(key) != StateType.TERMINATE) {
+        remaining.keySet().stream() // Pushed before the listener was added.
+                .map(id -> pushes.getIfPresent(Pair.of(request.getSite(), id)))
+                .filter(Objects::nonNull)
+                .forEach(pushed::add);
 
-                    Order order = context.findOrder(key, entry.getKey());
+        try {
 
-                    if (creates.containsKey(entry.getKey())) {
+            while (!remaining.isEmpty()) {
 
-                        if (order != null) {
+                Duration interval = Duration.ofMillis(getLongProperty("interval", INTERVAL.toMillis()));
 
-                            remaining.remove(entry.getKey());
+                key = nextKey(key, interval, pushed, order -> {
 
-                            results.put(entry.getValue(), TRUE);
+                    Instruction instruction = remaining.get(order.getId());
 
-                        }
+                    if (instruction != null && isReconciled(instruction, order)) {
 
-                        continue;
+                        log.trace("Reconciled by push : {}", order.getId());
+
+                        remaining.remove(order.getId());
+
+                        results.put(instruction, TRUE);
 
                     }
 
-                    if (cancels.containsKey(entry.getKey())) {
+                    return remaining.isEmpty();
+
+                });
 
-                        if (order == null || !TRUE.equals(order.getActive())) {
+                for (Entry<String, Instruction> entry : new HashMap<>(remaining).entrySet()) {
 
-                            remaining.remove(entry.getKey());
+                    if (key != null && key.getTimestamp().isBefore(request.getTargetTime()) && context.getState(key) != StateType.TERMINATE) {
 
-                            results.put(entry.getValue(), TRUE);
+                        Order order = context.findOrder(key, entry.getKey());
 
+                        if (!isReconciled(entry.getValue(), order)) {
+                            continue;
                         }
 
+                        remaining.remove(entry.getKey());
+
+                        results.put(entry.getValue(), TRUE);
+
                         continue;
 
                     }
 
-                }
+                    remaining.remove(entry.getKey());
 
-                remaining.remove(entry.getKey());
+                    results.put(entry.getValue(), FALSE);
 
-                results.put(entry.getValue(), FALSE);
+                }
 
             }
 
+        } finally {
+
+            context.removeListener(listener);
 
         }
 
@@ -193,15 +476,52 @@ public class TemplateAgent extends AbstractService implements Agent {
     }
 
     @VisibleForTesting
-    Key nextKey(Key current, Duration interval) {
+    boolean isReconciled(Instruction instruction, Order order) {
+        return instruction.accept(new Visitor<Boolean>() {
+            @Override
+            public Boolean visit(CreateInstruction instruction) {
+                return order != null;
+            }
+
+            @Override
+            public Boolean visit(CancelInstruction instruction) {
+                return order == null || !TRUE.equals(order.getActive());
+            }
+
+            @Override
+            public Boolean visit(AmendInstruction instruction) {
+
+                if (order == null || !TRUE.equals(order.getActive())) {
+                    return false;
+                }
+
+                BigDecimal price = instruction.getPrice();
+
+                return price == null || order.getOrderPrice() == null || price.compareTo(order.getOrderPrice()) == 0;
+
+            }
+        });
+    }
+
+    /**
+     * Waits for the interval while handing over the pushed orders, until the handler returns true.
+     */
+    @VisibleForTesting
+    Key nextKey(Key current, Duration interval, BlockingQueue<Order> pushed, Predicate<Order> handler) {
 
-        Key next = null;
+        long deadline = System.nanoTime() + interval.toNanos();
 
         try {
 
-            MILLISECONDS.sleep(interval.toMillis());
+            for (long wait = interval.toNanos(); wait > 0; wait = deadline - System.nanoTime()) {
 
-            next = Key.build(current).timestamp(getNow()).build();
+                Order order = pushed.poll(wait, NANOSECONDS);
+
+                if (order != null && handler.test(order)) {
+                    break;
+                }
+
+            }
 
         } catch (InterruptedException e) {
 
@@ -209,9 +529,11 @@ public class TemplateAgent extends AbstractService implements Agent {
 
             Thread.currentThread().interrupt();
 
+            return null;
+
         }
 
-        return next;
+        return Key.build(current).timestamp(getNow()).build();
 
     }
 
@@ -1,50 +1,69 @@
 package com.after_sunrise.cryptocurrency.cryptotrader.service.template;
 
 import com.after_sunrise.cryptocurrency.cryptotrader.core.Converter;
+import com.after_sunrise.cryptocurrency.cryptotrader.core.ExecutorFactory;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.AmendInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Order;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Trade;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.AbstractService;
+import com.after_sunrise.cryptocurrency.cryptotrader.service.template.Signer.Encoding;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.util.concurrent.Futures;
+import io.prometheus.client.*;
 import org.apache.commons.collections4.MapUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.client.config.CookieSpecs;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
+import javax.inject.Inject;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.net.URLEncoder;
-import java.security.GeneralSecurityException;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.ZonedDateTime;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
+import java.util.regex.Pattern;
 
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.*;
@@ -98,401 +117,1653 @@ public abstract class TemplateContext extends AbstractService implements Context
 
     }
 
+    /**
+     * Lanes of the requests, each throttled with its own token bucket configured as
+     * {@code [context class].ratelimit.[lane]} (requests per second, unlimited if zero) and
+     * {@code [context class].ratelimit.[lane].burst}. Queued asynchronous requests of the order lane
+     * are dispatched ahead of the market data lane.
+     */
+    public enum RequestLane {
+
+        ORDER,
+
+        DATA;
+
+        private final String property = "ratelimit." + name().toLowerCase(Locale.US);
+
+    }
+
+    /**
+     * Decodes the response body from the stream. The reader may return before reaching the end of the stream,
+     * in which case the rest of the response is discarded without being read.
+     */
+    @FunctionalInterface
+    public interface ResponseReader<T> {
+
+        T read(Reader reader) throws IOException;
+
+    }
+
+    /**
+     * Exchange shared by the coalesced requests, aborted only after all of its waiters have cancelled.
+     */
+    private static class Coalesced {
+
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        private final AtomicInteger waiters = new AtomicInteger(1);
+
+    }
+
     private static final Logger LOG = LoggerFactory.getLogger(RequestType.class);
 
-    private static final long CACHE_SIZE = Byte.MAX_VALUE;
+    private static final Pattern NEWLINES = Pattern.compile("[\r\n]");
+
+    private static final long CACHE_SIZE = Byte.MAX_VALUE;
+
+    private static final Duration CACHE_DURATION = Duration.ofMinutes(3);
+
+    private static final Duration CACHE_SLEEP = Duration.ofMillis(100);
+
+    private static final int CACHE_RETRY = 2;
+
+    private static final Duration CLIENT_TIMEOUT = Duration.ofMinutes(3);
+
+    private static final int CLIENT_THREADS = 2;
+
+    private static final int CLIENT_INFLIGHT = 64;
+
+    private static final int LOOKUP_THREADS = 8;
+
+    private static final Duration FUTURE_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final Duration FUTURE_MINIMUM = Duration.ofMillis(100);
+
+    private static final Signer SIGNER = new Signer();
+
+    private static final Duration NONCE_RESERVE = Duration.ofMinutes(1);
+
+    private static final double[] BUCKETS = {1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000, 60000};
+
+    private static final Counter CACHE_HITS = Counter.build()
+            .name("cryptotrader_cache_hit_total")
+            .help("Number of cache lookups served without loading.")
+            .labelNames("site", "type")
+            .create();
+
+    private static final Counter CACHE_MISSES = Counter.build()
+            .name("cryptotrader_cache_miss_total")
+            .help("Number of cache lookups which loaded the value.")
+            .labelNames("site", "type")
+            .create();
+
+    private static final Counter CACHE_RETRIES = Counter.build()
+            .name("cryptotrader_cache_retry_total")
+            .help("Number of cache loads retried after failures.")
+            .labelNames("site", "type")
+            .create();
+
+    private static final Counter CACHE_FAILURES = Counter.build()
+            .name("cryptotrader_cache_failure_total")
+            .help("Number of cache loads failed after the retries.")
+            .labelNames("site", "type")
+            .create();
+
+    private static final Counter CACHE_FALLBACKS = Counter.build()
+            .name("cryptotrader_cache_fallback_total")
+            .help("Number of cache lookups served with the last value.")
+            .labelNames("site", "type", "reason")
+            .create();
+
+    private static final Histogram CACHE_LOADS = Histogram.build()
+            .name("cryptotrader_cache_load_milliseconds")
+            .help("Elapsed milliseconds loading the cache values.")
+            .labelNames("site", "type")
+            .buckets(BUCKETS)
+            .create();
+
+    private static final Histogram CACHE_AGES = Histogram.build()
+            .name("cryptotrader_cache_age_milliseconds")
+            .help("Age of the cache values served, in milliseconds.")
+            .labelNames("site", "type")
+            .buckets(100, 200, 500, 1000, 5000, 30000, 60000, 300000, 3600000)
+            .create();
+
+    private static final Gauge CACHE_SIZES = Gauge.build()
+            .name("cryptotrader_cache_size")
+            .help("Number of entries cached.")
+            .labelNames("site", "type")
+            .create();
+
+    private static final Histogram REQUEST_THROTTLES = Histogram.build()
+            .name("cryptotrader_request_throttle_milliseconds")
+            .help("Milliseconds the requests are delayed by the rate limits.")
+            .labelNames("site", "lane")
+            .buckets(0, 50, 100, 200, 500, 1000, 2000, 5000, 10000)
+            .create();
+
+    private static final Counter REQUEST_COALESCES = Counter.build()
+            .name("cryptotrader_request_coalesced_total")
+            .help("Number of the market data requests served by the identical request in progress.")
+            .labelNames("site")
+            .create();
+
+    private static final Gauge REQUEST_QUEUES = Gauge.build()
+            .name("cryptotrader_request_queue")
+            .help("Number of the requests queued.")
+            .labelNames("site", "lane")
+            .create();
+
+    private final Map<Class<?>, Cache<Key, Optional<?>>> singleCache = synchronizedMap(new HashMap<>());
+
+    private final Map<Class<?>, Cache<Key, Optional<List<?>>>> listCache = synchronizedMap(new HashMap<>());
+
+    private final Map<Pair<Class<?>, Key>, Optional<?>> singleLast = new ConcurrentHashMap<>();
+
+    private final Map<Pair<Class<?>, Key>, Optional<List<?>>> listLast = new ConcurrentHashMap<>();
+
+    private final Map<Pair<Class<?>, Key>, Instant> singleLoaded = new ConcurrentHashMap<>();
+
+    private final Map<Pair<Class<?>, Key>, Instant> listLoaded = new ConcurrentHashMap<>();
+
+    private final Set<Pair<Class<?>, Key>> revalidating = ConcurrentHashMap.newKeySet();
+
+    private final Map<Pair<Class<?>, Key>, CompletableFuture<Optional<?>>> singleLoading = new ConcurrentHashMap<>();
+
+    private final Map<Pair<Class<?>, Key>, CompletableFuture<Optional<List<?>>>> listLoading =
+            new ConcurrentHashMap<>();
+
+    private final Cache<List<?>, Map<String, ?>> snapshots = CacheBuilder.newBuilder().weakKeys().build();
+
+    private final Map<Class<?>, Duration> freshness = new ConcurrentHashMap<>();
+
+    private final AtomicReference<NonceGenerator> nonces = new AtomicReference<>();
+
+    private final Set<Listener> listeners = new CopyOnWriteArraySet<>();
+
+    private final String id;
+
+    private final AtomicReference<ExecutorService> lookups = new AtomicReference<>();
+
+    private final CloseableHttpClient client;
+
+    private final CloseableHttpAsyncClient asyncClient;
+
+    private final AtomicInteger inflight = new AtomicInteger();
+
+    private final Map<RequestLane, Queue<Runnable>> pending = new EnumMap<>(RequestLane.class);
+
+    private final Map<RequestLane, AtomicInteger> depths = new EnumMap<>(RequestLane.class);
+
+    private final Map<RequestLane, TokenBucket> buckets = new EnumMap<>(RequestLane.class);
+
+    private final Map<String, Coalesced> coalesced = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService scheduler;
+
+    private final AtomicReference<StateType> state;
+
+    protected TemplateContext(String id) {
+
+        this.id = id;
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        for (RequestLane lane : RequestLane.values()) {
+
+            pending.put(lane, new ConcurrentLinkedQueue<>());
+
+            AtomicInteger depth = new AtomicInteger();
+
+            depths.put(lane, depth);
+
+            buckets.put(lane, new TokenBucket());
+
+            REQUEST_QUEUES.setChild(new Gauge.Child() {
+                @Override
+                public double get() {
+                    return depth.get();
+                }
+            }, id, lane.name());
+
+        }
+
+        this.state = new AtomicReference<>(StateType.ACTIVE);
+
+        this.client = HttpClients.custom()
+                .evictExpiredConnections()
+                .evictIdleConnections(CLIENT_TIMEOUT.toMillis(), MILLISECONDS)
+                .setConnectionTimeToLive(CLIENT_TIMEOUT.toMillis(), MILLISECONDS)
+                .setMaxConnPerRoute(Byte.MAX_VALUE)
+                .setMaxConnTotal(Byte.MAX_VALUE)
+                .setDefaultRequestConfig(
+                        RequestConfig.custom()
+                                .setCookieSpec(CookieSpecs.STANDARD)
+                                .setSocketTimeout((int) CLIENT_TIMEOUT.toMillis())
+                                .setConnectTimeout((int) CLIENT_TIMEOUT.toMillis())
+                                .setConnectionRequestTimeout((int) CLIENT_TIMEOUT.toMillis())
+                                .build()
+                )
+                .build();
+
+        this.asyncClient = HttpAsyncClients.custom()
+                .setMaxConnPerRoute(Byte.MAX_VALUE)
+                .setMaxConnTotal(Byte.MAX_VALUE)
+                .setDefaultIOReactorConfig(IOReactorConfig.custom().setIoThreadCount(CLIENT_THREADS).build())
+                .setDefaultRequestConfig(
+                        RequestConfig.custom()
+                                .setCookieSpec(CookieSpecs.STANDARD)
+                                .setSocketTimeout((int) CLIENT_TIMEOUT.toMillis())
+                                .setConnectTimeout((int) CLIENT_TIMEOUT.toMillis())
+                                .setConnectionRequestTimeout((int) CLIENT_TIMEOUT.toMillis())
+                                .build()
+                )
+                .build();
+
+    }
+
+    @Override
+    public String get() {
+        return id;
+    }
+
+    @Override
+    public void close() throws Exception {
+
+        state.set(StateType.TERMINATE);
+
+        depths.keySet().forEach(lane -> REQUEST_QUEUES.remove(id, lane.name()));
+
+        getCacheSizes().keySet().forEach(type -> CACHE_SIZES.remove(id, type));
+
+        scheduler.shutdown();
+
+        client.close();
+
+        asyncClient.close();
+
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+
+        if (listener == null) {
+            return;
+        }
+
+        listeners.add(listener);
+
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+
+        if (listener == null) {
+            return;
+        }
+
+        listeners.remove(listener);
+
+    }
+
+    protected void notifyMarketChange(Key key) {
+
+        for (Listener listener : listeners) {
+
+            try {
+
+                listener.onMarketChange(key);
+
+            } catch (RuntimeException e) {
+
+                log.warn("Failed to notify : " + key, e);
+
+            }
+
+        }
+
+    }
+
+    protected void notifyOrderChange(Key key, Order order) {
+
+        for (Listener listener : listeners) {
+
+            try {
+
+                listener.onOrderChange(key, order);
+
+            } catch (RuntimeException e) {
+
+                log.warn("Failed to notify : " + key, e);
+
+            }
+
+        }
+
+    }
+
+    @VisibleForTesting
+    public Instant getNow() {
+        return Instant.now();
+    }
+
+    @VisibleForTesting
+    public String getUniqueId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Generates the nonce in epoch millis, strictly increasing per site and API key across the threads.
+     * The high-water marks are persisted to the file of the "nonce.path" property, if configured.
+     *
+     * Nonces are issued without locking, hence the callers are only required to synchronize the requests
+     * if the exchange requires the nonces to arrive in order.
+     */
+    @VisibleForTesting
+    public long getNonce(String apiKey) throws IOException {
+
+        NonceGenerator generator = nonces.get();
+
+        if (generator == null) {
+
+            String path = getStringProperty("nonce.path", null);
+
+            nonces.compareAndSet(null, new NonceGenerator(
+                    StringUtils.isBlank(path) ? null : Paths.get(path), NONCE_RESERVE.toMillis()
+            ));
+
+            generator = nonces.get();
+
+        }
+
+        return generator.next(get() + "." + apiKey, getNow().toEpochMilli());
+
+    }
+
+    @VisibleForTesting
+    public String computeHash(String algorithm, byte[] key, byte[] data) throws IOException {
+        return computeHash(algorithm, key, data, Encoding.HEX);
+    }
+
+    @VisibleForTesting
+    public String computeHash(String algorithm, byte[] key, byte[] data, Encoding encoding) throws IOException {
+        return SIGNER.sign(algorithm, key, data, encoding);
+    }
+
+    @VisibleForTesting
+    public String buildQueryParameter(Map<String, String> parameters) throws IOException {
+        return buildQueryParameter(parameters, "?");
+    }
+
+    @VisibleForTesting
+    public String buildQueryParameter(Map<String, String> parameters, String prefix) throws IOException {
+
+        StringBuilder sb = new StringBuilder();
+
+        if (MapUtils.isNotEmpty(parameters)) {
+
+            for (Entry<String, String> entry : parameters.entrySet()) {
+
+                if (StringUtils.isEmpty(entry.getKey())) {
+                    continue;
+                }
+
+                if (StringUtils.isEmpty(entry.getValue())) {
+                    continue;
+                }
+
+                sb.append(sb.length() == 0 ? StringUtils.trimToEmpty(prefix) : "&");
+                sb.append(URLEncoder.encode(entry.getKey(), UTF_8.name()));
+                sb.append('=');
+                sb.append(URLEncoder.encode(entry.getValue(), UTF_8.name()));
+
+            }
+
+        }
+
+        return sb.toString();
+
+    }
+
+    @VisibleForTesting
+    public String request(String path) throws IOException {
+        return request(RequestType.GET, path, null, null);
+    }
+
+    @VisibleForTesting
+    public String request(RequestType type, String path, Map<String, String> headers, String data) throws IOException {
+
+        throttle(getLane(type, path));
+
+        LOG.trace("[SEND][{}][{}][{}] {}", type, path, headers, data);
+
+        Instant start = Instant.now();
+
+        HttpRequestBase request = createRequest(type, path, headers, data);
+
+        return client.execute(request, response -> receive(path, start, response));
+
+    }
+
+    /**
+     * Streams the response body into the reader, instead of materializing the whole body as a string.
+     * Non-OK responses are rejected with {@link IOException} as in {@link #request(RequestType, String, Map, String)}.
+     */
+    @VisibleForTesting
+    public <T> T request(RequestType type, String path, Map<String, String> headers, String data,
+                         ResponseReader<T> reader) throws IOException {
+
+        throttle(getLane(type, path));
+
+        LOG.trace("[SEND][{}][{}][{}] (stream)", type, path, headers);
+
+        Instant start = Instant.now();
+
+        HttpRequestBase request = createRequest(type, path, headers, data);
+
+        try (CloseableHttpResponse response = client.execute(request)) {
+
+            StatusLine statusLine = response.getStatusLine();
+
+            if (HttpStatus.SC_OK != statusLine.getStatusCode()) {
+                receive(path, start, response); // Rejected with the error body.
+            }
+
+            HttpEntity entity = response.getEntity();
+
+            if (entity == null) {
+                return null;
+            }
+
+            Charset charset = Optional.ofNullable(ContentType.getOrDefault(entity).getCharset()).orElse(UTF_8);
+
+            try (InputStream in = entity.getContent()) {
+
+                T value = reader.read(new InputStreamReader(in, charset));
+
+                Duration elapsed = Duration.between(start, Instant.now());
+
+                if (in.read() != -1) {
+
+                    LOG.trace("[RECV][{}][{}][{}ms] (terminated)", path, statusLine, elapsed.toMillis());
+
+                    request.abort(); // Discard the rest instead of draining.
+
+                } else {
+
+                    LOG.trace("[RECV][{}][{}][{}ms] (stream)", path, statusLine, elapsed.toMillis());
+
+                }
+
+                return value;
+
+            }
+
+        }
+
+    }
+
+    /**
+     * @return Lane of the request : non-GET requests (order entries) are in the order lane.
+     */
+    protected RequestLane getLane(RequestType type, String path) {
+        return type == RequestType.GET ? RequestLane.DATA : RequestLane.ORDER;
+    }
+
+    /**
+     * @return Nanos to wait for the rate limit of the lane.
+     */
+    @VisibleForTesting
+    long reserve(RequestLane lane) {
+
+        BigDecimal rate = getDecimalProperty(lane.property, BigDecimal.ZERO);
+
+        if (rate == null || rate.signum() <= 0) {
+            return 0L;
+        }
+
+        BigDecimal burst = getDecimalProperty(lane.property + ".burst", BigDecimal.ONE);
+
+        double capacity = burst == null ? 1.0 : burst.doubleValue();
+
+        long nanos = buckets.get(lane).reserve(rate.doubleValue(), capacity, System.nanoTime());
+
+        REQUEST_THROTTLES.labels(id, lane.name()).observe(nanos / 1e6);
+
+        return nanos;
+
+    }
+
+    private void throttle(RequestLane lane) throws IOException {
+
+        long nanos = reserve(lane);
+
+        if (nanos <= 0) {
+            return;
+        }
+
+        LOG.trace("Throttling : {} ({} ms)", lane, TimeUnit.NANOSECONDS.toMillis(nanos));
+
+        try {
+
+            TimeUnit.NANOSECONDS.sleep(nanos);
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt(); // Propagate interruption.
+
+            throw new InterruptedIOException("Interrupted while throttling : " + lane);
+
+        }
+
+    }
+
+    private HttpRequestBase createRequest(RequestType type, String path, Map<String, String> headers, String data) {
+
+        HttpRequestBase request = type.create(path, headers, data);
+
+        int t = (int) getTimeout().toMillis();
+
+        request.setConfig(RequestConfig.custom().setCookieSpec(CookieSpecs.STANDARD)
+                .setConnectTimeout(t).setConnectionRequestTimeout(t).setSocketTimeout(t).build()
+        );
+
+        return request;
+
+    }
+
+    private String receive(String path, Instant start, HttpResponse response) throws IOException {
+
+        String body = EntityUtils.toString(response.getEntity(), UTF_8);
+
+        StatusLine statusLine = response.getStatusLine();
+
+        Duration elapsed = Duration.between(start, Instant.now());
+
+        LOG.trace("[RECV][{}][{}][{}ms][{}] {}",
+                path, statusLine, elapsed.toMillis(), response.getAllHeaders(), body);
+
+        if (HttpStatus.SC_OK != statusLine.getStatusCode()) {
+
+            String trimmed = NEWLINES.matcher(body).replaceAll("");
+
+            throw new IOException(statusLine + " : " + trimmed);
+
+        }
+
+        return body;
+
+    }
+
+    /**
+     * Sends the request with the non-blocking client, so that the concurrent requests are multiplexed on the
+     * I/O threads instead of occupying a thread each. The number of the requests in-flight is bounded by
+     * {@code [context class].inflight}, and the excess is queued until the preceding requests complete.
+     * Cancelling the returned future (as in {@link #extract(Future, Duration)} on timeout) aborts the exchange.
+     * <p>
+     * Requests are deferred by the rate limit of their {@link RequestLane}, and the queued order entries are sent
+     * ahead of the market data. Identical GET requests of the market data lane are coalesced into the one
+     * in progress, sharing its outcome. Each of the coalesced callers receives its own future, and the shared
+     * exchange is aborted only after all of them have been cancelled.
+     */
+    @VisibleForTesting
+    public CompletableFuture<String> requestAsync(RequestType type, String path,
+                                                  Map<String, String> headers, String data) {
+
+        LOG.trace("[SEND][{}][{}][{}] {}", type, path, headers, data);
+
+        RequestLane lane = getLane(type, path);
+
+        if (lane != RequestLane.DATA || type != RequestType.GET) {
+            return send(lane, type, path, headers, data, new CompletableFuture<>());
+        }
+
+        String key = path + headers;
+
+        Coalesced created = new Coalesced();
+
+        Coalesced shared = coalesced.compute(key, (k, v) ->
+                v != null && v.waiters.getAndUpdate(n -> n > 0 ? n + 1 : n) > 0 ? v : created
+        );
+
+        if (shared != created) {
+
+            REQUEST_COALESCES.labels(id).inc();
+
+            return await(shared);
+
+        }
+
+        created.future.whenComplete((v, e) -> coalesced.remove(key, created));
+
+        send(lane, type, path, headers, data, created.future);
+
+        return await(created);
+
+    }
+
+    /**
+     * Sends the GET request with the non-blocking client.
+     *
+     * @see #requestAsync(RequestType, String, Map, String)
+     */
+    public CompletableFuture<String> requestAsync(String path) {
+        return requestAsync(RequestType.GET, path, null, null);
+    }
+
+    /**
+     * Creates a dependent stage for each of the coalesced waiters, so that a waiter cancelling on its own timeout
+     * does not cancel the others. The shared exchange is aborted when the last waiter has cancelled.
+     */
+    private CompletableFuture<String> await(Coalesced shared) {
+
+        CompletableFuture<String> stage = shared.future.thenApply(Function.identity());
+
+        stage.whenComplete((v, e) -> {
+            if (stage.isCancelled() && shared.waiters.decrementAndGet() == 0) {
+                shared.future.cancel(true);
+            }
+        });
+
+        return stage;
+
+    }
+
+    private CompletableFuture<String> send(RequestLane lane, RequestType type,
+                                           String path, Map<String, String> headers, String data,
+                                           CompletableFuture<String> future) {
+
+        enqueue(lane, () -> {
+
+            if (future.isDone()) {
+
+                inflight.decrementAndGet(); // Cancelled while queued.
+
+                return;
+
+            }
+
+            Instant start = Instant.now();
+
+            try {
+
+                asyncClient.start();
+
+                Future<HttpResponse> exchange = asyncClient.execute(
+                        createRequest(type, path, headers, data), new FutureCallback<HttpResponse>() {
+                            @Override
+                            public void completed(HttpResponse response) {
+
+                                try {
+                                    future.complete(receive(path, start, response));
+                                } catch (IOException e) {
+                                    future.completeExceptionally(e);
+                                } finally {
+                                    release();
+                                }
+
+                            }
+
+                            @Override
+                            public void failed(Exception e) {
+
+                                future.completeExceptionally(e);
+
+                                release();
+
+                            }
+
+                            @Override
+                            public void cancelled() {
+
+                                future.cancel(false);
+
+                                release();
+
+                            }
+                        });
+
+                future.whenComplete((v, e) -> {
+                    if (future.isCancelled()) {
+                        exchange.cancel(true);
+                    }
+                });
+
+            } catch (RuntimeException e) {
+
+                inflight.decrementAndGet();
+
+                future.completeExceptionally(e);
+
+            }
+
+        });
+
+        return future;
+
+    }
+
+    private void enqueue(RequestLane lane, Runnable task) {
+
+        depths.get(lane).incrementAndGet();
+
+        long nanos = reserve(lane);
+
+        if (nanos > 0) {
+
+            try {
+
+                scheduler.schedule(() -> {
+
+                    pending.get(lane).add(task);
+
+                    dispatch();
+
+                }, nanos, TimeUnit.NANOSECONDS);
+
+                return;
+
+            } catch (RejectedExecutionException e) {
+                // Fall through to dispatch immediately.
+            }
+
+        }
+
+        pending.get(lane).add(task);
+
+        dispatch();
+
+    }
+
+    private boolean isPending() {
+
+        for (Queue<Runnable> queue : pending.values()) {
+            if (!queue.isEmpty()) {
+                return true;
+            }
+        }
+
+        return false;
+
+    }
+
+    private Runnable poll() {
+
+        for (RequestLane lane : RequestLane.values()) {
+
+            Runnable task = pending.get(lane).poll();
+
+            if (task != null) {
+
+                depths.get(lane).decrementAndGet();
+
+                return task;
+
+            }
+
+        }
+
+        return null;
+
+    }
+
+    private void dispatch() {
+
+        int limit = Math.max(getIntProperty("inflight", CLIENT_INFLIGHT), 1);
+
+        while (isPending()) {
+
+            int current = inflight.get();
+
+            if (current >= limit) {
+                return; // Dispatched by the in-flight ones on completion.
+            }
+
+            if (!inflight.compareAndSet(current, current + 1)) {
+                continue;
+            }
+
+            Runnable task = poll();
+
+            if (task == null) {
+
+                inflight.decrementAndGet(); // Dispatched by the others.
+
+                continue;
+
+            }
+
+            task.run();
+
+        }
+
+    }
+
+    private void release() {
+
+        inflight.decrementAndGet();
+
+        dispatch();
+
+    }
+
+    @VisibleForTesting
+    int getInflight() {
+        return inflight.get();
+    }
+
+    @VisibleForTesting
+    int getQueued(RequestLane lane) {
+        return depths.get(lane).get();
+    }
+
+    /**
+     * Configures the executor of the background revalidation, bounded by {@code [context class].lookups} threads.
+     * The executor is owned by the factory, and is shared per context class.
+     */
+    @Inject
+    public void setExecutorFactory(ExecutorFactory factory) {
+        lookups.set(factory.get(getClass(), getIntProperty("lookups", LOOKUP_THREADS)));
+    }
+
+    /**
+     * Registers the metrics shared by the contexts of all sites, labelled by the site. The metrics are already
+     * registered by the context injected first.
+     */
+    @Inject
+    public void setCollectorRegistry(CollectorRegistry registry) {
+
+        try {
+
+            registry.register(CACHE_HITS);
+
+            registry.register(CACHE_MISSES);
+
+            registry.register(CACHE_RETRIES);
+
+            registry.register(CACHE_FAILURES);
+
+            registry.register(CACHE_FALLBACKS);
+
+            registry.register(CACHE_LOADS);
+
+            registry.register(CACHE_AGES);
+
+            registry.register(CACHE_SIZES);
+
+            registry.register(REQUEST_THROTTLES);
+
+            registry.register(REQUEST_COALESCES);
+
+            registry.register(REQUEST_QUEUES);
+
+        } catch (IllegalArgumentException e) {
+
+            log.debug("Skipped metrics registration : {}", e.getMessage());
+
+        }
+
+    }
+
+    @VisibleForTesting
+    public void clear() {
+
+        log.trace("Clearing cache.");
+
+        singleCache.forEach((k, v) -> v.invalidateAll());
+
+        listCache.forEach((k, v) -> v.invalidateAll());
+
+        singleLast.clear();
+
+        listLast.clear();
+
+        singleLoaded.clear();
+
+        listLoaded.clear();
+
+        snapshots.invalidateAll();
+
+    }
+
+    /*
+     * Loads are single-flight per key : concurrent callers of the same key await the in-flight load,
+     * while the other keys of the same type are loaded in parallel. Failed loads are retried by each caller.
+     */
+
+    protected <T> T findCached(Class<T> type, Key key, Callable<T> c) {
+        return findCached(type, key, c, true);
+    }
+
+    protected <T> T findCached(Class<T> type, Key key, Callable<T> c, boolean cacheLast) {
+
+        if (type == null || key == null || c == null) {
+            return null;
+        }
+
+        Key bucket = normalize(type, key);
+
+        Pair<Class<?>, Key> lastKey = Pair.of(type, Key.build(key).timestamp(null).build());
+
+        Cache<Key, Optional<?>> cache = singleCache.computeIfAbsent(type, this::createCache);
+
+        if (cacheLast && revalidate(type, bucket, cache, singleLoaded.get(lastKey), () -> loadCached(type, bucket, c, true))) {
+            return singleLast.getOrDefault(lastKey, Optional.empty()).map(type::cast).orElse(null);
+        }
+
+        return loadCached(type, bucket, c, cacheLast);
+
+    }
+
+    private <T> T loadCached(Class<T> type, Key key, Callable<T> c, boolean cacheLast) {
+
+        Pair<Class<?>, Key> lastKey = Pair.of(type, Key.build(key).timestamp(null).build());
+
+        Cache<Key, Optional<?>> cache = singleCache.computeIfAbsent(type, this::createCache);
+
+        AtomicBoolean loading = new AtomicBoolean();
+
+        int retry = 0;
+
+        try {
+
+            while (true) {
+
+                try {
+
+                    Optional<?> cached = cache.get(key, () -> {
+
+                        loading.set(true);
+
+                        T value = load(type, c);
+
+                        log.trace("Cached : {} - {}", key, value);
+
+                        Optional<?> loaded = Optional.ofNullable(value);
+
+                        if (cacheLast) {
+                            singleLast.put(lastKey, loaded);
+                            singleLoaded.put(lastKey, getNow());
+                        }
+
+                        return loaded;
+
+                    });
+
+                    if (cacheLast) {
+                        singleLast.put(lastKey, cached);
+                    }
+
+                    observeLookup(type, loading.get(), cacheLast ? singleLoaded.get(lastKey) : null);
+
+                    return cached.map(type::cast).orElse(null);
+
+                } catch (Exception e) {
+
+                    if (CACHE_RETRY < ++retry) {
+
+                        log.warn("Failed to cache : {} - {}", type, e);
+
+                        CACHE_FAILURES.labels(id, type.getSimpleName()).inc();
+
+                        if (cacheLast) {
+                            cache.asMap().putIfAbsent(key, singleLast.getOrDefault(lastKey, Optional.empty()));
+                            observeFallback(type, "failure", singleLoaded.get(lastKey));
+                        } else {
+                            cache.asMap().putIfAbsent(key, Optional.empty());
+                        }
+
+                        break;
+
+                    }
+
+                    CACHE_RETRIES.labels(id, type.getSimpleName()).inc();
+
+                    Thread.sleep(CACHE_SLEEP.toMillis());
+
+                }
+
+            }
+
+        } catch (InterruptedException e) {
+
+            Thread.currentThread().interrupt(); // Propagate interruption.
+
+        }
+
+        Optional<?> last = singleLast.getOrDefault(lastKey, Optional.empty());
+
+        return last.map(type::cast).orElse(null);
+
+    }
+
+    protected <T> List<T> listCached(Class<T> type, Key key, Callable<List<T>> c) {
+        return listCached(type, key, c, true);
+    }
+
+    protected <T> List<T> listCached(Class<T> type, Key key, Callable<List<T>> c, boolean cacheLast) {
+
+        if (type == null || key == null || c == null) {
+            return null;
+        }
+
+        Key bucket = normalize(type, key);
+
+        Pair<Class<?>, Key> lastKey = Pair.of(type, Key.build(key).timestamp(null).build());
+
+        Cache<Key, Optional<List<?>>> cache = listCache.computeIfAbsent(type, this::createCache);
+
+        if (cacheLast && revalidate(type, bucket, cache, listLoaded.get(lastKey), () -> loadList(type, bucket, c, true))) {
+
+            @SuppressWarnings("unchecked")
+            List<T> result = (List<T>) listLast.getOrDefault(lastKey, Optional.empty()).orElse(null);
+
+            return result;
+
+        }
+
+        return loadList(type, bucket, c, cacheLast);
+
+    }
+
+    /**
+     * Finds an element from the site-wide snapshot, for the endpoints which return all the products at once.
+     * The snapshot is fetched and parsed once per site and freshness window, regardless of the instrument,
+     * and is indexed by the id once per fetched snapshot, so that the other instruments are a plain lookup.
+     *
+     * @param type Snapshot element type, of which the freshness window applies.
+     * @param key  Key of the instrument. Instrument is wildcarded when caching the snapshot.
+     * @param id   Id of the element to find, such as the product code.
+     * @param ids  Extracts the id of each element. Duplicate ids resolve to the first one.
+     * @param c    Loads all the elements of the site.
+     * @return Element found, or null if not found.
+     */
+    protected <T> T findSnapshot(Class<T> type, Key key, String id, Function<T, String> ids, Callable<List<T>> c) {
+
+        if (type == null || key == null || id == null || ids == null || c == null) {
+            return null;
+        }
+
+        List<T> values = listCached(type, Key.build(key).instrument(WILDCARD).build(), c);
+
+        return findIndexed(type, values, id, ids);
+
+    }
+
+    /**
+     * Non-blocking counterpart of {@link #findSnapshot(Class, Key, String, Function, Callable)}.
+     */
+    protected <T> CompletableFuture<T> findSnapshotAsync(Class<T> type, Key key, String id,
+                                                         Function<T, String> ids, Callable<CompletableFuture<List<T>>> c) {
+
+        if (type == null || key == null || id == null || ids == null || c == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return listCachedAsync(type, Key.build(key).instrument(WILDCARD).build(), c)
+                .thenApply(values -> findIndexed(type, values, id, ids));
+
+    }
+
+    private <T> T findIndexed(Class<T> type, List<T> values, String id, Function<T, String> ids) {
+
+        if (values == null) {
+            return null;
+        }
+
+        Map<String, ?> index;
+
+        try {
+
+            index = snapshots.get(values, () -> {
+
+                Map<String, T> m = new HashMap<>(values.size());
+
+                values.stream().filter(Objects::nonNull).forEach(v -> {
+
+                    String k = ids.apply(v);
+
+                    if (k != null) {
+                        m.putIfAbsent(k, v);
+                    }
+
+                });
+
+                return unmodifiableMap(m);
+
+            });
+
+        } catch (ExecutionException e) {
+
+            log.warn("Failed to index snapshot : {} - {}", type.getSimpleName(), e.getMessage());
+
+            return null;
+
+        }
+
+        return type.cast(index.get(id));
+
+    }
+
+    private <T> List<T> loadList(Class<T> type, Key key, Callable<List<T>> c, boolean cacheLast) {
+
+        Pair<Class<?>, Key> lastKey = Pair.of(type, Key.build(key).timestamp(null).build());
+
+        Cache<Key, Optional<List<?>>> cache = listCache.computeIfAbsent(type, this::createCache);
+
+        AtomicBoolean loading = new AtomicBoolean();
+
+        int retry = 0;
+
+        try {
 
-    private static final Duration CACHE_DURATION = Duration.ofMinutes(3);
+            while (true) {
 
-    private static final Duration CACHE_SLEEP = Duration.ofMillis(100);
+                try {
 
-    private static final int CACHE_RETRY = 2;
+                    Optional<List<?>> cached = cache.get(key, () -> {
 
-    private static final Duration CLIENT_TIMEOUT = Duration.ofMinutes(3);
+                        loading.set(true);
 
-    private static final Duration FUTURE_TIMEOUT = Duration.ofSeconds(30);
+                        List<T> values = load(type, c);
 
-    private static final Duration FUTURE_MINIMUM = Duration.ofMillis(100);
+                        log.trace("Cached list : {} ({})", key, values == null ? null : values.size());
 
-    private final Map<Class<?>, Cache<Key, Optional<?>>> singleCache = synchronizedMap(new HashMap<>());
+                        Optional<List<?>> loaded = Optional.ofNullable(values).map(Collections::unmodifiableList);
 
-    private final Map<Class<?>, Cache<Key, Optional<List<?>>>> listCache = synchronizedMap(new HashMap<>());
+                        if (cacheLast) {
+                            listLast.put(lastKey, loaded);
+                            listLoaded.put(lastKey, getNow());
+                        }
 
-    private final Map<Pair<Class<?>, Key>, Optional<?>> singleLast = new ConcurrentHashMap<>();
+                        return loaded;
 
-    private final Map<Pair<Class<?>, Key>, Optional<List<?>>> listLast = new ConcurrentHashMap<>();
+                    });
 
-    private final String id;
+                    if (cacheLast) {
+                        listLast.put(lastKey, cached);
+                    }
 
-    private final ExecutorService executor;
+                    observeLookup(type, loading.get(), cacheLast ? listLoaded.get(lastKey) : null);
 
-    private final CloseableHttpClient client;
+                    @SuppressWarnings("unchecked")
+                    List<T> result = (List<T>) cached.orElse(null);
 
-    private final AtomicReference<StateType> state;
+                    return result;
 
-    protected TemplateContext(String id) {
+                } catch (Exception e) {
 
-        this.id = id;
+                    if (CACHE_RETRY < ++retry) {
 
-        this.executor = Executors.newCachedThreadPool();
+                        log.warn("Failed to cache list : {} - {}", type, e);
 
-        this.state = new AtomicReference<>(StateType.ACTIVE);
+                        CACHE_FAILURES.labels(id, type.getSimpleName()).inc();
 
-        this.client = HttpClients.custom()
-                .evictExpiredConnections()
-                .evictIdleConnections(CLIENT_TIMEOUT.toMillis(), MILLISECONDS)
-                .setConnectionTimeToLive(CLIENT_TIMEOUT.toMillis(), MILLISECONDS)
-                .setMaxConnPerRoute(Byte.MAX_VALUE)
-                .setMaxConnTotal(Byte.MAX_VALUE)
-                .setDefaultRequestConfig(
-                        RequestConfig.custom()
-                                .setCookieSpec(CookieSpecs.STANDARD)
-                                .setSocketTimeout((int) CLIENT_TIMEOUT.toMillis())
-                                .setConnectTimeout((int) CLIENT_TIMEOUT.toMillis())
-                                .setConnectionRequestTimeout((int) CLIENT_TIMEOUT.toMillis())
-                                .build()
-                )
-                .build();
+                        if (cacheLast) {
+                            cache.asMap().putIfAbsent(key, listLast.getOrDefault(lastKey, Optional.empty()));
+                            observeFallback(type, "failure", listLoaded.get(lastKey));
+                        } else {
+                            cache.asMap().putIfAbsent(key, Optional.empty());
+                        }
 
+                        break;
 
-    }
+                    }
 
-    @Override
-    public String get() {
-        return id;
-    }
+                    CACHE_RETRIES.labels(id, type.getSimpleName()).inc();
 
-    @Override
-    public void close() throws Exception {
+                    Thread.sleep(CACHE_SLEEP.toMillis());
 
-        state.set(StateType.TERMINATE);
+                }
 
-        executor.shutdown();
+            }
 
-        client.close();
+        } catch (InterruptedException e) {
 
-    }
+            Thread.currentThread().interrupt(); // Propagate interruption.
 
-    @VisibleForTesting
-    public Instant getNow() {
-        return Instant.now();
-    }
+        }
 
-    @VisibleForTesting
-    public String getUniqueId() {
-        return UUID.randomUUID().toString();
-    }
+        Optional<List<?>> last = listLast.getOrDefault(lastKey, Optional.empty());
 
-    @VisibleForTesting
-    public String computeHash(String algorithm, byte[] key, byte[] data) throws IOException {
+        @SuppressWarnings("unchecked")
+        List<T> result = (List<T>) last.orElse(null);
 
-        try {
+        return result;
 
-            Mac mac = Mac.getInstance(algorithm);
+    }
 
-            mac.init(new SecretKeySpec(key, algorithm));
+    /**
+     * Stale-while-revalidate : for the types configured with the maximum staleness (millis) as
+     * {@code [context class].stale.[type simple name]}, a missing entry is served from the last value
+     * without waiting while the entry is loaded in background, unless the last value is older than the maximum.
+     * The background loads are run in the bounded executor of the lookups, and the entry is loaded in the calling
+     * thread if the executor is not configured or rejects the load.
+     *
+     * @return True if the last value is to be served.
+     */
+    private boolean revalidate(Class<?> type, Key key, Cache<Key, ?> cache, Instant loaded, Runnable loader) {
+
+        if (!isServable(type, key, cache, loaded)) {
+            return false;
+        }
 
-            byte[] hash = mac.doFinal(data);
+        ExecutorService service = lookups.get();
 
-            StringBuilder sb = new StringBuilder(hash.length);
+        if (service == null) {
+            return false;
+        }
 
-            for (byte b : hash) {
-                sb.append(String.format("%02x", b & 0xff));
-            }
+        Pair<Class<?>, Key> revalidateKey = Pair.of(type, key);
 
-            return sb.toString();
+        if (revalidating.add(revalidateKey)) {
 
-        } catch (GeneralSecurityException e) {
+            try {
+                service.execute(() -> {
+                    try {
+                        loader.run();
+                    } finally {
+                        revalidating.remove(revalidateKey);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+
+                revalidating.remove(revalidateKey);
 
-            throw new IOException("Failed to compute hash.", e);
+                return false;
+
+            }
 
         }
 
-    }
+        log.trace("Serving stale : {} - {}", type.getSimpleName(), key);
+
+        observeFallback(type, "stale", loaded);
+
+        return true;
 
-    @VisibleForTesting
-    public String buildQueryParameter(Map<String, String> parameters) throws IOException {
-        return buildQueryParameter(parameters, "?");
     }
 
-    @VisibleForTesting
-    public String buildQueryParameter(Map<String, String> parameters, String prefix) throws IOException {
+    /**
+     * @return True if the entry is missing, and the last value is within the maximum staleness of the type.
+     */
+    private boolean isServable(Class<?> type, Key key, Cache<Key, ?> cache, Instant loaded) {
 
-        StringBuilder sb = new StringBuilder();
+        if (loaded == null || cache.getIfPresent(key) != null) {
+            return false;
+        }
 
-        if (MapUtils.isNotEmpty(parameters)) {
+        long limit = getLongProperty("stale." + type.getSimpleName(), 0L);
 
-            for (Entry<String, String> entry : parameters.entrySet()) {
+        if (limit <= 0) {
+            return false;
+        }
 
-                if (StringUtils.isEmpty(entry.getKey())) {
-                    continue;
-                }
+        Duration age = Duration.between(loaded, getNow());
 
-                if (StringUtils.isEmpty(entry.getValue())) {
-                    continue;
-                }
+        if (age.toMillis() > limit) {
 
-                sb.append(sb.length() == 0 ? StringUtils.trimToEmpty(prefix) : "&");
-                sb.append(URLEncoder.encode(entry.getKey(), UTF_8.name()));
-                sb.append('=');
-                sb.append(URLEncoder.encode(entry.getValue(), UTF_8.name()));
+            log.trace("Stale beyond limit : {} - {} ({} ms)", type.getSimpleName(), key, age.toMillis());
 
-            }
+            return false;
 
         }
 
-        return sb.toString();
+        return true;
 
     }
 
-    @VisibleForTesting
-    public String request(String path) throws IOException {
-        return request(RequestType.GET, path, null, null);
+    /**
+     * Non-blocking counterpart of {@link #findCached(Class, Key, Callable)}, for the loaders composed on
+     * {@link #requestAsync(String)}. A cached value is completed in the calling thread, while a missing entry is
+     * loaded once for the concurrent callers, without occupying a thread until the response arrives.
+     * Entries, last values and the maximum staleness are shared with the blocking lookups.
+     */
+    protected <T> CompletableFuture<T> findCachedAsync(Class<T> type, Key key, Callable<CompletableFuture<T>> loader) {
+
+        if (type == null || key == null || loader == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Cache<Key, Optional<?>> cache = singleCache.computeIfAbsent(type, this::createCache);
+
+        return lookupAsync(type, key, cache, singleLast, singleLoaded, singleLoading, Optional.empty(),
+                () -> loader.call().thenApply(Optional::ofNullable)
+        ).thenApply(cached -> cached.map(type::cast).orElse(null));
+
     }
 
-    @VisibleForTesting
-    public String request(RequestType type, String path, Map<String, String> headers, String data) throws IOException {
+    /**
+     * Non-blocking counterpart of {@link #listCached(Class, Key, Callable)}.
+     *
+     * @see #findCachedAsync(Class, Key, Callable)
+     */
+    protected <T> CompletableFuture<List<T>> listCachedAsync(Class<T> type, Key key,
+                                                             Callable<CompletableFuture<List<T>>> loader) {
 
-        LOG.trace("[SEND][{}][{}][{}] {}", type, path, headers, data);
+        if (type == null || key == null || loader == null) {
+            return CompletableFuture.completedFuture(null);
+        }
 
-        Instant start = Instant.now();
+        Cache<Key, Optional<List<?>>> cache = listCache.computeIfAbsent(type, this::createCache);
 
-        HttpRequestBase request = type.create(path, headers, data);
+        return lookupAsync(type, key, cache, listLast, listLoaded, listLoading, Optional.empty(),
+                () -> loader.call().thenApply(values -> Optional.ofNullable(values).map(Collections::unmodifiableList))
+        ).thenApply(cached -> {
 
-        int t = (int) getTimeout().toMillis();
+            @SuppressWarnings("unchecked")
+            List<T> result = (List<T>) cached.orElse(null);
 
-        request.setConfig(RequestConfig.custom().setCookieSpec(CookieSpecs.STANDARD)
-                .setConnectTimeout(t).setConnectionRequestTimeout(t).setSocketTimeout(t).build()
-        );
+            return result;
 
-        return client.execute(request, response -> {
+        });
 
-            String body = EntityUtils.toString(response.getEntity(), UTF_8);
+    }
 
-            StatusLine statusLine = response.getStatusLine();
+    private <V extends Optional<?>> CompletableFuture<V> lookupAsync(
+            Class<?> type, Key key, Cache<Key, V> cache, Map<Pair<Class<?>, Key>, V> lasts,
+            Map<Pair<Class<?>, Key>, Instant> loads, Map<Pair<Class<?>, Key>, CompletableFuture<V>> loading,
+            V empty, Callable<CompletableFuture<V>> loader) {
 
-            Duration elapsed = Duration.between(start, Instant.now());
+        Key bucket = normalize(type, key);
 
-            LOG.trace("[RECV][{}][{}][{}ms][{}] {}",
-                    path, statusLine, elapsed.toMillis(), response.getAllHeaders(), body);
+        Pair<Class<?>, Key> lastKey = Pair.of(type, Key.build(key).timestamp(null).build());
 
-            if (HttpStatus.SC_OK != statusLine.getStatusCode()) {
+        V cached = cache.getIfPresent(bucket);
 
-                String trimmed = body.replaceAll("[\r\n]", "");
+        if (cached != null) {
 
-                throw new IOException(statusLine + " : " + trimmed);
+            lasts.put(lastKey, cached);
 
-            }
+            observeLookup(type, false, loads.get(lastKey));
 
-            return body;
+            return CompletableFuture.completedFuture(cached);
 
-        });
+        }
 
-    }
+        CompletableFuture<V> created = new CompletableFuture<>();
 
-    @VisibleForTesting
-    public Future<String> requestAsync(RequestType type, String path, Map<String, String> headers, String data) {
+        if (state.get() == StateType.TERMINATE) {
 
-        LOG.trace("[SEND][{}][{}][{}] {}", type, path, headers, data);
+            created.completeExceptionally(new RejectedExecutionException("Context closed : " + id));
 
-        CompletableFuture<String> future = new CompletableFuture<>();
+            return created;
 
-        try {
-            executor.execute(() -> {
-                try {
-                    future.complete(request(type, path, headers, data));
-                } catch (IOException e) {
-                    future.completeExceptionally(e);
-                }
-            });
-        } catch (RejectedExecutionException e) {
-            future.completeExceptionally(e);
         }
 
-        return future;
+        boolean stale = isServable(type, bucket, cache, loads.get(lastKey));
 
-    }
+        Pair<Class<?>, Key> loadKey = Pair.of(type, bucket);
 
-    @VisibleForTesting
-    public void clear() {
+        CompletableFuture<V> shared = loading.putIfAbsent(loadKey, created);
 
-        log.trace("Clearing cache.");
+        if (shared == null) {
 
-        singleCache.forEach((k, v) -> v.invalidateAll());
+            CompletableFuture<V> loaded = new CompletableFuture<>();
 
-        listCache.forEach((k, v) -> v.invalidateAll());
+            loaded.whenComplete((v, e) -> {
 
-        singleLast.clear();
+                V value = v;
 
-        listLast.clear();
+                if (e == null) {
 
-    }
+                    log.trace("Cached : {} - {}", bucket, v);
 
-    protected <T> T findCached(Class<T> type, Key key, Callable<T> c) {
-        return findCached(type, key, c, true);
-    }
+                    cache.put(bucket, v);
 
-    protected <T> T findCached(Class<T> type, Key key, Callable<T> c, boolean cacheLast) {
+                    lasts.put(lastKey, v);
 
-        if (type == null || key == null || c == null) {
-            return null;
-        }
+                    loads.put(lastKey, getNow());
 
-        Pair lastKey = Pair.of(type, Key.build(key).timestamp(null).build());
+                    observeLookup(type, true, loads.get(lastKey));
 
-        Cache<Key, Optional<?>> cache = singleCache.computeIfAbsent(type, this::createCache);
+                } else {
 
-        synchronized (cache) {
+                    log.warn("Failed to cache : {} - {}", type, e);
 
-            int retry = 0;
+                    CACHE_FAILURES.labels(id, type.getSimpleName()).inc();
 
-            try {
+                    value = lasts.getOrDefault(lastKey, empty);
 
-                while (true) {
+                    cache.asMap().putIfAbsent(bucket, value);
 
-                    try {
+                    observeFallback(type, "failure", loads.get(lastKey));
+
+                }
 
-                        Optional<?> cached = cache.get(key, () -> {
+                loading.remove(loadKey, created);
 
-                            T value = c.call();
+                created.complete(value);
 
-                            log.trace("Cached : {} - {}", key, value);
+            });
 
-                            return Optional.ofNullable(value);
+            loadAsync(type, loader, loaded, 0);
 
-                        });
+            shared = created;
 
-                        if (cacheLast) {
-                            singleLast.put(lastKey, cached);
-                        }
+        }
 
-                        return cached.map(type::cast).orElse(null);
+        if (stale) {
 
-                    } catch (Exception e) {
+            log.trace("Serving stale : {} - {}", type.getSimpleName(), bucket);
 
-                        if (CACHE_RETRY < ++retry) {
+            observeFallback(type, "stale", loads.get(lastKey));
 
-                            log.warn("Failed to cache : {} - {}", type, e);
+            return CompletableFuture.completedFuture(lasts.getOrDefault(lastKey, empty));
 
-                            if (cacheLast) {
-                                cache.put(key, singleLast.getOrDefault(lastKey, Optional.empty()));
-                            } else {
-                                cache.put(key, Optional.empty());
-                            }
+        }
 
-                            break;
+        return shared;
 
-                        }
+    }
 
-                        Thread.sleep(CACHE_SLEEP.toMillis());
+    /**
+     * Retries the failed load after the interval, scheduled instead of sleeping in the completing thread.
+     */
+    private <V> void loadAsync(Class<?> type, Callable<CompletableFuture<V>> loader,
+                               CompletableFuture<V> result, int retry) {
 
-                    }
+        long start = System.nanoTime();
 
-                }
+        CompletableFuture<V> future;
+
+        try {
+            future = Objects.requireNonNull(loader.call(), "Loader returned null.");
+        } catch (Exception e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
 
-            } catch (InterruptedException e) {
+        future.whenComplete((v, e) -> {
 
-                Thread.currentThread().interrupt(); // Propagate interruption.
+            observeLoad(type, start);
+
+            if (e == null) {
+
+                result.complete(v);
+
+                return;
+
+            }
+
+            if (CACHE_RETRY < retry + 1 || state.get() == StateType.TERMINATE) {
+
+                result.completeExceptionally(e);
+
+                return;
 
             }
 
+            CACHE_RETRIES.labels(id, type.getSimpleName()).inc();
+
+            try {
+                scheduler.schedule(
+                        () -> loadAsync(type, loader, result, retry + 1), CACHE_SLEEP.toMillis(), MILLISECONDS
+                );
+            } catch (RejectedExecutionException r) {
+                result.completeExceptionally(e);
+            }
+
+        });
+
+    }
+
+    private <V> V load(Class<?> type, Callable<V> c) throws Exception {
+
+        long start = System.nanoTime();
+
+        try {
+            return c.call();
+        } finally {
+            observeLoad(type, start);
         }
 
-        Optional<?> last = singleLast.getOrDefault(lastKey, Optional.empty());
+    }
 
-        return last.map(type::cast).orElse(null);
+    private void observeLoad(Class<?> type, long start) {
+
+        double millis = (System.nanoTime() - start) / 1e6;
+
+        CACHE_LOADS.labels(id, type.getSimpleName()).observe(millis);
 
     }
 
-    protected <T> List<T> listCached(Class<T> type, Key key, Callable<List<T>> c) {
-        return listCached(type, key, c, true);
+    private void observeLookup(Class<?> type, boolean loaded, Instant time) {
+
+        (loaded ? CACHE_MISSES : CACHE_HITS).labels(id, type.getSimpleName()).inc();
+
+        observeAge(type, time);
+
     }
 
-    protected <T> List<T> listCached(Class<T> type, Key key, Callable<List<T>> c, boolean cacheLast) {
+    private void observeFallback(Class<?> type, String reason, Instant time) {
 
-        if (type == null || key == null || c == null) {
-            return null;
-        }
+        CACHE_FALLBACKS.labels(id, type.getSimpleName(), reason).inc();
 
-        Pair lastKey = Pair.of(type, Key.build(key).timestamp(null).build());
+        observeAge(type, time);
 
-        Cache<Key, Optional<List<?>>> cache = listCache.computeIfAbsent(type, this::createCache);
+    }
+
+    private void observeAge(Class<?> type, Instant time) {
 
-        synchronized (cache) {
+        if (time == null) {
+            return;
+        }
 
-            int retry = 0;
+        long millis = Duration.between(time, getNow()).toMillis();
 
-            try {
+        CACHE_AGES.labels(id, type.getSimpleName()).observe(Math.max(millis, 0L));
 
-                while (true) {
+    }
 
-                    try {
+    /**
+     * @return Number of the entries cached, per type simple name.
+     */
+    @VisibleForTesting
+    Map<String, Long> getCacheSizes() {
 
-                        Optional<List<?>> cached = cache.get(key, () -> {
+        Map<String, Long> sizes = new TreeMap<>();
 
-                            List<T> values = c.call();
+        synchronized (singleCache) {
+            singleCache.forEach((type, cache) -> sizes.merge(type.getSimpleName(), cache.size(), Long::sum));
+        }
 
-                            log.trace("Cached list : {} ({})", key, values == null ? null : values.size());
+        synchronized (listCache) {
+            listCache.forEach((type, cache) -> sizes.merge(type.getSimpleName(), cache.size(), Long::sum));
+        }
 
-                            return Optional.ofNullable(values).map(Collections::unmodifiableList);
+        return sizes;
 
-                        });
+    }
 
-                        if (cacheLast) {
-                            listLast.put(lastKey, cached);
-                        }
+    /**
+     * @return Age of the last value cached for the type/key, or null if not cached.
+     */
+    public Duration getCachedAge(Class<?> type, Key key) {
 
-                        @SuppressWarnings("unchecked")
-                        List<T> result = (List<T>) cached.orElse(null);
+        if (type == null || key == null) {
+            return null;
+        }
 
-                        return result;
+        Pair<Class<?>, Key> lastKey = Pair.of(type, Key.build(key).timestamp(null).build());
 
-                    } catch (Exception e) {
+        Instant loaded = trim(singleLoaded.get(lastKey), listLoaded.get(lastKey));
 
-                        if (CACHE_RETRY < ++retry) {
+        return loaded == null ? null : Duration.between(loaded, getNow());
 
-                            log.warn("Failed to cache list : {} - {}", type, e);
+    }
 
-                            if (cacheLast) {
-                                cache.put(key, listLast.getOrDefault(lastKey, Optional.empty()));
-                            } else {
-                                cache.put(key, Optional.empty());
-                            }
+    /**
+     * Declares how long the values of the type stay fresh, such as milliseconds for the order books and hours for
+     * the product metadata. Cache keys of the type are normalized to the bucket of the duration, so the lookups
+     * across the cycles, stages and instruments within the same bucket are served by a single load.
+     * The duration can be overridden with {@code [context class].freshness.[type simple name]} (millis).
+     */
+    protected void setFreshness(Class<?> type, Duration duration) {
+
+        if (duration == null || duration.isNegative() || duration.isZero()) {
+            freshness.remove(type);
+        } else {
+            freshness.put(type, duration);
+        }
 
-                            break;
+    }
 
-                        }
+    @VisibleForTesting
+    Duration getFreshness(Class<?> type) {
 
-                        Thread.sleep(CACHE_SLEEP.toMillis());
+        Duration declared = freshness.getOrDefault(type, Duration.ZERO);
 
-                    }
+        long millis = getLongProperty("freshness." + type.getSimpleName(), declared.toMillis());
 
-                }
+        return Duration.ofMillis(Math.max(millis, 0L));
 
-            } catch (InterruptedException e) {
+    }
 
-                Thread.currentThread().interrupt(); // Propagate interruption.
+    /**
+     * @return Key with the timestamp truncated to the bucket of the type's freshness, or the key as-is if none.
+     */
+    @VisibleForTesting
+    Key normalize(Class<?> type, Key key) {
 
-            }
+        Instant timestamp = key.getTimestamp();
 
+        if (timestamp == null) {
+            return key;
         }
 
-        Optional<List<?>> last = listLast.getOrDefault(lastKey, Optional.empty());
+        long bucket = getFreshness(type).toMillis();
 
-        @SuppressWarnings("unchecked")
-        List<T> result = (List<T>) last.orElse(null);
+        if (bucket <= 0) {
+            return key;
+        }
 
-        return result;
+        long millis = timestamp.toEpochMilli();
+
+        return Key.build(key).timestamp(Instant.ofEpochMilli(millis - Math.floorMod(millis, bucket))).build();
 
     }
 
     private <K0, K1 extends K0, V0, V1 extends V0> Cache<K1, V1> createCache(Class<?> type) {
 
-        log.trace("Creating cache : {}", type);
+        Duration duration = getFreshness(type);
+
+        Duration expiry = duration.compareTo(CACHE_DURATION) > 0 ? duration : CACHE_DURATION;
+
+        log.trace("Creating cache : {} (freshness={}, expiry={})", type, duration, expiry);
+
+        String name = type.getSimpleName();
+
+        CACHE_SIZES.setChild(new Gauge.Child() {
+            @Override
+            public double get() {
+                return getCacheSizes().getOrDefault(name, 0L);
+            }
+        }, id, name);
 
         return CacheBuilder.newBuilder()
                 .maximumSize(CACHE_SIZE)
-                .expireAfterWrite(CACHE_DURATION.toMillis(), MILLISECONDS)
+                .expireAfterWrite(expiry.toMillis(), MILLISECONDS)
                 .build();
 
     }
@@ -774,6 +2045,11 @@ public abstract class TemplateContext extends AbstractService implements Context
         return null;
     }
 
+    @Override
+    public Map<AmendInstruction, String> amendOrders(Key key, Set<AmendInstruction> instructions) {
+        return null;
+    }
+
     protected Map<CancelInstruction, String> handleCancels(Set<CancelInstruction> instructions,
                                                            Converter<CancelInstruction, Future<String>> execute,
                                                            Converter<String, String> extract) {
@@ -838,4 +2114,15 @@ public abstract class TemplateContext extends AbstractService implements Context
 
     }
 
+    /**
+     * Composed of the best prices, as in {@link #getMidPrice(Key)}, for the sites to provide the non-blocking lookups
+     * of the best prices with {@link #findCachedAsync(Class, Key, Callable)}.
+     */
+    @Override
+    public CompletableFuture<BigDecimal> getMidPriceAsync(Key key) {
+        return getBestAskPriceAsync(key).thenCombine(getBestBidPriceAsync(key),
+                (ask, bid) -> ask == null || bid == null ? null : ask.add(bid).multiply(HALF)
+        );
+    }
+
 }
@@ -3,16 +3,21 @@ package com.after_sunrise.cryptocurrency.cryptotrader.service.template;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Adviser.Advice;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.*;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.Key;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.AmendInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.AbstractService;
 import com.google.common.annotations.VisibleForTesting;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
 import org.apache.commons.lang3.StringUtils;
 
+import javax.inject.Inject;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.Duration;
 import java.util.*;
+import java.util.function.Supplier;
 import java.util.stream.IntStream;
 
 import static java.lang.Boolean.TRUE;
@@ -32,12 +37,37 @@ public class TemplateInstructor extends AbstractService implements Instructor {
 
     private static final String KEY_EXPIRY = "expiry";
 
+    private static final Counter ORDERS = Counter.build()
+            .name("cryptotrader_order_diff_total")
+            .help("Number of active orders kept, and of orders cancelled or created, by the order diff.")
+            .labelNames("site", "result")
+            .create();
+
     private final String id;
 
     public TemplateInstructor(String id) {
         this.id = id;
     }
 
+    /**
+     * Registers the metrics shared by the instructors of all sites, labelled by the site. The metrics are already
+     * registered by the instructor injected first.
+     */
+    @Inject
+    public void setCollectorRegistry(CollectorRegistry registry) {
+
+        try {
+
+            registry.register(ORDERS);
+
+        } catch (IllegalArgumentException e) {
+
+            log.debug("Skipped metrics registration : {}", e.getMessage());
+
+        }
+
+    }
+
     @Override
     public String get() {
         return id;
@@ -52,7 +82,7 @@ public class TemplateInstructor extends AbstractService implements Instructor {
 
         creates.addAll(createSells(context, request, advice));
 
-        return merge(creates, createCancels(context, request));
+        return merge(context, request, creates, createCancels(context, request));
 
     }
 
@@ -222,7 +252,8 @@ public class TemplateInstructor extends AbstractService implements Instructor {
 
     }
 
-    private List<BigDecimal> splitPrice(Context c, Request r, BigDecimal base, int splits, BigDecimal basis) {
+    @VisibleForTesting
+    List<BigDecimal> splitPrice(Context c, Request r, BigDecimal base, int splits, BigDecimal basis) {
 
         if (base == null) {
             return IntStream.range(0, splits).mapToObj(i -> (BigDecimal) null).collect(toList());
@@ -268,8 +299,20 @@ public class TemplateInstructor extends AbstractService implements Instructor {
 
     }
 
+    /**
+     * Diffs the orders to create against the active orders to cancel, keeping the active orders which match the
+     * price and the size within the tolerance, so that only the levels which have moved are cancelled and re-created.
+     * Tolerance is either relative ("threshold.price" and "threshold.size") or in the number of ticks and lots
+     * ("threshold.tick" and "threshold.lot"). The active order is kept only if it does not exceed the desired size,
+     * and each order to create is matched with the nearest active order in price.
+     *
+     * If "amend" is enabled, the remaining pairs of the cancel and the create on the same side are amended in place.
+     */
     @VisibleForTesting
-    List<Instruction> merge(List<CreateInstruction> creates, Map<CancelInstruction, Order> cancels) {
+    List<Instruction> merge(Context context, Request request,
+                            List<CreateInstruction> creates, Map<CancelInstruction, Order> cancels) {
+
+        Key key = Key.from(request);
 
         Map<CancelInstruction, Order> remainingCancels = new IdentityHashMap<>(cancels);
 
@@ -281,6 +324,14 @@ public class TemplateInstructor extends AbstractService implements Instructor {
 
         BigDecimal sizeThreshold = getDecimalProperty("threshold.size", ZERO);
 
+        BigDecimal priceTolerance = calculateTolerance(getIntProperty("threshold.tick", INTEGER_ZERO),
+                () -> context.roundTickSize(key, EPSILON, UP));
+
+        BigDecimal sizeTolerance = calculateTolerance(getIntProperty("threshold.lot", INTEGER_ZERO),
+                () -> context.roundLotSize(key, EPSILON, UP));
+
+        int kept = 0;
+
         while (createItr.hasNext()) {
 
             CreateInstruction create = createItr.next();
@@ -293,11 +344,11 @@ public class TemplateInstructor extends AbstractService implements Instructor {
                 continue; // Skip market orders.
             }
 
-            Iterator<Map.Entry<CancelInstruction, Order>> cancelItr = remainingCancels.entrySet().iterator();
+            CancelInstruction matched = null;
 
-            while (cancelItr.hasNext()) {
+            BigDecimal matchedDiff = null;
 
-                Map.Entry<CancelInstruction, Order> entry = cancelItr.next();
+            for (Map.Entry<CancelInstruction, Order> entry : remainingCancels.entrySet()) {
 
                 Order order = entry.getValue();
 
@@ -319,42 +370,135 @@ public class TemplateInstructor extends AbstractService implements Instructor {
 
                 BigDecimal sizeDiff = create.getSize().subtract(order.getRemainingQuantity());
 
+                if (sizeDiff.signum() * create.getSize().signum() < 0) {
+                    continue; // Exceeding.
+                }
+
                 BigDecimal sizePcnt = sizeDiff.divide(create.getSize(), SCALE, ROUND_CEILING);
 
-                if (sizePcnt.signum() < 0 || sizePcnt.compareTo(sizeThreshold) > 0) {
+                if (sizePcnt.compareTo(sizeThreshold) > 0 && !isWithin(sizeDiff.abs(), sizeTolerance)) {
                     continue;
                 }
 
-                BigDecimal priceDiff = order.getOrderPrice().subtract(create.getPrice());
+                BigDecimal priceDiff = order.getOrderPrice().subtract(create.getPrice()).abs();
 
                 BigDecimal pricePcnt = priceDiff.divide(create.getPrice(), SCALE, ROUND_CEILING).abs();
 
-                if (pricePcnt.compareTo(priceThreshold) > 0) {
+                if (pricePcnt.compareTo(priceThreshold) > 0 && !isWithin(priceDiff, priceTolerance)) {
                     continue;
                 }
 
-                log.trace("Netting create/cancel : {} / {}", create, entry.getValue());
+                if (matchedDiff == null || priceDiff.compareTo(matchedDiff) < 0) {
+                    matched = entry.getKey();
+                    matchedDiff = priceDiff;
+                }
+
+            }
 
-                cancelItr.remove();
+            if (matched == null) {
+                continue;
+            }
 
-                createItr.remove();
+            log.trace("Netting create/cancel : {} / {}", create, remainingCancels.get(matched));
 
-                break;
+            remainingCancels.remove(matched);
 
-            }
+            createItr.remove();
+
+            kept++;
 
         }
 
         List<Instruction> instructions = new ArrayList<>();
 
+        if (Boolean.valueOf(getStringProperty("amend", "false"))) {
+            instructions.addAll(amend(remainingCreates, remainingCancels));
+        }
+
         instructions.addAll(remainingCancels.keySet());
 
         instructions.addAll(remainingCreates);
 
         instructions.forEach(v -> log.trace("Merged candidate : {}", v));
 
+        String site = StringUtils.trimToEmpty(key.getSite());
+
+        ORDERS.labels(site, "kept").inc(kept);
+
+        ORDERS.labels(site, "amended").inc(instructions.size() - remainingCancels.size() - remainingCreates.size());
+
+        ORDERS.labels(site, "cancelled").inc(remainingCancels.size());
+
+        ORDERS.labels(site, "created").inc(remainingCreates.size());
+
         return instructions;
 
     }
 
+    /**
+     * Pairs the creates and the cancels of the same side, nearest in price, removing the paired ones from the inputs.
+     */
+    private List<AmendInstruction> amend(List<CreateInstruction> creates, Map<CancelInstruction, Order> cancels) {
+
+        List<AmendInstruction> amends = new ArrayList<>();
+
+        Iterator<CreateInstruction> createItr = creates.iterator();
+
+        while (createItr.hasNext()) {
+
+            CreateInstruction create = createItr.next();
+
+            if (create.getPrice() == null || create.getPrice().signum() == 0) {
+                continue; // Skip invalid and market.
+            }
+
+            if (create.getSize() == null || create.getSize().signum() == 0) {
+                continue; // Skip invalid.
+            }
+
+            CancelInstruction matched = cancels.entrySet().stream()
+                    .filter(e -> e.getValue() != null)
+                    .filter(e -> StringUtils.isNotEmpty(e.getKey().getId()))
+                    .filter(e -> e.getValue().getOrderPrice() != null && e.getValue().getOrderPrice().signum() != 0)
+                    .filter(e -> e.getValue().getRemainingQuantity() != null)
+                    .filter(e -> e.getValue().getRemainingQuantity().signum() == create.getSize().signum())
+                    .min(Comparator.comparing(e -> e.getValue().getOrderPrice().subtract(create.getPrice()).abs()))
+                    .map(Map.Entry::getKey)
+                    .orElse(null);
+
+            if (matched == null) {
+                continue;
+            }
+
+            log.trace("Amending create/cancel : {} / {}", create, cancels.get(matched));
+
+            amends.add(AmendInstruction.builder().id(matched.getId())
+                    .price(create.getPrice()).size(create.getSize()).strategy(create.getStrategy()).build());
+
+            cancels.remove(matched);
+
+            createItr.remove();
+
+        }
+
+        return amends;
+
+    }
+
+    private BigDecimal calculateTolerance(int count, Supplier<BigDecimal> unit) {
+
+        if (count <= 0) {
+            return null;
+        }
+
+        BigDecimal value = unit.get();
+
+        return value == null ? null : value.multiply(valueOf(count));
+
+    }
+
+    private boolean isWithin(BigDecimal diff, BigDecimal tolerance) {
+        return tolerance != null && diff.compareTo(tolerance) <= 0;
+    }
+
 }
@@ -0,0 +1,48 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.service.template;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket refilled at the rate up to the burst. When exhausted, the tokens are reserved ahead
+ * so that the callers are spaced out evenly, instead of polling for the tokens to refill.
+ *
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+class TokenBucket {
+
+    private static final double NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private double tokens = Double.NaN;
+
+    private long updated;
+
+    /**
+     * @param rate  Tokens refilled per second. Unlimited if non-positive.
+     * @param burst Maximum tokens accumulated while idle.
+     * @param nanos Current time in nanos.
+     * @return Nanos to wait before proceeding, zero if available immediately.
+     */
+    synchronized long reserve(double rate, double burst, long nanos) {
+
+        if (rate <= 0) {
+            return 0L;
+        }
+
+        double capacity = Math.max(burst, 1.0);
+
+        if (Double.isNaN(tokens)) {
+            tokens = capacity;
+        } else {
+            tokens = Math.min(capacity, tokens + (nanos - updated) * rate / NANOS);
+        }
+
+        updated = nanos;
+
+        tokens -= 1.0;
+
+        return tokens >= 0 ? 0L : (long) Math.ceil(-tokens * NANOS / rate);
+
+    }
+
+}
@@ -29,7 +29,6 @@ import static java.lang.Boolean.TRUE;
 import static java.math.BigDecimal.ONE;
 import static java.math.BigDecimal.ZERO;
 import static java.util.Collections.*;
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.stream.Collectors.toList;
 
 /**
@@ -90,6 +89,21 @@ public class ZaifContext extends TemplateContext implements ZaifService {
 
     }
 
+    @VisibleForTesting
+    CompletableFuture<Optional<ZaifDepth>> queryDepthAsync(Key key) {
+
+        ProductType product = ProductType.find(key.getInstrument());
+
+        if (product == null) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+
+        return findCachedAsync(ZaifDepth.class, key, () -> requestAsync(URL_DEPTH + product.getId())
+                .thenApply(data -> gson.fromJson(data, ZaifDepth.class))
+        ).thenApply(Optional::ofNullable);
+
+    }
+
     @Override
     public BigDecimal getBestAskPrice(Key key) {
         return queryDepth(key).map(ZaifDepth::getAskPrices)
@@ -124,11 +138,51 @@ public class ZaifContext extends TemplateContext implements ZaifService {
         return queryDepth(key).map(ZaifDepth::getBidPrices).orElse(null);
     }
 
+    @Override
+    public CompletableFuture<BigDecimal> getBestAskPriceAsync(Key key) {
+        return queryDepthAsync(key).thenApply(d -> d.map(ZaifDepth::getAskPrices)
+                .map(NavigableMap::firstEntry).map(Entry::getKey).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestBidPriceAsync(Key key) {
+        return queryDepthAsync(key).thenApply(d -> d.map(ZaifDepth::getBidPrices)
+                .map(NavigableMap::firstEntry).map(Entry::getKey).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestAskSizeAsync(Key key) {
+        return queryDepthAsync(key).thenApply(d -> d.map(ZaifDepth::getAskPrices)
+                .map(NavigableMap::firstEntry).map(Entry::getValue).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<BigDecimal> getBestBidSizeAsync(Key key) {
+        return queryDepthAsync(key).thenApply(d -> d.map(ZaifDepth::getBidPrices)
+                .map(NavigableMap::firstEntry).map(Entry::getValue).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<Map<BigDecimal, BigDecimal>> getAskPricesAsync(Key key) {
+        return queryDepthAsync(key).thenApply(d -> d.map(ZaifDepth::getAskPrices).orElse(null));
+    }
+
+    @Override
+    public CompletableFuture<Map<BigDecimal, BigDecimal>> getBidPricesAsync(Key key) {
+        return queryDepthAsync(key).thenApply(d -> d.map(ZaifDepth::getBidPrices).orElse(null));
+    }
+
     @Override
     public BigDecimal getLastPrice(Key key) {
+        return findLastPrice(listTrades(key, null));
+    }
 
-        List<Trade> trades = listTrades(key, null);
+    @Override
+    public CompletableFuture<BigDecimal> getLastPriceAsync(Key key) {
+        return listTradesAsync(key, null).thenApply(this::findLastPrice);
+    }
 
+    private BigDecimal findLastPrice(List<Trade> trades) {
         return trimToEmpty(trades).stream()
                 .filter(Objects::nonNull)
                 .filter(t -> t.getTimestamp() != null)
@@ -151,12 +205,39 @@ public class ZaifContext extends TemplateContext implements ZaifService {
 
             String data = request(URL_TRADE + product.getId());
 
-            List<ZaifTrade> trades = gson.fromJson(data, TYPE_TRADE);
-
-            return Collections.unmodifiableList(trades);
+            return parseTrades(data);
 
         });
 
+        return filterTrades(values, fromTime);
+
+    }
+
+    @Override
+    public CompletableFuture<List<Trade>> listTradesAsync(Key key, Instant fromTime) {
+
+        ProductType product = ProductType.find(key.getInstrument());
+
+        if (product == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return listCachedAsync(ZaifTrade.class, key,
+                () -> requestAsync(URL_TRADE + product.getId()).thenApply(this::parseTrades)
+        ).thenApply(values -> filterTrades(values, fromTime));
+
+    }
+
+    private List<ZaifTrade> parseTrades(String data) {
+
+        List<ZaifTrade> trades = gson.fromJson(data, TYPE_TRADE);
+
+        return Collections.unmodifiableList(trades);
+
+    }
+
+    private List<Trade> filterTrades(List<ZaifTrade> values, Instant fromTime) {
+
         if (values == null) {
             return null;
         }
@@ -246,13 +327,10 @@ public class ZaifContext extends TemplateContext implements ZaifService {
 
         Future<String> result;
 
-        synchronized (URL_POST) {
-
-            // Avoid duplicate nonce
-            MILLISECONDS.sleep(5);
+        synchronized (URL_POST) { // Nonces must be enqueued in order.
 
             Map<String, String> map = new LinkedHashMap<>(trimToEmpty(parameters));
-            map.put("nonce", BigDecimal.valueOf(getNow().toEpochMilli()).movePointLeft(3).toPlainString());
+            map.put("nonce", BigDecimal.valueOf(getNonce(apiKey)).movePointLeft(3).toPlainString());
             map.put("method", method);
             String data = buildQueryParameter(map, "");
 
@@ -7,6 +7,9 @@ import com.after_sunrise.cryptocurrency.cryptotrader.framework.Trader;
 import com.google.gson.Gson;
 import com.google.inject.Inject;
 import com.google.inject.Injector;
+import io.prometheus.client.Collector.MetricFamilySamples;
+import io.prometheus.client.Collector.MetricFamilySamples.Sample;
+import io.prometheus.client.CollectorRegistry;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.collections4.CollectionUtils;
@@ -113,6 +116,8 @@ public class ResteasyContextListener extends GuiceResteasyBootstrapServletContex
 
         private static final Instant LAUNCH_TIME = Instant.now();
 
+        private static final String CACHE_METRIC = "cryptotrader_cache_size";
+
         private final AtomicReference<Instant> CONFIG_TIME = new AtomicReference<>(LAUNCH_TIME);
 
         private final Gson gson;
@@ -121,6 +126,8 @@ public class ResteasyContextListener extends GuiceResteasyBootstrapServletContex
 
         private final ConfigurationProvider configurationProvider;
 
+        private final CollectorRegistry registry;
+
         @Inject
         public EndpointImpl(Injector injector) {
 
@@ -130,6 +137,8 @@ public class ResteasyContextListener extends GuiceResteasyBootstrapServletContex
 
             this.configurationProvider = injector.getInstance(ConfigurationProvider.class);
 
+            this.registry = injector.getInstance(CollectorRegistry.class);
+
         }
 
         @POST
@@ -184,6 +193,33 @@ public class ResteasyContextListener extends GuiceResteasyBootstrapServletContex
 
         }
 
+        @GET
+        @Path("/cache")
+        @Produces(MediaType.APPLICATION_JSON)
+        public String getCacheSizes() {
+
+            Map<String, Map<String, Long>> sizes = new TreeMap<>();
+
+            Set<String> names = Collections.singleton(CACHE_METRIC);
+
+            for (MetricFamilySamples family : Collections.list(registry.filteredMetricFamilySamples(names))) {
+
+                for (Sample sample : family.samples) {
+
+                    String site = sample.labelValues.get(sample.labelNames.indexOf("site"));
+
+                    String type = sample.labelValues.get(sample.labelNames.indexOf("type"));
+
+                    sizes.computeIfAbsent(site, k -> new TreeMap<>()).put(type, (long) sample.value);
+
+                }
+
+            }
+
+            return gson.toJson(sizes);
+
+        }
+
         @GET
         @Path("/time/launch")
         @Produces(MediaType.APPLICATION_JSON)
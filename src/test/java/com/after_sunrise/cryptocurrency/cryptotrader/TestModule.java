@@ -16,6 +16,7 @@ import java.time.Instant;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static com.google.common.io.Resources.getResource;
 import static com.google.common.util.concurrent.MoreExecutors.newDirectExecutorService;
@@ -43,6 +44,10 @@ public class TestModule {
 
         when(getMock(ExecutorFactory.class).get(any(Class.class), anyInt())).thenReturn(service);
 
+        ScheduledExecutorService scheduled = getMock(ScheduledExecutorService.class);
+
+        when(getMock(ExecutorFactory.class).getScheduled(any(Class.class), anyInt())).thenReturn(scheduled);
+
         Configuration configuration = spy(new Configurations().properties(getResource(CONFIGURATION)));
 
         setMock(Configuration.class, configuration);
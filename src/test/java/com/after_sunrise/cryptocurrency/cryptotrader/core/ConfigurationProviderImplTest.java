@@ -36,10 +36,13 @@ public class ConfigurationProviderImplTest {
         assertSame(target.get(), c);
         assertEquals(c.getString(KEY), version);
 
+        assertEquals(target.getRevision(), 0L);
+
         // Same proxy, new delegate.
         target.clear();
         assertSame(target.get(), c);
         assertEquals(c.getString(KEY), version);
+        assertEquals(target.getRevision(), 1L);
 
     }
 
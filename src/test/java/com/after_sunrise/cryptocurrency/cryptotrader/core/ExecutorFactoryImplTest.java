@@ -41,16 +41,22 @@ public class ExecutorFactoryImplTest {
         for (Class<?> cls : classes) {
 
             ExecutorService es = target.get(cls, 1);
+            assertNotSame(target.getScheduled(cls, 1), es);
+            assertSame(target.getScheduled(cls, 2), target.getScheduled(cls, 1));
             assertSame(target.get(cls, 0), es);
             assertSame(target.get(cls, 1), es);
             assertSame(target.get(cls, 2), es);
 
             services.add(es);
+            services.add(target.getScheduled(cls, 1));
 
             Class<?> c = (cls == null) ? target.getClass() : cls;
 
             assertEquals(es.submit(() -> currentThread().getName()).get(), c.getSimpleName() + "_001");
 
+            assertEquals(target.getScheduled(cls, 1).submit(() -> currentThread().getName()).get(),
+                    c.getSimpleName() + "Scheduler_001");
+
             assertSame(es.submit(() -> currentThread().getUncaughtExceptionHandler()).get(), target);
 
             assertTrue(es.submit(() -> currentThread().isDaemon()).get());
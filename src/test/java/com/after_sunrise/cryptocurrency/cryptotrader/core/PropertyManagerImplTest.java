@@ -81,6 +81,7 @@ public class PropertyManagerImplTest {
         conf.setProperty(VERSION.getKey() + ".s.i", "v2");
 
         // Default only
+        assertEquals(target.getRevision(), 0L);
         assertEquals(target.get(VERSION, null, null, Configuration::getString), "v1");
         assertEquals(target.get(VERSION, "s", null, Configuration::getString), "v1");
         assertEquals(target.get(VERSION, null, "i", Configuration::getString), "v1");
@@ -94,7 +95,9 @@ public class PropertyManagerImplTest {
         assertEquals(target.get(VERSION, "s", "i", Configuration::getString), "v2");
 
         // Overwrite specific
+        assertEquals(target.getRevision(), 1L);
         target.set(VERSION, "s", "i", "o2", v -> v);
+        assertEquals(target.getRevision(), 2L);
         assertEquals(target.get(VERSION, null, null, Configuration::getString), "o1");
         assertEquals(target.get(VERSION, "s", null, Configuration::getString), "o1");
         assertEquals(target.get(VERSION, null, "i", Configuration::getString), "o1");
@@ -228,6 +231,31 @@ public class PropertyManagerImplTest {
 
     }
 
+    @Test
+    public void testGetTradingIsolated() throws Exception {
+
+        // Default
+        assertEquals(target.getTradingIsolated(), FALSE);
+
+        // Mocked
+        doReturn(TRUE).when(conf).getBoolean(TRADING_ISOLATED.getKey());
+        assertEquals(target.getTradingIsolated(), TRUE);
+
+        // Mocked Error
+        doThrow(new RuntimeException("test")).when(conf).getBoolean(TRADING_ISOLATED.getKey());
+        assertEquals(target.getTradingIsolated(), FALSE);
+        reset(conf);
+
+        // Override
+        target.setTradingIsolated(true);
+        assertEquals(target.getTradingIsolated(), TRUE);
+
+        // Clear
+        target.setTradingIsolated(null);
+        assertEquals(target.getTradingIsolated(), FALSE);
+
+    }
+
     @Test
     public void testGetTradingTargets() throws Exception {
 
@@ -373,6 +401,38 @@ public class PropertyManagerImplTest {
 
     }
 
+    @Test
+    public void testGetTradingBackoff() throws Exception {
+
+        assertEquals(target.getTradingBackoff(site, inst), (Integer) 0);
+
+        // Specific
+        doReturn(valueOf(3)).when(conf).getBigDecimal(TRADING_BACKOFF.getKey());
+        assertEquals(target.getTradingBackoff(site, inst), (Integer) 3);
+
+        // Ceiling
+        doReturn(valueOf(Long.MAX_VALUE)).when(conf).getBigDecimal(TRADING_BACKOFF.getKey());
+        assertEquals(target.getTradingBackoff(site, inst), (Integer) Integer.MAX_VALUE);
+
+        // Floor
+        doReturn(valueOf(-1)).when(conf).getBigDecimal(TRADING_BACKOFF.getKey());
+        assertEquals(target.getTradingBackoff(site, inst), (Integer) 0);
+
+        // Error
+        doThrow(new RuntimeException("test")).when(conf).getBigDecimal(TRADING_BACKOFF.getKey());
+        assertEquals(target.getTradingBackoff(site, inst), (Integer) 0);
+        reset(conf);
+
+        // Override
+        target.setTradingBackoff(site, inst, 5);
+        assertEquals(target.getTradingBackoff(site, inst), (Integer) 5);
+
+        // Clear
+        target.setTradingBackoff(site, inst, null);
+        assertEquals(target.getTradingBackoff(site, inst), (Integer) 0);
+
+    }
+
     @Test
     public void testGetTradingSpread() throws Exception {
 
@@ -824,6 +884,63 @@ public class PropertyManagerImplTest {
 
     }
 
+    @Test
+    public void testGetTradingSpacing() throws Exception {
+
+        assertEquals(target.getTradingSpacing(site, inst), Duration.ofMillis(0));
+
+        // Specific
+        doReturn(valueOf(500L)).when(conf).getBigDecimal(TRADING_SPACING.getKey());
+        assertEquals(target.getTradingSpacing(site, inst), Duration.ofMillis(500));
+
+        // Ceiling
+        doReturn(valueOf(Long.MAX_VALUE)).when(conf).getBigDecimal(TRADING_SPACING.getKey());
+        assertEquals(target.getTradingSpacing(site, inst), Duration.ofDays(1));
+
+        // Floor
+        doReturn(valueOf(Long.MIN_VALUE)).when(conf).getBigDecimal(TRADING_SPACING.getKey());
+        assertEquals(target.getTradingSpacing(site, inst), Duration.ZERO);
+
+        // Error
+        doThrow(new RuntimeException("test")).when(conf).getBigDecimal(TRADING_SPACING.getKey());
+        assertEquals(target.getTradingSpacing(site, inst), Duration.ZERO);
+        reset(conf);
+
+        // Override
+        target.setTradingSpacing(site, inst, Duration.ofMillis(1));
+        assertEquals(target.getTradingSpacing(site, inst), Duration.ofMillis(1));
+
+        // Clear
+        target.setTradingSpacing(site, inst, null);
+        assertEquals(target.getTradingSpacing(site, inst), Duration.ofMillis(0));
+
+    }
+
+    @Test
+    public void testGetTradingDeferred() throws Exception {
+
+        // Default
+        assertEquals(target.getTradingDeferred(site, inst), FALSE);
+
+        // Mocked
+        doReturn(TRUE).when(conf).getBoolean(TRADING_DEFERRED.getKey());
+        assertEquals(target.getTradingDeferred(site, inst), TRUE);
+
+        // Mocked Error
+        doThrow(new RuntimeException("test")).when(conf).getBoolean(TRADING_DEFERRED.getKey());
+        assertEquals(target.getTradingDeferred(site, inst), FALSE);
+        reset(conf);
+
+        // Override
+        target.setTradingDeferred(site, inst, true);
+        assertEquals(target.getTradingDeferred(site, inst), TRUE);
+
+        // Clear
+        target.setTradingDeferred(site, inst, null);
+        assertEquals(target.getTradingDeferred(site, inst), FALSE);
+
+    }
+
     @Test
     public void testGetFundingOffset() throws Exception {
 
@@ -1335,4 +1452,29 @@ public class PropertyManagerImplTest {
 
     }
 
+    @Test
+    public void testGetRecorderActive() throws Exception {
+
+        // Default
+        assertEquals(target.getRecorderActive(site, inst), FALSE);
+
+        // Mocked
+        doReturn(TRUE).when(conf).getBoolean(RECORDER_ACTIVE.getKey());
+        assertEquals(target.getRecorderActive(site, inst), TRUE);
+
+        // Mocked Error
+        doThrow(new RuntimeException("test")).when(conf).getBoolean(RECORDER_ACTIVE.getKey());
+        assertEquals(target.getRecorderActive(site, inst), FALSE);
+        reset(conf);
+
+        // Override
+        target.setRecorderActive(site, inst, true);
+        assertEquals(target.getRecorderActive(site, inst), TRUE);
+
+        // Clear
+        target.setRecorderActive(site, inst, null);
+        assertEquals(target.getRecorderActive(site, inst), FALSE);
+
+    }
+
 }
@@ -1,5 +1,6 @@
 package com.after_sunrise.cryptocurrency.cryptotrader.framework;
 
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.AmendInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.Visitor;
@@ -14,6 +15,8 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
 
 /**
  * @author takanori.takase
@@ -34,6 +37,9 @@ public class InstructionTest {
         when(visitor.visit(any(CancelInstruction.class)))
                 .thenAnswer(i -> i.getArgumentAt(0, CancelInstruction.class).getUid());
 
+        when(visitor.visit(any(AmendInstruction.class)))
+                .thenAnswer(i -> i.getArgumentAt(0, AmendInstruction.class).getUid());
+
     }
 
     @Test
@@ -65,4 +71,39 @@ public class InstructionTest {
 
     }
 
+    @Test
+    public void testAmend() throws Exception {
+
+        AmendInstruction i = AmendInstruction.builder().id("foo").price(TEN).size(ONE).strategy("bar").build();
+
+        assertEquals(i.getId(), "foo");
+
+        assertEquals(i.getPrice(), TEN);
+
+        assertEquals(i.getSize(), ONE);
+
+        assertEquals(i.getStrategy(), "bar");
+
+        assertEquals(i.accept(visitor), i.getUid());
+
+        CancelInstruction cancel = i.toCancel();
+
+        assertEquals(cancel.getId(), "foo");
+
+        assertNotEquals(cancel.getUid(), i.getUid());
+
+        CreateInstruction create = i.toCreate();
+
+        assertEquals(create.getPrice(), TEN);
+
+        assertEquals(create.getSize(), ONE);
+
+        assertEquals(create.getStrategy(), "bar");
+
+        assertNull(create.getTimeToLive());
+
+        assertNotEquals(create.getUid(), i.getUid());
+
+    }
+
 }
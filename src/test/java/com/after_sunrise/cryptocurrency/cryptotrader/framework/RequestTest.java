@@ -10,6 +10,7 @@ import java.util.Random;
 
 import static java.math.BigDecimal.valueOf;
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static org.testng.Assert.assertNotNull;
 import static org.testng.Assert.assertSame;
 
@@ -54,6 +55,7 @@ public class RequestTest {
         b.hedgeProducts(singletonList(new Composite("h", "p")));
         b.estimatorComposites(singletonList(new Composite("e", "p")));
         b.estimationAversion(valueOf(random.nextInt()));
+        b.reconciled(singletonMap(Instruction.CreateInstruction.builder().build(), Boolean.TRUE));
 
         Request target = b.build();
 
@@ -4,11 +4,14 @@ import com.after_sunrise.cryptocurrency.cryptotrader.TestModule;
 import com.after_sunrise.cryptocurrency.cryptotrader.core.ServiceFactory;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.Key;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.AmendInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Order;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Service.CurrencyType;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Trade;
+import org.apache.commons.configuration2.Configuration;
+import org.mockito.ArgumentCaptor;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -23,9 +26,10 @@ import java.util.Map;
 import static java.math.BigDecimal.ONE;
 import static java.math.RoundingMode.DOWN;
 import static java.util.Collections.*;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
-import static org.testng.Assert.assertEquals;
-import static org.testng.Assert.assertNull;
+import static org.testng.Assert.*;
 
 /**
  * @author takanori.takase
@@ -112,6 +116,36 @@ public class ContextImplTest {
 
     }
 
+    @Test
+    public void testForContextAsync() throws Exception {
+
+        when(contexts.get("c1").getBestAskPriceAsync(key)).thenReturn(completedFuture(ONE));
+        when(contexts.get("c1").getFundingPositionAsync(key)).thenReturn(completedFuture(ONE));
+        when(contexts.get("c1").listActiveOrdersAsync(key)).thenReturn(completedFuture(emptyList()));
+
+        assertEquals(target.getBestAskPriceAsync(key).get(), ONE);
+        assertEquals(target.getFundingPositionAsync(key).get(), ONE);
+        assertEquals(target.listActiveOrdersAsync(key).get(), emptyList());
+
+        // Unknown site
+        assertNull(target.getBestAskPriceAsync(Key.builder().site("c9").build()).get());
+        assertNull(target.getBestAskPriceAsync(null).get());
+
+    }
+
+    @Test
+    public void testListener() {
+
+        Context.Listener listener = mock(Context.Listener.class);
+
+        target.addListener(listener);
+        contexts.values().forEach(c -> verify(c).addListener(listener));
+
+        target.removeListener(listener);
+        contexts.values().forEach(c -> verify(c).removeListener(listener));
+
+    }
+
     @Test
     public void testGetState() {
 
@@ -378,4 +412,120 @@ public class ContextImplTest {
 
     }
 
+    @Test
+    public void testAmendOrder() {
+
+        AmendInstruction instruction = AmendInstruction.builder().build();
+
+        String value = "testid";
+
+        Map<AmendInstruction, String> results = singletonMap(instruction, value);
+
+        when(contexts.get("c1").amendOrders(key, singleton(instruction))).thenReturn(results);
+
+        assertEquals(target.amendOrders(key, singleton(instruction)), results);
+
+    }
+
+    @Test
+    public void testOrderCache() throws Exception {
+
+        Configuration configuration = module.getMock(Configuration.class);
+        when(configuration.getLong(endsWith(".order.snapshot"), anyLong())).thenReturn(1000L);
+        target.setConfiguration(configuration);
+
+        Instant now = Instant.ofEpochMilli(1000000);
+        Key k0 = Key.builder().site("c1").instrument("i").timestamp(now).build();
+        Key k1 = Key.build(k0).timestamp(now.plusMillis(999)).build();
+        Key k2 = Key.build(k0).timestamp(now.plusMillis(1000)).build();
+        Context c1 = contexts.get("c1");
+
+        Order o1 = mock(Order.class);
+        when(o1.getId()).thenReturn("o1");
+        when(o1.getActive()).thenReturn(true);
+        when(c1.listActiveOrders(any())).thenReturn(singletonList(o1));
+
+        // Snapshot
+        assertEquals(target.listActiveOrders(k0), singletonList(o1));
+        assertEquals(target.listActiveOrders(k1), singletonList(o1));
+        assertEquals(target.findOrder(k1, "o1"), o1);
+        verify(c1, times(1)).listActiveOrders(any());
+        verify(c1, never()).findOrder(any(), any());
+
+        // Acknowledged
+        CreateInstruction create = CreateInstruction.builder().price(ONE).size(ONE).build();
+        when(c1.createOrders(k1, singleton(create))).thenReturn(singletonMap(create, "o2"));
+        target.createOrders(k1, singleton(create));
+        assertEquals(target.listActiveOrders(k1).size(), 2);
+        assertNull(target.findOrder(k1, "o2")); // Pending, and looked up from the site.
+        verify(c1).findOrder(k1, "o2");
+
+        CancelInstruction cancel = CancelInstruction.builder().id("o1").build();
+        when(c1.cancelOrders(k1, singleton(cancel))).thenReturn(singletonMap(cancel, "o1"));
+        target.cancelOrders(k1, singleton(cancel));
+        assertEquals(target.listActiveOrders(k1).size(), 2); // Active until confirmed.
+
+        Order cancelled = mock(Order.class);
+        when(cancelled.getId()).thenReturn("o1");
+        when(cancelled.getActive()).thenReturn(false);
+        when(c1.findOrder(k1, "o1")).thenReturn(cancelled);
+        assertEquals(target.findOrder(k1, "o1"), cancelled);
+        assertEquals(target.listActiveOrders(k1).size(), 1);
+
+        // Pushed
+        ArgumentCaptor<Context.Listener> captor = ArgumentCaptor.forClass(Context.Listener.class);
+        verify(c1).addListener(captor.capture());
+        Order pushed = mock(Order.class);
+        when(pushed.getId()).thenReturn("o2");
+        when(pushed.getActive()).thenReturn(false);
+        captor.getValue().onOrderChange(Key.builder().site("c1").instrument("p").build(), pushed);
+        assertEquals(target.findOrder(k1, "o2"), pushed);
+        assertEquals(target.listActiveOrders(k1), emptyList());
+
+        // Unknown
+        Order o3 = mock(Order.class);
+        when(o3.getId()).thenReturn("o3");
+        when(c1.findOrder(k1, "o3")).thenReturn(o3);
+        assertEquals(target.findOrder(k1, "o3"), o3);
+        assertEquals(target.findOrder(k1, "o3"), o3);
+        verify(c1, times(1)).findOrder(k1, "o3");
+
+        // Stale
+        assertEquals(target.listActiveOrders(k2), singletonList(o1));
+        assertEquals(target.listActiveOrdersAsync(k2).get(), singletonList(o1));
+        assertEquals(target.findOrderAsync(k2, "o1").get(), o1);
+        verify(c1, times(2)).listActiveOrders(any());
+        verify(c1, never()).listActiveOrdersAsync(any());
+        verify(c1, never()).findOrderAsync(any(), any());
+
+        // Executions
+        List<Order.Execution> executions = singletonList(mock(Order.Execution.class));
+        when(c1.listExecutions(any())).thenReturn(executions);
+        assertEquals(target.listExecutions(k0), executions);
+        assertEquals(target.listExecutions(k1), executions);
+        assertEquals(target.listExecutionsAsync(k1).get(), executions);
+        verify(c1, times(1)).listExecutions(any());
+        verify(c1, never()).listExecutionsAsync(any());
+
+    }
+
+    @Test
+    public void testOrderCache_Disabled() {
+
+        Key k = Key.builder().site("c1").instrument("i").timestamp(Instant.now()).build();
+        Context c1 = contexts.get("c1");
+
+        CreateInstruction create = CreateInstruction.builder().price(ONE).size(ONE).build();
+        when(c1.createOrders(k, singleton(create))).thenReturn(singletonMap(create, "o1"));
+        target.createOrders(k, singleton(create));
+
+        assertNull(target.findOrder(k, "o1"));
+        assertEquals(target.listActiveOrders(k), emptyList());
+        assertEquals(target.listExecutions(k), emptyList());
+        verify(c1).findOrder(k, "o1");
+        verify(c1).listActiveOrders(k);
+        verify(c1).listExecutions(k);
+
+    }
+
 }
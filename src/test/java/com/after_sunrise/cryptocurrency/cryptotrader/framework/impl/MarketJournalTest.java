@@ -0,0 +1,221 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.framework.impl;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.TestModule;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.MarketJournal.Record;
+import org.apache.commons.configuration2.Configuration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.MarketJournal.Type.*;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.testng.Assert.*;
+
+/**
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+public class MarketJournalTest {
+
+    private static final String PREFIX = MarketJournal.class.getName() + ".";
+
+    private MarketJournal target;
+
+    private TestModule module;
+
+    private Path directory;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+
+        directory = Files.createTempDirectory("journal");
+
+        module = new TestModule();
+
+        Configuration configuration = module.getMock(Configuration.class);
+        configuration.setProperty(PREFIX + "path", directory.toString());
+        configuration.setProperty(PREFIX + "segment", "1024");
+        configuration.setProperty(PREFIX + "capacity", "16");
+
+        target = new MarketJournal(module.createInjector());
+
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+
+        target.close();
+
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+
+        Files.delete(directory);
+
+    }
+
+    private List<Path> listSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.toString().endsWith(MarketJournal.EXTENSION)).sorted().collect(Collectors.toList());
+        }
+    }
+
+    private List<Record> readAll() throws IOException {
+
+        List<Record> records = new ArrayList<>();
+
+        for (Path path : listSegments()) {
+            MarketJournal.read(path, records::add);
+        }
+
+        return records;
+
+    }
+
+    @Test
+    public void testEncode() {
+
+        Record record = Record.builder()
+                .type(ASK_BOOK)
+                .time(Instant.ofEpochMilli(1234567890123L))
+                .site("s")
+                .instrument("日本円")
+                .id(null)
+                .values(Arrays.asList(new BigDecimal("12345.6789"), null, new BigDecimal("-1E+3"), BigDecimal.ZERO))
+                .build();
+
+        ByteBuffer buffer = target.encode(record);
+
+        Record result = MarketJournal.decode(buffer);
+        assertEquals(result.getType(), ASK_BOOK);
+        assertEquals(result.getTime(), record.getTime());
+        assertEquals(result.getSite(), "s");
+        assertEquals(result.getInstrument(), "日本円");
+        assertNull(result.getId());
+        assertEquals(result.getValues(), record.getValues());
+        assertFalse(buffer.hasRemaining());
+
+        // Nulls
+        result = MarketJournal.decode(target.encode(Record.builder().type(TRADE).build()));
+        assertEquals(result.getType(), TRADE);
+        assertNull(result.getTime());
+        assertNull(result.getSite());
+        assertNull(result.getInstrument());
+        assertNull(result.getId());
+        assertEquals(result.getValues().size(), 0);
+
+        // Larger than the initial buffer
+        List<BigDecimal> values = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            values.add(BigDecimal.valueOf(i, 2));
+        }
+        result = MarketJournal.decode(target.encode(Record.builder().type(BID_BOOK).values(values).build()));
+        assertEquals(result.getValues(), values);
+
+    }
+
+    @Test
+    public void testAppend() throws IOException {
+
+        assertFalse(target.append(null));
+
+        for (int i = 0; i < 100; i++) {
+
+            Record record = Record.builder().type(TRADE).time(Instant.ofEpochMilli(i))
+                    .site("s").instrument("i").id("id" + i)
+                    .values(Arrays.asList(BigDecimal.valueOf(i), BigDecimal.ONE)).build();
+
+            assertTrue(target.append(record));
+
+            if (i % 10 == 9) {
+                target.drain();
+            }
+
+        }
+
+        // Writer started only once.
+        ScheduledExecutorService executor = module.getMock(ScheduledExecutorService.class);
+        verify(executor, times(1)).scheduleWithFixedDelay(any(Runnable.class), eq(0L), anyLong(), eq(MILLISECONDS));
+
+        target.close();
+
+        assertTrue(listSegments().size() > 1, "Segments should be rolled : " + listSegments());
+
+        List<Record> records = readAll();
+        assertEquals(records.size(), 100);
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(records.get(i).getTime(), Instant.ofEpochMilli(i));
+            assertEquals(records.get(i).getId(), "id" + i);
+            assertEquals(records.get(i).getValues(), Arrays.asList(BigDecimal.valueOf(i), BigDecimal.ONE));
+        }
+
+        // Closed
+        assertFalse(target.append(Record.builder().type(TRADE).build()));
+
+    }
+
+    @Test
+    public void testAppend_Full() throws IOException {
+
+        for (int i = 0; i < 16; i++) {
+            assertTrue(target.append(Record.builder().type(LAST_PRICE).time(Instant.ofEpochMilli(i)).build()));
+        }
+
+        assertFalse(target.append(Record.builder().type(LAST_PRICE).build()));
+
+        target.drain();
+
+        assertTrue(target.append(Record.builder().type(LAST_PRICE).time(Instant.ofEpochMilli(16)).build()));
+
+        target.close();
+
+        assertEquals(readAll().size(), 17);
+
+    }
+
+    @Test
+    public void testClose() throws IOException {
+
+        target.close();
+
+        target.close();
+
+        target.drain();
+
+        assertEquals(listSegments().size(), 0);
+
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testRead_Invalid() throws IOException {
+
+        Path path = directory.resolve("invalid" + MarketJournal.EXTENSION);
+
+        Files.write(path, new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+
+        MarketJournal.read(path, r -> fail());
+
+    }
+
+}
@@ -0,0 +1,248 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.framework.impl;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.Key;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.AmendInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Order;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.OrderCache.CachedOrder;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.math.BigDecimal.ZERO;
+import static java.util.Collections.*;
+import static org.mockito.Mockito.mock;
+import static org.testng.Assert.*;
+
+/**
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+public class OrderCacheTest {
+
+    private OrderCache target;
+
+    private Instant now;
+
+    private Key key;
+
+    @BeforeMethod
+    public void setUp() {
+
+        target = new OrderCache();
+
+        now = Instant.ofEpochMilli(1000000);
+
+        key = Key.builder().site("s").instrument("i").timestamp(now).build();
+
+    }
+
+    private Key at(long millis) {
+        return Key.build(key).timestamp(now.plusMillis(millis)).build();
+    }
+
+    private CachedOrder order(String id, boolean active, String price, String filled) {
+        return CachedOrder.builder().id(id).active(active).orderPrice(new BigDecimal(price))
+                .filledQuantity(new BigDecimal(filled)).build();
+    }
+
+    @Test
+    public void testIsFresh() {
+
+        Duration interval = Duration.ofSeconds(1);
+
+        assertFalse(target.isFresh(key, interval));
+
+        target.snapshot(key, emptyList(), target.sequence());
+        assertTrue(target.isFresh(key, interval));
+        assertTrue(target.isFresh(at(999), interval));
+        assertFalse(target.isFresh(at(1000), interval));
+        assertFalse(target.isFresh(at(-1), interval));
+
+        // Per instrument
+        assertFalse(target.isFresh(Key.build(key).instrument("j").build(), interval));
+
+    }
+
+    @Test
+    public void testSnapshot() {
+
+        CreateInstruction create = CreateInstruction.builder().price(new BigDecimal("1.2"))
+                .size(new BigDecimal("-3")).build();
+        target.create(key, singletonMap(create, "o1"));
+        target.put(key, order("o2", true, "1.3", "0"));
+
+        long sequence = target.sequence();
+        target.create(key, singletonMap(create, "o3")); // After the request
+        target.snapshot(at(1), singletonList(order("o2", true, "1.4", "0")), sequence);
+
+        List<Order> orders = target.listActiveOrders(key);
+        assertEquals(orders.size(), 2);
+        assertEquals(target.findOrder(key, "o2").getOrderPrice(), new BigDecimal("1.4"));
+        assertNull(target.findOrder(key, "o3")); // Pending
+        assertTrue(orders.stream().anyMatch(o -> o.getId().equals("o3")));
+
+        // Missing from the snapshot
+        Order o1 = target.findOrder(key, "o1");
+        assertFalse(o1.getActive());
+        assertEquals(o1.getOrderPrice(), new BigDecimal("1.2"));
+        assertEquals(o1.getOrderQuantity(), new BigDecimal("-3"));
+
+        // Evicted after the retention
+        target.snapshot(at(OrderCache.RETENTION.toMillis() + 2), emptyList(), target.sequence());
+        assertNull(target.findOrder(key, "o1"));
+        assertFalse(target.findOrder(key, "o2").getActive());
+        assertFalse(target.findOrder(key, "o3").getActive()); // Confirmed by the snapshot
+        assertEquals(target.listActiveOrders(key), emptyList());
+
+        target.snapshot(at(OrderCache.RETENTION.toMillis() * 2 + 3), emptyList(), target.sequence());
+        assertNull(target.findOrder(key, "o2"));
+        assertNull(target.findOrder(key, "o3"));
+
+    }
+
+    @Test
+    public void testCreate() {
+
+        CreateInstruction i1 = CreateInstruction.builder().price(new BigDecimal("1.2"))
+                .size(new BigDecimal("3")).build();
+        CreateInstruction i2 = CreateInstruction.builder().build();
+
+        target.put(key, order("o2", true, "9", "1"));
+
+        Map<CreateInstruction, String> results = new HashMap<>();
+        results.put(i1, "o1");
+        results.put(i2, "o2");
+        results.put(CreateInstruction.builder().build(), null);
+        target.create(key, results);
+
+        // Pending until confirmed
+        assertNull(target.findOrder(key, "o1"));
+
+        Order o1 = target.listActiveOrders(key).stream().filter(o -> o.getId().equals("o1")).findAny().get();
+        assertTrue(o1.getActive());
+        assertEquals(o1.getOrderPrice(), new BigDecimal("1.2"));
+        assertEquals(o1.getOrderQuantity(), new BigDecimal("3"));
+        assertEquals(o1.getFilledQuantity(), ZERO);
+        assertEquals(o1.getRemainingQuantity(), new BigDecimal("3"));
+
+        // Already pushed
+        assertEquals(target.findOrder(key, "o2").getOrderPrice(), new BigDecimal("9"));
+
+        assertEquals(target.listActiveOrders(key).size(), 2);
+
+        // Confirmed by the push
+        target.push("s", order("o1", false, "1.2", "0"));
+        assertFalse(target.findOrder(key, "o1").getActive());
+        assertEquals(target.listActiveOrders(key).size(), 1);
+
+    }
+
+    @Test
+    public void testCancel() {
+
+        target.put(key, order("o1", true, "1", "2"));
+
+        target.cancel(key, singletonMap(CancelInstruction.builder().id("o1").build(), "o1"));
+        target.cancel(key, singletonMap(CancelInstruction.builder().id("o2").build(), "o2"));
+        target.cancel(key, singletonMap(CancelInstruction.builder().id("o3").build(), null));
+
+        // Pending, and listed as active until confirmed.
+        assertNull(target.findOrder(key, "o1"));
+        assertEquals(target.listActiveOrders(key).size(), 1);
+
+        assertNull(target.findOrder(key, "o2"));
+
+        // Confirmed by the lookup
+        target.put(key, order("o1", false, "1", "2"));
+        assertFalse(target.findOrder(key, "o1").getActive());
+        assertEquals(target.listActiveOrders(key), emptyList());
+
+    }
+
+    @Test
+    public void testAmend() {
+
+        target.put(key, order("o1", true, "1", "2"));
+        target.put(key, order("o2", true, "1", "2"));
+
+        target.amend(key, singletonMap(AmendInstruction.builder().id("o1")
+                .price(new BigDecimal("1.5")).size(new BigDecimal("3")).build(), "o1"));
+        target.amend(key, singletonMap(AmendInstruction.builder().id("o2")
+                .price(new BigDecimal("1.6")).build(), "o9"));
+        target.amend(key, singletonMap(AmendInstruction.builder().id("o3").build(), "o3"));
+
+        // Pending until confirmed
+        assertNull(target.findOrder(key, "o1"));
+        assertNull(target.findOrder(key, "o9"));
+
+        target.snapshot(at(1), emptyList(), 0L); // Requested before the amends.
+        assertEquals(target.listActiveOrders(key).size(), 2);
+
+        Order o1 = target.listActiveOrders(key).stream().filter(o -> o.getId().equals("o1")).findAny().get();
+        assertTrue(o1.getActive());
+        assertEquals(o1.getOrderPrice(), new BigDecimal("1.5"));
+        assertEquals(o1.getOrderQuantity(), new BigDecimal("5"));
+        assertEquals(o1.getRemainingQuantity(), new BigDecimal("3"));
+
+        // Replaced with the new identifier
+        assertNull(target.findOrder(key, "o2"));
+        Order o9 = target.listActiveOrders(key).stream().filter(o -> o.getId().equals("o9")).findAny().get();
+        assertEquals(o9.getOrderPrice(), new BigDecimal("1.6"));
+        assertEquals(o9.getFilledQuantity(), new BigDecimal("2"));
+
+        assertNull(target.findOrder(key, "o3"));
+
+    }
+
+    @Test
+    public void testPush() {
+
+        target.put(key, order("o1", true, "1", "0"));
+
+        target.push("s", order("o1", false, "1", "0"));
+        target.push("s", order("o2", true, "1", "0"));
+        target.push("x", order("o1", true, "1", "0"));
+        target.push("s", null);
+
+        assertFalse(target.findOrder(key, "o1").getActive());
+        assertNull(target.findOrder(key, "o2"));
+
+    }
+
+    @Test
+    public void testExecutions() {
+
+        Duration interval = Duration.ofSeconds(1);
+
+        assertNull(target.listExecutions(key, interval));
+
+        List<Order.Execution> values = singletonList(mock(Order.Execution.class));
+        target.setExecutions(key, values);
+        assertSame(target.listExecutions(key, interval), values);
+        assertSame(target.listExecutions(at(999), interval), values);
+        assertNull(target.listExecutions(at(1000), interval));
+
+        // Unfilled
+        target.put(key, order("o1", true, "1", "0"));
+        assertSame(target.listExecutions(key, interval), values);
+
+        // Filled
+        target.push("s", order("o1", true, "1", "0.5"));
+        assertNull(target.listExecutions(key, interval));
+
+        // Unchanged
+        target.setExecutions(key, values);
+        target.push("s", order("o1", true, "1", "0.50"));
+        assertSame(target.listExecutions(key, interval), values);
+
+    }
+
+}
@@ -2,10 +2,14 @@ package com.after_sunrise.cryptocurrency.cryptotrader.framework.impl;
 
 import com.after_sunrise.cryptocurrency.cryptotrader.TestModule;
 import com.after_sunrise.cryptocurrency.cryptotrader.core.Composite;
+import com.after_sunrise.cryptocurrency.cryptotrader.core.ConfigurationProvider;
+import com.after_sunrise.cryptocurrency.cryptotrader.core.ExecutorFactory;
 import com.after_sunrise.cryptocurrency.cryptotrader.core.PropertyManager;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.*;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Adviser.Advice;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Estimator.Estimation;
+import io.prometheus.client.CollectorRegistry;
+import org.mockito.ArgumentCaptor;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -14,10 +18,17 @@ import java.time.Instant;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static java.lang.Boolean.FALSE;
+import static java.lang.Boolean.TRUE;
 import static java.math.BigDecimal.valueOf;
 import static java.util.Collections.emptyMap;
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
 import static org.mockito.Mockito.*;
 import static org.testng.Assert.*;
 
@@ -33,11 +44,15 @@ public class PipelineImplTest {
 
     private Context context;
 
+    private CollectorRegistry registry;
+
     @BeforeMethod
     public void setUp() throws Exception {
 
         module = new TestModule();
 
+        registry = module.setMock(CollectorRegistry.class, new CollectorRegistry());
+
         context = module.getMock(Context.class);
 
         target = spy(new PipelineImpl(module.createInjector()));
@@ -54,6 +69,7 @@ public class PipelineImplTest {
         String instrument = request.getInstrument();
         Instant now = request.getCurrentTime();
         Instant future = now.plusSeconds(30);
+        request = Request.build(request).targetTime(future).build();
         Estimation estimation = Estimation.builder().build();
         Advice advice = Advice.builder().build();
         List<Instruction> instructions = Collections.emptyList();
@@ -75,6 +91,242 @@ public class PipelineImplTest {
         verify(module.getMock(Agent.class)).manage(context, request, instructions);
         verify(module.getMock(Agent.class)).reconcile(context, request, results);
 
+        String name = "cryptotrader_pipeline_elapsed_milliseconds_count";
+        String[] labels = {"site", "instrument", "stage"};
+        for (String stage : new String[]{"Estimate", "Advise", "Await", "Instruct", "Manage", "Reconcile", "Total"}) {
+            assertEquals(registry.getSampleValue(name, labels, new String[]{site, instrument, stage}), 1.0, stage);
+        }
+
+    }
+
+    @Test
+    public void testProcess_Deferred() throws Exception {
+
+        Request request = module.createRequestBuilder().build();
+        String site = request.getSite();
+        String instrument = request.getInstrument();
+        Instant now = request.getCurrentTime();
+        Instant future = now.plusSeconds(30);
+        request = Request.build(request).targetTime(future).build();
+        Estimation estimation = Estimation.builder().build();
+        Advice advice = Advice.builder().build();
+        Instruction instruction = Instruction.CreateInstruction.builder().build();
+        List<Instruction> instructions = singletonList(instruction);
+        Map<Instruction, String> results = singletonMap(instruction, "uid");
+        Map<Instruction, Boolean> reconcile = singletonMap(instruction, FALSE);
+
+        doReturn(request).when(target).createRequest(now, future, site, instrument);
+        when(module.getMock(PropertyManager.class).getTradingDeferred(site, instrument)).thenReturn(true);
+        when(module.getMock(Estimator.class).estimate(context, request)).thenReturn(estimation);
+        when(module.getMock(Adviser.class).advise(context, request, estimation)).thenReturn(advice);
+        when(module.getMock(Instructor.class).instruct(any(), any(), any())).thenReturn(instructions);
+        when(module.getMock(Agent.class).manage(any(), any(), any())).thenReturn(results);
+        when(module.getMock(Agent.class).reconcile(any(), any(), any())).thenReturn(reconcile);
+
+        // Reconciled in background.
+        target.process(now, future, site, instrument);
+        verify(module.getMock(Instructor.class)).instruct(context, request, advice);
+        verify(module.getMock(Agent.class)).manage(context, request, instructions);
+        verify(module.getMock(Agent.class)).reconcile(context, request, results);
+        verify(target).deferReconcile(request, results);
+
+        // Previous results fed into next cycle.
+        target.process(now, future, site, instrument);
+        ArgumentCaptor<Request> captor = ArgumentCaptor.forClass(Request.class);
+        verify(module.getMock(Agent.class), times(2)).manage(same(context), captor.capture(), same(instructions));
+        assertSame(captor.getAllValues().get(0), request);
+        assertNotSame(captor.getAllValues().get(1), request);
+        assertEquals(captor.getAllValues().get(1).getReconciled(), reconcile);
+        assertEquals(captor.getAllValues().get(1).getSite(), site);
+
+        // Synchronous reconcile after pending results are consumed.
+        when(module.getMock(PropertyManager.class).getTradingDeferred(site, instrument)).thenReturn(false);
+        target.process(now, future, site, instrument);
+        verify(module.getMock(Agent.class), times(3)).reconcile(same(context), any(), same(results));
+        verify(target, times(2)).deferReconcile(any(), any());
+        assertEquals(target.awaitReconcile(request, Instant.now()), emptyMap());
+
+    }
+
+    @Test
+    public void testProcess_Expired() throws Exception {
+
+        Request request = module.createRequestBuilder().build();
+        String site = request.getSite();
+        String instrument = request.getInstrument();
+        Instant now = request.getCurrentTime();
+        Instant future = now.plusSeconds(30);
+        request = Request.build(request).targetTime(future).build();
+        Estimation estimation = Estimation.builder().build();
+        Advice advice = Advice.builder().build();
+        Instruction instruction = Instruction.CreateInstruction.builder().build();
+        List<Instruction> instructions = singletonList(instruction);
+        Map<Instruction, Boolean> reconciled = singletonMap(instruction, TRUE);
+
+        doReturn(request).when(target).createRequest(now, future, site, instrument);
+        doReturn(reconciled).when(target).awaitReconcile(same(request), any());
+        when(module.getMock(Estimator.class).estimate(context, request)).thenReturn(estimation);
+        when(module.getMock(Adviser.class).advise(context, request, estimation)).thenReturn(advice);
+        when(module.getMock(Instructor.class).instruct(any(), any(), any())).thenReturn(instructions);
+
+        // Expired after instruct
+        doReturn(false).when(target).isExpired(any(), any(), any(), eq("Estimate"));
+        doReturn(false).when(target).isExpired(any(), any(), any(), eq("Advise"));
+        doReturn(true).when(target).isExpired(any(), any(), any(), eq("Instruct"));
+        target.process(now, future, site, instrument);
+        verify(module.getMock(Instructor.class)).instruct(same(context), any(), same(advice));
+        verifyZeroInteractions(module.getMock(Agent.class));
+        doCallRealMethod().when(target).awaitReconcile(same(request), any());
+        assertEquals(target.awaitReconcile(request, Instant.now()), reconciled); // Retained
+
+        // Expired after estimate
+        doReturn(true).when(target).isExpired(any(), any(), any(), eq("Estimate"));
+        target.process(now, future, site, instrument);
+        verify(module.getMock(Estimator.class), times(2)).estimate(context, request);
+        verify(module.getMock(Adviser.class)).advise(context, request, estimation);
+        verifyZeroInteractions(module.getMock(Agent.class));
+
+    }
+
+    @Test
+    public void testIsExpired() {
+
+        Request request = module.createRequestBuilder().build();
+        Instant start = Instant.EPOCH; // Independent of the request times.
+        String[] labels = {"site", "instrument", "stage"};
+        String[] values = {request.getSite(), request.getInstrument(), "Test"};
+
+        // Within budget (5 millis)
+        assertFalse(target.isExpired(start, start, request, "Test"));
+        assertFalse(target.isExpired(start, start.plusMillis(5), request, "Test"));
+        assertNull(registry.getSampleValue("cryptotrader_pipeline_abort_total", labels, values));
+
+        // Exceeded
+        assertTrue(target.isExpired(start, start.plusMillis(6), request, "Test"));
+        assertEquals(registry.getSampleValue("cryptotrader_pipeline_abort_total", labels, values), 1.0);
+
+    }
+
+    @Test
+    public void testProcess_Virtual() throws Exception {
+
+        Request request = module.createRequestBuilder().build();
+        Instant now = Instant.parse("2018-04-01T00:00:00Z"); // Replayed in the past.
+        Instant deadline = now.plusSeconds(60);
+        request = Request.build(request).currentTime(now).targetTime(deadline).build();
+        Estimation estimation = Estimation.builder().build();
+        Advice advice = Advice.builder().build();
+        List<Instruction> instructions = Collections.emptyList();
+
+        doReturn(request).when(target).createRequest(now, deadline, request.getSite(), request.getInstrument());
+        when(module.getMock(Estimator.class).estimate(context, request)).thenReturn(estimation);
+        when(module.getMock(Adviser.class).advise(context, request, estimation)).thenReturn(advice);
+        when(module.getMock(Instructor.class).instruct(context, request, advice)).thenReturn(instructions);
+
+        target.process(now, deadline, request.getSite(), request.getInstrument());
+
+        verify(module.getMock(Agent.class)).manage(context, request, instructions);
+        verify(module.getMock(Agent.class)).reconcile(same(context), same(request), any());
+
+    }
+
+    @Test
+    public void testAwaitReconcile() throws Exception {
+
+        Request request = module.createRequestBuilder().build();
+        Instruction instruction = Instruction.CreateInstruction.builder().build();
+        Map<Instruction, String> results = singletonMap(instruction, "uid");
+
+        // Nothing pending
+        assertEquals(target.awaitReconcile(request, Instant.now()), emptyMap());
+
+        // Nothing to reconcile
+        target.deferReconcile(request, emptyMap());
+        assertEquals(target.awaitReconcile(request, Instant.now()), emptyMap());
+        verifyZeroInteractions(module.getMock(Agent.class));
+
+        // Failure
+        when(module.getMock(Agent.class).reconcile(context, request, results)).thenThrow(new RuntimeException("test"));
+        target.deferReconcile(request, results);
+        assertEquals(target.awaitReconcile(request, Instant.now()), emptyMap());
+
+        // Null results
+        doReturn(null).when(module.getMock(Agent.class)).reconcile(context, request, results);
+        target.deferReconcile(request, results);
+        assertEquals(target.awaitReconcile(request, Instant.now()), emptyMap());
+
+    }
+
+    @Test(timeOut = 5000)
+    public void testAwaitReconcile_Interrupted() throws Exception {
+
+        Request request = module.createRequestBuilder().build();
+        request = Request.build(request).targetTime(request.getCurrentTime().plusSeconds(30)).build();
+        Instruction instruction = Instruction.CreateInstruction.builder().build();
+        Map<Instruction, String> results = singletonMap(instruction, "uid");
+        CountDownLatch latch = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        when(module.getMock(ExecutorFactory.class).get(any(), anyInt())).thenReturn(executor);
+        when(module.getMock(Agent.class).reconcile(context, request, results)).thenAnswer(i -> {
+            latch.await();
+            return singletonMap(instruction, TRUE);
+        });
+
+        try {
+
+            target = new PipelineImpl(module.createInjector());
+            target.deferReconcile(request, results);
+
+            Thread.currentThread().interrupt();
+            assertNull(target.awaitReconcile(request, Instant.now()));
+            assertTrue(Thread.interrupted());
+
+            // Retained after interruption
+            latch.countDown();
+            assertEquals(target.awaitReconcile(request, Instant.now()), singletonMap(instruction, TRUE));
+            assertEquals(target.awaitReconcile(request, Instant.now()), emptyMap());
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+    }
+
+    @Test(timeOut = 5000)
+    public void testAwaitReconcile_Timeout() throws Exception {
+
+        Request request = module.createRequestBuilder().build();
+        request = Request.build(request).targetTime(request.getCurrentTime().plusMillis(50)).build();
+        Instruction instruction = Instruction.CreateInstruction.builder().build();
+        Map<Instruction, String> results = singletonMap(instruction, "uid");
+        CountDownLatch latch = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        when(module.getMock(ExecutorFactory.class).get(any(), anyInt())).thenReturn(executor);
+        when(module.getMock(Agent.class).reconcile(context, request, results)).thenAnswer(i -> {
+            latch.await();
+            return singletonMap(instruction, TRUE);
+        });
+
+        try {
+
+            target = new PipelineImpl(module.createInjector());
+            target.deferReconcile(request, results);
+
+            // Bounded by the target time
+            assertNull(target.awaitReconcile(request, Instant.now()));
+
+            // Retained after timeout, for the next cycle
+            Request next = Request.build(request).targetTime(request.getCurrentTime().plusSeconds(30)).build();
+            latch.countDown();
+            assertEquals(target.awaitReconcile(next, Instant.now()), singletonMap(instruction, TRUE));
+            assertEquals(target.awaitReconcile(next, Instant.now()), emptyMap());
+
+        } finally {
+            executor.shutdownNow();
+        }
+
     }
 
     @Test
@@ -102,9 +354,11 @@ public class PipelineImplTest {
         Instant currentTime = Instant.now();
         Instant targetTime = currentTime.plus(Duration.ofMillis(5L));
         PropertyManager manager = module.getMock(PropertyManager.class);
+        AtomicLong revision = new AtomicLong();
 
         Runnable initializer = () -> {
             int count = 0;
+            when(manager.getRevision()).thenReturn(revision.incrementAndGet());
             when(manager.getTradingSpread(any(), any())).thenReturn(valueOf(++count));
             when(manager.getTradingSpreadAsk(any(), any())).thenReturn(valueOf(++count));
             when(manager.getTradingSpreadBid(any(), any())).thenReturn(valueOf(++count));
@@ -161,6 +415,7 @@ public class PipelineImplTest {
         assertEquals(request.getAversionProducts(), singletonList(new Composite("as", "ap")));
         assertEquals(request.getHedgeProducts(), singletonList(new Composite("hs", "hp")));
         assertEquals(request.getEstimationAversion(), valueOf(19));
+        assertEquals(request.getReconciled(), emptyMap());
 
         // Validate copy
         Request copy = Request.build(request).build();
@@ -270,4 +525,51 @@ public class PipelineImplTest {
 
     }
 
+    @Test
+    public void testCreateRequest_Template() {
+
+        Instant now = Instant.now();
+        Request template = module.createRequestBuilder().currentTime(Instant.EPOCH).targetTime(Instant.EPOCH).build();
+        doReturn(template).when(target).compileRequest("s", "i");
+        doReturn(null).when(target).compileRequest("s", "x");
+
+        // Compiled
+        Request request = target.createRequest(now, now.plusMillis(1), "s", "i");
+        assertEquals(request.getSite(), "s");
+        assertEquals(request.getInstrument(), "i");
+        assertEquals(request.getCurrentTime(), now);
+        assertEquals(request.getTargetTime(), now.plusMillis(1));
+        assertSame(request.getTradingSpread(), template.getTradingSpread());
+        verify(target, times(1)).compileRequest("s", "i");
+
+        // Cached
+        request = target.createRequest(now.plusMillis(2), now.plusMillis(3), "s", "i");
+        assertEquals(request.getCurrentTime(), now.plusMillis(2));
+        assertEquals(request.getTargetTime(), now.plusMillis(3));
+        verify(target, times(1)).compileRequest("s", "i");
+
+        // Invalid template cached
+        assertNull(target.createRequest(now, now.plusMillis(1), "s", "x"));
+        assertNull(target.createRequest(now, now.plusMillis(1), "s", "x"));
+        verify(target, times(1)).compileRequest("s", "x");
+
+        // Override
+        when(module.getMock(PropertyManager.class).getRevision()).thenReturn(1L);
+        assertNotNull(target.createRequest(now, now.plusMillis(1), "s", "i"));
+        assertNotNull(target.createRequest(now, now.plusMillis(1), "s", "i"));
+        verify(target, times(2)).compileRequest("s", "i");
+
+        // Reload
+        when(module.getMock(ConfigurationProvider.class).getRevision()).thenReturn(1L);
+        assertNotNull(target.createRequest(now, now.plusMillis(1), "s", "i"));
+        assertNotNull(target.createRequest(now, now.plusMillis(1), "s", "i"));
+        verify(target, times(3)).compileRequest("s", "i");
+
+        // Null timestamps
+        assertNull(target.createRequest(null, now, "s", "i"));
+        assertNull(target.createRequest(now, null, "s", "i"));
+        verify(target, times(3)).compileRequest("s", "i");
+
+    }
+
 }
@@ -0,0 +1,400 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.framework.impl;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.core.PropertyManager;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.Key;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.AmendInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Trade;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.MarketJournal.Record;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.*;
+
+import static com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.MarketJournal.Type.*;
+import static java.math.BigDecimal.ONE;
+import static java.math.BigDecimal.TEN;
+import static java.math.BigDecimal.ZERO;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+/**
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+public class RecordingContextTest {
+
+    private RecordingContext target;
+
+    private Context delegate;
+
+    private PropertyManager propertyManager;
+
+    private MarketJournal journal;
+
+    private Key key;
+
+    @BeforeMethod
+    public void setUp() {
+
+        delegate = mock(Context.class);
+
+        propertyManager = mock(PropertyManager.class);
+
+        journal = mock(MarketJournal.class);
+
+        key = Key.builder().site("s").instrument("i").timestamp(Instant.ofEpochMilli(1234)).build();
+
+        when(propertyManager.getRecorderActive("s", "i")).thenReturn(true);
+
+        when(journal.append(any())).thenReturn(true);
+
+        target = new RecordingContext(delegate, propertyManager, journal);
+
+    }
+
+    private List<Record> captureRecords(int count) {
+
+        ArgumentCaptor<Record> captor = ArgumentCaptor.forClass(Record.class);
+
+        verify(journal, times(count)).append(captor.capture());
+
+        return captor.getAllValues();
+
+    }
+
+    private static Trade createTrade(long millis, BigDecimal price, BigDecimal size) {
+
+        Trade trade = mock(Trade.class);
+        when(trade.getTimestamp()).thenReturn(Instant.ofEpochMilli(millis));
+        when(trade.getPrice()).thenReturn(price);
+        when(trade.getSize()).thenReturn(size);
+        return trade;
+
+    }
+
+    @Test
+    public void testGet() throws Exception {
+
+        when(delegate.get()).thenReturn("test");
+
+        assertEquals(target.get(), "test");
+
+        assertSame(target.getDelegate(), delegate);
+
+        target.close();
+
+        verify(delegate).close();
+
+    }
+
+    @Test
+    public void testIsActive() {
+
+        assertTrue(target.isActive(key));
+
+        assertFalse(target.isActive(null));
+
+        assertFalse(target.isActive(Key.builder().site("s").build()));
+
+        assertFalse(target.isActive(Key.builder().instrument("i").build()));
+
+        // Cached for the same timestamp
+        when(propertyManager.getRecorderActive("s", "i")).thenReturn(false);
+        assertTrue(target.isActive(key));
+        verify(propertyManager).getRecorderActive("s", "i");
+
+        key = Key.build(key).timestamp(Instant.ofEpochMilli(2345)).build();
+        assertFalse(target.isActive(key));
+
+        when(propertyManager.getRecorderActive("s", "i")).thenReturn(null);
+        assertFalse(target.isActive(Key.build(key).timestamp(Instant.ofEpochMilli(3456)).build()));
+
+        // Not cached without timestamp
+        when(propertyManager.getRecorderActive("s", "i")).thenReturn(true);
+        assertTrue(target.isActive(Key.build(key).timestamp(null).build()));
+        when(propertyManager.getRecorderActive("s", "i")).thenReturn(false);
+        assertFalse(target.isActive(Key.build(key).timestamp(null).build()));
+        verify(propertyManager, times(5)).getRecorderActive("s", "i");
+
+    }
+
+    @Test
+    public void testGetBestAskPrice() {
+
+        when(delegate.getBestAskPrice(key)).thenReturn(TEN, TEN, ONE, null);
+
+        assertEquals(target.getBestAskPrice(key), TEN);
+        assertEquals(target.getBestAskPrice(key), TEN);
+        assertEquals(target.getBestAskPrice(key), ONE);
+        assertNull(target.getBestAskPrice(key));
+
+        List<Record> records = captureRecords(2);
+        assertEquals(records.get(0).getType(), ASK_PRICE);
+        assertEquals(records.get(0).getTime(), key.getTimestamp());
+        assertEquals(records.get(0).getSite(), "s");
+        assertEquals(records.get(0).getInstrument(), "i");
+        assertEquals(records.get(0).getValues(), singletonList(TEN));
+        assertEquals(records.get(1).getValues(), singletonList(ONE));
+
+    }
+
+    @Test
+    public void testGetBestAskPrice_Inactive() {
+
+        when(propertyManager.getRecorderActive("s", "i")).thenReturn(false);
+
+        when(delegate.getBestAskPrice(key)).thenReturn(TEN);
+
+        assertEquals(target.getBestAskPrice(key), TEN);
+
+        verifyNoMoreInteractions(journal);
+
+    }
+
+    @Test
+    public void testGetDecimals() {
+
+        when(delegate.getBestBidPrice(key)).thenReturn(new BigDecimal("1"));
+        when(delegate.getBestAskSize(key)).thenReturn(new BigDecimal("2"));
+        when(delegate.getBestBidSize(key)).thenReturn(new BigDecimal("3"));
+        when(delegate.getLastPrice(key)).thenReturn(new BigDecimal("4"));
+        when(delegate.getMidPrice(key)).thenReturn(new BigDecimal("5"));
+
+        assertEquals(target.getBestBidPrice(key), new BigDecimal("1"));
+        assertEquals(target.getBestAskSize(key), new BigDecimal("2"));
+        assertEquals(target.getBestBidSize(key), new BigDecimal("3"));
+        assertEquals(target.getLastPrice(key), new BigDecimal("4"));
+        assertEquals(target.getMidPrice(key), new BigDecimal("5"));
+
+        List<Record> records = captureRecords(4);
+        assertEquals(records.get(0).getType(), BID_PRICE);
+        assertEquals(records.get(1).getType(), ASK_SIZE);
+        assertEquals(records.get(2).getType(), BID_SIZE);
+        assertEquals(records.get(3).getType(), LAST_PRICE);
+
+    }
+
+    @Test
+    public void testGetPrices() {
+
+        Map<BigDecimal, BigDecimal> asks = new TreeMap<>();
+        asks.put(new BigDecimal("101"), new BigDecimal("1"));
+        asks.put(new BigDecimal("102"), new BigDecimal("2"));
+
+        when(delegate.getAskPrices(key)).thenReturn(asks);
+        when(delegate.getBidPrices(key)).thenReturn(singletonMap(new BigDecimal("99"), new BigDecimal("3")));
+
+        assertSame(target.getAskPrices(key), asks);
+        assertSame(target.getAskPrices(key), asks); // Unchanged
+
+        asks.put(new BigDecimal("103"), new BigDecimal("4"));
+        assertSame(target.getAskPrices(key), asks); // Mutated in-place
+
+        assertNotNull(target.getBidPrices(key));
+
+        List<Record> records = captureRecords(3);
+        assertEquals(records.get(0).getType(), ASK_BOOK);
+        assertEquals(records.get(0).getValues(), Arrays.asList(
+                new BigDecimal("101"), new BigDecimal("1"), new BigDecimal("102"), new BigDecimal("2")));
+        assertEquals(records.get(1).getType(), ASK_BOOK);
+        assertEquals(records.get(1).getValues().size(), 6);
+        assertEquals(records.get(2).getType(), BID_BOOK);
+        assertEquals(records.get(2).getValues(), Arrays.asList(new BigDecimal("99"), new BigDecimal("3")));
+
+    }
+
+    @Test
+    public void testListTrades() {
+
+        Trade t1 = createTrade(1000, new BigDecimal("100"), new BigDecimal("0.1"));
+        Trade t2 = createTrade(2000, new BigDecimal("101"), new BigDecimal("0.2"));
+        Trade t3 = createTrade(3000, new BigDecimal("102"), new BigDecimal("0.3"));
+
+        List<Trade> first = Arrays.asList(t1, t2);
+        List<Trade> second = Arrays.asList(t1, t2, t3);
+
+        when(delegate.listTrades(key, null)).thenReturn(first, second, null);
+
+        assertSame(target.listTrades(key, null), first);
+        assertSame(target.listTrades(key, null), second);
+        assertNull(target.listTrades(key, null));
+
+        List<Record> records = captureRecords(3);
+        assertEquals(records.get(0).getType(), TRADE);
+        assertEquals(records.get(0).getTime(), Instant.ofEpochMilli(1000));
+        assertEquals(records.get(0).getValues(), Arrays.asList(new BigDecimal("100"), new BigDecimal("0.1")));
+        assertEquals(records.get(1).getTime(), Instant.ofEpochMilli(2000));
+        assertEquals(records.get(2).getTime(), Instant.ofEpochMilli(3000));
+        assertEquals(records.get(2).getValues(), Arrays.asList(new BigDecimal("102"), new BigDecimal("0.3")));
+
+    }
+
+    @Test
+    public void testListTrades_SameTime() {
+
+        Trade t1 = createTrade(1000, new BigDecimal("100"), new BigDecimal("0.1"));
+        Trade t2 = createTrade(2000, new BigDecimal("101"), new BigDecimal("0.2"));
+        Trade t3 = createTrade(2000, new BigDecimal("101"), new BigDecimal("0.2"));
+        Trade t4 = createTrade(2000, new BigDecimal("102"), new BigDecimal("0.3"));
+        Trade t5 = createTrade(2000, new BigDecimal("101"), new BigDecimal("0.2"));
+        Trade t6 = createTrade(3000, new BigDecimal("103"), new BigDecimal("0.4"));
+
+        // Newest first, as listed by the sites.
+        List<Trade> first = Arrays.asList(t2, t1);
+        List<Trade> second = Arrays.asList(t4, t3, t2, t1);
+        List<Trade> third = Arrays.asList(t6, t5, t4, t3, t2, t1);
+
+        when(delegate.listTrades(key, null)).thenReturn(first, second, second, third);
+
+        assertSame(target.listTrades(key, null), first);
+        assertSame(target.listTrades(key, null), second);
+        assertSame(target.listTrades(key, null), second);
+        assertSame(target.listTrades(key, null), third);
+
+        List<Record> records = captureRecords(6);
+        assertEquals(records.get(0).getTime(), Instant.ofEpochMilli(2000));
+        assertEquals(records.get(1).getTime(), Instant.ofEpochMilli(1000));
+        assertEquals(records.get(2).getValues(), Arrays.asList(new BigDecimal("102"), new BigDecimal("0.3")));
+        assertEquals(records.get(3).getValues(), Arrays.asList(new BigDecimal("101"), new BigDecimal("0.2")));
+        assertEquals(records.get(4).getTime(), Instant.ofEpochMilli(3000));
+        assertEquals(records.get(5).getTime(), Instant.ofEpochMilli(2000));
+        assertEquals(records.get(5).getValues(), Arrays.asList(new BigDecimal("101"), new BigDecimal("0.2")));
+
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+
+        Trade t1 = createTrade(1000, new BigDecimal("100"), new BigDecimal("0.1"));
+
+        when(delegate.getBestAskPriceAsync(key)).thenReturn(completedFuture(TEN));
+        when(delegate.getBidPricesAsync(key)).thenReturn(completedFuture(singletonMap(ONE, TEN)));
+        when(delegate.listTradesAsync(key, null)).thenReturn(completedFuture(singletonList(t1)));
+        when(delegate.getFundingPositionAsync(key)).thenReturn(completedFuture(ONE));
+
+        assertEquals(target.getBestAskPriceAsync(key).get(), TEN);
+        assertEquals(target.getBidPricesAsync(key).get(), singletonMap(ONE, TEN));
+        assertEquals(target.listTradesAsync(key, null).get(), singletonList(t1));
+        assertEquals(target.getFundingPositionAsync(key).get(), ONE);
+        assertNull(target.getBestBidPriceAsync(key)); // Not stubbed
+
+        List<Record> records = captureRecords(3);
+        assertEquals(records.get(0).getType(), ASK_PRICE);
+        assertEquals(records.get(1).getType(), BID_BOOK);
+        assertEquals(records.get(2).getType(), TRADE);
+
+    }
+
+    @Test
+    public void testCreateOrders() {
+
+        CreateInstruction i1 = CreateInstruction.builder().price(TEN).size(ONE).build();
+        Set<CreateInstruction> instructions = singleton(i1);
+
+        when(delegate.createOrders(key, instructions)).thenReturn(singletonMap(i1, "id1"));
+
+        assertEquals(target.createOrders(key, instructions), singletonMap(i1, "id1"));
+
+        List<Record> records = captureRecords(1);
+        assertEquals(records.get(0).getType(), ORDER_CREATE);
+        assertEquals(records.get(0).getId(), "id1");
+        assertEquals(records.get(0).getValues(), Arrays.asList(TEN, ONE));
+
+    }
+
+    @Test
+    public void testCancelOrders() {
+
+        CancelInstruction i1 = CancelInstruction.builder().id("id1").build();
+        CancelInstruction i2 = CancelInstruction.builder().id("id2").build();
+        Set<CancelInstruction> instructions = new LinkedHashSet<>(Arrays.asList(i1, i2));
+
+        Map<CancelInstruction, String> results = new LinkedHashMap<>();
+        results.put(i1, "id1");
+        results.put(i2, null);
+        when(delegate.cancelOrders(key, instructions)).thenReturn(results);
+
+        assertSame(target.cancelOrders(key, instructions), results);
+
+        List<Record> records = captureRecords(2);
+        assertEquals(records.get(0).getType(), ORDER_CANCEL);
+        assertEquals(records.get(0).getId(), "id1");
+        assertEquals(records.get(0).getValues(), singletonList(ONE));
+        assertEquals(records.get(1).getId(), "id2");
+        assertEquals(records.get(1).getValues(), singletonList(ZERO));
+
+    }
+
+    @Test
+    public void testAmendOrders() {
+
+        AmendInstruction i1 = AmendInstruction.builder().id("id1").price(TEN).size(ONE).build();
+        AmendInstruction i2 = AmendInstruction.builder().id("id2").price(ONE).build();
+        AmendInstruction i3 = AmendInstruction.builder().price(TEN).size(ONE).build();
+        Set<AmendInstruction> instructions = new LinkedHashSet<>(Arrays.asList(i1, i2, i3));
+
+        Map<AmendInstruction, String> results = new LinkedHashMap<>();
+        results.put(i1, "id1");
+        results.put(i2, null);
+        results.put(i3, null);
+        when(delegate.amendOrders(key, instructions)).thenReturn(results);
+
+        assertSame(target.amendOrders(key, instructions), results);
+
+        List<Record> records = captureRecords(2);
+        assertEquals(records.get(0).getType(), ORDER_AMEND);
+        assertEquals(records.get(0).getId(), "id1");
+        assertEquals(records.get(0).getValues(), Arrays.asList(TEN, ONE));
+        assertEquals(records.get(1).getId(), "id2");
+        assertEquals(records.get(1).getValues(), Arrays.asList(ONE, null));
+
+        // Unsupported
+        reset(journal);
+        when(delegate.amendOrders(key, instructions)).thenReturn(null);
+        assertNull(target.amendOrders(key, instructions));
+        verifyNoMoreInteractions(journal);
+
+    }
+
+    @Test
+    public void testDelegate() {
+
+        target.getState(key);
+        target.getInstrumentCurrency(key);
+        target.getFundingCurrency(key);
+        target.getInstrumentPosition(key);
+        target.getFundingPosition(key);
+        target.getCommissionRate(key);
+        target.isMarginable(key);
+        target.getExpiry(key);
+        target.findOrder(key, "id");
+        target.listActiveOrders(key);
+        target.listExecutions(key);
+
+        verify(delegate).getState(key);
+        verify(delegate).getInstrumentCurrency(key);
+        verify(delegate).getFundingCurrency(key);
+        verify(delegate).getInstrumentPosition(key);
+        verify(delegate).getFundingPosition(key);
+        verify(delegate).getCommissionRate(key);
+        verify(delegate).isMarginable(key);
+        verify(delegate).getExpiry(key);
+        verify(delegate).findOrder(key, "id");
+        verify(delegate).listActiveOrders(key);
+        verify(delegate).listExecutions(key);
+        verifyNoMoreInteractions(journal);
+
+    }
+
+}
@@ -2,8 +2,13 @@ package com.after_sunrise.cryptocurrency.cryptotrader.framework.impl;
 
 import com.after_sunrise.cryptocurrency.cryptotrader.TestModule;
 import com.after_sunrise.cryptocurrency.cryptotrader.core.Composite;
+import com.after_sunrise.cryptocurrency.cryptotrader.core.ExecutorFactory;
 import com.after_sunrise.cryptocurrency.cryptotrader.core.PropertyManager;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.Key;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Pipeline;
+import io.prometheus.client.CollectorRegistry;
+import org.mockito.ArgumentCaptor;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -12,9 +17,15 @@ import java.time.Instant;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import static java.util.Arrays.asList;
+import static java.util.Collections.emptyList;
 import static java.util.Collections.singletonList;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.mockito.Mockito.*;
 import static org.testng.Assert.*;
 
@@ -30,6 +41,8 @@ public class TraderImplTest {
 
     private Pipeline pipeline;
 
+    private CollectorRegistry registry;
+
     @BeforeMethod
     public void setUp() throws Exception {
 
@@ -37,6 +50,8 @@ public class TraderImplTest {
 
         pipeline = module.getMock(Pipeline.class);
 
+        registry = module.setMock(CollectorRegistry.class, new CollectorRegistry());
+
         target = spy(new TraderImpl(module.createInjector()));
 
     }
@@ -44,6 +59,8 @@ public class TraderImplTest {
     @Test
     public void testControllable() throws Exception {
 
+        verify(module.getMock(Context.class)).addListener(any(TraderImpl.class));
+
         assertFalse(target.isClosed());
 
         target.trigger();
@@ -62,6 +79,8 @@ public class TraderImplTest {
         target.close();
         assertTrue(target.isClosed());
 
+        verify(module.getMock(Context.class), times(2)).removeListener(target);
+
     }
 
     @Test(timeOut = 5000)
@@ -93,6 +112,33 @@ public class TraderImplTest {
 
     }
 
+    @Test(timeOut = 5000)
+    public void testTrade_Isolated() throws Exception {
+
+        Instant t = Instant.now();
+        when(module.getMock(PropertyManager.class).getNow()).thenReturn(t);
+        when(module.getMock(PropertyManager.class).getTradingInterval()).thenReturn(Duration.ofMillis(50));
+        when(module.getMock(PropertyManager.class).getTradingIsolated()).thenReturn(true);
+
+        AtomicInteger count = new AtomicInteger(2);
+
+        doAnswer(i -> {
+
+            if (count.decrementAndGet() == 0) {
+                target.close();
+            }
+
+            return null;
+
+        }).when(target).processLoops();
+
+        target.trade();
+
+        verify(target, times(2)).processLoops();
+        verify(target, never()).processPipeline(any());
+
+    }
+
     @Test(timeOut = 5000)
     public void testTrade_RuntimeException() throws Exception {
 
@@ -195,6 +241,7 @@ public class TraderImplTest {
         String instrument = "i";
 
         List<Composite> targets = singletonList(new Composite(site, instrument));
+        when(module.getMock(PropertyManager.class).getNow()).thenReturn(now);
         when(module.getMock(PropertyManager.class).getTradingTargets()).thenReturn(targets);
         when(module.getMock(PropertyManager.class).getTradingInterval()).thenReturn(Duration.ofMillis(123));
         when(module.getMock(PropertyManager.class).getTradingFrequency(site, instrument)).thenReturn(3);
@@ -228,4 +275,393 @@ public class TraderImplTest {
 
     }
 
+    @Test(timeOut = 5000)
+    public void testProcessLoops() {
+
+        Composite c1 = new Composite("s", "i1");
+        Composite c2 = new Composite("s", "i2");
+        ScheduledExecutorService scheduler = module.getMock(ScheduledExecutorService.class);
+        when(module.getMock(PropertyManager.class).getTradingTargets()).thenReturn(asList(c1, c2));
+        when(module.getMock(PropertyManager.class).getTradingInterval()).thenReturn(Duration.ofMillis(100));
+        when(module.getMock(PropertyManager.class).getTradingFrequency(any(), any())).thenReturn(3);
+        when(module.getMock(PropertyManager.class).getTradingSeed("s", "i1")).thenReturn(0);
+        when(module.getMock(PropertyManager.class).getTradingSeed("s", "i2")).thenReturn(4);
+
+        // Started
+        target.processLoops();
+        verify(target).scheduleLoop(eq(c1), any(), eq(0L));
+        verify(target).scheduleLoop(eq(c2), any(), eq(200L));
+        verify(scheduler).schedule(any(Runnable.class), eq(0L), eq(MILLISECONDS));
+        verify(scheduler).schedule(any(Runnable.class), eq(200L), eq(MILLISECONDS));
+
+        // Already looping
+        target.processLoops();
+        verify(scheduler, times(2)).schedule(any(Runnable.class), anyLong(), any());
+
+        // Rejected
+        target.processLoop(c1); // Stopped, since not isolated.
+        doThrow(new RejectedExecutionException("test")).when(scheduler).schedule(
+                any(Runnable.class), anyLong(), any());
+        target.processLoops();
+        target.processLoops();
+        verify(scheduler, times(4)).schedule(any(Runnable.class), anyLong(), any());
+
+    }
+
+    @Test
+    public void testScheduleLoop() {
+
+        ExecutorService executor = mock(ExecutorService.class);
+        ScheduledExecutorService scheduler = module.getMock(ScheduledExecutorService.class);
+        when(module.getMock(ExecutorFactory.class).get(any(Class.class), anyInt())).thenReturn(executor);
+        target = spy(new TraderImpl(module.createInjector()));
+
+        Composite composite = new Composite("s", "i");
+        TraderImpl.Cycle cycle = new TraderImpl.Cycle();
+        cycle.looping.set(true);
+        target.scheduleLoop(composite, cycle, 100L);
+
+        // Handed over to the executor, instead of processed on the scheduler.
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).schedule(captor.capture(), eq(100L), eq(MILLISECONDS));
+        captor.getValue().run();
+        verify(executor).execute(any(Runnable.class));
+        verify(target, never()).processLoop(any());
+        assertTrue(cycle.looping.get());
+
+        // Rejected by the executor
+        doThrow(new RejectedExecutionException("test")).when(executor).execute(any(Runnable.class));
+        captor.getValue().run();
+        assertFalse(cycle.looping.get());
+
+    }
+
+    @Test(timeOut = 5000)
+    public void testProcessLoop() {
+
+        Instant now = Instant.now();
+        Composite composite = new Composite("s", "i");
+        ScheduledExecutorService scheduler = module.getMock(ScheduledExecutorService.class);
+        when(module.getMock(PropertyManager.class).getNow()).thenReturn(now, now.plusMillis(100));
+        when(module.getMock(PropertyManager.class).getTradingIsolated()).thenReturn(true);
+        when(module.getMock(PropertyManager.class).getTradingTargets()).thenReturn(singletonList(composite));
+        when(module.getMock(PropertyManager.class).getTradingInterval()).thenReturn(Duration.ofMillis(150));
+        when(module.getMock(PropertyManager.class).getTradingFrequency("s", "i")).thenReturn(2);
+        when(module.getMock(PropertyManager.class).getTradingSeed("s", "i")).thenReturn(0);
+
+        // Unknown
+        target.processLoop(composite);
+        verifyZeroInteractions(pipeline);
+
+        // Within period
+        target.processLoops();
+        target.processLoop(composite);
+        verify(pipeline).process(now, now.plusMillis(150 * 2), "s", "i");
+        verify(scheduler).schedule(any(Runnable.class), eq(200L), eq(MILLISECONDS));
+
+        // Overrun
+        when(module.getMock(PropertyManager.class).getNow()).thenReturn(now, now.plusMillis(500));
+        doThrow(new RuntimeException("test")).when(pipeline).process(any(), any(), any(), any());
+        target.processLoop(composite);
+        verify(pipeline, times(2)).process(any(), any(), eq("s"), eq("i"));
+        verify(scheduler, times(2)).schedule(any(Runnable.class), eq(0L), eq(MILLISECONDS));
+
+        // Not a target
+        when(module.getMock(PropertyManager.class).getTradingTargets()).thenReturn(emptyList());
+        target.processLoop(composite);
+        verify(pipeline, times(2)).process(any(), any(), eq("s"), eq("i"));
+
+        // Restarted
+        when(module.getMock(PropertyManager.class).getTradingTargets()).thenReturn(singletonList(composite));
+        target.processLoops();
+        verify(scheduler, times(3)).schedule(any(Runnable.class), eq(0L), eq(MILLISECONDS));
+
+        // Disabled
+        when(module.getMock(PropertyManager.class).getTradingIsolated()).thenReturn(false);
+        target.processLoop(composite);
+        verify(pipeline, times(2)).process(any(), any(), eq("s"), eq("i"));
+
+        // Closed
+        when(module.getMock(PropertyManager.class).getTradingIsolated()).thenReturn(true);
+        target.processLoops();
+        target.close();
+        target.processLoop(composite);
+        verify(pipeline, times(2)).process(any(), any(), eq("s"), eq("i"));
+        verify(scheduler, times(4)).schedule(any(Runnable.class), eq(0L), eq(MILLISECONDS));
+
+    }
+
+    @Test(timeOut = 5000)
+    public void testProcessLoop_Stale() {
+
+        Instant now = Instant.now();
+        Composite composite = new Composite("s", "i");
+        ScheduledExecutorService scheduler = module.getMock(ScheduledExecutorService.class);
+        when(module.getMock(PropertyManager.class).getNow()).thenReturn(now, now.plusMillis(100));
+        when(module.getMock(PropertyManager.class).getTradingIsolated()).thenReturn(true);
+        when(module.getMock(PropertyManager.class).getTradingTargets()).thenReturn(singletonList(composite));
+        when(module.getMock(PropertyManager.class).getTradingInterval()).thenReturn(Duration.ofMillis(150));
+        when(module.getMock(PropertyManager.class).getTradingFrequency("s", "i")).thenReturn(2);
+        when(module.getMock(PropertyManager.class).getTradingSeed("s", "i")).thenReturn(0);
+
+        // Due at +300
+        target.processLoops();
+        target.processLoop(composite);
+        verify(pipeline).process(now, now.plusMillis(300), "s", "i");
+        verify(scheduler).schedule(any(Runnable.class), eq(200L), eq(MILLISECONDS));
+
+        // Started late, beyond the target (+600) of the due time.
+        when(module.getMock(PropertyManager.class).getNow()).thenReturn(now.plusMillis(700));
+        target.processLoop(composite);
+        verify(pipeline).process(any(), any(), any(), any());
+        verify(scheduler).schedule(any(Runnable.class), eq(300L), eq(MILLISECONDS));
+
+        String[] labels = {"site", "instrument", "reason"};
+        assertEquals(registry.getSampleValue("cryptotrader_trader_shed_total", labels, new String[]{"s", "i", "stale"}), 1.0);
+
+    }
+
+    @Test(timeOut = 5000)
+    public void testProcessCycle() {
+
+        Instant now = Instant.now();
+        Composite composite = new Composite("s", "i");
+        when(module.getMock(PropertyManager.class).getNow()).thenReturn(now);
+
+        // Overlapping
+        doAnswer(i -> {
+            assertFalse(target.processCycle(composite, now, now.plusMillis(1)));
+            return null;
+        }).when(pipeline).process(now, now.plusMillis(1), "s", "i");
+
+        assertTrue(target.processCycle(composite, now, now.plusMillis(1)));
+        verify(pipeline).process(now, now.plusMillis(1), "s", "i");
+        verify(target, never()).scheduleSignal(any(), any());
+        assertEquals(registry.getSampleValue("cryptotrader_trader_shed_total",
+                new String[]{"site", "instrument", "reason"}, new String[]{"s", "i", "overlap"}), 1.0);
+
+        // Pending signal
+        doAnswer(i -> {
+            target.onMarketChange(Key.builder().site("s").instrument("i").build());
+            return null;
+        }).when(pipeline).process(now, now.plusMillis(2), "s", "i");
+        when(module.getMock(PropertyManager.class).getTradingSpacing("s", "i")).thenReturn(Duration.ofMillis(10));
+        when(module.getMock(PropertyManager.class).getTradingTargets()).thenReturn(singletonList(composite));
+
+        assertTrue(target.processCycle(composite, now, now.plusMillis(2)));
+        verify(pipeline).process(now, now.plusMillis(2), "s", "i");
+        verify(target, times(2)).scheduleSignal(eq(composite), any());
+
+        // Metrics
+        String[] labels = {"site", "instrument"};
+        String[] values = {"s", "i"};
+        assertEquals(registry.getSampleValue("cryptotrader_trader_interval_milliseconds", labels, values), 2.0);
+        assertEquals(registry.getSampleValue("cryptotrader_trader_overrun_total", labels, values), null);
+
+        // Overrun
+        doNothing().when(pipeline).process(now, now.plusMillis(3), "s", "i");
+        when(module.getMock(PropertyManager.class).getNow()).thenReturn(now.plusMillis(4));
+        assertTrue(target.processCycle(composite, now, now.plusMillis(3)));
+        assertEquals(registry.getSampleValue("cryptotrader_trader_interval_milliseconds", labels, values), 3.0);
+        assertEquals(registry.getSampleValue("cryptotrader_trader_overrun_total", labels, values), 1.0);
+
+    }
+
+    @Test(timeOut = 5000)
+    public void testProcessPipeline_Stale() throws InterruptedException {
+
+        Instant now = Instant.now();
+        Composite composite = new Composite("s", "i");
+        when(module.getMock(PropertyManager.class).getNow()).thenReturn(now.plusMillis(124));
+        when(module.getMock(PropertyManager.class).getTradingTargets()).thenReturn(singletonList(composite));
+        when(module.getMock(PropertyManager.class).getTradingInterval()).thenReturn(Duration.ofMillis(123));
+        when(module.getMock(PropertyManager.class).getTradingFrequency("s", "i")).thenReturn(1);
+        when(module.getMock(PropertyManager.class).getTradingSeed("s", "i")).thenReturn(0);
+
+        target.processPipeline(now);
+        verify(target).isStale(composite, now.plusMillis(123));
+        verifyZeroInteractions(pipeline);
+
+        String[] labels = {"site", "instrument", "reason"};
+        assertEquals(registry.getSampleValue("cryptotrader_trader_shed_total", labels, new String[]{"s", "i", "stale"}), 1.0);
+
+        // Within target
+        assertFalse(target.isStale(composite, now.plusMillis(124)));
+
+    }
+
+    @Test(timeOut = 5000)
+    public void testProcessBackoff() {
+
+        Instant now = Instant.now();
+        Composite composite = new Composite("s", "i");
+        when(module.getMock(PropertyManager.class).getTradingBackoff("s", "i")).thenReturn(2);
+
+        // Overruns : 1 (no backoff), 2 (skip 1), 3 (skip 2)
+        when(module.getMock(PropertyManager.class).getNow()).thenReturn(now.plusMillis(10));
+        assertTrue(target.processCycle(composite, now, now.plusMillis(1)));
+        assertTrue(target.processCycle(composite, now, now.plusMillis(1)));
+        assertFalse(target.processCycle(composite, now, now.plusMillis(1)));
+        assertTrue(target.processCycle(composite, now, now.plusMillis(1)));
+        assertFalse(target.processCycle(composite, now, now.plusMillis(1)));
+        assertFalse(target.processCycle(composite, now, now.plusMillis(1)));
+        verify(pipeline, times(3)).process(now, now.plusMillis(1), "s", "i");
+
+        // Recovered
+        when(module.getMock(PropertyManager.class).getNow()).thenReturn(now);
+        assertTrue(target.processCycle(composite, now, now.plusMillis(1)));
+        when(module.getMock(PropertyManager.class).getNow()).thenReturn(now.plusMillis(10));
+        assertTrue(target.processCycle(composite, now, now.plusMillis(1)));
+        assertTrue(target.processCycle(composite, now, now.plusMillis(1)));
+        assertFalse(target.processCycle(composite, now, now.plusMillis(1)));
+        verify(pipeline, times(6)).process(now, now.plusMillis(1), "s", "i");
+
+        String[] labels = {"site", "instrument", "reason"};
+        assertEquals(registry.getSampleValue("cryptotrader_trader_shed_total", labels, new String[]{"s", "i", "backoff"}), 4.0);
+
+        // Disabled
+        when(module.getMock(PropertyManager.class).getTradingBackoff("s", "i")).thenReturn(0);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(target.processCycle(composite, now, now.plusMillis(1)));
+        }
+
+    }
+
+    @Test(timeOut = 5000)
+    public void testOnMarketChange() {
+
+        Instant now = Instant.now();
+        Key key = Key.builder().site("s").instrument("i").timestamp(now).build();
+        Composite composite = new Composite("s", "i");
+        ScheduledExecutorService scheduler = module.getMock(ScheduledExecutorService.class);
+        when(module.getMock(PropertyManager.class).getNow()).thenReturn(now);
+        when(module.getMock(PropertyManager.class).getTradingInterval()).thenReturn(Duration.ofMillis(123));
+        when(module.getMock(PropertyManager.class).getTradingFrequency("s", "i")).thenReturn(1);
+        when(module.getMock(PropertyManager.class).getTradingSpacing("s", "i")).thenReturn(Duration.ofMillis(10));
+        when(module.getMock(PropertyManager.class).getTradingTargets()).thenReturn(singletonList(composite));
+
+        // Null
+        target.onMarketChange(null);
+        verifyZeroInteractions(scheduler);
+
+        // Not a target
+        target.onMarketChange(Key.builder().site("s").instrument("x").build());
+        verifyZeroInteractions(scheduler);
+
+        // Initial
+        target.onMarketChange(key);
+        verify(scheduler).schedule(any(Runnable.class), eq(0L), eq(MILLISECONDS));
+
+        // Debounced
+        target.onMarketChange(key);
+        target.onMarketChange(key);
+        verify(scheduler).schedule(any(Runnable.class), eq(0L), eq(MILLISECONDS));
+
+        // Resolved once, not for every change.
+        verify(module.getMock(PropertyManager.class)).getTradingSpacing("s", "i");
+        verify(module.getMock(PropertyManager.class)).getTradingSpacing("s", "x");
+        target.onMarketChange(Key.builder().site("s").instrument("x").build());
+        verify(module.getMock(PropertyManager.class)).getTradingSpacing("s", "x");
+
+        // Spaced
+        target.processSignal(composite);
+        verify(pipeline).process(eq(now), any(), eq("s"), eq("i"));
+        target.onMarketChange(key);
+        verify(scheduler).schedule(any(Runnable.class), eq(10L), eq(MILLISECONDS));
+
+        // Rejected
+        target.processSignal(composite);
+        doThrow(new RejectedExecutionException("test")).when(scheduler).schedule(
+                any(Runnable.class), anyLong(), any());
+        target.onMarketChange(key);
+        target.onMarketChange(key);
+        verify(scheduler, times(3)).schedule(any(Runnable.class), eq(10L), eq(MILLISECONDS));
+
+        // Disabled, resolved by the next cycle.
+        when(module.getMock(PropertyManager.class).getTradingSpacing("s", "i")).thenReturn(Duration.ZERO);
+        target.processCycle(composite, now, now.plusMillis(1));
+        target.onMarketChange(key);
+        verify(scheduler, times(4)).schedule(any(Runnable.class), anyLong(), any());
+
+        // Closed
+        when(module.getMock(PropertyManager.class).getTradingSpacing("s", "i")).thenReturn(Duration.ofMillis(10));
+        target.close();
+        target.onMarketChange(key);
+        verify(scheduler, times(4)).schedule(any(Runnable.class), anyLong(), any());
+
+    }
+
+    @Test(timeOut = 5000)
+    public void testProcessSignal() {
+
+        Instant now = Instant.now();
+        Composite composite = new Composite("s", "i");
+        when(module.getMock(PropertyManager.class).getNow()).thenReturn(now);
+        when(module.getMock(PropertyManager.class).getTradingInterval()).thenReturn(Duration.ofMillis(123));
+        when(module.getMock(PropertyManager.class).getTradingFrequency("s", "i")).thenReturn(3);
+        when(module.getMock(PropertyManager.class).getTradingSpacing("s", "i")).thenReturn(Duration.ofMillis(10));
+        when(module.getMock(PropertyManager.class).getTradingTargets()).thenReturn(singletonList(composite));
+
+        // Unknown
+        target.processSignal(composite);
+        verifyZeroInteractions(pipeline);
+
+        // Pending
+        target.onMarketChange(Key.builder().site("s").instrument("i").build());
+        target.processSignal(composite);
+        verify(pipeline).process(now, now.plusMillis(123 * 3), "s", "i");
+
+        // Already processed
+        target.processSignal(composite);
+        verify(pipeline).process(now, now.plusMillis(123 * 3), "s", "i");
+
+        // Failure
+        doThrow(new RuntimeException("test")).when(pipeline).process(any(), any(), any(), any());
+        target.onMarketChange(Key.builder().site("s").instrument("i").build());
+        target.processSignal(composite);
+        verify(pipeline, times(2)).process(now, now.plusMillis(123 * 3), "s", "i");
+
+        // No longer a target
+        target.onMarketChange(Key.builder().site("s").instrument("i").build());
+        when(module.getMock(PropertyManager.class).getTradingTargets()).thenReturn(emptyList());
+        target.processSignal(composite);
+        target.onMarketChange(Key.builder().site("s").instrument("i").build());
+        target.processSignal(composite);
+        verify(pipeline, times(2)).process(now, now.plusMillis(123 * 3), "s", "i");
+
+        // Closed
+        target.onMarketChange(Key.builder().site("s").instrument("i").build());
+        target.close();
+        target.processSignal(composite);
+        verify(pipeline, times(2)).process(now, now.plusMillis(123 * 3), "s", "i");
+
+    }
+
+    @Test(timeOut = 5000)
+    public void testProcessSignal_Stale() {
+
+        Instant now = Instant.now();
+        Composite composite = new Composite("s", "i");
+        when(module.getMock(PropertyManager.class).getNow()).thenReturn(now);
+        when(module.getMock(PropertyManager.class).getTradingInterval()).thenReturn(Duration.ofMillis(123));
+        when(module.getMock(PropertyManager.class).getTradingFrequency("s", "i")).thenReturn(3);
+        when(module.getMock(PropertyManager.class).getTradingSpacing("s", "i")).thenReturn(Duration.ofMillis(10));
+        when(module.getMock(PropertyManager.class).getTradingTargets()).thenReturn(singletonList(composite));
+
+        // Due immediately, but started beyond the target (+369).
+        target.onMarketChange(Key.builder().site("s").instrument("i").build());
+        when(module.getMock(PropertyManager.class).getNow()).thenReturn(now.plusMillis(370));
+        target.processSignal(composite);
+        verifyZeroInteractions(pipeline);
+
+        String[] labels = {"site", "instrument", "reason"};
+        assertEquals(registry.getSampleValue("cryptotrader_trader_shed_total", labels, new String[]{"s", "i", "stale"}), 1.0);
+
+        // Within the target
+        target.onMarketChange(Key.builder().site("s").instrument("i").build());
+        target.processSignal(composite);
+        verify(pipeline).process(now.plusMillis(370), now.plusMillis(370 + 369), "s", "i");
+
+    }
+
 }
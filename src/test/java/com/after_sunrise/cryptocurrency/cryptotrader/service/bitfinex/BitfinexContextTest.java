@@ -19,6 +19,7 @@ import static com.after_sunrise.cryptocurrency.cryptotrader.service.bitfinex.Bit
 import static com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateContext.RequestType.GET;
 import static com.google.common.io.Resources.getResource;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.mockito.Mockito.*;
 import static org.testng.Assert.*;
 
@@ -163,6 +164,36 @@ public class BitfinexContextTest {
 
     }
 
+    @Test
+    public void testQueryAsync() throws Exception {
+
+        Key key = Key.builder().instrument("ethbtc").build();
+        String tick = Resources.toString(getResource("json/bitfinex_ticker.json"), UTF_8);
+        String trade = Resources.toString(getResource("json/bitfinex_trade.json"), UTF_8);
+        doReturn(completedFuture(null)).when(target).requestAsync(any());
+        doReturn(completedFuture(tick)).when(target).requestAsync(URL_TICKER + "ethbtc");
+        doReturn(completedFuture(trade)).when(target).requestAsync(URL_TRADE + "ethbtc");
+
+        // Found
+        assertEquals(target.getBestAskPriceAsync(key).get(), new BigDecimal("0.11646"));
+        assertEquals(target.getBestBidPriceAsync(key).get(), new BigDecimal("0.1154"));
+        assertEquals(target.getLastPriceAsync(key).get(), new BigDecimal("0.11648"));
+        assertEquals(target.listTradesAsync(key, null).get().size(), 2);
+        assertEquals(target.listTradesAsync(key, Instant.ofEpochMilli(1505489260000L)).get().size(), 1);
+
+        // Shared with the blocking lookups.
+        assertSame(target.queryTick(key).get(), target.queryTickAsync(key).get().get());
+        assertEquals(target.listTrades(key, null), target.listTradesAsync(key, null).get());
+        verify(target).requestAsync(URL_TICKER + "ethbtc");
+        verify(target).requestAsync(URL_TRADE + "ethbtc");
+        verify(target, never()).request(any(), any(), any(), any());
+
+        // Not found
+        assertFalse(target.queryTickAsync(Key.builder().instrument("FOO_BAR").build()).get().isPresent());
+        assertNull(target.listTradesAsync(Key.builder().instrument("FOO_BAR").build(), null).get());
+
+    }
+
     @Test
     public void testFindProduct() {
         assertEquals(target.findProduct(null, BTC, USD), "btcusd");
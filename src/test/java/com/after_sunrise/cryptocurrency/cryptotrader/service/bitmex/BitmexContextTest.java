@@ -1,35 +1,57 @@
 package com.after_sunrise.cryptocurrency.cryptotrader.service.bitmex;
 
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.Key;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.AmendInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Order;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Trade;
 import com.after_sunrise.cryptocurrency.cryptotrader.service.bitmex.BitmexService.ProductType;
 import com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateContext.RequestType;
+import com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateContext.ResponseReader;
 import com.google.common.collect.Sets;
 import com.google.common.io.Resources;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.websockets.core.AbstractReceiveListener;
+import io.undertow.websockets.core.BufferedTextMessage;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
 import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.MapConfiguration;
 import org.apache.commons.configuration2.builder.fluent.Configurations;
+import org.mockito.ArgumentCaptor;
 import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import java.io.IOException;
+import java.io.StringReader;
 import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URI;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 
 import static com.after_sunrise.cryptocurrency.cryptotrader.framework.Service.CurrencyType.*;
 import static com.after_sunrise.cryptocurrency.cryptotrader.service.bitmex.BitmexService.FundingType.XBT;
 import static com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateContext.RequestType.*;
 import static com.google.common.io.Resources.getResource;
+import static java.lang.Boolean.FALSE;
+import static java.lang.Boolean.TRUE;
 import static java.math.BigDecimal.valueOf;
 import static java.math.BigDecimal.*;
 import static java.math.RoundingMode.DOWN;
@@ -38,6 +60,7 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Collections.*;
 import static java.util.Optional.of;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 import static org.testng.Assert.*;
 
@@ -62,6 +85,15 @@ public class BitmexContextTest {
 
         doReturn(null).when(target).request(any(), any(), any(), any());
 
+        doReturn(null).when(target).request(any(), any(), any(), any(), any());
+
+        doNothing().when(target).scheduleSocket(any(), any());
+
+    }
+
+    private void doReturnStream(String data, RequestType type, String path) throws IOException {
+        doAnswer(i -> ((ResponseReader<?>) i.getArguments()[4]).read(new StringReader(data)))
+                .when(target).request(eq(type), eq(path), any(), any(), any());
     }
 
     @AfterMethod
@@ -200,6 +232,35 @@ public class BitmexContextTest {
 
     }
 
+    @Test
+    public void testConvertSymbol() throws Exception {
+
+        doReturn(Resources.toString(getResource("json/bitmex_alias.json"), UTF_8)).when(target)
+                .request(GET, "https://www.bitmex.com/api/v1/instrument/activeIntervals", null, null);
+
+        // Not converted yet
+        assertNull(target.convertSymbol("XBTUSD"));
+
+        target.convertAlias(Key.builder().instrument("XBTUSD").build());
+        target.convertAlias(Key.builder().instrument("XBT_FR").build()); // Not tradable
+        target.convertAlias(Key.builder().instrument("XBT_QT").build());
+        target.convertAlias(Key.builder().instrument("BXBT").build()); // Not tradable
+        assertEquals(target.convertSymbol("XBTUSD"), "XBTUSD");
+        assertEquals(target.convertSymbol("XBTZ17"), "XBT_QT");
+        assertNull(target.convertSymbol(".BXBT"));
+        assertNull(target.convertSymbol("foo"));
+        assertNull(target.convertSymbol(null));
+
+        // Ambiguous
+        configuration.setProperty(
+                "com.after_sunrise.cryptocurrency.cryptotrader.service.bitmex.BitmexContext.alias.XBT_MT",
+                "XBTZ17"
+        );
+        target.convertAlias(Key.builder().instrument("XBT_MT").build());
+        assertNull(target.convertSymbol("XBTZ17"));
+
+    }
+
     @Test
     public void testQueryTick() throws Exception {
 
@@ -325,11 +386,32 @@ public class BitmexContextTest {
 
     }
 
+    @Test
+    public void testReadList() throws Exception {
+
+        String data = Resources.toString(getResource("json/bitmex_book.json"), UTF_8);
+
+        List<BitmexBook> books = target.readList(new StringReader(data), BitmexBook.class, Integer.MAX_VALUE);
+        assertEquals(books.size(), 4);
+        assertEquals(books.get(3).getPrice(), new BigDecimal("6571.5"));
+
+        // Terminated at the limit
+        books = target.readList(new StringReader(data), BitmexBook.class, 2);
+        assertEquals(books.size(), 2);
+        assertEquals(books.get(1).getPrice(), new BigDecimal("6573"));
+
+        // Empty
+        assertEquals(target.readList(new StringReader("[]"), BitmexBook.class, 2).size(), 0);
+        assertNull(target.readList(new StringReader(""), BitmexBook.class, 2));
+        assertNull(target.readList(new StringReader("null"), BitmexBook.class, 2));
+
+    }
+
     @Test
     public void testQueryBooks() throws Exception {
 
-        doReturn(Resources.toString(getResource("json/bitmex_book.json"), UTF_8)).when(target)
-                .request(GET, "https://www.bitmex.com/api/v1/orderBook/L2?symbol=XBTUSD&depth=10", null, null);
+        doReturnStream(Resources.toString(getResource("json/bitmex_book.json"), UTF_8),
+                GET, "https://www.bitmex.com/api/v1/orderBook/L2?symbol=XBTUSD&depth=10");
 
         Key key = Key.builder().instrument("XBT???").build();
         doReturn("XBTUSD").when(target).convertAlias(key);
@@ -351,12 +433,12 @@ public class BitmexContextTest {
 
         // Empty
         target.clear();
-        doReturn(null).when(target).request(any(), any(), any(), any());
+        doReturn(null).when(target).request(any(), any(), any(), any(), any());
         assertEquals(target.queryBooks(key).size(), 0);
 
         // Exception
         target.clear();
-        doThrow(new IOException("test")).when(target).request(any(), any(), any(), any());
+        doThrow(new IOException("test")).when(target).request(any(), any(), any(), any(), any());
         assertEquals(target.queryBooks(key).size(), 0);
 
     }
@@ -469,14 +551,10 @@ public class BitmexContextTest {
     @Test
     public void testListTrades() throws Exception {
 
-        doReturn(Resources.toString(getResource("json/bitmex_trade.json"), UTF_8))
-                .when(target).request(GET,
-                "https://www.bitmex.com/api/v1/trade?count=500&reverse=true&symbol=XBTZ17",
-                null, null);
-        doReturn(Resources.toString(getResource("json/bitmex_bucket.json"), UTF_8))
-                .when(target).request(GET,
-                "https://www.bitmex.com/api/v1/trade/bucketed?binSize=1m&partial=true&count=500&reverse=true&symbol=XBJZ17",
-                null, null);
+        doReturnStream(Resources.toString(getResource("json/bitmex_trade.json"), UTF_8), GET,
+                "https://www.bitmex.com/api/v1/trade?count=500&reverse=true&symbol=XBTZ17");
+        doReturnStream(Resources.toString(getResource("json/bitmex_bucket.json"), UTF_8), GET,
+                "https://www.bitmex.com/api/v1/trade/bucketed?binSize=1m&partial=true&count=500&reverse=true&symbol=XBJZ17");
 
         Key key = Key.builder().instrument("XBT_QT").timestamp(Instant.parse("2017-11-01T23:15:48.000Z")).build();
         BitmexTick tick = spy(BitmexTick.builder().timestamp(Instant.now()).last(TEN).build());
@@ -1203,4 +1281,256 @@ public class BitmexContextTest {
 
     }
 
+    @Test
+    public void testAmendOrders() throws Exception {
+
+        doAnswer(i -> {
+
+            assertEquals(i.getArgumentAt(0, RequestType.class), PUT);
+            assertEquals(i.getArgumentAt(1, String.class), "/api/v1/order/bulk");
+            assertEquals(i.getArgumentAt(2, Map.class), emptyMap());
+            String data = i.getArgumentAt(3, String.class);
+
+            Map<String, List<Map<String, String>>> map = new Gson().fromJson(data, new TypeToken<Map<String, List<Map<String, String>>>>() {
+            }.getType());
+
+            List<Map<String, String>> orders = map.get("orders");
+            assertEquals(orders.size(), 2);
+            orders.sort(Comparator.comparing(m -> m.get("origClOrdID")));
+
+            Map<String, String> m = orders.get(0);
+            assertEquals(m.remove("origClOrdID"), "uid1");
+            assertEquals(m.remove("price"), "1");
+            assertEquals(m.remove("leavesQty"), "10");
+            assertEquals(m.size(), 0, map.toString());
+
+            m = orders.get(1);
+            assertEquals(m.remove("origClOrdID"), "uid2");
+            assertEquals(m.remove("price"), "2");
+            assertEquals(m.size(), 0, map.toString());
+
+            return new Gson().toJson(singleton(singletonMap("clOrdID", "uid1")));
+
+        }).when(target).executePrivate(any(), any(), any(), any());
+
+        AmendInstruction i1 = AmendInstruction.builder().id("uid1").price(ONE).size(TEN.negate()).build(); // Valid
+        AmendInstruction i2 = AmendInstruction.builder().id("uid2").price(ONE.add(ONE)).build(); // Valid (Rejected)
+        AmendInstruction i3 = AmendInstruction.builder().id(null).price(ONE).size(TEN).build();
+        AmendInstruction i4 = AmendInstruction.builder().id("uid4").price(ZERO).size(TEN).build();
+        AmendInstruction i5 = AmendInstruction.builder().id("uid5").price(ONE).size(ZERO).build();
+        AmendInstruction i6 = AmendInstruction.builder().id("uid6").build();
+
+        Key key = Key.builder().instrument("XBTZ17").build();
+        Map<AmendInstruction, String> result = target.amendOrders(key, Sets.newHashSet(i1, i2, null, i3, i4, i5, i6));
+        assertEquals(result.size(), 6);
+        assertEquals(result.get(i1), "uid1");
+        assertEquals(result.get(i2), null);
+        assertEquals(result.get(i3), null);
+        assertEquals(result.get(i4), null);
+        assertEquals(result.get(i5), null);
+        assertEquals(result.get(i6), null);
+        verify(target).executePrivate(any(), any(), any(), any());
+
+        // Nothing valid
+        result = target.amendOrders(key, Sets.newHashSet(i3, i6));
+        assertEquals(result.size(), 2);
+        verify(target).executePrivate(any(), any(), any(), any());
+
+        // Failure
+        doThrow(new IOException("test")).when(target).executePrivate(any(), any(), any(), any());
+        result = target.amendOrders(key, Sets.newHashSet(i1));
+        assertEquals(result.size(), 1);
+        assertEquals(result.get(i1), null);
+
+        // Empty
+        assertEquals(target.amendOrders(key, null), emptyMap());
+
+    }
+
+    @Test
+    public void testStartStream() throws Exception {
+
+        String prefix = BitmexContext.class.getName() + ".";
+        configuration.setProperty(prefix + "socket", "ws://localhost:12345/realtime");
+
+        CountDownLatch latch = new CountDownLatch(1);
+        doAnswer(i -> {
+            latch.countDown();
+            return null;
+        }).when(target).scheduleSocket(any(), any());
+
+        target.startStream();
+        target.startStream();
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        verify(target).scheduleSocket(URI.create("ws://localhost:12345/realtime"), Duration.ofSeconds(5));
+
+        // Without credentials
+        target = spy(new BitmexContext());
+        target.setConfiguration(new MapConfiguration(new HashMap<>()));
+        doNothing().when(target).scheduleSocket(any(), any());
+        target.startStream();
+        target.createOrders(Key.builder().build(), singleton(CreateInstruction.builder().build()));
+        TimeUnit.MILLISECONDS.sleep(100);
+        verify(target, never()).scheduleSocket(any(), any());
+
+    }
+
+    @Test
+    public void testOnSocketMessage() throws Exception {
+
+        Context.Listener listener = mock(Context.Listener.class);
+        target.addListener(listener);
+        target.convertAlias(Key.builder().instrument("XBTUSD").build());
+
+        // Non-order messages
+        target.onSocketMessage("{\"success\":true,\"request\":{\"op\":\"authKeyExpires\"}}");
+        target.onSocketMessage("{\"table\":\"trade\",\"action\":\"insert\",\"data\":[{\"orderID\":\"x\"}]}");
+        verify(listener, never()).onOrderChange(any(), any());
+
+        // Inserted
+        target.onSocketMessage("{\"table\":\"order\",\"action\":\"insert\",\"data\":[{\"orderID\":\"o1\","
+                + "\"clOrdID\":\"c1\",\"symbol\":\"XBTUSD\",\"side\":\"Sell\",\"price\":5000,"
+                + "\"orderQty\":10,\"leavesQty\":10,\"cumQty\":0,\"ordStatus\":\"New\",\"workingIndicator\":true}]}");
+
+        // Updated partially, and funding without order.
+        target.onSocketMessage("{\"table\":\"execution\",\"action\":\"insert\",\"data\":["
+                + "{\"orderID\":\"00000000-0000-0000-0000-000000000000\",\"execType\":\"Funding\"},"
+                + "{\"orderID\":\"o1\",\"leavesQty\":4,\"cumQty\":6,\"ordStatus\":\"PartiallyFilled\"}]}");
+
+        // Cancelled
+        target.onSocketMessage("{\"table\":\"order\",\"action\":\"update\",\"data\":[{\"orderID\":\"o1\","
+                + "\"leavesQty\":0,\"ordStatus\":\"Canceled\",\"workingIndicator\":false}]}");
+
+        ArgumentCaptor<Key> keys = ArgumentCaptor.forClass(Key.class);
+        ArgumentCaptor<Order> orders = ArgumentCaptor.forClass(Order.class);
+        verify(listener, times(3)).onOrderChange(keys.capture(), orders.capture());
+
+        keys.getAllValues().forEach(k -> assertEquals(k.getSite(), "bitmex"));
+        keys.getAllValues().forEach(k -> assertEquals(k.getInstrument(), "XBTUSD"));
+
+        Order order = orders.getAllValues().get(0);
+        assertEquals(order.getId(), "c1");
+        assertEquals(order.getActive(), TRUE);
+        assertEquals(order.getOrderPrice(), new BigDecimal("5000"));
+        assertEquals(order.getOrderQuantity(), new BigDecimal("-10"));
+        assertEquals(order.getRemainingQuantity(), new BigDecimal("-10"));
+
+        order = orders.getAllValues().get(1);
+        assertEquals(order.getId(), "c1");
+        assertEquals(order.getActive(), TRUE);
+        assertEquals(order.getFilledQuantity(), new BigDecimal("-6"));
+        assertEquals(order.getRemainingQuantity(), new BigDecimal("-4"));
+
+        order = orders.getAllValues().get(2);
+        assertEquals(order.getId(), "c1");
+        assertEquals(order.getActive(), FALSE);
+        assertEquals(order.getOrderPrice(), new BigDecimal("5000"));
+        assertEquals(order.getRemainingQuantity(), new BigDecimal("0"));
+
+        // Discarded once done.
+        target.onSocketMessage("{\"table\":\"order\",\"action\":\"update\",\"data\":[{\"orderID\":\"o1\"}]}");
+        verify(listener, times(4)).onOrderChange(keys.capture(), orders.capture());
+        assertEquals(orders.getValue().getId(), "o1");
+        assertNull(orders.getValue().getActive());
+        assertNull(keys.getValue().getInstrument()); // Unknown symbol
+
+    }
+
+    @Test(timeOut = 60 * 1000L)
+    public void testScheduleSocket_Interrupted() throws Exception {
+
+        doCallRealMethod().when(target).scheduleSocket(any(), any());
+        URI uri = URI.create("ws://localhost:1/realtime");
+
+        CountDownLatch latch = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        Thread thread = new Thread(() -> {
+            latch.countDown();
+            target.scheduleSocket(uri, Duration.ofMinutes(1));
+            interrupted.set(Thread.currentThread().isInterrupted());
+        });
+        thread.start();
+
+        latch.await();
+        while (thread.isAlive()) {
+            thread.interrupt(); // Until sleeping, instead of connecting.
+            thread.join(100);
+        }
+        assertTrue(interrupted.get());
+
+    }
+
+    @Test(timeOut = 60 * 1000L)
+    public void testScheduleSocket() throws Exception {
+
+        BlockingQueue<String> requests = new LinkedBlockingQueue<>();
+
+        String ack = "{\"table\":\"order\",\"action\":\"insert\",\"data\":[{\"orderID\":\"o1\","
+                + "\"clOrdID\":\"c1\",\"symbol\":\"XBTUSD\",\"side\":\"Buy\",\"price\":5000,"
+                + "\"orderQty\":10,\"leavesQty\":10,\"ordStatus\":\"New\",\"workingIndicator\":true}]}";
+
+        // Local stand-in of the realtime endpoint, acknowledging upon subscription.
+        Undertow server = Undertow.builder().addHttpListener(0, "localhost")
+                .setHandler(Handlers.websocket((exchange, channel) -> {
+                    channel.getReceiveSetter().set(new AbstractReceiveListener() {
+                        @Override
+                        protected void onFullTextMessage(WebSocketChannel c, BufferedTextMessage m) {
+
+                            String data = m.getData();
+
+                            requests.add(data);
+
+                            if (data.contains("subscribe")) {
+                                WebSockets.sendText("{\"success\":true}", c, null);
+                                WebSockets.sendText(ack, c, null);
+                            }
+
+                        }
+                    });
+                    channel.resumeReceives();
+                })).build();
+
+        server.start();
+
+        try {
+
+            InetSocketAddress address = (InetSocketAddress) server.getListenerInfo().get(0).getAddress();
+
+            BlockingQueue<Order> orders = new LinkedBlockingQueue<>();
+            target.addListener(new Context.Listener() {
+                @Override
+                public void onMarketChange(Key key) {
+                }
+
+                @Override
+                public void onOrderChange(Key key, Order order) {
+                    orders.add(order);
+                }
+            });
+
+            doReturn(Instant.ofEpochSecond(1000)).when(target).getNow();
+            doCallRealMethod().when(target).scheduleSocket(any(), any());
+            URI uri = URI.create("ws://localhost:" + address.getPort() + "/realtime");
+            CompletableFuture<Void> future = CompletableFuture.runAsync(
+                    () -> target.scheduleSocket(uri, Duration.ofMillis(100)));
+
+            String auth = requests.take();
+            assertTrue(auth.startsWith("{\"op\":\"authKeyExpires\",\"args\":[\"MY_ID_HERE\",1060,\""), auth);
+            assertTrue(auth.contains(target.computeHash("MY_SECRET_HERE", "GET", "/realtime", "1060", null)), auth);
+            assertEquals(requests.take(), "{\"op\":\"subscribe\",\"args\":[\"execution\",\"order\"]}");
+
+            Order order = orders.take();
+            assertEquals(order.getId(), "c1");
+            assertEquals(order.getActive(), TRUE);
+            assertEquals(order.getRemainingQuantity(), TEN);
+
+            target.close();
+            future.get(30, TimeUnit.SECONDS);
+
+        } finally {
+            server.stop();
+        }
+
+    }
+
 }
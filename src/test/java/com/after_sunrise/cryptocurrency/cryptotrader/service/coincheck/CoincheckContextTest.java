@@ -36,6 +36,7 @@ import static java.math.BigDecimal.*;
 import static java.math.RoundingMode.DOWN;
 import static java.math.RoundingMode.UP;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.mockito.Mockito.*;
 import static org.testng.Assert.*;
 
@@ -189,6 +190,38 @@ public class CoincheckContextTest {
 
     }
 
+    @Test
+    public void testQueryAsync() throws Exception {
+
+        Key key = Key.builder().instrument(BTC_JPY.name()).build();
+        String tick = Resources.toString(getResource("json/coincheck_ticker.json"), UTF_8);
+        String book = Resources.toString(getResource("json/coincheck_book.json"), UTF_8);
+        doReturn(completedFuture(tick)).when(target).requestAsync("https://coincheck.com/api/ticker");
+        doReturn(completedFuture(book)).when(target).requestAsync("https://coincheck.com/api/order_books");
+
+        // Found
+        assertEquals(target.getLastPriceAsync(key).get(), new BigDecimal("396000"));
+        assertEquals(target.getBestAskPriceAsync(key).get(), new BigDecimal("1613281.0"));
+        assertEquals(target.getBestBidPriceAsync(key).get(), new BigDecimal("1613120.0"));
+        assertEquals(target.getBestAskSizeAsync(key).get(), new BigDecimal("0.008"));
+        assertEquals(target.getBestBidSizeAsync(key).get(), new BigDecimal("0.2032985"));
+        assertEquals(target.getMidPriceAsync(key).get(), new BigDecimal("1613200.50"));
+        assertEquals(target.getAskPricesAsync(key).get().get(new BigDecimal("1613281.0")), new BigDecimal("0.008"));
+        assertEquals(target.getBidPricesAsync(key).get().get(new BigDecimal("1613120.0")), new BigDecimal("0.2032985"));
+
+        // Shared with the blocking lookups.
+        assertSame(target.queryBook(key).get(), target.queryBookAsync(key).get().get());
+        assertSame(target.queryTick(key).get(), target.queryTickAsync(key).get().get());
+        verify(target).requestAsync("https://coincheck.com/api/ticker");
+        verify(target).requestAsync("https://coincheck.com/api/order_books");
+        verify(target, never()).request(any(), any(), any(), any());
+
+        // Not found
+        assertFalse(target.queryTickAsync(Key.builder().instrument("FOO_BAR").build()).get().isPresent());
+        assertFalse(target.queryBookAsync(Key.builder().instrument("FOO_BAR").build()).get().isPresent());
+
+    }
+
     @Test
     public void testGetBestAskPrice() throws Exception {
 
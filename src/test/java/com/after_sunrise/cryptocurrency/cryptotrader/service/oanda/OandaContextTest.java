@@ -23,6 +23,7 @@ import static com.after_sunrise.cryptocurrency.cryptotrader.service.template.Tem
 import static com.google.common.io.Resources.getResource;
 import static java.math.BigDecimal.ZERO;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static java.util.Collections.singletonMap;
 import static org.mockito.Mockito.*;
 import static org.testng.Assert.*;
@@ -115,6 +116,34 @@ public class OandaContextTest {
 
     }
 
+    @Test
+    public void testQueryTickAsync() throws Exception {
+
+        Key key = Key.builder().instrument("USD_JPY").build();
+
+        String url = OandaContext.URL_TICKER + "USD_JPY";
+        String data = Resources.toString(getResource("json/oanda_ticker.json"), UTF_8);
+        String token = "my-token";
+        Map<String, String> params = singletonMap("Authorization", "Bearer " + token);
+        doReturn(completedFuture(data)).when(target).requestAsync(GET, url, params, null);
+        configuration.setProperty(
+                "com.after_sunrise.cryptocurrency.cryptotrader.service.oanda.OandaContext.api.secret"
+                , token);
+
+        // Found
+        OandaTick tick = target.queryTickAsync(key).get().get();
+        assertEquals(tick.getAsk(), new BigDecimal("110.859"));
+        assertEquals(tick.getBid(), new BigDecimal("110.819"));
+        assertEquals(target.getBestAskPriceAsync(key).get(), new BigDecimal("110.859"));
+        assertEquals(target.getBestBidPriceAsync(key).get(), new BigDecimal("110.819"));
+        assertEquals(target.getLastPriceAsync(key).get(), new BigDecimal("110.8390"));
+        assertEquals(target.listTradesAsync(key, null).get().size(), 1);
+        assertSame(target.queryTick(key).get(), tick);
+        verify(target).requestAsync(GET, url, params, null);
+        verify(target, never()).request(any(), any(), any(), any());
+
+    }
+
     @Test
     public void testGetBestAskPrice() throws Exception {
 
@@ -19,6 +19,7 @@ import static com.after_sunrise.cryptocurrency.cryptotrader.service.poloniex.Pol
 import static com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateContext.RequestType.GET;
 import static com.google.common.io.Resources.getResource;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.mockito.Mockito.*;
 import static org.testng.Assert.*;
 
@@ -72,6 +73,7 @@ public class PoloniexContextTest {
 
         // Found
         PoloniexTick tick = target.queryTick(Key.builder().instrument("BTC_ETH").build()).get();
+        assertEquals(tick.getPair(), "BTC_ETH");
         assertEquals(tick.getAsk(), new BigDecimal("0.07124943"));
         assertEquals(tick.getBid(), new BigDecimal("0.07116150"));
         assertEquals(tick.getLast(), new BigDecimal("0.07124943"));
@@ -84,6 +86,38 @@ public class PoloniexContextTest {
         PoloniexTick cached = target.queryTick(Key.builder().instrument("BTC_ETH").build()).get();
         assertSame(cached, tick);
 
+        // Same snapshot for the other instruments
+        PoloniexTick other = target.queryTick(Key.builder().instrument("BTC_LTC").build()).get();
+        assertEquals(other.getPair(), "BTC_LTC");
+        verify(target).request(GET, URL_TICKER, null, null);
+
+    }
+
+    @Test
+    public void testQueryAsync() throws Exception {
+
+        Key key = Key.builder().instrument("BTC_ETH").build();
+        String ticker = Resources.toString(getResource("json/poloniex_ticker.json"), UTF_8);
+        String trade = Resources.toString(getResource("json/poloniex_trade.json"), UTF_8);
+        doReturn(completedFuture(ticker)).when(target).requestAsync(URL_TICKER);
+        doReturn(completedFuture(trade)).when(target).requestAsync(URL_TRADE + "BTC_ETH");
+
+        // Shared with the blocking lookups.
+        PoloniexTick tick = target.queryTickAsync(key).get().get();
+        assertSame(target.queryTick(key).get(), tick);
+        assertEquals(target.getBestAskPriceAsync(key).get(), new BigDecimal("0.07124943"));
+        assertEquals(target.getBestBidPriceAsync(key).get(), new BigDecimal("0.07116150"));
+        assertEquals(target.getLastPriceAsync(key).get(), new BigDecimal("0.07124943"));
+        assertFalse(target.queryTickAsync(Key.builder().instrument("FOO_BAR").build()).get().isPresent());
+
+        List<Trade> trades = target.listTradesAsync(key, null).get();
+        assertEquals(trades.size(), 2);
+        assertEquals(target.listTrades(key, null), trades);
+        assertEquals(target.listTradesAsync(key, Instant.ofEpochMilli(1505230700000L)).get().size(), 1);
+        verify(target).requestAsync(URL_TICKER);
+        verify(target).requestAsync(URL_TRADE + "BTC_ETH");
+        verify(target, never()).request(any(), any(), any(), any());
+
     }
 
     @Test
@@ -16,16 +16,18 @@ public class PoloniexTickTest {
     public void test() {
 
         PoloniexTick target = PoloniexTick.builder()
+                .pair("BTC_ETH")
                 .ask(BigDecimal.valueOf(1))
                 .bid(BigDecimal.valueOf(2))
                 .last(BigDecimal.valueOf(3))
                 .build();
 
+        assertEquals(target.getPair(), "BTC_ETH");
         assertEquals(target.getAsk(), BigDecimal.valueOf(1));
         assertEquals(target.getBid(), BigDecimal.valueOf(2));
         assertEquals(target.getLast(), BigDecimal.valueOf(3));
 
-        assertEquals(target.toString(), "PoloniexTick(last=3, ask=1, bid=2)");
+        assertEquals(target.toString(), "PoloniexTick(pair=BTC_ETH, last=3, ask=1, bid=2)");
 
     }
 
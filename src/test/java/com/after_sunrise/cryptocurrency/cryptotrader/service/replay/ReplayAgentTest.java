@@ -0,0 +1,135 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.service.replay;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.TestModule;
+import com.after_sunrise.cryptocurrency.cryptotrader.core.PropertyManager;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.Key;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.AmendInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Order;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Request;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.*;
+
+import static java.util.Collections.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+/**
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+public class ReplayAgentTest {
+
+    private ReplayAgent target;
+
+    private TestModule module;
+
+    private Context context;
+
+    private PropertyManager propertyManager;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+
+        module = new TestModule();
+        context = module.getMock(Context.class);
+        propertyManager = module.getMock(PropertyManager.class);
+
+        target = new ReplayAgent(module.createInjector());
+
+    }
+
+    @Test
+    public void testGet() throws Exception {
+        assertEquals(target.get(), "*");
+    }
+
+    @Test
+    public void testManage() throws Exception {
+
+        Request request = module.createRequestBuilder().build();
+        Key key = Key.from(request);
+        CreateInstruction i1 = CreateInstruction.builder().build();
+        CreateInstruction i2 = CreateInstruction.builder().build();
+        CancelInstruction i3 = CancelInstruction.builder().id("c").build();
+        List<Instruction> instructions = Arrays.asList(i1, null, i2, i3);
+
+        Map<CreateInstruction, String> creates = new IdentityHashMap<>();
+        creates.put(i1, "id1");
+        creates.put(i2, null);
+        when(context.createOrders(eq(key), any())).thenReturn(creates);
+        when(context.cancelOrders(eq(key), any())).thenReturn(singletonMap(i3, "c"));
+
+        // Dry
+        assertEquals(target.manage(context, request, instructions).size(), 0);
+        verifyNoMoreInteractions(context);
+
+        // Empty
+        when(propertyManager.getTradingActive("s", "i")).thenReturn(true);
+        assertEquals(target.manage(context, request, emptyList()).size(), 0);
+        assertEquals(target.manage(context, request, null).size(), 0);
+        verifyNoMoreInteractions(context);
+
+        Map<Instruction, String> results = target.manage(context, request, instructions);
+        assertEquals(results.size(), 2);
+        assertEquals(results.get(i1), "id1");
+        assertEquals(results.get(i3), "c");
+        verify(context).createOrders(key, new HashSet<>(Arrays.asList(i1, i2)));
+        verify(context).cancelOrders(key, singleton(i3));
+
+    }
+
+    @Test
+    public void testReconcile() throws Exception {
+
+        Request request = module.createRequestBuilder().build();
+        Key key = Key.from(request);
+        CreateInstruction i1 = CreateInstruction.builder().build();
+        CreateInstruction i2 = CreateInstruction.builder().build();
+        CancelInstruction i3 = CancelInstruction.builder().build();
+        CancelInstruction i4 = CancelInstruction.builder().build();
+        CancelInstruction i5 = CancelInstruction.builder().build();
+        AmendInstruction i7 = AmendInstruction.builder().build();
+        AmendInstruction i8 = AmendInstruction.builder().build();
+
+        Order active = mock(Order.class);
+        Order inactive = mock(Order.class);
+        when(active.getActive()).thenReturn(true);
+        when(inactive.getActive()).thenReturn(false);
+        when(context.findOrder(key, "1")).thenReturn(active);
+        when(context.findOrder(key, "3")).thenReturn(active);
+        when(context.findOrder(key, "4")).thenReturn(inactive);
+
+        Map<Instruction, String> instructions = new IdentityHashMap<>();
+        instructions.put(i1, "1");
+        instructions.put(i2, "2");
+        instructions.put(i3, "3");
+        instructions.put(i4, "4");
+        instructions.put(i5, "5");
+        instructions.put(null, "6");
+        instructions.put(i7, "1");
+        instructions.put(i8, "4");
+        instructions.put(CreateInstruction.builder().build(), null);
+
+        Map<Instruction, Boolean> results = target.reconcile(context, request, instructions);
+        assertEquals(results.size(), 7);
+        assertTrue(results.get(i1));
+        assertFalse(results.get(i2));
+        assertFalse(results.get(i3));
+        assertTrue(results.get(i4));
+        assertTrue(results.get(i5));
+        assertTrue(results.get(i7));
+        assertFalse(results.get(i8));
+
+        assertEquals(target.reconcile(context, request, null).size(), 0);
+
+    }
+
+}
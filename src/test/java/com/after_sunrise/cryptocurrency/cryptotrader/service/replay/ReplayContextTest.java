@@ -0,0 +1,334 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.service.replay;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.TestModule;
+import com.after_sunrise.cryptocurrency.cryptotrader.core.Composite;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.Key;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Order;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Trade;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.MarketJournal;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.MarketJournal.Record;
+import org.apache.commons.configuration2.Configuration;
+import org.apache.commons.configuration2.BaseConfiguration;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+import static com.after_sunrise.cryptocurrency.cryptotrader.framework.Service.CurrencyType.BTC;
+import static com.after_sunrise.cryptocurrency.cryptotrader.framework.Service.CurrencyType.JPY;
+import static com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.MarketJournal.Type.*;
+import static java.math.BigDecimal.ONE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+/**
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+public class ReplayContextTest {
+
+    private static final Instant T0 = Instant.parse("2018-04-01T00:00:00Z");
+
+    private ReplayContext target;
+
+    private BaseConfiguration configuration;
+
+    private Path directory;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+
+        directory = Files.createTempDirectory("replay");
+
+        Files.write(directory.resolve("20180401.csv"), Arrays.asList(
+                "# comment",
+                "",
+                "TICK,2018-04-01T00:00:00Z,s,BTC_JPY,101,1.5,99,2.5",
+                "BOOK,2018-04-01T00:01:00Z,s,BTC_JPY,ASK,103:1,102:2",
+                "BOOK,2018-04-01T00:01:00Z,s,BTC_JPY,BID,98:3,97:4",
+                "TRADE,2018-04-01T00:00:30Z,s,BTC_JPY,100,0.5",
+                "TRADE," + T0.plusSeconds(90).toEpochMilli() + ",s,BTC_JPY,96,0.3",
+                "TRADE,2018-04-01T00:02:00Z,s,BTC_JPY,104,0.2",
+                "FOO,2018-04-01T00:02:00Z,s,BTC_JPY",
+                "TRADE,invalid,s,BTC_JPY,1,1"
+        ), UTF_8);
+
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(directory.resolve("20180402.csv.gz")));
+             Writer writer = new OutputStreamWriter(out, UTF_8)) {
+            writer.write("TRADE,2018-04-01T00:03:00Z,s,ETH_BTC,0.05,1\n");
+        }
+
+        Files.write(directory.resolve("ignored.txt"), singleton("TRADE,2018-04-01T00:04:00Z,s,BTC_JPY,1,1"), UTF_8);
+
+        configuration = new BaseConfiguration();
+        configuration.setProperty(ReplayContext.class.getName() + ".path", directory.toString());
+        configuration.setProperty(ReplayContext.class.getName() + ".funding", "10000");
+        configuration.setProperty(ReplayContext.class.getName() + ".commission", "0.001");
+        configuration.setProperty(ReplayContext.class.getName() + ".lot_size", "0.1");
+        configuration.setProperty(ReplayContext.class.getName() + ".tick_size", "5");
+
+        target = new ReplayContext();
+        target.setConfiguration(configuration);
+
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+
+        target.close();
+
+        try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+
+        Files.delete(directory);
+
+    }
+
+    private Key key(String instrument, Instant time) {
+        return Key.builder().site("s").instrument(instrument).timestamp(time).build();
+    }
+
+    @Test
+    public void testGet() {
+        assertEquals(target.get(), "replay");
+    }
+
+    @Test
+    public void testLoad() {
+
+        assertEquals(target.getMarkets().size(), 2);
+
+        assertEquals(target.getStartTime(), T0);
+
+        assertEquals(target.getEndTime(), T0.plusSeconds(180));
+
+        // Not found
+        assertEquals(target.load(directory.resolve("missing")).size(), 0);
+
+    }
+
+    @Test
+    public void testLoad_Journal() throws Exception {
+
+        Path path = Files.createTempDirectory("journal");
+
+        TestModule module = new TestModule();
+        module.getMock(Configuration.class).setProperty(MarketJournal.class.getName() + ".path", path.toString());
+
+        try (MarketJournal journal = new MarketJournal(module.createInjector())) {
+
+            Record.RecordBuilder b = Record.builder().site("s").instrument("BTC_JPY");
+            journal.append(b.type(ASK_PRICE).time(T0).values(singletonList(new BigDecimal("101"))).build());
+            journal.append(b.type(ASK_SIZE).time(T0.plusSeconds(1)).values(singletonList(new BigDecimal("2"))).build());
+            journal.append(b.type(BID_SIZE).time(T0.plusSeconds(1)).values(singletonList(new BigDecimal("3"))).build());
+            journal.append(b.type(BID_BOOK).time(T0.plusSeconds(2)).values(Arrays.asList(
+                    new BigDecimal("98"), new BigDecimal("4"), new BigDecimal("99"), new BigDecimal("5"))).build());
+            journal.append(b.type(TRADE).time(T0.plusSeconds(3)).values(Arrays.asList(
+                    new BigDecimal("100"), new BigDecimal("0.5"))).build());
+            journal.append(b.type(ORDER_CANCEL).time(T0.plusSeconds(4)).values(singletonList(ONE)).build());
+
+        }
+
+        Map<Composite, ReplayContext.Market> markets = target.load(path);
+
+        try (java.util.stream.Stream<Path> files = Files.list(path)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+
+        Files.delete(path);
+
+        ReplayContext.Market market = markets.get(new Composite("s", "BTC_JPY"));
+        assertEquals(market.asks.size(), 2);
+        assertEquals(market.asks.get(T0).firstEntry().getKey(), new BigDecimal("101"));
+        assertEquals(market.asks.get(T0).firstEntry().getValue().signum(), 0);
+        assertEquals(market.asks.get(T0.plusSeconds(1)).firstEntry().getKey(), new BigDecimal("101"));
+        assertEquals(market.asks.get(T0.plusSeconds(1)).firstEntry().getValue(), new BigDecimal("2"));
+        assertEquals(market.bids.size(), 1); // Size without price skipped.
+        assertEquals(market.bids.get(T0.plusSeconds(2)).firstEntry().getKey(), new BigDecimal("99"));
+        assertEquals(market.trades.size(), 1);
+        assertEquals(market.trades.get(0).getTimestamp(), T0.plusSeconds(3));
+
+    }
+
+    @Test
+    public void testMarketData() {
+
+        Key key = key("BTC_JPY", T0.plusSeconds(60));
+
+        // Capped to the virtual time.
+        assertNull(target.getBestAskPrice(key));
+        assertNull(target.getLastPrice(key));
+        assertEquals(target.listTrades(key, null).size(), 0);
+
+        target.advance(T0.plusSeconds(120));
+        assertEquals(target.getTime(), T0.plusSeconds(120));
+
+        assertEquals(target.getBestAskPrice(key), new BigDecimal("102"));
+        assertEquals(target.getBestBidPrice(key), new BigDecimal("98"));
+        assertEquals(target.getBestAskSize(key), new BigDecimal("2"));
+        assertEquals(target.getBestBidSize(key), new BigDecimal("3"));
+        assertEquals(target.getMidPrice(key), new BigDecimal("100.0"));
+        assertEquals(target.getLastPrice(key), new BigDecimal("100"));
+        assertEquals(target.getAskPrices(key).keySet(), new TreeSet<>(Arrays.asList(new BigDecimal("102"), new BigDecimal("103"))));
+        assertEquals(target.getBidPrices(key).size(), 2);
+
+        key = key("BTC_JPY", T0.plusSeconds(59));
+        assertEquals(target.getBestAskPrice(key), new BigDecimal("101"));
+        assertEquals(target.getBestAskSize(key), new BigDecimal("1.5"));
+        assertEquals(target.getBestBidPrice(key), new BigDecimal("99"));
+        assertEquals(target.getBestBidSize(key), new BigDecimal("2.5"));
+
+        List<Trade> trades = target.listTrades(key("BTC_JPY", null), T0.plusSeconds(30));
+        assertEquals(trades.size(), 3);
+        assertEquals(trades.get(1).getPrice(), new BigDecimal("96"));
+        assertEquals(trades.get(1).getTimestamp(), T0.plusSeconds(90));
+        assertEquals(target.listTrades(key("BTC_JPY", null), T0.plusSeconds(31)).size(), 2);
+
+        // Unknown
+        assertNull(target.getBestAskPrice(key("FOO", null)));
+        assertNull(target.getMidPrice(null));
+        assertEquals(target.listTrades(null, null).size(), 0);
+        assertEquals(target.getState(key), Context.StateType.ACTIVE);
+
+    }
+
+    @Test
+    public void testProduct() {
+
+        target.advance(T0);
+
+        Key key = key("BTC_JPY", T0);
+
+        assertEquals(target.getInstrumentCurrency(key), BTC);
+        assertEquals(target.getFundingCurrency(key), JPY);
+        assertNull(target.getInstrumentCurrency(key("BTCJPY", T0)));
+        assertNull(target.getFundingCurrency(key("FOO_BAR", T0)));
+        assertNull(target.getInstrumentCurrency(null));
+
+        assertEquals(target.findProduct(key, BTC, JPY), "BTC_JPY");
+        assertNull(target.findProduct(key, JPY, BTC));
+        assertNull(target.findProduct(null, BTC, JPY));
+
+        assertEquals(target.getConversionPrice(key, BTC), ONE);
+        assertEquals(target.getConversionPrice(key, JPY), new BigDecimal("-100.0"));
+        assertNull(target.getConversionPrice(key, null));
+
+        assertEquals(target.roundLotSize(key, new BigDecimal("1.23"), RoundingMode.DOWN), new BigDecimal("1.2"));
+        assertEquals(target.roundTickSize(key, new BigDecimal("123"), RoundingMode.UP), new BigDecimal("125"));
+        assertNull(target.roundLotSize(key, null, RoundingMode.UP));
+        assertEquals(target.getCommissionRate(key), new BigDecimal("0.001"));
+        assertEquals(target.isMarginable(key), Boolean.FALSE);
+        assertNull(target.getExpiry(key));
+
+        assertEquals(target.getInstrumentPosition(key), new BigDecimal("0"));
+        assertEquals(target.getFundingPosition(key), new BigDecimal("10000"));
+        assertNull(target.getFundingPosition(key("FOO", T0)));
+
+    }
+
+    @Test
+    public void testOrders() {
+
+        target.advance(T0);
+
+        Key key = key("BTC_JPY", T0);
+
+        CreateInstruction passive = CreateInstruction.builder().price(new BigDecimal("97")).size(new BigDecimal("0.4")).build();
+        CreateInstruction aggressive = CreateInstruction.builder().price(new BigDecimal("99")).size(new BigDecimal("-3")).build();
+        CreateInstruction expiring = CreateInstruction.builder().price(new BigDecimal("110"))
+                .size(new BigDecimal("-1")).timeToLive(Duration.ofSeconds(30)).build();
+        CreateInstruction invalid = CreateInstruction.builder().price(new BigDecimal("97")).build();
+
+        Map<CreateInstruction, String> ids = target.createOrders(key,
+                new HashSet<>(Arrays.asList(passive, aggressive, expiring, invalid)));
+        assertEquals(ids.size(), 4);
+        assertNull(ids.get(invalid));
+
+        // Aggressive sell is partially filled against the best bid.
+        Order order = target.findOrder(key, ids.get(aggressive));
+        assertEquals(order.getFilledQuantity(), new BigDecimal("-2.5"));
+        assertEquals(order.getRemainingQuantity(), new BigDecimal("-0.5"));
+        assertEquals(order.getActive(), Boolean.TRUE);
+        assertEquals(target.listActiveOrders(key).size(), 3);
+        assertEquals(target.listExecutions(key).size(), 1);
+
+        // Trade at 100 fills the remaining sell at 99, trade at 96 fills the passive buy at 97.
+        target.advance(T0.plusSeconds(150));
+
+        order = target.findOrder(key, ids.get(passive));
+        assertEquals(order.getFilledQuantity(), new BigDecimal("0.3"));
+        assertEquals(order.getActive(), Boolean.TRUE);
+
+        order = target.findOrder(key, ids.get(aggressive));
+        assertEquals(order.getFilledQuantity(), new BigDecimal("-3.0"));
+        assertEquals(order.getActive(), Boolean.FALSE);
+
+        order = target.findOrder(key, ids.get(expiring));
+        assertEquals(order.getActive(), Boolean.FALSE);
+        assertEquals(order.getFilledQuantity(), new BigDecimal("0"));
+
+        // Positions : +0.3 -3.0 BTC / -(97*0.3) + (99*2.5 + 99*0.5) JPY, less commissions
+        assertEquals(target.getInstrumentPosition(key), new BigDecimal("-2.7"));
+        assertEquals(target.getFundingPosition(key).compareTo(new BigDecimal("10267.5739")), 0);
+        assertEquals(target.listExecutions(key).size(), 3);
+
+        // Cancel
+        CancelInstruction cancel = CancelInstruction.builder().id(ids.get(passive)).build();
+        CancelInstruction unknown = CancelInstruction.builder().id("foo").build();
+        Map<CancelInstruction, String> results = target.cancelOrders(key, new HashSet<>(Arrays.asList(cancel, unknown)));
+        assertEquals(results.get(cancel), ids.get(passive));
+        assertNull(results.get(unknown));
+        assertEquals(target.findOrder(key, ids.get(passive)).getActive(), Boolean.FALSE);
+        assertEquals(target.listActiveOrders(key).size(), 0);
+
+        // Unknown
+        assertEquals(target.createOrders(key("FOO", T0), singleton(passive)).size(), 0);
+        assertEquals(target.cancelOrders(key("FOO", T0), singleton(cancel)).size(), 0);
+        assertNull(target.findOrder(key, null));
+        assertEquals(target.listActiveOrders(null).size(), 0);
+        assertEquals(target.listExecutions(null).size(), 0);
+
+    }
+
+    @Test
+    public void testListener() throws Exception {
+
+        Context.Listener listener = mock(Context.Listener.class);
+        target.addListener(null);
+        target.addListener(listener);
+
+        target.advance(T0);
+        verify(listener).onMarketChange(key("BTC_JPY", T0));
+        verify(listener).onMarketChange(key("ETH_BTC", T0));
+
+        target.removeListener(null);
+        target.removeListener(listener);
+        target.advance(T0.plusSeconds(1));
+        verifyNoMoreInteractions(listener);
+
+    }
+
+}
@@ -0,0 +1,213 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.service.replay;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.TestModule;
+import com.after_sunrise.cryptocurrency.cryptotrader.core.Composite;
+import com.after_sunrise.cryptocurrency.cryptotrader.core.CryptotraderImpl;
+import com.after_sunrise.cryptocurrency.cryptotrader.core.PropertyManager;
+import com.after_sunrise.cryptocurrency.cryptotrader.core.PropertyManagerImpl;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Agent;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Pipeline;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Request;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Trader;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.impl.PipelineImpl;
+import com.google.common.io.Resources;
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import org.apache.commons.configuration2.builder.fluent.Configurations;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.Collections.singletonList;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+import static org.testng.Assert.*;
+
+/**
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+public class ReplayTraderTest {
+
+    private static final Instant T0 = Instant.parse("2018-04-01T00:00:00Z");
+
+    private ReplayTrader target;
+
+    private TestModule module;
+
+    private PropertyManager propertyManager;
+
+    private ReplayContext context;
+
+    private Pipeline pipeline;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+
+        module = new TestModule();
+        propertyManager = module.getMock(PropertyManager.class);
+        context = module.getMock(ReplayContext.class);
+        pipeline = module.getMock(Pipeline.class);
+
+        when(propertyManager.getNow()).thenReturn(Instant.now());
+        when(context.getTime()).thenReturn(T0);
+        when(propertyManager.getTradingInterval()).thenReturn(Duration.ofMinutes(1));
+        when(propertyManager.getTradingTargets()).thenReturn(Arrays.asList(
+                new Composite("s1", "i1"), new Composite(" s2 ", "i2")
+        ));
+        when(propertyManager.getTradingSeed(any(), any())).thenReturn(0);
+        when(propertyManager.getTradingFrequency(any(), any())).thenReturn(1);
+        when(propertyManager.getTradingFrequency("s2", "i2")).thenReturn(2);
+
+        target = new ReplayTrader(module.createInjector());
+
+    }
+
+    @Test
+    public void testModule() throws Exception {
+
+        Injector injector = Guice.createInjector(new ReplayTrader.Module());
+
+        assertTrue(injector.getInstance(Trader.class) instanceof ReplayTrader);
+        assertSame(injector.getInstance(Context.class), injector.getInstance(ReplayContext.class));
+        assertTrue(injector.getInstance(Agent.class) instanceof ReplayAgent);
+
+        new CryptotraderImpl(injector).shutdown();
+
+    }
+
+    @Test
+    public void testClose() throws Exception {
+
+        assertFalse(target.isClosed());
+
+        target.trigger();
+        assertFalse(target.isClosed());
+
+        target.close();
+        assertTrue(target.isClosed());
+
+        target.close();
+        assertTrue(target.isClosed());
+
+    }
+
+    @Test
+    public void testTrade() throws Exception {
+
+        when(context.getStartTime()).thenReturn(T0);
+        when(context.getEndTime()).thenReturn(T0.plusSeconds(180));
+        when(context.getTime()).thenReturn(T0.plusSeconds(180));
+        doThrow(new RuntimeException("test")).when(pipeline).process(
+                T0.plusSeconds(60), T0.plusSeconds(120), "s1", "i1");
+
+        target.trade();
+
+        verify(context).advance(T0);
+        verify(context).advance(T0.plusSeconds(60));
+        verify(context).advance(T0.plusSeconds(120));
+        verify(context).advance(T0.plusSeconds(180));
+        verify(context, times(4)).advance(any());
+
+        verify(pipeline).process(T0, T0.plusSeconds(60), "s1", "i1");
+        verify(pipeline).process(T0.plusSeconds(60), T0.plusSeconds(120), "s1", "i1");
+        verify(pipeline).process(T0.plusSeconds(120), T0.plusSeconds(180), "s1", "i1");
+        verify(pipeline).process(T0.plusSeconds(180), T0.plusSeconds(240), "s1", "i1");
+        verify(pipeline).process(T0, T0.plusSeconds(120), "s2", "i2");
+        verify(pipeline).process(T0.plusSeconds(120), T0.plusSeconds(240), "s2", "i2");
+        verifyNoMoreInteractions(pipeline);
+
+    }
+
+    @Test
+    public void testTrade_Pipeline() throws Exception {
+
+        URL url = Resources.getResource("cryptotrader-default.properties");
+        PropertyManager manager = spy(new PropertyManagerImpl(new Configurations().properties(url)));
+        doReturn(propertyManager.getNow()).when(manager).getNow();
+        doReturn(Duration.ofMinutes(1)).when(manager).getTradingInterval();
+        doReturn(singletonList(new Composite("s1", "i1"))).when(manager).getTradingTargets();
+        doReturn(0).when(manager).getTradingSeed(any(), any());
+        doReturn(1).when(manager).getTradingFrequency(any(), any());
+        module.setMock(PropertyManager.class, manager);
+        module.setMock(Pipeline.class, new PipelineImpl(module.createInjector()));
+        target = new ReplayTrader(module.createInjector());
+
+        when(context.getStartTime()).thenReturn(T0);
+        when(context.getEndTime()).thenReturn(T0.plusSeconds(120));
+
+        target.trade();
+
+        // Cycles in the recorded past are processed through, within the latency budget.
+        ArgumentCaptor<Request> captor = ArgumentCaptor.forClass(Request.class);
+        verify(module.getMock(Agent.class), times(3)).manage(any(), captor.capture(), any());
+        assertEquals(captor.getAllValues().get(0).getCurrentTime(), T0);
+        assertEquals(captor.getAllValues().get(2).getTargetTime(), T0.plusSeconds(180));
+
+    }
+
+    @Test
+    public void testTrade_Empty() throws Exception {
+
+        target.trade();
+
+        verify(context, never()).advance(any());
+        verifyNoMoreInteractions(pipeline);
+
+    }
+
+    @Test
+    public void testTrade_Closed() throws Exception {
+
+        when(context.getStartTime()).thenReturn(T0);
+        when(context.getEndTime()).thenReturn(T0.plusSeconds(180));
+
+        target.close();
+        target.trade();
+
+        verify(context, never()).advance(any());
+        verifyNoMoreInteractions(pipeline);
+
+    }
+
+    @Test
+    public void testTrade_InvalidInterval() throws Exception {
+
+        when(context.getStartTime()).thenReturn(T0);
+        when(context.getEndTime()).thenReturn(T0.plusSeconds(180));
+        when(propertyManager.getTradingInterval()).thenReturn(Duration.ZERO);
+
+        target.trade();
+
+        verify(context, never()).advance(any());
+        verifyNoMoreInteractions(pipeline);
+
+    }
+
+    @Test
+    public void testProcessTargets() throws Exception {
+
+        Map<Composite, AtomicLong> frequencies = new HashMap<>();
+
+        assertEquals(target.processTargets(T0, Duration.ofSeconds(5), frequencies), 2);
+        assertEquals(target.processTargets(T0, Duration.ofSeconds(5), frequencies), 1);
+        assertEquals(target.processTargets(T0, Duration.ofSeconds(5), frequencies), 2);
+
+        assertEquals(frequencies.get(new Composite("s1", "i1")).get(), 3);
+        assertEquals(frequencies.get(new Composite("s2", "i2")).get(), 3);
+
+        verify(pipeline, times(3)).process(T0, T0.plusSeconds(5), "s1", "i1");
+        verify(pipeline, times(2)).process(T0, T0.plusSeconds(10), "s2", "i2");
+
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.service.template;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+public class NonceGeneratorTest {
+
+    private Path directory;
+
+    private Path path;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory(getClass().getSimpleName());
+        path = directory.resolve("sub").resolve("nonce.properties");
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        try (Stream<Path> s = Files.walk(directory)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private Properties read() throws Exception {
+
+        Properties properties = new Properties();
+
+        try (InputStream in = Files.newInputStream(path)) {
+            properties.load(in);
+        }
+
+        return properties;
+
+    }
+
+    @Test
+    public void testNext() throws Exception {
+
+        NonceGenerator target = new NonceGenerator(null, 100);
+
+        // Follows the clock
+        assertEquals(target.next("k", 1000), 1000L);
+        assertEquals(target.next("k", 2000), 2000L);
+
+        // Runs ahead of the clock
+        assertEquals(target.next("k", 2000), 2001L);
+        assertEquals(target.next("k", 1500), 2002L);
+
+        // Per key
+        assertEquals(target.next("x", 1500), 1500L);
+
+        assertFalse(Files.exists(path));
+
+    }
+
+    @Test
+    public void testNext_Persisted() throws Exception {
+
+        NonceGenerator target = new NonceGenerator(path, 100);
+        assertEquals(target.next("k:1", 1000), 1000L);
+        assertEquals(read().getProperty("k:1"), "1100");
+
+        // Within the reserved range
+        Files.delete(path);
+        assertEquals(target.next("k:1", 1000), 1001L);
+        assertEquals(target.next("k:1", 1100), 1100L);
+        assertFalse(Files.exists(path));
+
+        // Beyond the reserved range
+        assertEquals(target.next("k:1", 1101), 1101L);
+        assertEquals(read().getProperty("k:1"), "1201");
+
+        // Other keys are merged
+        assertEquals(target.next("k:2", 5), 5L);
+        assertEquals(read().getProperty("k:1"), "1201");
+        assertEquals(read().getProperty("k:2"), "105");
+
+        // Restarted, with the clock behind.
+        target = new NonceGenerator(path, 100);
+        assertEquals(target.next("k:1", 1000), 1202L);
+        assertEquals(target.next("k:2", 1000), 1000L);
+        assertEquals(target.next("k:3", 1000), 1000L);
+
+    }
+
+    @Test(timeOut = 60 * 1000L)
+    public void testNext_Concurrent() throws Exception {
+
+        NonceGenerator target = new NonceGenerator(path, 10);
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+
+            List<Future<List<Long>>> futures = new ArrayList<>();
+
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> {
+
+                    List<Long> values = new ArrayList<>();
+
+                    for (int j = 0; j < 500; j++) {
+                        values.add(target.next("k", 1));
+                    }
+
+                    return values;
+
+                }));
+            }
+
+            Set<Long> values = new HashSet<>();
+
+            for (Future<List<Long>> future : futures) {
+
+                List<Long> list = future.get();
+
+                for (int i = 1; i < list.size(); i++) {
+                    assertTrue(list.get(i - 1) < list.get(i));
+                }
+
+                values.addAll(list);
+
+            }
+
+            assertEquals(values.size(), 8 * 500);
+
+            assertTrue(Long.parseLong(read().getProperty("k")) >= 8 * 500);
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.service.template;
+
+import com.after_sunrise.cryptocurrency.cryptotrader.service.template.Signer.Encoding;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import static org.testng.Assert.*;
+
+/**
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+public class SignerTest {
+
+    private static final String SHA256 = "8b5f48702995c1598c573db1e21866a9b825d4a794d169d7060a03605796360b";
+
+    private Signer target;
+
+    @BeforeMethod
+    public void setUp() {
+        target = new Signer();
+    }
+
+    @Test
+    public void testEncoding() {
+
+        byte[] bytes = {(byte) 0xfb, (byte) 0xff, (byte) 0x00};
+
+        assertEquals(Encoding.HEX.encode(bytes), "fbff00");
+        assertEquals(Encoding.BASE64.encode(bytes), "+/8A");
+        assertEquals(Encoding.BASE64_URL.encode(bytes), "-_8A");
+
+        assertEquals(Encoding.HEX.encode(new byte[0]), "");
+
+    }
+
+    @Test
+    public void testSign() throws Exception {
+
+        byte[] key = "secret".getBytes();
+
+        assertEquals(target.sign("HmacSHA256", key, "message".getBytes(), Encoding.HEX), SHA256);
+        assertEquals(target.sign("HmacSHA256", key, "message".getBytes(), Encoding.BASE64),
+                "i19IcCmVwVmMVz2x4hhmqbgl1KeU0WnXBgoDYFeWNgs=");
+        assertEquals(target.sign("HmacSHA512", key, "message".getBytes(), Encoding.HEX),
+                "1bba587c730eedba31f53abb0b6ca589e09de4e894ee455e6140807399759ada"
+                        + "afa069eec7c01647bb173dcb17f55d22af49a18071b748c5c2edd7f7a829c632");
+
+        // Pooled instance is reset after each digest.
+        assertEquals(target.sign("HmacSHA256", key, "message".getBytes(), Encoding.HEX), SHA256);
+
+        // Pooled by the content, not the array instance.
+        key[0] = 'o';
+        assertNotEquals(target.sign("HmacSHA256", key, "message".getBytes(), Encoding.HEX), SHA256);
+        assertEquals(target.sign("HmacSHA256", "secret".getBytes(), "message".getBytes(), Encoding.HEX), SHA256);
+        assertEquals(target.sign("HmacSHA256", "other".getBytes(), "message".getBytes(), Encoding.HEX),
+                "0f0ac69f7223d69f9bf77ab4a96b72776352baaf822994b6b8cefd966e9ace02");
+
+        // Other threads
+        assertEquals(CompletableFuture.supplyAsync(() -> {
+            try {
+                return target.sign("HmacSHA256", "secret".getBytes(), "message".getBytes(), Encoding.HEX);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }).get(), SHA256);
+
+        // Pool overflow
+        for (int i = 0; i < 64; i++) {
+            assertEquals(target.sign("HmacSHA256", ("k" + i).getBytes(), new byte[0]).length, 32);
+        }
+        assertEquals(target.sign("HmacSHA256", "secret".getBytes(), "message".getBytes(), Encoding.HEX), SHA256);
+
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testSign_Invalid() throws Exception {
+        target.sign("foo", "secret".getBytes(), "message".getBytes());
+    }
+
+}
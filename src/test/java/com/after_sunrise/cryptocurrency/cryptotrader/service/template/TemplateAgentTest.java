@@ -1,8 +1,11 @@
 package com.after_sunrise.cryptocurrency.cryptotrader.service.template;
 
+import com.after_sunrise.cryptocurrency.cryptotrader.core.ExecutorFactory;
+import com.after_sunrise.cryptocurrency.cryptotrader.core.PropertyManager;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.Key;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.AmendInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Order;
@@ -10,22 +13,41 @@ import com.after_sunrise.cryptocurrency.cryptotrader.framework.Request;
 import com.google.common.collect.Sets;
 import org.apache.commons.configuration2.BaseConfiguration;
 import org.apache.commons.configuration2.Configuration;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatcher;
 import org.mockito.InOrder;
+import org.testng.annotations.AfterMethod;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
+import java.math.BigDecimal;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+import static com.after_sunrise.cryptocurrency.cryptotrader.framework.Service.CurrencyType.BTC;
+import static com.after_sunrise.cryptocurrency.cryptotrader.framework.Service.CurrencyType.JPY;
 import static com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateAgent.INTERVAL;
 import static java.lang.Boolean.FALSE;
 import static java.lang.Boolean.TRUE;
+import static java.math.BigDecimal.ONE;
+import static java.math.BigDecimal.TEN;
+import static java.math.BigDecimal.ZERO;
 import static java.util.Arrays.asList;
+import static java.util.Collections.emptyMap;
+import static java.util.Collections.singleton;
+import static java.util.Collections.singletonList;
 import static java.util.Collections.singletonMap;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.*;
@@ -43,6 +65,8 @@ public class TemplateAgentTest {
 
     private Configuration configuration;
 
+    private ExecutorService executor;
+
     @BeforeMethod
     public void setUp() throws Exception {
 
@@ -54,6 +78,21 @@ public class TemplateAgentTest {
 
         target.setConfiguration(configuration);
 
+        executor = Executors.newFixedThreadPool(2);
+
+        ExecutorFactory factory = mock(ExecutorFactory.class);
+        when(factory.get(any(), eq(2))).thenReturn(executor);
+
+        PropertyManager manager = mock(PropertyManager.class);
+        when(manager.getTradingThreads()).thenReturn(2);
+
+        target.initialize(factory, manager);
+
+    }
+
+    @AfterMethod
+    public void tearDown() throws Exception {
+        executor.shutdown();
     }
 
     @Test
@@ -110,11 +149,233 @@ public class TemplateAgentTest {
         assertEquals(results.size(), 1);
         assertEquals(results.get(i4), null);
 
+        // Abort if unconfirmed in previous cycle.
+        doReturn(singletonMap(i4, "i4")).when(context).cancelOrders(any(), any());
+        request = Request.builder().reconciled(singletonMap(i1, FALSE)).build();
+        results = target.manage(context, request, values);
+        assertEquals(results.size(), 1);
+        assertEquals(results.get(i4), "i4");
+        verify(context, times(1)).createOrders(any(), any());
+
+        // Proceed if confirmed in previous cycle.
+        request = Request.builder().reconciled(singletonMap(i1, TRUE)).build();
+        results = target.manage(context, request, values);
+        assertEquals(results.size(), 1 + 3);
+        verify(context, times(2)).createOrders(any(), any());
+
         // No input
         assertEquals(target.manage(context, request, null).size(), 0);
 
     }
 
+    @Test
+    public void testManage_Amend() throws Exception {
+
+        CreateInstruction i1 = CreateInstruction.builder().build();
+        CancelInstruction i2 = CancelInstruction.builder().id("i2").build();
+        AmendInstruction i3 = AmendInstruction.builder().id("i3").price(ONE).size(TEN).strategy("s").build();
+        AmendInstruction i4 = AmendInstruction.builder().id("i4").price(ONE).size(TEN).build();
+        Request request = Request.builder().build();
+        List<Instruction> values = asList(i1, i2, i3, i4);
+
+        when(context.createOrders(any(), any())).thenAnswer(invocation -> {
+            Map<CreateInstruction, String> results = new IdentityHashMap<>();
+            Set<?> instructions = invocation.getArgumentAt(1, Set.class);
+            instructions.stream().map(CreateInstruction.class::cast).forEach(i -> results.put(i, i.getUid()));
+            return results;
+        });
+
+        when(context.cancelOrders(any(), any())).thenAnswer(invocation -> {
+            Map<CancelInstruction, String> results = new IdentityHashMap<>();
+            Set<?> instructions = invocation.getArgumentAt(1, Set.class);
+            instructions.stream().map(CancelInstruction.class::cast).forEach(i -> results.put(i, i.getId()));
+            return results;
+        });
+
+        // Amended natively, including the failures.
+        Map<AmendInstruction, String> amended = new IdentityHashMap<>();
+        amended.put(i3, "i3");
+        amended.put(i4, null);
+        when(context.amendOrders(any(), any())).thenReturn(amended);
+        Map<Instruction, String> results = target.manage(context, request, values);
+        assertEquals(results.size(), 4);
+        assertEquals(results.get(i2), "i2");
+        assertEquals(results.get(i3), "i3");
+        assertEquals(results.get(i4), null);
+        assertEquals(results.get(i1), i1.getUid());
+        verify(context).amendOrders(any(), eq(Sets.newHashSet(i3, i4)));
+        verify(context).cancelOrders(any(), any());
+
+        // Partially unsupported
+        reset(context);
+        when(context.cancelOrders(any(), any())).thenAnswer(invocation -> {
+            Map<CancelInstruction, String> r = new IdentityHashMap<>();
+            Set<?> instructions = invocation.getArgumentAt(1, Set.class);
+            instructions.stream().map(CancelInstruction.class::cast).forEach(i -> r.put(i, i.getId()));
+            return r;
+        });
+        when(context.createOrders(any(), any())).thenAnswer(invocation -> {
+            Map<CreateInstruction, String> r = new IdentityHashMap<>();
+            Set<?> instructions = invocation.getArgumentAt(1, Set.class);
+            instructions.stream().map(CreateInstruction.class::cast).forEach(i -> r.put(i, i.getUid()));
+            return r;
+        });
+        when(context.amendOrders(any(), any())).thenReturn(singletonMap(i3, "i3"));
+        results = target.manage(context, request, values);
+        assertEquals(results.size(), 1 + 1 + 1 + 2); // Cancel, amend, create, and the fallback pair.
+        assertEquals(results.get(i3), "i3");
+        assertFalse(results.containsKey(i4));
+        assertTrue(results.containsValue("i4"));
+        verify(context, times(2)).cancelOrders(any(), any());
+        verify(context).createOrders(any(), argThat(new ArgumentMatcher<Set<CreateInstruction>>() {
+            @Override
+            public boolean matches(Object argument) {
+                Set<?> creates = (Set<?>) argument;
+                return creates.size() == 2 && creates.contains(i1) && creates.stream()
+                        .map(CreateInstruction.class::cast)
+                        .anyMatch(c -> c.getPrice() == ONE && c.getSize() == TEN && c.getStrategy() == null);
+            }
+        }));
+
+        // Unsupported, and failed to fall back.
+        reset(context);
+        when(context.cancelOrders(any(), any())).thenAnswer(invocation -> {
+            Map<CancelInstruction, String> r = new IdentityHashMap<>();
+            Set<?> instructions = invocation.getArgumentAt(1, Set.class);
+            instructions.stream().map(CancelInstruction.class::cast)
+                    .forEach(i -> r.put(i, "i4".equals(i.getId()) ? null : i.getId()));
+            return r;
+        });
+        results = target.manage(context, request, values);
+        assertEquals(results.size(), 1 + 2);
+        verify(context).amendOrders(any(), any());
+        verify(context, times(2)).cancelOrders(any(), any());
+        verify(context, never()).createOrders(any(), any());
+
+    }
+
+    @Test
+    public void testManage_Pipeline() throws Exception {
+
+        CreateInstruction i1 = CreateInstruction.builder().price(ONE).size(ONE).build();
+        CreateInstruction i2 = CreateInstruction.builder().price(TEN).size(ONE).build();
+        CancelInstruction i3 = CancelInstruction.builder().id("i3").build();
+        Request request = Request.builder().build();
+        List<Instruction> values = asList(i1, i2, i3);
+
+        doReturn(singleton(i1)).when(target).pipeline(any(), any(), any());
+
+        // Disabled
+        when(context.cancelOrders(any(), any())).thenReturn(singletonMap(i3, null));
+        Map<Instruction, String> results = target.manage(context, request, values);
+        assertEquals(results.size(), 1);
+        verify(target, never()).pipeline(any(), any(), any());
+        verify(context, never()).createOrders(any(), any());
+
+        // Enabled, and cancel failed.
+        CountDownLatch latch = new CountDownLatch(1);
+        when(context.createOrders(any(), any())).thenAnswer(invocation -> {
+            latch.countDown();
+            return singletonMap(i1, "i1");
+        });
+        when(context.cancelOrders(any(), any())).thenAnswer(invocation -> {
+            // Pipelined creates are submitted before the cancels complete.
+            return latch.await(1, TimeUnit.MINUTES) ? singletonMap(i3, null) : emptyMap();
+        });
+        configuration.setProperty(TemplateAgent.class.getName() + ".pipeline", "true");
+        results = target.manage(context, request, values);
+        assertEquals(results.size(), 2);
+        assertEquals(results.get(i1), "i1");
+        assertTrue(results.containsKey(i3));
+        verify(context).createOrders(any(), eq(singleton(i1)));
+
+        // Enabled, and cancelled.
+        reset(context);
+        when(context.cancelOrders(any(), any())).thenReturn(singletonMap(i3, "i3"));
+        when(context.createOrders(any(), any())).thenAnswer(invocation -> {
+            Map<CreateInstruction, String> r = new IdentityHashMap<>();
+            Set<?> instructions = invocation.getArgumentAt(1, Set.class);
+            instructions.stream().map(CreateInstruction.class::cast).forEach(i -> r.put(i, i.getUid()));
+            return r;
+        });
+        results = target.manage(context, request, values);
+        assertEquals(results.size(), 3);
+        verify(context).createOrders(any(), eq(singleton(i1)));
+        verify(context).createOrders(any(), eq(singleton(i2)));
+
+        // Unconfirmed
+        reset(context);
+        request = Request.builder().reconciled(singletonMap(i3, FALSE)).build();
+        target.manage(context, request, values);
+        verify(target, times(2)).pipeline(any(), any(), any());
+        verify(context, never()).createOrders(any(), any());
+
+    }
+
+    @Test
+    public void testPipeline() throws Exception {
+
+        Key key = Key.builder().site("s").instrument("i").build();
+
+        Order buy = mock(Order.class);
+        Order sell = mock(Order.class);
+        when(buy.getOrderPrice()).thenReturn(new BigDecimal("100"));
+        when(buy.getRemainingQuantity()).thenReturn(new BigDecimal("2"));
+        when(sell.getOrderPrice()).thenReturn(new BigDecimal("110"));
+        when(sell.getRemainingQuantity()).thenReturn(new BigDecimal("-2"));
+        when(context.listActiveOrders(key)).thenReturn(asList(buy, sell));
+        when(context.getFundingPosition(key)).thenReturn(new BigDecimal("500"));
+        when(context.getInstrumentPosition(key)).thenReturn(new BigDecimal("3"));
+        when(context.getFundingCurrency(key)).thenReturn(JPY);
+        when(context.getConversionPrice(key, JPY)).thenReturn(new BigDecimal("0.01"));
+
+        CreateInstruction b1 = CreateInstruction.builder().price(new BigDecimal("101")).size(new BigDecimal("2")).build();
+        CreateInstruction b2 = CreateInstruction.builder().price(new BigDecimal("110")).size(new BigDecimal("1")).build();
+        CreateInstruction s1 = CreateInstruction.builder().price(new BigDecimal("109")).size(new BigDecimal("-1")).build();
+        CreateInstruction s2 = CreateInstruction.builder().price(new BigDecimal("100")).size(new BigDecimal("-1")).build();
+        CreateInstruction m1 = CreateInstruction.builder().price(ZERO).size(new BigDecimal("1")).build();
+
+        // Cash : (2 + 2) / 0.01 <= 500, 2 + 1 <= 3, with the crossing ones excluded.
+        Set<CreateInstruction> results = target.pipeline(context, key, Sets.newHashSet(b1, b2, s1, s2, m1));
+        assertEquals(results, Sets.newHashSet(b1, s1));
+
+        // Exceeding positions
+        when(context.getFundingPosition(key)).thenReturn(new BigDecimal("399"));
+        when(context.getInstrumentPosition(key)).thenReturn(new BigDecimal("2.5"));
+        assertEquals(target.pipeline(context, key, Sets.newHashSet(b1, s1)).size(), 0);
+
+        // Margin : (2 + 1) / 0.01 <= 399
+        when(context.isMarginable(key)).thenReturn(true);
+        when(context.getInstrumentPosition(key)).thenReturn(null);
+        assertEquals(target.pipeline(context, key, Sets.newHashSet(b1, s1)), singleton(s1));
+
+        // Margin funded in the instrument (inverse) : (2 + 1) / 50 <= 0.06 BTC, but not 0.05 BTC.
+        when(context.getFundingCurrency(key)).thenReturn(BTC);
+        when(context.getConversionPrice(key, BTC)).thenReturn(new BigDecimal("50"));
+        when(context.getFundingPosition(key)).thenReturn(new BigDecimal("0.06"));
+        assertEquals(target.pipeline(context, key, singleton(s1)), singleton(s1));
+        when(context.getFundingPosition(key)).thenReturn(new BigDecimal("0.05"));
+        assertEquals(target.pipeline(context, key, singleton(s1)).size(), 0);
+        when(context.getConversionPrice(key, BTC)).thenReturn(null);
+        when(context.getFundingPosition(key)).thenReturn(TEN.pow(3));
+        assertEquals(target.pipeline(context, key, singleton(s1)).size(), 0);
+        when(context.getFundingCurrency(key)).thenReturn(JPY);
+
+        // Unknown exposures
+        when(context.isMarginable(key)).thenReturn(false);
+        assertEquals(target.pipeline(context, key, singleton(s1)).size(), 0);
+        when(context.getInstrumentPosition(key)).thenReturn(TEN);
+        when(context.getFundingPosition(key)).thenReturn(null);
+        assertEquals(target.pipeline(context, key, singleton(s1)).size(), 0);
+        when(context.getFundingPosition(key)).thenReturn(TEN.pow(3));
+        assertEquals(target.pipeline(context, key, singleton(s1)).size(), 1);
+        when(sell.getOrderPrice()).thenReturn(null);
+        assertEquals(target.pipeline(context, key, singleton(s1)).size(), 0);
+        when(context.listActiveOrders(key)).thenReturn(null);
+        assertEquals(target.pipeline(context, key, singleton(s1)).size(), 0);
+
+    }
+
     @Test
     public void testReconcile() throws Exception {
 
@@ -140,7 +401,7 @@ public class TemplateAgentTest {
             Key key = i.getArgumentAt(0, Key.class);
             Duration interval = i.getArgumentAt(1, Duration.class);
             return Key.build(key).timestamp(key.getTimestamp().plus(interval)).build();
-        }).when(target).nextKey(any(), any());
+        }).when(target).nextKey(any(), any(), any(), any());
 
         Instant now = Instant.now();
         Request request = Request.builder().site("s").instrument("i")
@@ -188,7 +449,7 @@ public class TemplateAgentTest {
         //
         // Interrupted
         //
-        doReturn(null).when(target).nextKey(any(), any());
+        doReturn(null).when(target).nextKey(any(), any(), any(), any());
         results = target.reconcile(context, request, instructions);
         assertEquals(results.size(), 4);
         assertEquals(results.get(create1), FALSE);
@@ -214,25 +475,175 @@ public class TemplateAgentTest {
     }
 
     @Test
-    public void testNextKey() {
+    public void testReconcile_Amend() throws Exception {
+
+        AmendInstruction amend1 = AmendInstruction.builder().price(TEN).build();
+        AmendInstruction amend2 = AmendInstruction.builder().price(TEN).build();
+        AmendInstruction amend3 = AmendInstruction.builder().size(TEN).build();
+
+        Map<Instruction, String> instructions = new IdentityHashMap<>();
+        instructions.put(amend1, "i1");
+        instructions.put(amend2, "i2");
+        instructions.put(amend3, "i3");
+
+        doAnswer(i -> {
+            Key key = i.getArgumentAt(0, Key.class);
+            Duration interval = i.getArgumentAt(1, Duration.class);
+            return Key.build(key).timestamp(key.getTimestamp().plus(interval)).build();
+        }).when(target).nextKey(any(), any(), any(), any());
+
+        Order o1 = mock(Order.class);
+        Order o2 = mock(Order.class);
+        when(o1.getActive()).thenReturn(TRUE);
+        when(o2.getActive()).thenReturn(TRUE);
+        when(o1.getOrderPrice()).thenReturn(new BigDecimal("10.0"));
+        when(o2.getOrderPrice()).thenReturn(ONE);
+        when(context.findOrder(any(), eq("i1"))).thenReturn(o1);
+        when(context.findOrder(any(), eq("i2"))).thenReturn(o2); // Not yet amended
+        when(context.findOrder(any(), eq("i3"))).thenReturn(o2);
+
+        Instant now = Instant.now();
+        Request request = Request.builder().site("s").instrument("i")
+                .currentTime(now).targetTime(now.plus(INTERVAL).plus(INTERVAL).plusMillis(1)).build();
+
+        Map<Instruction, Boolean> results = target.reconcile(context, request, instructions);
+        assertEquals(results.size(), 3);
+        assertEquals(results.get(amend1), TRUE);
+        assertEquals(results.get(amend2), FALSE);
+        assertEquals(results.get(amend3), TRUE);
+
+    }
+
+    @Test(timeOut = 30 * 1000L)
+    public void testReconcile_Push() throws Exception {
+
+        CreateInstruction create = CreateInstruction.builder().build();
+        CancelInstruction cancel = CancelInstruction.builder().build();
+        AmendInstruction amend = AmendInstruction.builder().price(TEN).build();
+
+        Map<Instruction, String> instructions = new IdentityHashMap<>();
+        instructions.put(create, "i1");
+        instructions.put(cancel, "i2");
+        instructions.put(amend, "i3");
+
+        Order o1 = mock(Order.class);
+        Order o2 = mock(Order.class);
+        Order o3 = mock(Order.class);
+        Order o4 = mock(Order.class);
+        when(o1.getId()).thenReturn("i1");
+        when(o2.getId()).thenReturn("i2");
+        when(o3.getId()).thenReturn("i3");
+        when(o4.getId()).thenReturn("i4");
+        when(o2.getActive()).thenReturn(FALSE);
+        when(o3.getActive()).thenReturn(TRUE);
+        when(o3.getOrderPrice()).thenReturn(TEN);
+
+        List<Order> pushes = new ArrayList<>();
+
+        doAnswer(i -> {
+            Context.Listener listener = i.getArgumentAt(0, Context.Listener.class);
+            new Thread(() -> pushes.forEach(o -> listener.onOrderChange(null, o))).start();
+            return null;
+        }).when(context).addListener(any());
+
+        Instant now = Instant.now();
+        Request request = Request.builder().site("s").instrument("i")
+                .currentTime(now).targetTime(now.plus(INTERVAL).plus(INTERVAL).plusMillis(1)).build();
+
+        // All pushed, without waiting for the interval.
+        configuration.setProperty(TemplateAgent.class.getName() + ".interval", 60 * 60 * 1000L);
+        pushes.addAll(asList(o4, null, o1, o2, o3));
+        Map<Instruction, Boolean> results = target.reconcile(context, request, instructions);
+        assertEquals(results.size(), 3);
+        assertEquals(results.get(create), TRUE);
+        assertEquals(results.get(cancel), TRUE);
+        assertEquals(results.get(amend), TRUE);
+        verify(context, never()).findOrder(any(), any());
+        verify(context).removeListener(any());
+
+        // Partially pushed, and polled for the rest.
+        configuration.setProperty(TemplateAgent.class.getName() + ".interval", 10L);
+        pushes.clear();
+        pushes.addAll(asList(o1, o3));
+        results = target.reconcile(context, request, instructions);
+        assertEquals(results.size(), 3);
+        assertEquals(results.get(create), TRUE);
+        assertEquals(results.get(cancel), TRUE);
+        assertEquals(results.get(amend), TRUE);
+        verify(context).findOrder(any(), eq("i2"));
+        verify(context, times(2)).removeListener(any());
+
+    }
+
+    @Test(timeOut = 5000)
+    public void testReconcile_PushedBefore() throws Exception {
+
+        CreateInstruction create = CreateInstruction.builder().build();
+        Order o1 = mock(Order.class);
+        when(o1.getId()).thenReturn("i1");
+
+        // Subscribed when managing, only once.
+        target.manage(context, Request.builder().site("s").build(), singletonList(create));
+        target.subscribe(context);
+        ArgumentCaptor<Context.Listener> captor = ArgumentCaptor.forClass(Context.Listener.class);
+        verify(context).addListener(captor.capture());
+
+        // Acknowledged before reconcile.
+        captor.getValue().onOrderChange(Key.builder().site("s").build(), o1);
+        captor.getValue().onOrderChange(Key.builder().site("s").build(), null);
+
+        Instant now = Instant.now();
+        Request request = Request.builder().site("s").instrument("i")
+                .currentTime(now).targetTime(now.plus(INTERVAL).plus(INTERVAL)).build();
+        configuration.setProperty(TemplateAgent.class.getName() + ".interval", 60 * 60 * 1000L);
+
+        Map<Instruction, Boolean> results = target.reconcile(context, request, singletonMap(create, "i1"));
+        assertEquals(results.get(create), TRUE);
+        verify(context, never()).findOrder(any(), any());
+
+        // Not pushed for the other site.
+        configuration.setProperty(TemplateAgent.class.getName() + ".interval", 10L);
+        Request other = Request.build(request).site("x").targetTime(now).build();
+        results = target.reconcile(context, other, singletonMap(create, "i1"));
+        assertEquals(results.get(create), FALSE);
+
+    }
+
+    @Test
+    public void testNextKey() throws Exception {
 
         Instant now = Instant.now();
         AtomicLong count = new AtomicLong();
         doAnswer(i -> now.plusMillis(count.addAndGet(25))).when(target).getNow();
         Key original = Key.builder().site("s").instrument("i").timestamp(now).build();
+        BlockingQueue<Order> pushed = new LinkedBlockingQueue<>();
+        List<Order> handled = new ArrayList<>();
 
-        Key result = target.nextKey(original, Duration.ofMillis(100));
+        Key result = target.nextKey(original, Duration.ofMillis(100), pushed, handled::add);
         assertEquals(result.getSite(), original.getSite());
         assertEquals(result.getInstrument(), original.getInstrument());
         assertEquals(result.getTimestamp(), original.getTimestamp().plusMillis(25 * 1));
 
-        result = target.nextKey(original, Duration.ofMillis(100));
+        result = target.nextKey(original, Duration.ofMillis(100), pushed, handled::add);
         assertEquals(result.getSite(), original.getSite());
         assertEquals(result.getInstrument(), original.getInstrument());
         assertEquals(result.getTimestamp(), original.getTimestamp().plusMillis(25 * 2));
+        assertEquals(handled.size(), 0);
+
+        // Handed over until the handler completes.
+        Order o1 = mock(Order.class);
+        Order o2 = mock(Order.class);
+        Order o3 = mock(Order.class);
+        pushed.addAll(asList(o1, o2, o3));
+        long start = System.nanoTime();
+        result = target.nextKey(original, Duration.ofMinutes(1), pushed, o -> handled.add(o) && o == o2);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(30));
+        assertEquals(result.getTimestamp(), original.getTimestamp().plusMillis(25 * 3));
+        assertEquals(handled, asList(o1, o2));
+        assertEquals(pushed.size(), 1);
 
         Thread.currentThread().interrupt();
-        assertNull(target.nextKey(original, Duration.ofMillis(100)));
+        assertNull(target.nextKey(original, Duration.ofMillis(100), pushed, handled::add));
         assertTrue(Thread.interrupted());
 
     }
@@ -1,8 +1,14 @@
 package com.after_sunrise.cryptocurrency.cryptotrader.service.template;
 
+import com.after_sunrise.cryptocurrency.cryptotrader.core.ExecutorFactory;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.Key;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.StateType;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Order;
+import com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateContext.RequestLane;
+import com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateContext.RequestType;
+import com.google.common.io.CharStreams;
+import io.prometheus.client.CollectorRegistry;
 import org.apache.commons.configuration2.ImmutableConfiguration;
 import org.jboss.resteasy.plugins.server.undertow.UndertowJaxrsServer;
 import org.jboss.resteasy.test.TestPortProvider;
@@ -11,6 +17,7 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Application;
@@ -20,12 +27,16 @@ import java.math.BigDecimal;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.Callable;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import static java.math.BigDecimal.*;
 import static java.math.RoundingMode.*;
 import static java.util.Collections.singletonList;
+import static java.util.Collections.singletonMap;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.mockito.Mockito.*;
 import static org.testng.Assert.*;
 
@@ -56,27 +67,56 @@ public class TemplateContextTest {
             return "{foo:bar}";
         }
 
+        @POST
+        @Path("/foo")
+        public String postFoo() {
+            return "{foo:post}";
+        }
+
         @GET
         @Path("/bar")
         public String getBar() throws IOException {
             throw new IOException("test");
         }
 
+        @GET
+        @Path("/large")
+        public String getLarge() {
+            StringBuilder sb = new StringBuilder("[0");
+            for (int i = 1; i < 1000000; i++) {
+                sb.append(',').append(i);
+            }
+            return sb.append(']').toString();
+        }
+
+        @GET
+        @Path("/slow")
+        public String getSlow() throws InterruptedException {
+            Thread.sleep(1000);
+            return "{slow:true}";
+        }
+
     }
 
     private TemplateContext target;
 
     private ImmutableConfiguration configuration;
 
+    private CollectorRegistry registry;
+
     @BeforeMethod
     public void setUp() {
 
         configuration = mock(ImmutableConfiguration.class);
 
+        registry = new CollectorRegistry();
+
         target = spy(new TestContext());
 
         target.setConfiguration(configuration);
 
+        target.setCollectorRegistry(registry);
+
     }
 
     @AfterMethod
@@ -100,6 +140,51 @@ public class TemplateContextTest {
 
     }
 
+    @Test
+    public void testListener() {
+
+        Key key = Key.builder().site("s").instrument("i").build();
+        Context.Listener l1 = mock(Context.Listener.class);
+        Context.Listener l2 = mock(Context.Listener.class);
+        doThrow(new RuntimeException("test")).when(l1).onMarketChange(key);
+
+        target.notifyMarketChange(key);
+        verifyNoMoreInteractions(l1, l2);
+
+        target.addListener(l1);
+        target.addListener(l2);
+        target.addListener(l2);
+        target.addListener(null);
+        target.notifyMarketChange(key);
+        verify(l1).onMarketChange(key);
+        verify(l2).onMarketChange(key);
+
+        target.removeListener(l1);
+        target.removeListener(null);
+        target.notifyMarketChange(key);
+        verify(l1).onMarketChange(key);
+        verify(l2, times(2)).onMarketChange(key);
+
+    }
+
+    @Test
+    public void testNotifyOrderChange() {
+
+        Key key = Key.builder().site("s").instrument("i").build();
+        Order order = mock(Order.class);
+        Context.Listener l1 = mock(Context.Listener.class);
+        Context.Listener l2 = mock(Context.Listener.class);
+        doThrow(new RuntimeException("test")).when(l1).onOrderChange(key, order);
+
+        target.addListener(l1);
+        target.addListener(l2);
+        target.notifyOrderChange(key, order);
+        verify(l1).onOrderChange(key, order);
+        verify(l2).onOrderChange(key, order);
+        verify(l2, never()).onMarketChange(any());
+
+    }
+
     @Test
     public void testGetNow() throws InterruptedException {
 
@@ -126,6 +211,20 @@ public class TemplateContextTest {
 
     }
 
+    @Test
+    public void testGetNonce() throws IOException {
+
+        doReturn(Instant.ofEpochMilli(1000)).when(target).getNow();
+
+        assertEquals(target.getNonce("k1"), 1000L);
+        assertEquals(target.getNonce("k1"), 1001L);
+        assertEquals(target.getNonce("k2"), 1000L);
+
+        doReturn(Instant.ofEpochMilli(2000)).when(target).getNow();
+        assertEquals(target.getNonce("k1"), 2000L);
+
+    }
+
     @Test
     public void testRequest() throws IOException {
 
@@ -152,6 +251,238 @@ public class TemplateContextTest {
 
     }
 
+    @Test
+    public void testRequest_Stream() throws Exception {
+
+        UndertowJaxrsServer server = new UndertowJaxrsServer().start();
+
+        try {
+
+            String url = "http://localhost:" + TestPortProvider.getPort();
+
+            server.deploy(TestApplication.class);
+
+            assertEquals(target.request(RequestType.GET, url + "/foo", null, null, CharStreams::toString), "{foo:bar}");
+
+            // Terminated early
+            char[] head = new char[3];
+            assertEquals(target.request(RequestType.GET, url + "/large", null, null, r -> r.read(head)), (Integer) 3);
+            assertEquals(new String(head), "[0,");
+
+            // Read through
+            assertEquals(target.request(RequestType.GET, url + "/large", null, null,
+                    r -> CharStreams.toString(r).length()), (Integer) 6888891);
+
+            try {
+                target.request(RequestType.GET, url + "/bar", null, null, CharStreams::toString);
+                fail();
+            } catch (IOException e) {
+                // Success
+            }
+
+            assertEquals(target.request(RequestType.GET, url + "/foo", null, null, CharStreams::toString), "{foo:bar}");
+
+        } finally {
+            server.stop();
+        }
+
+    }
+
+    @Test(timeOut = 10000)
+    public void testRequestAsync() throws Exception {
+
+        UndertowJaxrsServer server = new UndertowJaxrsServer().start();
+
+        try {
+
+            String url = "http://localhost:" + TestPortProvider.getPort();
+
+            server.deploy(TestApplication.class);
+
+            assertEquals(target.requestAsync(RequestType.GET, url + "/foo", null, null).get(), "{foo:bar}");
+
+            try {
+                target.requestAsync(RequestType.GET, url + "/bar", null, null).get();
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+
+            // Queued behind the in-flight.
+            when(configuration.getInt(endsWith(".inflight"), anyInt())).thenReturn(1);
+            Future<String> f1 = target.requestAsync(RequestType.GET, url + "/slow", null, null);
+            Future<String> f2 = target.requestAsync(RequestType.GET, url + "/foo", null, null);
+            Thread.sleep(100);
+            assertEquals(target.getInflight(), 1);
+            assertFalse(f2.isDone());
+            assertEquals(f1.get(), "{slow:true}");
+            assertEquals(f2.get(), "{foo:bar}");
+            while (target.getInflight() != 0) {
+                Thread.sleep(10); // Released after completion.
+            }
+
+            // Cancelled on timeout, releasing the queued.
+            long start = System.nanoTime();
+            Future<String> f3 = target.requestAsync(RequestType.GET, url + "/slow", null, null);
+            Future<String> f4 = target.requestAsync(RequestType.GET, url + "/foo?i=0", null, null);
+            try {
+                target.extract(f3, Duration.ofMillis(50));
+                fail();
+            } catch (TimeoutException e) {
+                assertTrue(f3.isCancelled());
+            }
+            assertEquals(f4.get(), "{foo:bar}");
+            assertTrue(System.nanoTime() - start < SECONDS.toNanos(1));
+
+        } finally {
+            server.stop();
+        }
+
+        // Closed
+        target.close();
+        try {
+            target.requestAsync(RequestType.GET, "http://localhost", null, null).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(target.getInflight(), 0);
+
+    }
+
+    @Test
+    public void testGetLane() {
+
+        assertEquals(target.getLane(RequestType.GET, "/"), RequestLane.DATA);
+        assertEquals(target.getLane(RequestType.PUT, "/"), RequestLane.ORDER);
+        assertEquals(target.getLane(RequestType.POST, "/"), RequestLane.ORDER);
+        assertEquals(target.getLane(RequestType.DELETE, "/"), RequestLane.ORDER);
+
+    }
+
+    @Test
+    public void testReserve() {
+
+        // Unlimited
+        assertEquals(target.reserve(RequestLane.DATA), 0L);
+        assertEquals(target.reserve(RequestLane.DATA), 0L);
+
+        // Limited with burst
+        when(configuration.getBigDecimal(endsWith(".ratelimit.data"), any())).thenReturn(new BigDecimal("0.001"));
+        when(configuration.getBigDecimal(endsWith(".ratelimit.data.burst"), any())).thenReturn(new BigDecimal("2"));
+        assertEquals(target.reserve(RequestLane.DATA), 0L);
+        assertEquals(target.reserve(RequestLane.DATA), 0L);
+        assertTrue(target.reserve(RequestLane.DATA) > SECONDS.toNanos(999));
+
+        // Other lane
+        assertEquals(target.reserve(RequestLane.ORDER), 0L);
+
+    }
+
+    @Test(timeOut = 10000)
+    public void testRequestAsync_Lanes() throws Exception {
+
+        UndertowJaxrsServer server = new UndertowJaxrsServer().start();
+
+        try {
+
+            String url = "http://localhost:" + TestPortProvider.getPort();
+
+            server.deploy(TestApplication.class);
+
+            // Coalesced
+            Future<String> f1 = target.requestAsync(RequestType.GET, url + "/slow", null, null);
+            Future<String> f2 = target.requestAsync(RequestType.GET, url + "/slow", null, null);
+            assertNotSame(f2, f1);
+            assertEquals(f1.get(), "{slow:true}");
+            assertEquals(f2.get(), "{slow:true}");
+            assertNotSame(target.requestAsync(RequestType.GET, url + "/foo", null, null), f1);
+            while (target.getInflight() != 0) {
+                Thread.sleep(10);
+            }
+
+            // Orders ahead of the market data.
+            when(configuration.getInt(endsWith(".inflight"), anyInt())).thenReturn(1);
+            Future<String> f3 = target.requestAsync(RequestType.GET, url + "/slow", null, null);
+            Future<String> f4 = target.requestAsync(RequestType.GET, url + "/foo?i=0", null, null);
+            Future<String> f5 = target.requestAsync(RequestType.POST, url + "/foo", null, null);
+            assertEquals(target.getQueued(RequestLane.DATA), 1);
+            assertEquals(target.getQueued(RequestLane.ORDER), 1);
+            assertEquals(f4.get(), "{foo:bar}");
+            assertTrue(f5.isDone());
+            assertEquals(f5.get(), "{foo:post}");
+            assertEquals(f3.get(), "{slow:true}");
+
+            // Deferred by the rate limit.
+            when(configuration.getInt(endsWith(".inflight"), anyInt())).thenReturn(64);
+            when(configuration.getBigDecimal(endsWith(".ratelimit.data"), any())).thenReturn(new BigDecimal("5"));
+            long start = System.nanoTime();
+            Future<String> f6 = target.requestAsync(RequestType.GET, url + "/foo?i=1", null, null);
+            Future<String> f7 = target.requestAsync(RequestType.GET, url + "/foo?i=2", null, null);
+            assertEquals(target.getQueued(RequestLane.DATA), 1);
+            assertEquals(f6.get(), "{foo:bar}");
+            assertEquals(f7.get(), "{foo:bar}");
+            assertTrue(System.nanoTime() - start >= MILLISECONDS.toNanos(150));
+            assertEquals(target.getQueued(RequestLane.DATA), 0);
+
+        } finally {
+            server.stop();
+        }
+
+    }
+
+    @Test(timeOut = 10000)
+    public void testRequestAsync_CoalescedTimeout() throws Exception {
+
+        UndertowJaxrsServer server = new UndertowJaxrsServer().start();
+
+        try {
+
+            String url = "http://localhost:" + TestPortProvider.getPort();
+
+            server.deploy(TestApplication.class);
+
+            // One of the waiters timing out does not cancel the other.
+            Future<String> f1 = target.requestAsync(RequestType.GET, url + "/slow", null, null);
+            Future<String> f2 = target.requestAsync(RequestType.GET, url + "/slow", null, null);
+            try {
+                target.extract(f1, Duration.ofMillis(50));
+                fail();
+            } catch (TimeoutException e) {
+                assertTrue(f1.isCancelled());
+            }
+            assertEquals(f2.get(), "{slow:true}");
+            assertFalse(f2.isCancelled());
+            while (target.getInflight() != 0) {
+                Thread.sleep(10);
+            }
+
+            // Aborted once all of the waiters have timed out.
+            long start = System.nanoTime();
+            Future<String> f3 = target.requestAsync(RequestType.GET, url + "/slow", null, null);
+            Future<String> f4 = target.requestAsync(RequestType.GET, url + "/slow", null, null);
+            for (Future<String> f : Arrays.asList(f3, f4)) {
+                try {
+                    target.extract(f, Duration.ofMillis(50));
+                    fail();
+                } catch (TimeoutException e) {
+                    assertTrue(f.isCancelled());
+                }
+            }
+            while (target.getInflight() != 0) {
+                Thread.sleep(10);
+            }
+            assertTrue(System.nanoTime() - start < SECONDS.toNanos(1));
+
+            // Not coalesced into the aborted.
+            assertEquals(target.requestAsync(RequestType.GET, url + "/slow", null, null).get(), "{slow:true}");
+
+        } finally {
+            server.stop();
+        }
+
+    }
+
     @Test
     public void testFindCached() throws Exception {
 
@@ -186,6 +517,215 @@ public class TemplateContextTest {
 
     }
 
+    @Test(timeOut = 10000)
+    public void testFindCached_Concurrent() throws Exception {
+
+        Key k1 = Key.builder().instrument("i1").build();
+        Key k2 = Key.builder().instrument("i2").build();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger count = new AtomicInteger();
+
+        Callable<BigDecimal> slow = () -> {
+            count.incrementAndGet();
+            loading.countDown();
+            release.await();
+            return ONE;
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+
+        try {
+
+            Future<BigDecimal> f1 = executor.submit(() -> target.findCached(BigDecimal.class, k1, slow));
+            loading.await();
+            Future<BigDecimal> f2 = executor.submit(() -> target.findCached(BigDecimal.class, k1, slow));
+
+            // Other key not blocked by the in-flight load.
+            Future<BigDecimal> f3 = executor.submit(() -> target.findCached(BigDecimal.class, k2, () -> TEN));
+            assertEquals(f3.get(5, SECONDS), TEN);
+            assertFalse(f1.isDone());
+
+            // Same key shares the in-flight load.
+            release.countDown();
+            assertEquals(f1.get(5, SECONDS), ONE);
+            assertEquals(f2.get(5, SECONDS), ONE);
+            assertEquals(count.get(), 1);
+
+        } finally {
+            executor.shutdownNow();
+        }
+
+    }
+
+    @Test(timeOut = 10000)
+    public void testFindCached_Stale() throws Exception {
+
+        ExecutorFactory factory = mock(ExecutorFactory.class);
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        when(factory.get(any(), anyInt())).thenReturn(executor);
+        target.setExecutorFactory(factory);
+
+        Instant t0 = Instant.now();
+        Key k0 = Key.builder().instrument("i").timestamp(t0).build();
+        Key k1 = Key.builder().instrument("i").timestamp(t0.plusSeconds(1)).build();
+        Key k2 = Key.builder().instrument("i").timestamp(t0.plusSeconds(2)).build();
+        CountDownLatch latch = new CountDownLatch(1);
+        when(configuration.getLong(endsWith(".stale.BigDecimal"), anyLong())).thenReturn(1000L);
+
+        // Initial load
+        doReturn(t0).when(target).getNow();
+        assertNull(target.getCachedAge(BigDecimal.class, k0));
+        assertEquals(target.findCached(BigDecimal.class, k0, () -> ONE), ONE);
+        assertEquals(target.getCachedAge(BigDecimal.class, k1), Duration.ZERO);
+
+        // Stale served, while revalidating.
+        doReturn(t0.plusMillis(500)).when(target).getNow();
+        assertEquals(target.findCached(BigDecimal.class, k1, () -> {
+            latch.await();
+            return TEN;
+        }), ONE);
+        assertEquals(target.getCachedAge(BigDecimal.class, k1), Duration.ofMillis(500));
+        assertEquals(target.findCached(BigDecimal.class, k1, () -> ONE), ONE); // Revalidation in-flight
+        latch.countDown();
+
+        while (target.getCachedAge(BigDecimal.class, k1).toMillis() != 0) {
+            Thread.sleep(10);
+        }
+        assertEquals(target.findCached(BigDecimal.class, k1, () -> ONE), TEN);
+
+        // Beyond the maximum staleness
+        doReturn(t0.plusMillis(1501)).when(target).getNow();
+        assertEquals(target.findCached(BigDecimal.class, k2, () -> BigDecimal.valueOf(2)), BigDecimal.valueOf(2));
+
+        // Not applicable to the other types.
+        Callable<String> c = mock(Callable.class);
+        when(c.call()).thenReturn("foo", "bar");
+        assertEquals(target.findCached(String.class, k0, c), "foo");
+        assertEquals(target.findCached(String.class, k1, c), "bar");
+
+        executor.shutdownNow();
+
+    }
+
+    @Test(timeOut = 10000)
+    public void testListCached_Stale() throws Exception {
+
+        ExecutorFactory factory = mock(ExecutorFactory.class);
+        ExecutorService executor = Executors.newFixedThreadPool(1);
+        when(factory.get(any(), anyInt())).thenReturn(executor);
+        target.setExecutorFactory(factory);
+
+        Instant t0 = Instant.now();
+        Key k0 = Key.builder().instrument("i").timestamp(t0).build();
+        Key k1 = Key.builder().instrument("i").timestamp(t0.plusSeconds(1)).build();
+        CountDownLatch latch = new CountDownLatch(1);
+        when(configuration.getLong(endsWith(".stale.BigDecimal"), anyLong())).thenReturn(1000L);
+
+        doReturn(t0).when(target).getNow();
+        assertEquals(target.listCached(BigDecimal.class, k0, () -> singletonList(ONE)), singletonList(ONE));
+
+        doReturn(t0.plusMillis(1000)).when(target).getNow();
+        assertEquals(target.listCached(BigDecimal.class, k1, () -> {
+            latch.await();
+            return singletonList(TEN);
+        }), singletonList(ONE));
+        latch.countDown();
+
+        while (target.getCachedAge(BigDecimal.class, k1).toMillis() != 0) {
+            Thread.sleep(10);
+        }
+        assertEquals(target.listCached(BigDecimal.class, k1, () -> null), singletonList(TEN));
+
+        executor.shutdownNow();
+
+    }
+
+    @Test
+    public void testFindCached_StaleWithoutExecutor() throws Exception {
+
+        Instant t0 = Instant.now();
+        Key k0 = Key.builder().instrument("i").timestamp(t0).build();
+        Key k1 = Key.builder().instrument("i").timestamp(t0.plusSeconds(1)).build();
+        when(configuration.getLong(endsWith(".stale.BigDecimal"), anyLong())).thenReturn(1000L);
+
+        doReturn(t0).when(target).getNow();
+        assertEquals(target.findCached(BigDecimal.class, k0, () -> ONE), ONE);
+
+        // Loaded in the calling thread.
+        doReturn(t0.plusMillis(500)).when(target).getNow();
+        assertEquals(target.findCached(BigDecimal.class, k1, () -> TEN), TEN);
+
+    }
+
+    @Test
+    public void testNormalize() {
+
+        Key key = Key.builder().site("s").instrument("i").timestamp(Instant.ofEpochMilli(12345)).build();
+        Key none = Key.builder().site("s").instrument("i").build();
+
+        when(configuration.getLong(endsWith(".freshness.BigDecimal"), anyLong())).thenAnswer(i -> i.getArguments()[1]);
+
+        // Not declared
+        assertEquals(target.getFreshness(BigDecimal.class), Duration.ZERO);
+        assertSame(target.normalize(BigDecimal.class, key), key);
+
+        // Declared
+        target.setFreshness(BigDecimal.class, Duration.ofMillis(1000));
+        assertEquals(target.getFreshness(BigDecimal.class), Duration.ofMillis(1000));
+        assertEquals(target.normalize(BigDecimal.class, key).getTimestamp(), Instant.ofEpochMilli(12000));
+        assertEquals(target.normalize(BigDecimal.class, key).getSite(), "s");
+        assertEquals(target.normalize(BigDecimal.class, key).getInstrument(), "i");
+        assertSame(target.normalize(BigDecimal.class, none), none);
+
+        // Overridden
+        when(configuration.getLong(endsWith(".freshness.BigDecimal"), anyLong())).thenReturn(200L);
+        assertEquals(target.getFreshness(BigDecimal.class), Duration.ofMillis(200));
+        assertEquals(target.normalize(BigDecimal.class, key).getTimestamp(), Instant.ofEpochMilli(12200));
+
+        // Disabled
+        when(configuration.getLong(endsWith(".freshness.BigDecimal"), anyLong())).thenReturn(-1L);
+        assertEquals(target.getFreshness(BigDecimal.class), Duration.ZERO);
+        assertSame(target.normalize(BigDecimal.class, key), key);
+
+        // Removed
+        when(configuration.getLong(endsWith(".freshness.BigDecimal"), anyLong())).thenAnswer(i -> i.getArguments()[1]);
+        target.setFreshness(BigDecimal.class, Duration.ZERO);
+        assertEquals(target.getFreshness(BigDecimal.class), Duration.ZERO);
+
+    }
+
+    @Test
+    public void testFindCached_Freshness() throws Exception {
+
+        Callable<BigDecimal> callable = mock(Callable.class);
+        when(callable.call()).thenReturn(ONE, TEN);
+        when(configuration.getLong(endsWith(".freshness.BigDecimal"), anyLong())).thenAnswer(i -> i.getArguments()[1]);
+
+        target.setFreshness(BigDecimal.class, Duration.ofMillis(1000));
+
+        Key k0 = Key.builder().instrument("i").timestamp(Instant.ofEpochMilli(5000)).build();
+        Key k1 = Key.builder().instrument("i").timestamp(Instant.ofEpochMilli(5999)).build();
+        Key k2 = Key.builder().instrument("i").timestamp(Instant.ofEpochMilli(6000)).build();
+
+        // Same bucket
+        assertEquals(target.findCached(BigDecimal.class, k0, callable), ONE);
+        assertEquals(target.findCached(BigDecimal.class, k1, callable), ONE);
+        verify(callable).call();
+
+        // Next bucket
+        assertEquals(target.findCached(BigDecimal.class, k2, callable), TEN);
+        verify(callable, times(2)).call();
+
+        // List of the same type
+        Callable<List<BigDecimal>> list = mock(Callable.class);
+        when(list.call()).thenReturn(singletonList(ONE), singletonList(TEN));
+        assertEquals(target.listCached(BigDecimal.class, k0, list), singletonList(ONE));
+        assertEquals(target.listCached(BigDecimal.class, k1, list), singletonList(ONE));
+        verify(list).call();
+
+    }
+
     @Test
     public void testListCached() throws Exception {
 
@@ -220,6 +760,120 @@ public class TemplateContextTest {
 
     }
 
+    @Test
+    public void testFindSnapshot() throws Exception {
+
+        Callable<List<BigDecimal>> callable = mock(Callable.class);
+        when(callable.call()).thenReturn(Arrays.asList(ONE, null, TEN), singletonList(ONE));
+        when(configuration.getLong(endsWith(".freshness.BigDecimal"), anyLong())).thenAnswer(i -> i.getArguments()[1]);
+
+        AtomicInteger indexed = new AtomicInteger();
+        Function<BigDecimal, String> ids = v -> {
+            indexed.incrementAndGet();
+            return v.toPlainString();
+        };
+
+        target.setFreshness(BigDecimal.class, Duration.ofMillis(1000));
+
+        Key k1 = Key.builder().site("s").instrument("1").timestamp(Instant.ofEpochMilli(5000)).build();
+        Key k2 = Key.builder().site("s").instrument("10").timestamp(Instant.ofEpochMilli(5999)).build();
+        Key k3 = Key.builder().site("s").instrument("1").timestamp(Instant.ofEpochMilli(6000)).build();
+
+        // Loaded and indexed once for all the instruments
+        assertEquals(target.findSnapshot(BigDecimal.class, k1, "1", ids, callable), ONE);
+        assertEquals(target.findSnapshot(BigDecimal.class, k2, "10", ids, callable), TEN);
+        assertEquals(target.findSnapshot(BigDecimal.class, k2, "2", ids, callable), null);
+        verify(callable).call();
+        assertEquals(indexed.get(), 2);
+
+        // Next window
+        assertEquals(target.findSnapshot(BigDecimal.class, k3, "10", ids, callable), null);
+        assertEquals(target.findSnapshot(BigDecimal.class, k3, "1", ids, callable), ONE);
+        verify(callable, times(2)).call();
+        assertEquals(indexed.get(), 3);
+
+        // Non-blocking, sharing the snapshot and the index.
+        Callable<CompletableFuture<List<BigDecimal>>> loader = mock(Callable.class);
+        assertEquals(target.findSnapshotAsync(BigDecimal.class, k3, "1", ids, loader).getNow(null), ONE);
+        verifyNoMoreInteractions(loader);
+        assertEquals(indexed.get(), 3);
+
+        // Invalid
+        assertEquals(target.findSnapshot(null, k1, "1", ids, callable), null);
+        assertEquals(target.findSnapshot(BigDecimal.class, null, "1", ids, callable), null);
+        assertEquals(target.findSnapshot(BigDecimal.class, k1, null, ids, callable), null);
+        assertEquals(target.findSnapshot(BigDecimal.class, k1, "1", null, callable), null);
+        assertEquals(target.findSnapshot(BigDecimal.class, k1, "1", ids, null), null);
+        assertEquals(target.findSnapshotAsync(BigDecimal.class, k1, "1", ids, null).get(), null);
+        verify(callable, times(2)).call();
+
+    }
+
+    private double sample(String name, String... values) {
+
+        String[] names = values.length == 3 ? new String[]{"site", "type", "reason"} : new String[]{"site", "type"};
+
+        Double value = registry.getSampleValue(name, names, values);
+
+        return value == null ? 0.0 : value;
+
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+
+        double hits = sample("cryptotrader_cache_hit_total", "test", "Short");
+        double misses = sample("cryptotrader_cache_miss_total", "test", "Short");
+        double retries = sample("cryptotrader_cache_retry_total", "test", "Short");
+        double failures = sample("cryptotrader_cache_failure_total", "test", "Short");
+        double fallbacks = sample("cryptotrader_cache_fallback_total", "test", "Short", "failure");
+        double loads = sample("cryptotrader_cache_load_milliseconds_count", "test", "Short");
+        double ages = sample("cryptotrader_cache_age_milliseconds_count", "test", "Short");
+
+        Key k0 = Key.builder().instrument("i").timestamp(Instant.ofEpochMilli(1)).build();
+        Key k1 = Key.builder().instrument("i").timestamp(Instant.ofEpochMilli(2)).build();
+        Callable<Short> callable = mock(Callable.class);
+        when(callable.call()).thenReturn((short) 1).thenThrow(new Exception("test"));
+
+        // Miss
+        assertEquals(target.findCached(Short.class, k0, callable), Short.valueOf((short) 1));
+        assertEquals(sample("cryptotrader_cache_miss_total", "test", "Short"), misses + 1);
+        assertEquals(sample("cryptotrader_cache_hit_total", "test", "Short"), hits);
+
+        // Hit
+        assertEquals(target.findCached(Short.class, k0, callable), Short.valueOf((short) 1));
+        assertEquals(sample("cryptotrader_cache_miss_total", "test", "Short"), misses + 1);
+        assertEquals(sample("cryptotrader_cache_hit_total", "test", "Short"), hits + 1);
+
+        // Failure, served with the last.
+        assertEquals(target.findCached(Short.class, k1, callable), Short.valueOf((short) 1));
+        assertEquals(sample("cryptotrader_cache_retry_total", "test", "Short"), retries + 2);
+        assertEquals(sample("cryptotrader_cache_failure_total", "test", "Short"), failures + 1);
+        assertEquals(sample("cryptotrader_cache_fallback_total", "test", "Short", "failure"), fallbacks + 1);
+        assertEquals(sample("cryptotrader_cache_load_milliseconds_count", "test", "Short"), loads + 1 + 3);
+        assertEquals(sample("cryptotrader_cache_age_milliseconds_count", "test", "Short"), ages + 3);
+
+        // Sizes
+        assertEquals(target.getCacheSizes(), singletonMap("Short", 2L));
+        target.listCached(Short.class, k0, () -> singletonList((short) 2));
+        assertEquals(target.getCacheSizes(), singletonMap("Short", 3L));
+        assertEquals(sample("cryptotrader_cache_size", "test", "Short"), 3.0);
+
+        // Queues
+        Double queued = registry.getSampleValue(
+                "cryptotrader_request_queue", new String[]{"site", "lane"}, new String[]{"test", "DATA"}
+        );
+        assertEquals(queued, 0.0);
+
+        // Already registered by the context injected first.
+        target.setCollectorRegistry(registry);
+
+        // Removed on close.
+        target.close();
+        assertEquals(sample("cryptotrader_cache_size", "test", "Short"), 0.0);
+
+    }
+
     @Test
     public void testRound() {
 
@@ -274,6 +928,95 @@ public class TemplateContextTest {
 
     }
 
+    @Test(timeOut = 10000)
+    public void testFindCachedAsync() throws Exception {
+
+        Key key = Key.from(null);
+        CompletableFuture<BigDecimal> f1 = new CompletableFuture<>();
+        Callable<CompletableFuture<BigDecimal>> loader = mock(Callable.class);
+        when(loader.call()).thenReturn(f1);
+
+        // Single load for the concurrent callers, completed when the response arrives.
+        CompletableFuture<BigDecimal> r1 = target.findCachedAsync(BigDecimal.class, key, loader);
+        CompletableFuture<BigDecimal> r2 = target.findCachedAsync(BigDecimal.class, key, loader);
+        assertFalse(r1.isDone());
+        assertFalse(r2.isDone());
+        f1.complete(ONE);
+        assertEquals(r1.get(), ONE);
+        assertEquals(r2.get(), ONE);
+        verify(loader).call();
+
+        // Shared with the blocking lookups, completed in the calling thread.
+        assertEquals(target.findCached(BigDecimal.class, key, () -> TEN), ONE);
+        assertEquals(target.findCachedAsync(BigDecimal.class, key, loader).getNow(null), ONE);
+        verify(loader).call();
+
+        target.clear();
+        assertEquals(target.findCached(BigDecimal.class, key, () -> TEN), TEN);
+        assertEquals(target.findCachedAsync(BigDecimal.class, key, loader).getNow(null), TEN);
+
+        // Retried, then falls back to the last value.
+        Key next = Key.builder().timestamp(Instant.now()).build();
+        CompletableFuture<BigDecimal> f2 = new CompletableFuture<>();
+        f2.completeExceptionally(new IOException("test"));
+        when(loader.call()).thenReturn(f2);
+        assertEquals(target.findCachedAsync(BigDecimal.class, next, loader).get(), TEN);
+        verify(loader, times(1 + 3)).call();
+
+        target.clear();
+        assertNull(target.findCachedAsync(null, key, loader).get());
+        assertNull(target.findCachedAsync(BigDecimal.class, null, loader).get());
+        verifyNoMoreInteractions(loader);
+
+        // Rejected
+        target.close();
+        assertTrue(target.findCachedAsync(BigDecimal.class, key, loader).isCompletedExceptionally());
+
+    }
+
+    @Test(timeOut = 10000)
+    public void testListCachedAsync() throws Exception {
+
+        Instant t0 = Instant.now();
+        Key k0 = Key.builder().instrument("i").timestamp(t0).build();
+        Key k1 = Key.builder().instrument("i").timestamp(t0.plusSeconds(1)).build();
+        when(configuration.getLong(endsWith(".stale.BigDecimal"), anyLong())).thenReturn(1000L);
+
+        doReturn(t0).when(target).getNow();
+        assertEquals(target.listCachedAsync(BigDecimal.class, k0,
+                () -> CompletableFuture.completedFuture(singletonList(ONE))).get(), singletonList(ONE));
+        assertEquals(target.listCached(BigDecimal.class, k0, () -> null), singletonList(ONE));
+
+        // Stale served, while loading.
+        CompletableFuture<List<BigDecimal>> future = new CompletableFuture<>();
+        doReturn(t0.plusMillis(500)).when(target).getNow();
+        assertEquals(target.listCachedAsync(BigDecimal.class, k1, () -> future).getNow(null), singletonList(ONE));
+        assertEquals(target.listCachedAsync(BigDecimal.class, k1, () -> null).getNow(null), singletonList(ONE));
+        future.complete(singletonList(TEN));
+        assertEquals(target.listCachedAsync(BigDecimal.class, k1, () -> null).getNow(null), singletonList(TEN));
+        assertEquals(target.getCachedAge(BigDecimal.class, k1), Duration.ZERO);
+
+    }
+
+    @Test
+    public void testGetMidPriceAsync() throws Exception {
+
+        Key key = Key.builder().instrument("foo").build();
+
+        CompletableFuture<BigDecimal> ask = new CompletableFuture<>();
+        doReturn(ask).when(target).getBestAskPriceAsync(key);
+        doReturn(CompletableFuture.completedFuture(ONE)).when(target).getBestBidPriceAsync(key);
+
+        CompletableFuture<BigDecimal> result = target.getMidPriceAsync(key);
+        assertFalse(result.isDone());
+        ask.complete(TEN);
+        assertEquals(result.get(), new BigDecimal("5.5"));
+
+        doReturn(CompletableFuture.completedFuture(null)).when(target).getBestAskPriceAsync(key);
+        assertNull(target.getMidPriceAsync(key).get());
+
+    }
+
     @Test
     public void testGetAskPrices() {
 
@@ -324,10 +1067,11 @@ public class TemplateContextTest {
     }
 
     @Test
-    public void testInterfaceMethods() throws ReflectiveOperationException {
+    public void testInterfaceMethods() throws Exception {
 
         Set<String> ignores = new HashSet<>(Arrays.asList(
-                "getState", "getMidPrice", "getAskPrices", "getBidPrices"
+                "getState", "getMidPrice", "getAskPrices", "getBidPrices",
+                "getMidPriceAsync", "getAskPricesAsync", "getBidPricesAsync"
         ));
 
         for (Method m : Context.class.getMethods()) {
@@ -344,6 +1088,10 @@ public class TemplateContextTest {
 
             Object result = m.invoke(target, args);
 
+            if (CompletableFuture.class.equals(m.getReturnType())) {
+                result = ((CompletableFuture<?>) result).get(5, SECONDS);
+            }
+
             assertNull(result, m.getName());
 
         }
@@ -4,10 +4,12 @@ import com.after_sunrise.cryptocurrency.cryptotrader.framework.Adviser.Advice;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Context.Key;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction;
+import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.AmendInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CancelInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Instruction.CreateInstruction;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Order;
 import com.after_sunrise.cryptocurrency.cryptotrader.framework.Request;
+import io.prometheus.client.CollectorRegistry;
 import org.apache.commons.configuration2.Configuration;
 import org.apache.commons.configuration2.MapConfiguration;
 import org.apache.commons.lang3.StringUtils;
@@ -19,6 +21,7 @@ import org.testng.annotations.Test;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.time.Duration;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
 import java.util.List;
@@ -50,6 +53,8 @@ public class TemplateInstructorTest {
 
     private Request.RequestBuilder builder;
 
+    private CollectorRegistry registry;
+
     @BeforeMethod
     public void setUp() throws Exception {
 
@@ -83,6 +88,10 @@ public class TemplateInstructorTest {
 
         target.setConfiguration(configuration);
 
+        registry = new CollectorRegistry();
+
+        target.setCollectorRegistry(registry);
+
     }
 
     @Test
@@ -90,6 +99,17 @@ public class TemplateInstructorTest {
         Assert.assertEquals(target.get(), "test");
     }
 
+    @Test
+    public void testSetCollectorRegistry() throws Exception {
+
+        assertTrue(Collections.list(registry.metricFamilySamples()).stream()
+                .anyMatch(s -> s.name.equals("cryptotrader_order_diff_total")));
+
+        // Shared by the instructors of the other sites.
+        new TemplateInstructor("other").setCollectorRegistry(registry);
+
+    }
+
     @Test
     public void testInstruct() throws Exception {
 
@@ -104,7 +124,7 @@ public class TemplateInstructorTest {
         doReturn(singletonList(i1)).when(target).createBuys(context, request, advice);
         doReturn(singletonList(i2)).when(target).createSells(context, request, advice);
         doReturn(cancels).when(target).createCancels(context, request);
-        doReturn(instructions).when(target).merge(asList(i1, i2), cancels);
+        doReturn(instructions).when(target).merge(context, request, asList(i1, i2), cancels);
 
         assertSame(target.instruct(context, request, advice), instructions);
 
@@ -419,7 +439,7 @@ public class TemplateInstructorTest {
         };
 
         initializer.run();
-        List<Instruction> results = target.merge(creates, cancels);
+        List<Instruction> results = target.merge(context, builder.build(), creates, cancels);
         assertEquals(results.size(), 8, StringUtils.join(results, '\n'));
         assertTrue(results.contains(cancel6));
         assertTrue(results.contains(cancel7));
@@ -434,7 +454,7 @@ public class TemplateInstructorTest {
         initializer.run();
         when(cancels.get(cancel2).getOrderPrice()).thenReturn(valueOf(0.0));
         when(cancels.get(cancel3).getRemainingQuantity()).thenReturn(valueOf(0.0));
-        results = target.merge(creates, cancels);
+        results = target.merge(context, builder.build(), creates, cancels);
         assertEquals(results.size(), 12, StringUtils.join(results, '\n'));
         assertTrue(results.contains(cancel2));
         assertTrue(results.contains(cancel3));
@@ -453,7 +473,7 @@ public class TemplateInstructorTest {
         initializer.run();
         when(cancels.get(cancel2).getOrderPrice()).thenReturn(null);
         when(cancels.get(cancel3).getRemainingQuantity()).thenReturn(null);
-        results = target.merge(creates, cancels);
+        results = target.merge(context, builder.build(), creates, cancels);
         assertEquals(results.size(), 12, StringUtils.join(results, '\n'));
         assertTrue(results.contains(cancel2));
         assertTrue(results.contains(cancel3));
@@ -477,7 +497,7 @@ public class TemplateInstructorTest {
 
             // Zero Tolerance
             configuration.clear();
-            results = target.merge(creates, cancels);
+            results = target.merge(context, builder.build(), creates, cancels);
             assertEquals(results.size(), 12, StringUtils.join(results, '\n'));
             assertTrue(results.contains(cancel2));
             assertTrue(results.contains(cancel3));
@@ -498,7 +518,7 @@ public class TemplateInstructorTest {
                     "com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateInstructor.threshold.price",
                     new BigDecimal("0.00000001")
             );
-            results = target.merge(creates, cancels);
+            results = target.merge(context, builder.build(), creates, cancels);
             assertEquals(results.size(), 12, StringUtils.join(results, '\n'));
             assertTrue(results.contains(cancel2));
             assertTrue(results.contains(cancel3));
@@ -520,7 +540,7 @@ public class TemplateInstructorTest {
                     "com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateInstructor.threshold.price",
                     new BigDecimal("0.01")
             );
-            results = target.merge(creates, cancels);
+            results = target.merge(context, builder.build(), creates, cancels);
             assertEquals(results.size(), 10, StringUtils.join(results, '\n'));
             assertTrue(results.contains(cancel3));
             assertTrue(results.contains(cancel6));
@@ -539,7 +559,7 @@ public class TemplateInstructorTest {
                     "com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateInstructor.threshold.size",
                     new BigDecimal("0.00000001")
             );
-            results = target.merge(creates, cancels);
+            results = target.merge(context, builder.build(), creates, cancels);
             assertEquals(results.size(), 12, StringUtils.join(results, '\n'));
             assertTrue(results.contains(cancel2));
             assertTrue(results.contains(cancel3));
@@ -560,7 +580,7 @@ public class TemplateInstructorTest {
                     "com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateInstructor.threshold.size",
                     new BigDecimal("0.01")
             );
-            results = target.merge(creates, cancels);
+            results = target.merge(context, builder.build(), creates, cancels);
             if (delta.signum() > 0) {
                 assertEquals(results.size(), 12, StringUtils.join(results, '\n'));
                 assertTrue(results.contains(cancel2));
@@ -593,4 +613,134 @@ public class TemplateInstructorTest {
 
     }
 
+    private double sample(String result) {
+
+        Double value = registry.getSampleValue(
+                "cryptotrader_order_diff_total", new String[]{"site", "result"}, new String[]{"s", result});
+
+        return value == null ? 0.0 : value;
+
+    }
+
+    @Test
+    public void testMerge_Tolerance() {
+
+        CreateInstruction buy = CreateInstruction.builder().price(new BigDecimal("100.000")).size(new BigDecimal("0.9")).build();
+        CreateInstruction sell = CreateInstruction.builder().price(new BigDecimal("101.000")).size(new BigDecimal("-0.9")).build();
+        List<CreateInstruction> creates = asList(buy, sell);
+
+        CancelInstruction cancel1 = CancelInstruction.builder().id("c1").build();
+        CancelInstruction cancel2 = CancelInstruction.builder().id("c2").build();
+        CancelInstruction cancel3 = CancelInstruction.builder().id("c3").build();
+        CancelInstruction cancel4 = CancelInstruction.builder().id("c4").build();
+        Map<CancelInstruction, Order> cancels = new IdentityHashMap<>();
+        cancels.put(cancel1, mock(Order.class)); // 2 ticks, 1 lot
+        cancels.put(cancel2, mock(Order.class)); // 1 tick, 0 lot
+        cancels.put(cancel3, mock(Order.class)); // 0 tick, exceeding
+        cancels.put(cancel4, mock(Order.class)); // 1 tick, 1 lot (sell)
+        when(cancels.get(cancel1).getOrderPrice()).thenReturn(new BigDecimal("100.006"));
+        when(cancels.get(cancel1).getRemainingQuantity()).thenReturn(new BigDecimal("0.6"));
+        when(cancels.get(cancel2).getOrderPrice()).thenReturn(new BigDecimal("99.997"));
+        when(cancels.get(cancel2).getRemainingQuantity()).thenReturn(new BigDecimal("0.9"));
+        when(cancels.get(cancel3).getOrderPrice()).thenReturn(new BigDecimal("100.000"));
+        when(cancels.get(cancel3).getRemainingQuantity()).thenReturn(new BigDecimal("1.2"));
+        when(cancels.get(cancel4).getOrderPrice()).thenReturn(new BigDecimal("101.003"));
+        when(cancels.get(cancel4).getRemainingQuantity()).thenReturn(new BigDecimal("-0.6"));
+
+        String prefix = "com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateInstructor.threshold.";
+
+        // Exact only
+        double kept = sample("kept");
+        double cancelled = sample("cancelled");
+        double created = sample("created");
+        List<Instruction> results = target.merge(context, builder.build(), creates, cancels);
+        assertEquals(results.size(), 6, StringUtils.join(results, '\n'));
+        assertEquals(sample("kept") - kept, 0.0);
+        assertEquals(sample("cancelled") - cancelled, 4.0);
+        assertEquals(sample("created") - created, 2.0);
+
+        // Within a tick and a lot
+        configuration.addProperty(prefix + "tick", 1);
+        configuration.addProperty(prefix + "lot", 1);
+        results = target.merge(context, builder.build(), creates, cancels);
+        assertEquals(results.size(), 2, StringUtils.join(results, '\n'));
+        assertTrue(results.contains(cancel1));
+        assertTrue(results.contains(cancel3));
+        assertEquals(sample("kept") - kept, 2.0);
+        assertEquals(sample("cancelled") - cancelled, 4.0 + 2.0);
+        assertEquals(sample("created") - created, 2.0);
+
+        // Nearest in price
+        configuration.setProperty(prefix + "tick", 2);
+        results = target.merge(context, builder.build(), creates, cancels);
+        assertEquals(results.size(), 2, StringUtils.join(results, '\n'));
+        assertTrue(results.contains(cancel1));
+        assertTrue(results.contains(cancel3));
+
+        // Within the ticks, but not the lots.
+        configuration.setProperty(prefix + "lot", 0);
+        results = target.merge(context, builder.build(), creates, cancels);
+        assertEquals(results.size(), 4, StringUtils.join(results, '\n'));
+        assertTrue(results.contains(cancel1));
+        assertTrue(results.contains(cancel3));
+        assertTrue(results.contains(cancel4));
+        assertTrue(results.contains(sell));
+
+        // Unknown tick size
+        configuration.setProperty(prefix + "lot", 1);
+        when(context.roundTickSize(any(), any(), any())).thenReturn(null);
+        results = target.merge(context, builder.build(), creates, cancels);
+        assertEquals(results.size(), 6, StringUtils.join(results, '\n'));
+
+    }
+
+    @Test
+    public void testMerge_Amend() {
+
+        CreateInstruction buy = CreateInstruction.builder().price(new BigDecimal("100.000")).size(new BigDecimal("0.9")).build();
+        CreateInstruction sell = CreateInstruction.builder().price(new BigDecimal("101.000")).size(new BigDecimal("-0.9")).strategy("s").build();
+        CreateInstruction market = CreateInstruction.builder().price(ZERO).size(new BigDecimal("0.1")).build();
+        List<CreateInstruction> creates = asList(buy, sell, market);
+
+        CancelInstruction cancel1 = CancelInstruction.builder().id("c1").build();
+        CancelInstruction cancel2 = CancelInstruction.builder().id("c2").build();
+        CancelInstruction cancel3 = CancelInstruction.builder().id("c3").build();
+        Map<CancelInstruction, Order> cancels = new IdentityHashMap<>();
+        cancels.put(cancel1, mock(Order.class)); // Buy, far
+        cancels.put(cancel2, mock(Order.class)); // Buy, near
+        cancels.put(cancel3, mock(Order.class)); // Sell
+        when(cancels.get(cancel1).getOrderPrice()).thenReturn(new BigDecimal("98"));
+        when(cancels.get(cancel1).getRemainingQuantity()).thenReturn(new BigDecimal("0.5"));
+        when(cancels.get(cancel2).getOrderPrice()).thenReturn(new BigDecimal("99"));
+        when(cancels.get(cancel2).getRemainingQuantity()).thenReturn(new BigDecimal("0.5"));
+        when(cancels.get(cancel3).getOrderPrice()).thenReturn(new BigDecimal("102"));
+        when(cancels.get(cancel3).getRemainingQuantity()).thenReturn(new BigDecimal("-0.5"));
+
+        // Disabled
+        List<Instruction> results = target.merge(context, builder.build(), creates, cancels);
+        assertEquals(results.size(), 6, StringUtils.join(results, '\n'));
+
+        // Enabled
+        double amended = sample("amended");
+        configuration.addProperty("com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateInstructor.amend", true);
+        results = target.merge(context, builder.build(), creates, cancels);
+        assertEquals(results.size(), 4, StringUtils.join(results, '\n'));
+        assertTrue(results.contains(cancel1));
+        assertTrue(results.contains(market));
+        assertEquals(sample("amended") - amended, 2.0);
+
+        AmendInstruction amendBuy = results.stream().filter(AmendInstruction.class::isInstance)
+                .map(AmendInstruction.class::cast).filter(a -> "c2".equals(a.getId())).findAny().get();
+        assertEquals(amendBuy.getPrice(), buy.getPrice());
+        assertEquals(amendBuy.getSize(), buy.getSize());
+        assertNull(amendBuy.getStrategy());
+
+        AmendInstruction amendSell = results.stream().filter(AmendInstruction.class::isInstance)
+                .map(AmendInstruction.class::cast).filter(a -> "c3".equals(a.getId())).findAny().get();
+        assertEquals(amendSell.getPrice(), sell.getPrice());
+        assertEquals(amendSell.getSize(), sell.getSize());
+        assertEquals(amendSell.getStrategy(), "s");
+
+    }
+
 }
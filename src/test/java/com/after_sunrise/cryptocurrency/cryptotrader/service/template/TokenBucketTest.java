@@ -0,0 +1,61 @@
+package com.after_sunrise.cryptocurrency.cryptotrader.service.template;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import static org.testng.Assert.assertEquals;
+
+/**
+ * @author takanori.takase
+ * @version 0.0.1
+ */
+public class TokenBucketTest {
+
+    private static final long SECOND = 1_000_000_000L;
+
+    private TokenBucket target;
+
+    @BeforeMethod
+    public void setUp() {
+        target = new TokenBucket();
+    }
+
+    @Test
+    public void testReserve() {
+
+        // Burst
+        assertEquals(target.reserve(2, 3, 0), 0L);
+        assertEquals(target.reserve(2, 3, 0), 0L);
+        assertEquals(target.reserve(2, 3, 0), 0L);
+
+        // Reserved ahead
+        assertEquals(target.reserve(2, 3, 0), SECOND / 2);
+        assertEquals(target.reserve(2, 3, 0), SECOND);
+
+        // Refilled
+        assertEquals(target.reserve(2, 3, SECOND), SECOND / 2);
+        assertEquals(target.reserve(2, 3, SECOND * 2), 0L);
+
+        // Capped by the burst
+        assertEquals(target.reserve(2, 3, SECOND * 100), 0L);
+        assertEquals(target.reserve(2, 3, SECOND * 100), 0L);
+        assertEquals(target.reserve(2, 3, SECOND * 100), 0L);
+        assertEquals(target.reserve(2, 3, SECOND * 100), SECOND / 2);
+
+    }
+
+    @Test
+    public void testReserve_Unlimited() {
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(target.reserve(0, 1, 0), 0L);
+            assertEquals(target.reserve(-1, 1, 0), 0L);
+        }
+
+        // Minimum burst
+        assertEquals(target.reserve(1, 0, 0), 0L);
+        assertEquals(target.reserve(1, 0, 0), SECOND);
+
+    }
+
+}
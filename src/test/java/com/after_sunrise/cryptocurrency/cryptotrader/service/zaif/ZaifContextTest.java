@@ -22,15 +22,16 @@ import java.util.concurrent.TimeUnit;
 
 import static com.after_sunrise.cryptocurrency.cryptotrader.framework.Service.CurrencyType.*;
 import static com.after_sunrise.cryptocurrency.cryptotrader.service.template.TemplateContext.RequestType.GET;
+import static com.after_sunrise.cryptocurrency.cryptotrader.service.zaif.ZaifContext.URL_DEPTH;
 import static com.after_sunrise.cryptocurrency.cryptotrader.service.zaif.ZaifContext.URL_TRADE;
 import static com.after_sunrise.cryptocurrency.cryptotrader.service.zaif.ZaifService.ID;
 import static com.after_sunrise.cryptocurrency.cryptotrader.service.zaif.ZaifService.ProductType.BTC_JPY;
 import static com.google.common.io.Resources.getResource;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static java.util.stream.Collectors.toSet;
 import static org.mockito.Mockito.*;
-import static org.testng.Assert.assertEquals;
-import static org.testng.Assert.assertNull;
+import static org.testng.Assert.*;
 
 /**
  * @author takanori.takase
@@ -198,6 +199,40 @@ public class ZaifContextTest {
 
     }
 
+    @Test
+    public void testQueryAsync() throws Exception {
+
+        Key key = Key.builder().instrument("BTC_JPY").build();
+        String depth = Resources.toString(getResource("json/zaif_depth.json"), UTF_8);
+        String trade = Resources.toString(getResource("json/zaif_trade.json"), UTF_8);
+        doReturn(completedFuture(depth)).when(target).requestAsync(URL_DEPTH + "btc_jpy");
+        doReturn(completedFuture(trade)).when(target).requestAsync(URL_TRADE + "btc_jpy");
+
+        // Shared with the blocking lookups.
+        ZaifDepth value = target.queryDepthAsync(key).get().get();
+        assertSame(target.queryDepth(key).get(), value);
+        assertEquals(target.getBestAskPriceAsync(key).get(), value.getAskPrices().firstKey());
+        assertEquals(target.getBestBidPriceAsync(key).get(), value.getBidPrices().firstKey());
+        assertEquals(target.getBestAskSizeAsync(key).get(), value.getAskPrices().firstEntry().getValue());
+        assertEquals(target.getBestBidSizeAsync(key).get(), value.getBidPrices().firstEntry().getValue());
+        assertEquals(target.getAskPricesAsync(key).get(), value.getAskPrices());
+        assertEquals(target.getBidPricesAsync(key).get(), value.getBidPrices());
+
+        List<Trade> trades = target.listTradesAsync(key, null).get();
+        assertEquals(trades.size(), 2);
+        assertEquals(target.listTrades(key, null), trades);
+        assertEquals(target.listTradesAsync(key, trades.get(0).getTimestamp()).get().size(), 1);
+        assertEquals(target.getLastPriceAsync(key).get(), trades.get(0).getPrice());
+        verify(target).requestAsync(URL_DEPTH + "btc_jpy");
+        verify(target).requestAsync(URL_TRADE + "btc_jpy");
+        verify(target, never()).request(any(), any(), any(), any());
+
+        // Not found
+        assertFalse(target.queryDepthAsync(Key.builder().instrument("FOO").build()).get().isPresent());
+        assertNull(target.listTradesAsync(Key.builder().instrument("FOO").build(), null).get());
+
+    }
+
     @Test
     public void testFindProduct() {
         assertEquals(target.findProduct(null, BTC, JPY), "BTC_JPY");
@@ -8,6 +8,8 @@ import com.after_sunrise.cryptocurrency.cryptotrader.web.ResteasyContextListener
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Gauge;
 import org.apache.commons.configuration2.MapConfiguration;
 import org.mockito.Mockito;
 import org.testng.annotations.BeforeMethod;
@@ -36,6 +38,8 @@ public class ResteasyContextListenerTest {
 
     private Trader trader;
 
+    private CollectorRegistry registry;
+
     @BeforeMethod
     public void setUp() {
 
@@ -45,11 +49,14 @@ public class ResteasyContextListenerTest {
 
         trader = mock(Trader.class);
 
+        registry = new CollectorRegistry();
+
         endpoint = new EndpointImpl(Guice.createInjector(new AbstractModule() {
             @Override
             protected void configure() {
                 bind(ConfigurationProvider.class).toInstance(provider);
                 bind(Trader.class).toInstance(trader);
+                bind(CollectorRegistry.class).toInstance(registry);
             }
         }));
 
@@ -149,6 +156,25 @@ public class ResteasyContextListenerTest {
 
     }
 
+    @Test
+    public void testEndpointImpl_getCacheSizes() {
+
+        assertEquals(endpoint.getCacheSizes(), "{}");
+
+        Gauge gauge = Gauge.build().name("cryptotrader_cache_size").help("test").labelNames("site", "type").create();
+        gauge.labels("s1", "t1").set(1);
+        gauge.labels("s1", "t2").set(2);
+        gauge.labels("s2", "t1").set(3);
+        registry.register(gauge);
+
+        Gauge other = Gauge.build().name("cryptotrader_other").help("test").labelNames("site", "type").create();
+        other.labels("s3", "t1").set(4);
+        registry.register(other);
+
+        assertEquals(endpoint.getCacheSizes(), "{\"s1\":{\"t1\":1,\"t2\":2},\"s2\":{\"t1\":3}}");
+
+    }
+
     @Test
     public void testEndpointImpl_getLaunchTime() {
         assertNotNull(endpoint.getLaunchTime());